@@ -0,0 +1,165 @@
+package org.todocode.ai._01_prompts;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * [TodoCode] 预编译版本的提示词模板
+ *
+ * <h3>背景:</h3>
+ * 和 {@link PromptTemplates} 输出完全相同，但模板在类加载时只解析一次 (见 {@link CompiledTemplate})。
+ * 每个方法都有两个版本:
+ * - 返回 String 的版本: 缓冲区按精确长度一次分配，不经过 Formatter
+ * - 追加到 StringBuilder 的版本: 调用方复用缓冲区 (例如每个请求线程一个)，稳态下没有分配
+ *
+ * <h3>易错点:</h3>
+ * 1. 系统提示词通常对一个应用是固定的: 用 {@link #systemPrompt(String, String)} 的结果缓存，
+ *    或用 {@link #bindSystemPrompt} 得到只剩静态文本的模板，不要每次请求都重新渲染。
+ * 2. 少样本提示词的示例数是可变的，它由"头部 + N 个示例 + 尾部"三个模板拼成，
+ *    返回 String 的版本先算出总长度再一次分配。
+ *
+ * <h3>核心理解:</h3>
+ * 模板是代码而不是数据: 能在启动时编译的，就不要在请求路径上解释。
+ *
+ * TODO: 示例集合也是固定的时候，能不能把整个少样本前缀缓存成一个字面量？
+ */
+public class CompiledPrompts {
+
+    public static final CompiledTemplate SYSTEM = CompiledTemplate.compile("""
+            You are {{role}}.
+
+            ## Rules:
+            {{constraints}}
+
+            ## Response Format:
+            - Be concise and direct
+            - Use bullet points for lists
+            - Provide code examples when relevant
+            """);
+
+    public static final CompiledTemplate CHAIN_OF_THOUGHT = CompiledTemplate.compile("""
+            Problem: {{problem}}
+
+            Let's solve this step by step:
+            1. First, identify the key components
+            2. Then, analyze each component
+            3. Finally, synthesize a solution
+
+            Think through each step carefully before providing the final answer.
+            """);
+
+    public static final CompiledTemplate STRUCTURED_OUTPUT = CompiledTemplate.compile("""
+            {{request}}
+
+            Respond ONLY with valid JSON matching this schema:
+            ```json
+            {{schema}}
+            ```
+
+            Do not include any text outside the JSON object.
+            """);
+
+    private static final CompiledTemplate FEW_SHOT_HEADER = CompiledTemplate.compile("Task: {{task}}\n\nExamples:\n");
+    private static final CompiledTemplate FEW_SHOT_EXAMPLE = CompiledTemplate.compile("Input: {{input}}\nOutput: {{output}}\n\n");
+    private static final String FEW_SHOT_FOOTER = "Now process the following:\n";
+
+    private static final String RETRIEVAL_HEADER = """
+            Answer the question using only the context below.
+            If the context does not contain the answer, say that you don't know.
+
+            ## Context:
+            """;
+    private static final CompiledTemplate RETRIEVAL_FOOTER = CompiledTemplate.compile("\n## Question:\n{{question}}\n");
+
+    public static String systemPrompt(String role, String constraints) {
+        return SYSTEM.render(role, constraints);
+    }
+
+    public static StringBuilder systemPrompt(StringBuilder out, String role, String constraints) {
+        return SYSTEM.renderTo(out, role, constraints);
+    }
+
+    /**
+     * 角色和规则都固定时，返回已经合并成静态文本的模板，之后的渲染就是一次整段复制。
+     */
+    public static CompiledTemplate bindSystemPrompt(String role, String constraints) {
+        return SYSTEM.bind("role", role).bind("constraints", constraints);
+    }
+
+    public static String fewShotPrompt(String task, Map<String, String> examples) {
+        return fewShotPrompt(task, examples.entrySet());
+    }
+
+    /**
+     * 示例按列表顺序逐条渲染。同一个输入可能出现多次 (例如同一问题的两种回答) 时用这个版本，
+     * Map 版本会把重复的输入合并成一条。
+     */
+    public static String fewShotPrompt(String task, List<? extends Map.Entry<String, String>> examples) {
+        return fewShotPrompt(task, (Collection<? extends Map.Entry<String, String>>) examples);
+    }
+
+    private static String fewShotPrompt(String task, Collection<? extends Map.Entry<String, String>> examples) {
+        return fewShotPrompt(new StringBuilder(fewShotLength(task, examples)), task, examples).toString();
+    }
+
+    /**
+     * 追加到复用的缓冲区。每个片段各自扩容，缓冲区够大之后就不再分配，
+     * 所以这里不像 String 版本那样先遍历一遍示例算总长度。
+     */
+    public static StringBuilder fewShotPrompt(StringBuilder out, String task, Map<String, String> examples) {
+        return fewShotPrompt(out, task, examples.entrySet());
+    }
+
+    private static StringBuilder fewShotPrompt(StringBuilder out, String task,
+                                               Collection<? extends Map.Entry<String, String>> examples) {
+        FEW_SHOT_HEADER.renderTo(out, task);
+        for (Map.Entry<String, String> example : examples) {
+            FEW_SHOT_EXAMPLE.renderTo(out, example.getKey(), example.getValue());
+        }
+        return out.append(FEW_SHOT_FOOTER);
+    }
+
+    private static int fewShotLength(String task, Collection<? extends Map.Entry<String, String>> examples) {
+        int length = FEW_SHOT_HEADER.length(task) + FEW_SHOT_FOOTER.length();
+        for (Map.Entry<String, String> example : examples) {
+            length += FEW_SHOT_EXAMPLE.length(example.getKey(), example.getValue());
+        }
+        return length;
+    }
+
+    public static String retrievalPrompt(String question, List<String> passages) {
+        int length = RETRIEVAL_HEADER.length() + RETRIEVAL_FOOTER.length(question);
+        for (String passage : passages) {
+            length += passage.length() + 6; // "[n] " 和换行，按两位数编号估算
+        }
+        return retrievalPrompt(new StringBuilder(length), question, passages).toString();
+    }
+
+    /**
+     * 段落编号直接 append(int)，不经过 Integer.toString，复用缓冲区时同样不分配。
+     */
+    public static StringBuilder retrievalPrompt(StringBuilder out, String question, List<String> passages) {
+        out.append(RETRIEVAL_HEADER);
+        for (int i = 0; i < passages.size(); i++) {
+            out.append('[').append(i + 1).append("] ").append(passages.get(i)).append('\n');
+        }
+        return RETRIEVAL_FOOTER.renderTo(out, question);
+    }
+
+    public static String chainOfThoughtPrompt(String problem) {
+        return CHAIN_OF_THOUGHT.render(problem);
+    }
+
+    public static StringBuilder chainOfThoughtPrompt(StringBuilder out, String problem) {
+        return CHAIN_OF_THOUGHT.renderTo(out, problem);
+    }
+
+    public static String structuredOutputPrompt(String request, String jsonSchema) {
+        return STRUCTURED_OUTPUT.render(request, jsonSchema);
+    }
+
+    public static StringBuilder structuredOutputPrompt(StringBuilder out, String request, String jsonSchema) {
+        return STRUCTURED_OUTPUT.renderTo(out, request, jsonSchema);
+    }
+}
@@ -0,0 +1,282 @@
+package org.todocode.ai._01_prompts;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * [TodoCode] 预编译提示词模板
+ *
+ * <h3>背景:</h3>
+ * PromptTemplates 的每次调用都通过 String.formatted 重新解析整段文本块:
+ * 创建 Formatter、用正则扫描格式说明符、逐段拼接，最后再复制成 String。
+ * 在高请求量下，模板渲染会出现在分配火焰图里。
+ * 这里把模板只解析一次，拆成"字面量段"和"槽位段":
+ * - 渲染只是按顺序追加字面量和参数，预先算好总长度，缓冲区一次分配到位
+ * - 可以渲染进调用方复用的 StringBuilder，或直接写入 Writer / ByteBuffer，不产生中间 String
+ * - 字面量预先编码成 UTF-8 字节，写 ByteBuffer 时直接整段复制
+ * - bind 把不变的参数 (如系统提示词的角色) 提前合并进字面量，之后每次渲染都是一次整段复制
+ *
+ * <h3>易错点:</h3>
+ * 1. 占位符用 {{name}} 而不是 {name}: 提示词里经常出现 JSON，单花括号会被误认为占位符。
+ * 2. 参数按 slotNames() 的顺序传入，热路径上不查 Map；Map 版本只用于不在热路径上的地方。
+ * 3. 复用的缓冲区不能跨线程共享，通常放在调用方的局部变量或 ThreadLocal 里。
+ *
+ * <h3>核心理解:</h3>
+ * 解析是一次性成本，渲染是每次请求的成本 —— 把能提前做的都放进 compile 和 bind。
+ *
+ * TODO: 用 -prof gc 对比 PromptTemplateBenchmark 中 formatted 与 renderTo 的 gc.alloc.rate.norm。
+ */
+public final class CompiledTemplate {
+
+    private static final String OPEN = "{{";
+    private static final String CLOSE = "}}";
+
+    /** literals.length == slotNames.length + 1，渲染顺序: literal0 slot0 literal1 slot1 ... literalN */
+    private final String[] literals;
+    private final byte[][] literalBytes;
+    private final String[] slotNames;
+    private final int literalLength;
+
+    private CompiledTemplate(String[] literals, String[] slotNames) {
+        this.literals = literals;
+        this.slotNames = slotNames;
+        this.literalBytes = new byte[literals.length][];
+        int length = 0;
+        for (int i = 0; i < literals.length; i++) {
+            literalBytes[i] = literals[i].getBytes(StandardCharsets.UTF_8);
+            length += literals[i].length();
+        }
+        this.literalLength = length;
+    }
+
+    /**
+     * 把模板解析成字面量段和槽位段。同名占位符可以出现多次，每次出现都是一个槽位。
+     */
+    public static CompiledTemplate compile(String template) {
+        List<String> literals = new ArrayList<>();
+        List<String> slots = new ArrayList<>();
+        int pos = 0;
+        while (true) {
+            int open = template.indexOf(OPEN, pos);
+            if (open < 0) {
+                break;
+            }
+            int close = template.indexOf(CLOSE, open + OPEN.length());
+            if (close < 0) {
+                throw new IllegalArgumentException("未闭合的占位符，位置 " + open);
+            }
+            String name = template.substring(open + OPEN.length(), close).strip();
+            if (name.isEmpty()) {
+                throw new IllegalArgumentException("空的占位符名，位置 " + open);
+            }
+            literals.add(template.substring(pos, open));
+            slots.add(name);
+            pos = close + CLOSE.length();
+        }
+        literals.add(template.substring(pos));
+        return new CompiledTemplate(literals.toArray(String[]::new), slots.toArray(String[]::new));
+    }
+
+    /**
+     * 槽位名，按渲染参数的顺序排列。
+     */
+    public List<String> slotNames() {
+        return List.of(slotNames);
+    }
+
+    /**
+     * 提前绑定一个参数: 该名字的所有槽位与相邻字面量合并，返回槽位更少的新模板。
+     * 全部绑定后模板退化成一个静态字面量，渲染就是一次整段复制。
+     */
+    public CompiledTemplate bind(String name, CharSequence value) {
+        List<String> newLiterals = new ArrayList<>();
+        List<String> newSlots = new ArrayList<>();
+        StringBuilder current = new StringBuilder(literals[0]);
+        boolean found = false;
+        for (int i = 0; i < slotNames.length; i++) {
+            if (slotNames[i].equals(name)) {
+                current.append(value).append(literals[i + 1]);
+                found = true;
+            } else {
+                newLiterals.add(current.toString());
+                newSlots.add(slotNames[i]);
+                current.setLength(0);
+                current.append(literals[i + 1]);
+            }
+        }
+        if (!found) {
+            throw new IllegalArgumentException("模板中没有槽位: " + name);
+        }
+        newLiterals.add(current.toString());
+        return new CompiledTemplate(newLiterals.toArray(String[]::new), newSlots.toArray(String[]::new));
+    }
+
+    /**
+     * 只有字面量、没有槽位时的完整文本 (例如全部绑定后的系统提示词)。
+     */
+    public String staticText() {
+        if (slotNames.length != 0) {
+            throw new IllegalStateException("模板还有未绑定的槽位: " + Arrays.toString(slotNames));
+        }
+        return literals[0];
+    }
+
+    /**
+     * 渲染结果的精确字符数，用于预先分配缓冲区。
+     */
+    public int length(CharSequence... values) {
+        checkArity(values);
+        int length = literalLength;
+        for (CharSequence v : values) {
+            length += v.length();
+        }
+        return length;
+    }
+
+    /**
+     * 渲染成 String，缓冲区按精确长度一次分配。
+     */
+    public String render(CharSequence... values) {
+        StringBuilder sb = new StringBuilder(length(values));
+        appendTo(sb, values);
+        return sb.toString();
+    }
+
+    /**
+     * 按槽位名渲染，便于不在热路径上的调用。
+     */
+    public String render(Map<String, ? extends CharSequence> values) {
+        CharSequence[] args = new CharSequence[slotNames.length];
+        for (int i = 0; i < slotNames.length; i++) {
+            args[i] = values.get(slotNames[i]);
+            if (args[i] == null) {
+                throw new IllegalArgumentException("缺少参数: " + slotNames[i]);
+            }
+        }
+        return render(args);
+    }
+
+    /**
+     * 追加到调用方复用的缓冲区，不产生任何中间对象。
+     */
+    public StringBuilder renderTo(StringBuilder out, CharSequence... values) {
+        out.ensureCapacity(out.length() + length(values));
+        appendTo(out, values);
+        return out;
+    }
+
+    /**
+     * 单参数的 renderTo。可变参数数组在方法没被内联时逃不过逃逸分析，
+     * 常见的 1~2 个槽位单独提供固定参数的版本，热路径上连这个数组也不分配。
+     */
+    public StringBuilder renderTo(StringBuilder out, CharSequence value) {
+        checkArity(1);
+        checkValue(value, 0);
+        out.ensureCapacity(out.length() + literalLength + value.length());
+        return out.append(literals[0]).append(value).append(literals[1]);
+    }
+
+    /**
+     * 两个参数的 renderTo，见 {@link #renderTo(StringBuilder, CharSequence)}。
+     */
+    public StringBuilder renderTo(StringBuilder out, CharSequence first, CharSequence second) {
+        checkArity(2);
+        checkValue(first, 0);
+        checkValue(second, 1);
+        out.ensureCapacity(out.length() + literalLength + first.length() + second.length());
+        return out.append(literals[0]).append(first).append(literals[1]).append(second).append(literals[2]);
+    }
+
+    private void appendTo(StringBuilder out, CharSequence[] values) {
+        out.append(literals[0]);
+        for (int i = 0; i < values.length; i++) {
+            out.append(values[i]).append(literals[i + 1]);
+        }
+    }
+
+    /**
+     * 直接写入 Writer (例如 HTTP 请求体)，不构造完整的 String。
+     */
+    public void writeTo(Writer out, CharSequence... values) throws IOException {
+        checkArity(values);
+        out.write(literals[0]);
+        for (int i = 0; i < values.length; i++) {
+            CharSequence v = values[i];
+            if (v instanceof String s) {
+                out.write(s);
+            } else {
+                out.append(v);
+            }
+            out.write(literals[i + 1]);
+        }
+    }
+
+    /**
+     * 以 UTF-8 编码直接写入 ByteBuffer。字面量是预先编码好的字节，整段复制。
+     *
+     * @throws BufferOverflowException 剩余空间不足
+     */
+    public void encodeTo(ByteBuffer out, CharSequence... values) {
+        checkArity(values);
+        out.put(literalBytes[0]);
+        for (int i = 0; i < values.length; i++) {
+            encodeUtf8(values[i], out);
+            out.put(literalBytes[i + 1]);
+        }
+    }
+
+    /**
+     * 不经过 CharsetEncoder (它每次都要分配) 的 UTF-8 编码。
+     */
+    static void encodeUtf8(CharSequence s, ByteBuffer out) {
+        int n = s.length();
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                out.put((byte) c);
+            } else if (c < 0x800) {
+                out.put((byte) (0xC0 | (c >> 6)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                out.put((byte) (0xF0 | (cp >> 18)));
+                out.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                out.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (cp & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                out.put((byte) '?'); // 孤立的代理字符，和 String.getBytes 的替换行为一致
+            } else {
+                out.put((byte) (0xE0 | (c >> 12)));
+                out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    private void checkArity(CharSequence[] values) {
+        checkArity(values.length);
+        for (int i = 0; i < values.length; i++) {
+            checkValue(values[i], i);
+        }
+    }
+
+    private void checkArity(int count) {
+        if (count != slotNames.length) {
+            throw new IllegalArgumentException("需要 " + slotNames.length + " 个参数 " + Arrays.toString(slotNames)
+                    + "，实际 " + count + " 个");
+        }
+    }
+
+    private void checkValue(CharSequence value, int slot) {
+        if (value == null) {
+            throw new IllegalArgumentException("参数不能为 null: " + slotNames[slot]);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package org.todocode.ai._01_prompts;
 
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -18,6 +19,7 @@ import java.util.Map;
  * - 少样本学习: 提供示例
  * - 思维链: 要求"逐步思考"
  * - 角色扮演: "你是...方面的专家"
+ * - 检索增强: 把检索到的资料编号后作为上下文
  */
 public class PromptTemplates {
 
@@ -86,4 +88,21 @@ public class PromptTemplates {
                 Do not include any text outside the JSON object.
                 """.formatted(request, jsonSchema);
     }
+
+    /**
+     * 检索增强 (RAG) 提示词: 检索到的段落编号后作为上下文，要求只依据上下文回答。
+     */
+    public static String retrievalPrompt(String question, List<String> passages) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Answer the question using only the context below.\n");
+        sb.append("If the context does not contain the answer, say that you don't know.\n\n");
+        sb.append("## Context:\n");
+
+        for (int i = 0; i < passages.size(); i++) {
+            sb.append("[").append(i + 1).append("] ").append(passages.get(i)).append("\n");
+        }
+
+        sb.append("\n## Question:\n").append(question).append("\n");
+        return sb.toString();
+    }
 }
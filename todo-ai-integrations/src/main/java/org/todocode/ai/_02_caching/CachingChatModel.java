@@ -0,0 +1,256 @@
+package org.todocode.ai._02_caching;
+
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.embedding.EmbeddingModel;
+import reactor.core.publisher.Flux;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * [TodoCode] 带精确缓存和语义缓存的 ChatModel 装饰器
+ *
+ * <h3>背景:</h3>
+ * 每个用 PromptTemplates 构造的提示词都要一次完整的往返和 token 费用，即使是重复的问题。
+ * 这里在任意 ChatModel 外面包两层缓存:
+ * - 精确层: 规范化后的提示词 (去掉首尾空白、统一换行符、去掉行尾空格) 取 SHA-256 作为键，带 TTL 的 LRU
+ * - 语义层: 对最后一条用户消息做 embedding，在内存向量索引里找最近邻，相似度超过阈值就复用回答
+ * 语义命中后会把结果也写进精确层，同样的措辞第二次出现时连 embedding 调用都省掉。
+ *
+ * <h3>易错点:</h3>
+ * 1. 模型、温度等选项不同的请求不能共享缓存，所以选项是键的一部分。
+ * 2. 语义层只对最后一条用户消息做 embedding，并且只在系统提示词和历史消息完全相同 (contextKey 相等)
+ *    的条目里找最近邻: 长系统提示词会主导 embedding，让完全不同的问题看起来很像。
+ * 3. 语义阈值宁高勿低。"把列表按升序排序"和"把列表按降序排序"的相似度可能超过 0.9，
+ *    阈值太低会返回一个看似合理但错误的回答，这比多花几个 token 糟糕得多。
+ * 4. embedding 调用本身也有延迟和费用，只有精确层未命中时才调用。
+ * 5. 流式调用不经过缓存，直接转发。
+ * 6. 规范化只去掉不可能影响回答的差异。缩进、空行和行内的空白对代码、YAML、表格是有意义的，
+ *    NFKC 会把全角符号、上标数字改写成别的字符: 合并了这些，就会把不同的提示词当成同一个，返回错误的回答。
+ *
+ * <h3>核心理解:</h3>
+ * 精确缓存是安全的优化，语义缓存是用正确性换成本的权衡 —— 阈值就是这个权衡的旋钮。
+ *
+ * TODO: 同一个问题并发到达时，所有请求都会未命中并各自调用模型，怎样合并成一次调用？
+ */
+public class CachingChatModel implements ChatModel {
+
+    private static final Pattern LINE_BREAK = Pattern.compile("\\r\\n?");
+    private static final Pattern TRAILING_SPACES = Pattern.compile("[ \\t]+$", Pattern.MULTILINE);
+
+    /**
+     * 缓存统计快照。
+     */
+    public record Stats(long requests, long exactHits, long semanticHits, long savedTokens) {
+        public long misses() {
+            return requests - exactHits - semanticHits;
+        }
+
+        public double hitRatio() {
+            return requests == 0 ? 0 : (double) (exactHits + semanticHits) / requests;
+        }
+    }
+
+    private record Entry(ChatResponse response, String contextKey, long tokens, long expiresAt) {
+        boolean expired(long now) {
+            return now - expiresAt >= 0;
+        }
+    }
+
+    private final ChatModel delegate;
+    private final EmbeddingModel embeddingModel; // 为 null 时只有精确层
+    private final long ttlNanos;
+    private final double similarityThreshold;
+    private final Map<String, Entry> exact;
+    private final InMemoryVectorIndex<Entry> semantic;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder exactHits = new LongAdder();
+    private final LongAdder semanticHits = new LongAdder();
+    private final LongAdder savedTokens = new LongAdder();
+
+    /**
+     * 只有精确层的缓存。
+     */
+    public CachingChatModel(ChatModel delegate, Duration ttl, int maxEntries) {
+        this(delegate, null, ttl, maxEntries, 1.0);
+    }
+
+    /**
+     * @param similarityThreshold 语义命中需要的最低余弦相似度，例如 0.95
+     */
+    public CachingChatModel(ChatModel delegate, EmbeddingModel embeddingModel, Duration ttl, int maxEntries,
+                            double similarityThreshold) {
+        if (maxEntries <= 0 || ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("maxEntries 和 ttl 必须大于 0");
+        }
+        if (similarityThreshold <= 0 || similarityThreshold > 1) {
+            throw new IllegalArgumentException("相似度阈值必须在 (0, 1] 之间: " + similarityThreshold);
+        }
+        this.delegate = delegate;
+        this.embeddingModel = embeddingModel;
+        this.ttlNanos = ttl.toNanos();
+        this.similarityThreshold = similarityThreshold;
+        this.exact = new LinkedHashMap<>(16, 0.75f, true) { // 访问顺序，和 LRUCache 一样
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        this.semantic = embeddingModel != null ? new InMemoryVectorIndex<>(maxEntries) : null;
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        requests.increment();
+        long now = System.nanoTime();
+        String optionsKey = optionsKey(prompt.getOptions());
+        List<Message> messages = prompt.getInstructions();
+        String exactKey = sha256(optionsKey + '\u0000' + normalize(messages, 0, messages.size()));
+
+        Entry hit = getExact(exactKey, now);
+        if (hit != null) {
+            exactHits.increment();
+            savedTokens.add(hit.tokens());
+            return hit.response();
+        }
+
+        float[] embedding = null;
+        String contextKey = null;
+        if (semantic != null && !messages.isEmpty() && messages.getLast().getMessageType() == MessageType.USER) {
+            contextKey = sha256(optionsKey + '\u0000' + normalize(messages, 0, messages.size() - 1));
+            embedding = embeddingModel.embed(normalizeText(messages.getLast().getText()));
+            String context = contextKey;
+            InMemoryVectorIndex.Match<Entry> match = semantic.nearest(embedding,
+                    e -> e.contextKey().equals(context) && !e.expired(now));
+            if (match != null && match.similarity() >= similarityThreshold) {
+                semanticHits.increment();
+                savedTokens.add(match.value().tokens());
+                putExact(exactKey, match.value());
+                return match.value().response();
+            }
+        }
+
+        ChatResponse response = delegate.call(prompt);
+        if (response != null && response.getResult() != null) {
+            Entry entry = new Entry(response, contextKey, tokens(prompt, response), System.nanoTime() + ttlNanos);
+            putExact(exactKey, entry);
+            if (embedding != null) {
+                semantic.add(embedding, entry);
+            }
+        }
+        return response;
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        return delegate.stream(prompt);
+    }
+
+    @Override
+    public ChatOptions getDefaultOptions() {
+        return delegate.getDefaultOptions();
+    }
+
+    public Stats stats() {
+        return new Stats(requests.sum(), exactHits.sum(), semanticHits.sum(), savedTokens.sum());
+    }
+
+    /**
+     * 清空两层缓存 (例如切换了底层模型版本)，统计保留。
+     */
+    public void invalidateAll() {
+        synchronized (exact) {
+            exact.clear();
+        }
+        if (semantic != null) {
+            semantic.clear();
+        }
+    }
+
+    private Entry getExact(String key, long now) {
+        synchronized (exact) {
+            Entry entry = exact.get(key);
+            if (entry != null && entry.expired(now)) {
+                exact.remove(key);
+                return null;
+            }
+            return entry;
+        }
+    }
+
+    private void putExact(String key, Entry entry) {
+        synchronized (exact) {
+            exact.put(key, entry);
+        }
+    }
+
+    /**
+     * 规范化 [from, to) 范围内的消息: 每条消息是"角色: 规范化文本"一行。
+     */
+    static String normalize(List<Message> messages, int from, int to) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = from; i < to; i++) {
+            Message message = messages.get(i);
+            sb.append(message.getMessageType().getValue()).append(": ")
+                    .append(normalizeText(message.getText())).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 换行符统一成 \n，去掉每行末尾的空格和制表符以及整段首尾的空白。
+     * 行内空白、缩进、空行和大小写都保留: 对代码、标识符和专有名词它们是有意义的。
+     */
+    static String normalizeText(String text) {
+        if (text == null) {
+            return "";
+        }
+        String lines = LINE_BREAK.matcher(text).replaceAll("\n");
+        return TRAILING_SPACES.matcher(lines).replaceAll("").strip();
+    }
+
+    private static String optionsKey(ChatOptions options) {
+        if (options == null) {
+            return "";
+        }
+        return options.getModel() + '|' + options.getTemperature() + '|' + options.getTopP() + '|'
+                + options.getTopK() + '|' + options.getMaxTokens() + '|' + options.getStopSequences() + '|'
+                + options.getFrequencyPenalty() + '|' + options.getPresencePenalty();
+    }
+
+    /**
+     * 用响应里的 usage 统计 token；模型没有返回 usage 时按约 4 个字符一个 token 估算。
+     */
+    private static long tokens(Prompt prompt, ChatResponse response) {
+        Usage usage = response.getMetadata() == null ? null : response.getMetadata().getUsage();
+        if (usage != null && usage.getTotalTokens() != null && usage.getTotalTokens() > 0) {
+            return usage.getTotalTokens();
+        }
+        String output = response.getResult().getOutput().getText();
+        return (prompt.getContents().length() + (output == null ? 0 : output.length())) / 4;
+    }
+
+    private static String sha256(String s) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(s.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("JDK 必须支持 SHA-256", e);
+        }
+    }
+}
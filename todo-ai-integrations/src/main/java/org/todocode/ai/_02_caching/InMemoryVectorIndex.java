@@ -0,0 +1,141 @@
+package org.todocode.ai._02_caching;
+
+import org.todocode.ai._06_retrieval.VectorKernels;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * [TodoCode] 内存向量索引 (暴力最近邻)
+ *
+ * <h3>背景:</h3>
+ * 语义缓存要回答"和这个提示词最像的历史提示词是哪个，有多像"。
+ * 向量全部放在一个连续的 float[] 里 (第 i 个向量占 [i*dim, (i+1)*dim))，
+ * 查询时顺序扫描做点积: 内存访问完全连续，几万条以内比任何树结构都快。
+ * 容量固定，写满后按环形缓冲覆盖最老的条目。
+ *
+ * <h3>易错点:</h3>
+ * 1. 写入时先把向量归一化，余弦相似度就退化成点积，查询时不用再算两个模长。
+ * 2. 不同 embedding 模型的维度不同，第一次写入后维度就固定了，混用会直接报错。
+ * 3. 读多写少，用读写锁；扫描期间不能有写入覆盖正在读的槽位。
+ *
+ * <h3>核心理解:</h3>
+ * 暴力扫描是 O(n·dim)，但它精确、没有构建成本，也是评估近似索引召回率的基准。
+ *
+ * TODO: 条目超过十万时扫描要多久？什么时候值得换成 HNSW？
+ */
+public class InMemoryVectorIndex<V> {
+
+    /**
+     * 一次查询的结果: 最相似的值和它的余弦相似度。
+     */
+    public record Match<V>(V value, double similarity) {
+    }
+
+    private final int capacity;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Object[] values;
+    private float[] vectors; // 第一次写入时按维度分配
+    private int dimensions;
+    private int size;
+    private int next; // 下一个写入 (或覆盖) 的槽位
+
+    public InMemoryVectorIndex(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("容量必须大于 0: " + capacity);
+        }
+        this.capacity = capacity;
+        this.values = new Object[capacity];
+    }
+
+    /**
+     * 写入一个向量；写满后覆盖最老的条目。
+     */
+    public void add(float[] vector, V value) {
+        float[] normalized = VectorKernels.normalize(vector);
+        lock.writeLock().lock();
+        try {
+            if (vectors == null) {
+                dimensions = vector.length;
+                vectors = new float[capacity * dimensions];
+            } else {
+                checkDimensions(vector);
+            }
+            System.arraycopy(normalized, 0, vectors, next * dimensions, dimensions);
+            values[next] = value;
+            next = (next + 1) % capacity;
+            size = Math.min(size + 1, capacity);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 返回相似度最高的条目；索引为空时返回 null。
+     */
+    public Match<V> nearest(float[] query) {
+        return nearest(query, v -> true);
+    }
+
+    /**
+     * 只在 filter 接受的条目中找相似度最高的 (例如跳过已过期的条目)；没有可接受的条目时返回 null。
+     */
+    @SuppressWarnings("unchecked")
+    public Match<V> nearest(float[] query, Predicate<? super V> filter) {
+        float[] q = VectorKernels.normalize(query);
+        lock.readLock().lock();
+        try {
+            if (size == 0) {
+                return null;
+            }
+            checkDimensions(query);
+            int best = -1;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < size; i++) {
+                double score = dot(q, vectors, i * dimensions);
+                if (score > bestScore && filter.test((V) values[i])) {
+                    bestScore = score;
+                    best = i;
+                }
+            }
+            return best < 0 ? null : new Match<>((V) values[best], bestScore);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            Arrays.fill(values, null);
+            size = 0;
+            next = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void checkDimensions(float[] vector) {
+        if (vector.length != dimensions) {
+            throw new IllegalArgumentException("向量维度不一致: 期望 " + dimensions + "，实际 " + vector.length);
+        }
+    }
+
+    private static double dot(float[] q, float[] data, int offset) {
+        float sum = 0;
+        for (int j = 0; j < q.length; j++) {
+            sum += q[j] * data[offset + j];
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,201 @@
+package org.todocode.ai._03_streaming;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.StreamingChatModel;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * [TodoCode] 端到端流式聊天 (WebFlux + SSE)
+ *
+ * <h3>背景:</h3>
+ * 一次完整的补全可能要十几秒，等全部生成完再返回，用户在这段时间里什么都看不到。
+ * 模型本身是逐 token 生成的，Spring AI 的 StreamingChatModel 把它暴露成 Flux&lt;ChatResponse&gt;。
+ * 这个服务把它一路转发到浏览器:
+ * - 模型输出作为 token 片段的 Flux 消费，过滤掉只有角色、没有内容的片段
+ * - 每个片段作为一个 SSE 事件写出，最后一个 done 事件带上本次的统计
+ * - 背压: limitRate 限制向上游预取的数量，客户端读得慢时 WebFlux 不再请求，
+ *   上游的 WebClient 随之停止读 socket，压力一直传回模型服务
+ * - 客户端断开时 WebFlux 取消订阅，取消信号沿链路传到 WebClient，关闭到模型服务的连接，不再为没人看的输出付费
+ * - 指标: 首 token 时间 (TTFT) 和每秒 token 数
+ *
+ * <h3>易错点:</h3>
+ * 1. 不要在链路里 collectList / block，那会把流式退化成一次性返回。
+ * 2. TTFT 从订阅开始算，而不是从方法调用开始: Flux 是惰性的，订阅前什么都没发生。
+ * 3. token 数按片段数近似 (OpenAI 的流式接口基本上一个片段一个 token)，精确值要看最后的 usage。
+ * 4. 客户端取消后不会再有 onComplete，完成、取消、失败要分别计数，不能只在 onComplete 里统计。
+ * 5. SSE 规范规定 "data:" 后面的第一个空格会被去掉，而 token 经常以空格开头 (" world")，
+ *    所以 token 事件的数据是 JSON 字符串，客户端用 JSON.parse 还原。
+ *
+ * <h3>核心理解:</h3>
+ * 流式不只是更快看到第一个字: 取消和背压让"用户不想要了"和"用户读不过来"都能传回源头。
+ *
+ * TODO: 代理和负载均衡器会缓冲或超时空闲的长连接，生成很慢时要不要定期发 SSE 注释作为心跳？
+ */
+public class StreamingChatService {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    /**
+     * 一次流式调用的统计，时间都从订阅开始算。
+     */
+    public record StreamStats(long ttftNanos, long tokens, long durationNanos) {
+        /**
+         * 首 token 之后的生成速度: 第一个 token 的等待已经算在 TTFT 里了。
+         */
+        public double tokensPerSecond() {
+            long generation = durationNanos - ttftNanos;
+            return tokens < 2 || generation <= 0 ? 0 : (tokens - 1) * 1e9 / generation;
+        }
+    }
+
+    private final StreamingChatModel model;
+    private final int prefetch;
+
+    private final Timer ttft;
+    private final DistributionSummary tokensPerSecond;
+    private final Counter completed;
+    private final Counter cancelled;
+    private final Counter failed;
+
+    /**
+     * @param prefetch 向模型预取的片段数上限
+     */
+    public StreamingChatService(String name, StreamingChatModel model, int prefetch, MeterRegistry registry) {
+        if (prefetch <= 0) {
+            throw new IllegalArgumentException("prefetch 必须大于 0: " + prefetch);
+        }
+        this.model = model;
+        this.prefetch = prefetch;
+        this.ttft = Timer.builder("todocode.llm.stream.ttft")
+                .description("从订阅到第一个 token 的时间")
+                .tag("service", name)
+                .register(registry);
+        this.tokensPerSecond = DistributionSummary.builder("todocode.llm.stream.tokens.per.second")
+                .description("首 token 之后的生成速度")
+                .tag("service", name)
+                .register(registry);
+        this.completed = Counter.builder("todocode.llm.stream.completed")
+                .description("正常结束的流")
+                .tag("service", name)
+                .register(registry);
+        this.cancelled = Counter.builder("todocode.llm.stream.cancelled")
+                .description("客户端中途取消的流")
+                .tag("service", name)
+                .register(registry);
+        this.failed = Counter.builder("todocode.llm.stream.failed")
+                .description("因错误结束的流")
+                .tag("service", name)
+                .register(registry);
+    }
+
+    /**
+     * 模型输出的 token 片段。
+     */
+    public Flux<String> stream(Prompt prompt) {
+        return streamWithStats(prompt).filter(Chunk::isToken).map(Chunk::text);
+    }
+
+    /**
+     * token 片段作为 "token" 事件 (数据是 JSON 字符串)，结束时追加一个带统计的 "done" 事件。
+     */
+    public Flux<ServerSentEvent<String>> sse(Prompt prompt) {
+        return streamWithStats(prompt).map(chunk -> chunk.isToken()
+                ? ServerSentEvent.builder(jsonString(chunk.text())).event("token").build()
+                : ServerSentEvent.builder(toJson(chunk.stats())).event("done").build());
+    }
+
+    /**
+     * GET /chat/stream?q=... 以 text/event-stream 返回。
+     */
+    public RouterFunction<ServerResponse> routes() {
+        return RouterFunctions.route()
+                .GET("/chat/stream", request -> request.queryParam("q")
+                        .filter(q -> !q.isBlank())
+                        .map(q -> ServerResponse.ok()
+                                .contentType(MediaType.TEXT_EVENT_STREAM)
+                                .body(BodyInserters.fromServerSentEvents(sse(new Prompt(q)))))
+                        .orElseGet(() -> ServerResponse.badRequest().bodyValue("缺少参数 q")))
+                .build();
+    }
+
+    /**
+     * token 片段，或者 (最后一个元素) 统计。
+     */
+    private record Chunk(String text, StreamStats stats) {
+        boolean isToken() {
+            return text != null;
+        }
+    }
+
+    /**
+     * 每次订阅都有自己的计时状态，所以用 defer 包起来。
+     */
+    private Flux<Chunk> streamWithStats(Prompt prompt) {
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            long[] firstToken = {0};
+            long[] tokens = {0};
+            Flux<Chunk> tokenChunks = model.stream(prompt)
+                    .limitRate(prefetch)
+                    .map(StreamingChatService::text)
+                    .filter(text -> !text.isEmpty())
+                    .doOnNext(text -> {
+                        if (tokens[0]++ == 0) {
+                            firstToken[0] = System.nanoTime();
+                            ttft.record(firstToken[0] - start, TimeUnit.NANOSECONDS);
+                        }
+                    })
+                    .map(text -> new Chunk(text, null));
+            Mono<Chunk> done = Mono.fromSupplier(() -> {
+                long end = System.nanoTime();
+                StreamStats stats = new StreamStats(tokens[0] == 0 ? 0 : firstToken[0] - start, tokens[0], end - start);
+                if (tokens[0] > 1) {
+                    tokensPerSecond.record(stats.tokensPerSecond());
+                }
+                completed.increment();
+                return new Chunk(null, stats);
+            });
+            return tokenChunks.concatWith(done)
+                    .doOnCancel(cancelled::increment)
+                    .doOnError(e -> failed.increment());
+        });
+    }
+
+    private static String text(ChatResponse response) {
+        if (response.getResult() == null || response.getResult().getOutput() == null) {
+            return "";
+        }
+        String text = response.getResult().getOutput().getText();
+        return text == null ? "" : text;
+    }
+
+    private static String jsonString(String text) {
+        try {
+            return JSON.writeValueAsString(text);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e); // String 总是可以序列化的
+        }
+    }
+
+    private static String toJson(StreamStats stats) {
+        return String.format(Locale.ROOT, "{\"ttftMs\":%.1f,\"tokens\":%d,\"tokensPerSecond\":%.1f}",
+                stats.ttftNanos() / 1e6, stats.tokens(), stats.tokensPerSecond());
+    }
+}
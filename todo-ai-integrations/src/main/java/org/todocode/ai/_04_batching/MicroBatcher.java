@@ -0,0 +1,257 @@
+package org.todocode.ai._04_batching;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+
+/**
+ * [TodoCode] LLM / embedding 调用的微批处理分发器
+ *
+ * <h3>背景:</h3>
+ * embedding 任务每个文档发一次 HTTP 请求: 往返时间被浪费 N 次，还很快撞上服务商的 RPM 限制。
+ * 而 embedding 接口一次能接收几百条输入，耗时几乎和一条一样。
+ * 这个分发器让调用方照旧一条一条地 submit，拿到自己的 CompletableFuture:
+ * - 一个分发线程把并发到达的请求攒成批: 攒够 maxBatchSize 条，或者第一条已经等了 maxLinger，就发出去
+ * - 发出前等待 RPM (每批 1 个) 和 TPM (批内 token 总数) 两个预算
+ * - 同时在途的批次数有上限，批次在虚拟线程里执行
+ * - 服务商按输入顺序返回结果，按下标分发回每个调用方的 future
+ *
+ * <h3>易错点:</h3>
+ * 1. linger 从批内第一条请求入队时算起，而不是从分发线程拿到它时算起:
+ *    等预算的这段时间里请求已经在排队了，不应该再额外等一个 linger。
+ * 2. 一批的 token 数不能超过 TPM 桶的容量，否则永远等不到预算；超出的那条留给下一批。
+ *    单条就超过容量的请求直接失败。
+ * 3. 调用方已经取消的 future 在组批时跳过，不浪费配额。
+ * 4. 一批失败时批内所有 future 都要失败，不能有调用方永远等下去。
+ *
+ * <h3>核心理解:</h3>
+ * 批处理用一点延迟 (最多 maxLinger) 换吞吐量和配额: 延迟是有上限的，省下的往返次数是成倍的。
+ *
+ * TODO: 服务商返回 429 时，应该把整批重新入队还是拆成更小的批？
+ */
+public class MicroBatcher<I, O> implements AutoCloseable {
+
+    /**
+     * 一次批量调用，结果必须与输入一一对应、顺序相同。
+     */
+    @FunctionalInterface
+    public interface BatchProvider<I, O> {
+        List<O> call(List<I> batch) throws Exception;
+    }
+
+    /**
+     * @param maxBatchSize       一批最多多少条
+     * @param maxLinger          批内第一条最多等多久
+     * @param requestsPerMinute  RPM 配额 (每批算一个请求)
+     * @param tokensPerMinute    TPM 配额
+     * @param burst              配额的突发窗口，见 {@link TokenBudget}
+     * @param maxInFlightBatches 同时在途的批次数
+     */
+    public record Limits(int maxBatchSize, Duration maxLinger, long requestsPerMinute, long tokensPerMinute,
+                         Duration burst, int maxInFlightBatches) {
+        public Limits {
+            if (maxBatchSize <= 0 || maxInFlightBatches <= 0 || maxLinger.isNegative()) {
+                throw new IllegalArgumentException("maxBatchSize、maxInFlightBatches 必须大于 0，maxLinger 不能为负");
+            }
+        }
+    }
+
+    private record Pending<I, O>(I item, int tokens, long enqueuedAt, CompletableFuture<O> future) {
+    }
+
+    private static final Pending<?, ?> SHUTDOWN = new Pending<>(null, 0, 0, null);
+
+    private final BatchProvider<I, O> provider;
+    private final ToIntFunction<? super I> tokenCounter;
+    private final Limits limits;
+    private final TokenBudget requestBudget;
+    private final TokenBudget tokenBudget;
+    private final Semaphore inFlight;
+    private final BlockingQueue<Pending<I, O>> queue = new LinkedBlockingQueue<>();
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Thread dispatcher;
+    private volatile boolean closed;
+
+    private final DistributionSummary batchSize;
+    private final Timer queueWait;
+    private final Timer throttled;
+    private final Counter failed;
+
+    /**
+     * @param tokenCounter 估算单条输入的 token 数，用于 TPM 预算
+     */
+    public MicroBatcher(String name, BatchProvider<I, O> provider, ToIntFunction<? super I> tokenCounter,
+                        Limits limits, MeterRegistry registry) {
+        this.provider = provider;
+        this.tokenCounter = tokenCounter;
+        this.limits = limits;
+        this.requestBudget = new TokenBudget(limits.requestsPerMinute(), limits.burst());
+        this.tokenBudget = new TokenBudget(limits.tokensPerMinute(), limits.burst());
+        this.inFlight = new Semaphore(limits.maxInFlightBatches());
+
+        this.batchSize = DistributionSummary.builder("todocode.batcher.batch.size")
+                .description("每批的条数")
+                .tag("batcher", name)
+                .register(registry);
+        this.queueWait = Timer.builder("todocode.batcher.queue.wait")
+                .description("从入队到随批发出的时间")
+                .tag("batcher", name)
+                .register(registry);
+        this.throttled = Timer.builder("todocode.batcher.throttled")
+                .description("批次等待 RPM/TPM 预算的时间")
+                .tag("batcher", name)
+                .register(registry);
+        this.failed = Counter.builder("todocode.batcher.failed")
+                .description("失败的批次数")
+                .tag("batcher", name)
+                .register(registry);
+
+        this.dispatcher = Thread.ofPlatform().name("batcher-" + name).daemon().start(this::dispatchLoop);
+    }
+
+    /**
+     * 提交一条输入，返回它自己的结果。
+     */
+    public CompletableFuture<O> submit(I item) {
+        if (closed) {
+            return CompletableFuture.failedFuture(new RejectedExecutionException("分发器已关闭"));
+        }
+        int tokens = tokenCounter.applyAsInt(item);
+        if (tokens > tokenBudget.capacity()) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException(
+                    "单条输入 " + tokens + " 个 token，超过了一批的上限 " + tokenBudget.capacity()));
+        }
+        CompletableFuture<O> future = new CompletableFuture<>();
+        queue.add(new Pending<>(item, tokens, System.nanoTime(), future));
+        return future;
+    }
+
+    /**
+     * 不再接受新请求，把已经入队的请求全部发出，等待在途批次完成。
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public void close() throws InterruptedException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        queue.add((Pending<I, O>) SHUTDOWN);
+        dispatcher.join();
+        executor.close();
+        // 与 close 并发的 submit 可能在分发线程退出后才入队
+        Pending<I, O> late;
+        while ((late = queue.poll()) != null) {
+            if (late != SHUTDOWN) {
+                late.future().completeExceptionally(new RejectedExecutionException("分发器已关闭"));
+            }
+        }
+    }
+
+    private void dispatchLoop() {
+        Pending<I, O> carry = null;
+        boolean shuttingDown = false;
+        try {
+            while (true) {
+                Pending<I, O> first = carry != null ? carry : queue.take();
+                carry = null;
+                if (first == SHUTDOWN) {
+                    if (queue.isEmpty()) {
+                        return;
+                    }
+                    shuttingDown = true;
+                    continue;
+                }
+                List<Pending<I, O>> batch = new ArrayList<>(limits.maxBatchSize());
+                long batchTokens = 0;
+                if (!first.future().isDone()) {
+                    batch.add(first);
+                    batchTokens = first.tokens();
+                }
+                long deadline = first.enqueuedAt() + limits.maxLinger().toNanos();
+                while (batch.size() < limits.maxBatchSize()) {
+                    long remaining = shuttingDown ? 0 : deadline - System.nanoTime();
+                    Pending<I, O> next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    if (next == SHUTDOWN) {
+                        shuttingDown = true;
+                        continue;
+                    }
+                    if (next.future().isDone()) {
+                        continue; // 调用方已经取消
+                    }
+                    if (batchTokens + next.tokens() > tokenBudget.capacity()) {
+                        carry = next;
+                        break;
+                    }
+                    batch.add(next);
+                    batchTokens += next.tokens();
+                }
+                if (!batch.isEmpty()) {
+                    dispatch(batch, batchTokens);
+                }
+                if (shuttingDown && carry == null && queue.isEmpty()) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void dispatch(List<Pending<I, O>> batch, long tokens) throws InterruptedException {
+        inFlight.acquire();
+        long waitStart = System.nanoTime();
+        try {
+            // 先拿到的 RPM 令牌在等 TPM 期间不还回去: 这一批迟早要发，它本来就会被用掉
+            requestBudget.acquire(1);
+            tokenBudget.acquire(tokens);
+        } catch (InterruptedException e) {
+            inFlight.release();
+            throw e;
+        }
+        long now = System.nanoTime();
+        throttled.record(now - waitStart, TimeUnit.NANOSECONDS);
+        batchSize.record(batch.size());
+        List<I> inputs = new ArrayList<>(batch.size());
+        for (Pending<I, O> p : batch) {
+            queueWait.record(now - p.enqueuedAt(), TimeUnit.NANOSECONDS);
+            inputs.add(p.item());
+        }
+        executor.execute(() -> {
+            try {
+                List<O> results = provider.call(inputs);
+                if (results == null || results.size() != batch.size()) {
+                    throw new IllegalStateException("批量调用返回了 " + (results == null ? 0 : results.size())
+                            + " 个结果，期望 " + batch.size() + " 个");
+                }
+                for (int i = 0; i < batch.size(); i++) {
+                    batch.get(i).future().complete(results.get(i));
+                }
+            } catch (Throwable t) {
+                failed.increment();
+                for (Pending<I, O> p : batch) {
+                    p.future().completeExceptionally(t);
+                }
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+}
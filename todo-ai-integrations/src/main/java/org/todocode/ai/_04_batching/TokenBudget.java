@@ -0,0 +1,99 @@
+package org.todocode.ai._04_batching;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * [TodoCode] 按分钟计的加权令牌桶
+ *
+ * <h3>背景:</h3>
+ * 和 system-design 模块的 TokenBucketRateLimiter 是同一个思路，但针对 LLM 服务商的配额做了两点调整:
+ * - 加权: 一次请求消耗的不是 1 个令牌，而是它的 token 数 (TPM) 或 1 (RPM)
+ * - 突发窗口: 配额按"每分钟"公布，但服务商通常按更细的粒度执行 (60 RPM 可能按每秒 1 个检查)，
+ *   所以桶容量不是整分钟的配额，而是 burst 窗口内的份额
+ *
+ * <h3>易错点:</h3>
+ * 1. 用 double 记录令牌数和补充速率。整数除法会把 "每纳秒 0.000001 个" 截断成 0，
+ *    TokenBucketRateLimiter 靠"攒够一个整令牌才更新时间戳"绕开这个问题，加权之后这样做误差太大。
+ * 2. 一次请求的消耗超过桶容量时永远拿不到，调用方必须把批次切得比容量小。
+ * 3. "先问 nanosUntil 再 tryAcquire" 不是原子的，必须检查 tryAcquire 的返回值:
+ *    忽略它就会在预算不够时照样发请求，见 {@link #acquire}。
+ *
+ * <h3>核心理解:</h3>
+ * nanosUntil 告诉调用方"还要等多久"，而不是让它轮询 tryAcquire。
+ *
+ * TODO: 服务商在 429 响应头里返回剩余配额和重置时间，怎样用它校正本地的估计？
+ */
+public class TokenBudget {
+
+    private final double capacity;
+    private final double perNano;
+    private double available;
+    private long lastRefill;
+
+    /**
+     * @param perMinute 每分钟的配额
+     * @param burst     允许一次性用掉多长时间的配额，例如 1 秒
+     */
+    public TokenBudget(long perMinute, Duration burst) {
+        if (perMinute <= 0 || burst.isNegative() || burst.isZero()) {
+            throw new IllegalArgumentException("配额和突发窗口必须大于 0");
+        }
+        this.perNano = perMinute / 60e9;
+        this.capacity = Math.max(1, perNano * burst.toNanos());
+        this.available = capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * 桶容量，也就是一次能消耗的最大令牌数。
+     */
+    public long capacity() {
+        return (long) capacity;
+    }
+
+    /**
+     * 要拿到 n 个令牌还需要等多少纳秒，0 表示现在就够。
+     */
+    public synchronized long nanosUntil(long n) {
+        refill();
+        if (available >= n) {
+            return 0;
+        }
+        return (long) Math.ceil((n - available) / perNano);
+    }
+
+    /**
+     * 令牌够就扣掉并返回 true，否则什么也不做。
+     */
+    public synchronized boolean tryAcquire(long n) {
+        refill();
+        if (available >= n) {
+            available -= n;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 等到令牌够了再扣掉。nanosUntil 返回 0 不代表之后的 tryAcquire 一定成功
+     * (桶可能被几个分发器共用，别人先拿走了)，所以以 tryAcquire 的结果为准，失败就重新计算等待时间。
+     */
+    public void acquire(long n) throws InterruptedException {
+        if (n > capacity) {
+            throw new IllegalArgumentException("一次消耗 " + n + " 个令牌，超过了桶容量 " + capacity());
+        }
+        while (!tryAcquire(n)) {
+            long wait = nanosUntil(n);
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        available = Math.min(capacity, available + (now - lastRefill) * perNano);
+        lastRefill = now;
+    }
+}
@@ -0,0 +1,508 @@
+package org.todocode.ai._05_tokens;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * [TodoCode] 字节级 BPE 分词器
+ *
+ * <h3>背景:</h3>
+ * 上下文窗口和计费都按 token 算，但 PromptTemplates 只知道字符数。
+ * 调一次服务商的接口来数 token 太慢，这里在本地实现 tiktoken 同款的字节级 BPE:
+ * 1. 预分词: 把文本切成"可选前导空格 + 单词"、"最多 3 位数字"、"标点串"、"空白"等片段
+ * 2. 每个片段编码成 UTF-8 字节，从单字节开始，反复合并 rank 最小的相邻字节对，直到没有可合并的
+ * 3. 合并结果的 rank 就是 token id
+ * 词表文件是 tiktoken 格式 (每行 "base64(token 字节) rank")，可以直接加载 cl100k_base.tiktoken。
+ * 自带的 todocode-4k 词表是用英文文档和本仓库源码训练的 4k 小词表，只用于演示和测试。
+ *
+ * <h3>易错点:</h3>
+ * 1. 预分词规则是 cl100k 正则的手写近似 (不用正则，也就没有 Matcher 和子串分配)，
+ *    加载官方词表时计数可能和服务商有个位数的差异，做预算时要留余量。
+ * 2. 真实文本里片段高度重复 (" the"、" return"、"\n    ")，
+ *    Encoder 按片段字节缓存合并结果，命中时不分配任何对象；查表用字节区间比较，不构造 key。
+ * 3. Encoder 持有可复用的缓冲区和缓存，不是线程安全的: 每个线程一个，不要共享。
+ * 4. 按 token 截断后再解码，末尾可能是半个多字节字符，解码会得到 U+FFFD。
+ *
+ * <h3>核心理解:</h3>
+ * 合并顺序由 rank 决定而不是由出现次数决定: rank 越小的合并在训练时越早学到，编码时也越先执行。
+ *
+ * TODO: 一个很长的没有空格的片段 (base64、压缩后的 JS) 会让朴素合并退化成 O(n²)，怎样改成堆？
+ */
+public final class BpeTokenizer {
+
+    /** 自带的演示词表 (classpath 资源)。 */
+    public static final String DEFAULT_VOCABULARY = "/bpe/todocode-4k.tiktoken";
+
+    private final byte[][] tokens; // rank -> 字节
+    private final RankTable ranks;
+
+    private BpeTokenizer(byte[][] tokens) {
+        this.tokens = tokens;
+        this.ranks = new RankTable(tokens);
+        for (int b = 0; b < 256; b++) {
+            if (ranks.get(new byte[]{(byte) b}, 0, 1) < 0) {
+                throw new IllegalArgumentException("词表缺少单字节 token: " + b + "，不是字节级 BPE 词表");
+            }
+        }
+    }
+
+    /**
+     * 从 classpath 资源加载 tiktoken 格式的词表。
+     */
+    public static BpeTokenizer fromResource(String resource) throws IOException {
+        try (InputStream in = BpeTokenizer.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IOException("找不到词表资源: " + resource);
+            }
+            return load(in);
+        }
+    }
+
+    /**
+     * 读取 tiktoken 格式: 每行 "base64(token 字节) rank"，rank 必须从 0 开始连续。
+     */
+    public static BpeTokenizer load(InputStream in) throws IOException {
+        List<byte[]> list = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isBlank()) {
+                continue;
+            }
+            int space = line.indexOf(' ');
+            int rank = Integer.parseInt(line.substring(space + 1).trim());
+            if (rank != list.size()) {
+                throw new IOException("rank 不连续: 期望 " + list.size() + "，实际 " + rank);
+            }
+            list.add(Base64.getDecoder().decode(line.substring(0, space)));
+        }
+        return new BpeTokenizer(list.toArray(byte[][]::new));
+    }
+
+    /**
+     * 自带演示词表的单例。
+     */
+    public static BpeTokenizer defaultTokenizer() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    private static final class DefaultHolder {
+        static final BpeTokenizer INSTANCE;
+
+        static {
+            try {
+                INSTANCE = fromResource(DEFAULT_VOCABULARY);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    public int vocabularySize() {
+        return tokens.length;
+    }
+
+    /**
+     * 带缓存的编码器，缓存最多 cacheEntries 个片段；0 表示不缓存。
+     */
+    public Encoder newEncoder(int cacheEntries) {
+        return new Encoder(cacheEntries);
+    }
+
+    public Encoder newEncoder() {
+        return new Encoder(4096);
+    }
+
+    /**
+     * 便捷方法，每次创建一个不带缓存的编码器。热路径上应该复用 {@link Encoder}。
+     */
+    public int countTokens(CharSequence text) {
+        return new Encoder(0).countTokens(text);
+    }
+
+    public int[] encode(CharSequence text) {
+        return new Encoder(0).encode(text);
+    }
+
+    public String decode(int[] ids) {
+        return decode(ids, 0, ids.length);
+    }
+
+    public String decode(int[] ids, int from, int to) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = from; i < to; i++) {
+            out.writeBytes(tokens[ids[i]]);
+        }
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 可复用的编码器，持有字符、字节、合并用的缓冲区和片段缓存。不是线程安全的。
+     */
+    public final class Encoder {
+        private char[] chars = new char[1024];
+        private byte[] bytes = new byte[256];
+        private int[] bounds = new int[257];  // 当前各段的起始偏移，最后一个是片段长度
+        private int[] pairRanks = new int[256]; // 第 i 段和第 i+1 段合并后的 rank，不可合并为 MAX_VALUE
+        private final PieceCache cache;
+        private int[] out = new int[64];
+        private int outSize;
+
+        private Encoder(int cacheEntries) {
+            this.cache = cacheEntries > 0 ? new PieceCache(cacheEntries) : null;
+        }
+
+        public int countTokens(CharSequence text) {
+            int len = load(text);
+            return run(chars, 0, len, null);
+        }
+
+        public int countTokens(char[] text, int off, int len) {
+            return run(text, off, len, null);
+        }
+
+        /**
+         * 把 token id 逐个交给 sink，返回 token 数。
+         */
+        public int encode(char[] text, int off, int len, IntConsumer sink) {
+            return run(text, off, len, sink);
+        }
+
+        public int[] encode(CharSequence text) {
+            int len = load(text);
+            outSize = 0;
+            run(chars, 0, len, this::append);
+            return Arrays.copyOf(out, outSize);
+        }
+
+        private void append(int id) {
+            if (outSize == out.length) {
+                out = Arrays.copyOf(out, out.length * 2);
+            }
+            out[outSize++] = id;
+        }
+
+        private int load(CharSequence text) {
+            int len = text.length();
+            if (chars.length < len) {
+                chars = new char[Math.max(len, chars.length * 2)];
+            }
+            if (text instanceof String s) {
+                s.getChars(0, len, chars, 0);
+            } else {
+                for (int i = 0; i < len; i++) {
+                    chars[i] = text.charAt(i);
+                }
+            }
+            return len;
+        }
+
+        private int run(char[] text, int off, int len, IntConsumer sink) {
+            int end = off + len;
+            int count = 0;
+            int i = off;
+            while (i < end) {
+                int pieceEnd = nextPiece(text, i, end);
+                count += encodePiece(text, i, pieceEnd, sink);
+                i = pieceEnd;
+            }
+            return count;
+        }
+
+        private int encodePiece(char[] text, int from, int to, IntConsumer sink) {
+            int n = utf8(text, from, to);
+            int whole = ranks.get(bytes, 0, n);
+            if (whole >= 0) { // 整个片段就是一个 token，最常见的情况
+                if (sink != null) {
+                    sink.accept(whole);
+                }
+                return 1;
+            }
+            if (cache != null) {
+                int[] cached = cache.get(bytes, n);
+                if (cached != null) {
+                    if (sink != null) {
+                        for (int id : cached) {
+                            sink.accept(id);
+                        }
+                    }
+                    return cached.length;
+                }
+            }
+            int parts = merge(n);
+            if (cache != null && n <= PieceCache.MAX_KEY_BYTES) {
+                int[] ids = new int[parts];
+                for (int p = 0; p < parts; p++) {
+                    ids[p] = ranks.get(bytes, bounds[p], bounds[p + 1] - bounds[p]);
+                }
+                cache.put(bytes, n, ids);
+            }
+            if (sink != null) {
+                for (int p = 0; p < parts; p++) {
+                    sink.accept(ranks.get(bytes, bounds[p], bounds[p + 1] - bounds[p]));
+                }
+            }
+            return parts;
+        }
+
+        /**
+         * 对 bytes[0, n) 做 BPE 合并，结果段的边界留在 bounds 里，返回段数。
+         */
+        private int merge(int n) {
+            if (bounds.length < n + 1) {
+                bounds = new int[n + 1];
+                pairRanks = new int[n];
+            }
+            for (int i = 0; i <= n; i++) {
+                bounds[i] = i;
+            }
+            int parts = n;
+            for (int i = 0; i < parts - 1; i++) {
+                pairRanks[i] = pairRank(i, parts);
+            }
+            while (parts > 1) {
+                int best = -1;
+                int bestRank = Integer.MAX_VALUE;
+                for (int i = 0; i < parts - 1; i++) {
+                    if (pairRanks[i] < bestRank) {
+                        bestRank = pairRanks[i];
+                        best = i;
+                    }
+                }
+                if (best < 0) {
+                    break;
+                }
+                // 合并第 best 段和第 best+1 段: 删掉它们之间的边界
+                System.arraycopy(bounds, best + 2, bounds, best + 1, parts - best - 1);
+                System.arraycopy(pairRanks, best + 1, pairRanks, best, parts - best - 2);
+                parts--;
+                if (best < parts - 1) {
+                    pairRanks[best] = pairRank(best, parts);
+                }
+                if (best > 0) {
+                    pairRanks[best - 1] = pairRank(best - 1, parts);
+                }
+            }
+            return parts;
+        }
+
+        private int pairRank(int i, int parts) {
+            int rank = ranks.get(bytes, bounds[i], bounds[i + 2] - bounds[i]);
+            return rank < 0 ? Integer.MAX_VALUE : rank;
+        }
+
+        /**
+         * 把 text[from, to) 编码成 UTF-8 写入 bytes，返回字节数。孤立的代理字符写成 '?'，与 String.getBytes 一致。
+         */
+        private int utf8(char[] text, int from, int to) {
+            int max = (to - from) * 3;
+            if (bytes.length < max) {
+                bytes = new byte[Math.max(max, bytes.length * 2)];
+            }
+            int n = 0;
+            for (int i = from; i < to; i++) {
+                char c = text[i];
+                if (c < 0x80) {
+                    bytes[n++] = (byte) c;
+                } else if (c < 0x800) {
+                    bytes[n++] = (byte) (0xC0 | (c >> 6));
+                    bytes[n++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(text[i + 1])) {
+                    int cp = Character.toCodePoint(c, text[++i]);
+                    bytes[n++] = (byte) (0xF0 | (cp >> 18));
+                    bytes[n++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    bytes[n++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    bytes[n++] = (byte) (0x80 | (cp & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    bytes[n++] = '?';
+                } else {
+                    bytes[n++] = (byte) (0xE0 | (c >> 12));
+                    bytes[n++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    bytes[n++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+            return n;
+        }
+    }
+
+    /**
+     * 预分词，返回从 i 开始的片段的结束位置。规则 (按优先级):
+     * 缩写 ('s 't 're 've 'm 'll 'd)、可选前导空格 + 字母串、1~3 位数字、可选前导空格 + 标点串 + 换行、
+     * 含换行的空白 (到最后一个换行为止)、不含换行的空白 (最后一个空格留给下一个单词)。
+     */
+    static int nextPiece(char[] text, int i, int end) {
+        char c = text[i];
+        if (c == '\'') {
+            int m = contraction(text, i + 1, end);
+            if (m > 0) {
+                return i + 1 + m;
+            }
+        }
+        int j = (c == ' ' && i + 1 < end && !Character.isWhitespace(text[i + 1])) ? i + 1 : i;
+        char d = text[j];
+        if (!Character.isWhitespace(d)) {
+            if (Character.isLetter(d)) {
+                int k = j + 1;
+                while (k < end && Character.isLetter(text[k])) {
+                    k++;
+                }
+                return k;
+            }
+            if (Character.isDigit(d)) {
+                if (j > i) {
+                    return j; // 数字不带前导空格，空格单独成段
+                }
+                int k = j + 1;
+                while (k < end && k - j < 3 && Character.isDigit(text[k])) {
+                    k++;
+                }
+                return k;
+            }
+            int k = j + 1;
+            while (k < end && !Character.isWhitespace(text[k]) && !Character.isLetter(text[k])
+                    && !Character.isDigit(text[k])) {
+                k++;
+            }
+            while (k < end && (text[k] == '\r' || text[k] == '\n')) {
+                k++;
+            }
+            return k;
+        }
+        int k = i;
+        int lastNewline = -1;
+        while (k < end && Character.isWhitespace(text[k])) {
+            if (text[k] == '\r' || text[k] == '\n') {
+                lastNewline = k;
+            }
+            k++;
+        }
+        if (lastNewline >= 0) {
+            return lastNewline + 1;
+        }
+        if (k == end || k - i == 1) {
+            return k;
+        }
+        return k - 1;
+    }
+
+    private static int contraction(char[] text, int i, int end) {
+        if (i >= end) {
+            return 0;
+        }
+        char a = Character.toLowerCase(text[i]);
+        char b = i + 1 < end ? Character.toLowerCase(text[i + 1]) : 0;
+        if ((a == 'r' && b == 'e') || (a == 'v' && b == 'e') || (a == 'l' && b == 'l')) {
+            return 2;
+        }
+        if (a == 's' || a == 't' || a == 'm' || a == 'd') {
+            return 1;
+        }
+        return 0;
+    }
+
+    private static int hash(byte[] b, int off, int len) {
+        int h = 0x811C9DC5;
+        for (int i = off; i < off + len; i++) {
+            h = (h ^ b[i]) * 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * 字节序列 -> rank 的开放寻址表，按字节区间查找，不分配。
+     */
+    private static final class RankTable {
+        private final byte[][] tokens;
+        private final int[] slots; // rank + 1，0 表示空
+        private final int mask;
+
+        RankTable(byte[][] tokens) {
+            this.tokens = tokens;
+            int size = Integer.highestOneBit(Math.max(4, tokens.length * 2 - 1)) << 1;
+            this.slots = new int[size];
+            this.mask = size - 1;
+            for (int rank = 0; rank < tokens.length; rank++) {
+                byte[] t = tokens[rank];
+                int i = hash(t, 0, t.length) & mask;
+                while (slots[i] != 0) {
+                    if (Arrays.equals(tokens[slots[i] - 1], t)) {
+                        throw new IllegalArgumentException("词表中有重复的 token，rank " + rank);
+                    }
+                    i = (i + 1) & mask;
+                }
+                slots[i] = rank + 1;
+            }
+        }
+
+        int get(byte[] b, int off, int len) {
+            int i = hash(b, off, len) & mask;
+            int s;
+            while ((s = slots[i]) != 0) {
+                byte[] t = tokens[s - 1];
+                if (Arrays.equals(t, 0, t.length, b, off, off + len)) {
+                    return s - 1;
+                }
+                i = (i + 1) & mask;
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * 片段字节 -> token id 的缓存。装到一半就整体清空: 比 LRU 简单，热片段很快会重新进来。
+     */
+    private static final class PieceCache {
+        static final int MAX_KEY_BYTES = 64;
+
+        private final byte[][] keys;
+        private final int[][] values;
+        private final int mask;
+        private final int limit;
+        private int size;
+
+        PieceCache(int entries) {
+            int capacity = Integer.highestOneBit(Math.max(2, entries - 1)) << 2;
+            this.keys = new byte[capacity][];
+            this.values = new int[capacity][];
+            this.mask = capacity - 1;
+            this.limit = capacity / 2;
+        }
+
+        int[] get(byte[] b, int len) {
+            int i = hash(b, 0, len) & mask;
+            byte[] k;
+            while ((k = keys[i]) != null) {
+                if (Arrays.equals(k, 0, k.length, b, 0, len)) {
+                    return values[i];
+                }
+                i = (i + 1) & mask;
+            }
+            return null;
+        }
+
+        void put(byte[] b, int len, int[] ids) {
+            if (size >= limit) {
+                Arrays.fill(keys, null);
+                Arrays.fill(values, null);
+                size = 0;
+            }
+            int i = hash(b, 0, len) & mask;
+            while (keys[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = Arrays.copyOf(b, len);
+            values[i] = ids;
+            size++;
+        }
+    }
+}
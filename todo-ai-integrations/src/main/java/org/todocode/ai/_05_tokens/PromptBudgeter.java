@@ -0,0 +1,166 @@
+package org.todocode.ai._05_tokens;
+
+import org.todocode.ai._01_prompts.CompiledPrompts;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * [TodoCode] 按 token 预算裁剪少样本提示词
+ *
+ * <h3>背景:</h3>
+ * 少样本示例越多效果越好，但上下文窗口要留给用户输入和模型输出。
+ * 按字符数估算 token (除以 4) 对中文和代码误差很大，这里用 {@link BpeTokenizer} 精确计数:
+ * 1. 任务描述和首尾固定文本是必须的，放不下直接报错
+ * 2. 示例按优先级从高到低放入，放不下的丢弃
+ * 3. 剩余预算还能放下一部分时，截断第一个放不下的示例的输出，而不是整条丢掉
+ * 4. 最终按示例原来的顺序渲染，优先级只决定"留谁"，不改变顺序
+ *
+ * <h3>易错点:</h3>
+ * 1. 分段计数再相加不一定等于整段计数 (预分词会跨段合并空白)，所以最后用整段结果再校验一次。
+ * 2. 按 token 截断后解码，末尾可能是半个汉字 (U+FFFD)，要去掉。
+ * 3. 同优先级的示例保持原顺序 (稳定排序)，否则每次裁剪结果可能不同，缓存也就失效了。
+ * 4. 示例的输入允许重复 (同一个问题给出两种回答)，所以按选中的列表逐条渲染而不是放进以输入为键的 Map:
+ *    否则重复的输入被合并，提示词里少了一条，included 和 token 计数却还算着它。
+ *
+ * <h3>核心理解:</h3>
+ * 预算是在发请求之前算的: 超出上下文窗口的请求会被服务商拒绝，但被拒绝之前已经花掉了一次往返。
+ *
+ * TODO: 示例的价值和它与当前输入的相似度有关，优先级能不能用 embedding 相似度动态计算？
+ */
+public class PromptBudgeter {
+
+    private static final String ELLIPSIS = "…";
+
+    /**
+     * @param priority 越大越重要
+     */
+    public record Example(String input, String output, int priority) {
+    }
+
+    /**
+     * @param included  放入提示词的示例 (原顺序，被截断的那条是截断后的内容)
+     * @param dropped   被丢弃的示例
+     * @param truncated 是否有示例的输出被截断
+     */
+    public record Result(String prompt, int tokens, List<Example> included, List<Example> dropped,
+                         boolean truncated) {
+    }
+
+    private final BpeTokenizer.Encoder encoder;
+    private final BpeTokenizer tokenizer;
+
+    public PromptBudgeter(BpeTokenizer tokenizer) {
+        this.tokenizer = tokenizer;
+        this.encoder = tokenizer.newEncoder();
+    }
+
+    /**
+     * 生成不超过 maxTokens 的少样本提示词。不是线程安全的 (持有一个 Encoder)。
+     */
+    public Result fewShot(String task, List<Example> examples, int maxTokens) {
+        int fixed = encoder.countTokens(CompiledPrompts.fewShotPrompt(task, Map.of()));
+        if (fixed > maxTokens) {
+            throw new IllegalArgumentException("任务描述需要 " + fixed + " 个 token，超过了预算 " + maxTokens);
+        }
+
+        List<Integer> order = new ArrayList<>(examples.size());
+        for (int i = 0; i < examples.size(); i++) {
+            order.add(i);
+        }
+        order.sort(Comparator.comparingInt((Integer i) -> examples.get(i).priority()).reversed());
+
+        Example[] chosen = new Example[examples.size()];
+        int remaining = maxTokens - fixed;
+        int truncatedIndex = -1;
+        for (int i : order) {
+            Example example = examples.get(i);
+            int cost = exampleTokens(example.input(), example.output());
+            if (cost <= remaining) {
+                chosen[i] = example;
+                remaining -= cost;
+            } else if (truncatedIndex < 0) {
+                Example cut = truncate(example, remaining);
+                if (cut != null) {
+                    chosen[i] = cut;
+                    remaining -= exampleTokens(cut.input(), cut.output());
+                    truncatedIndex = i;
+                }
+            }
+        }
+
+        while (true) {
+            List<Map.Entry<String, String>> rendered = new ArrayList<>();
+            for (Example example : chosen) {
+                if (example != null) {
+                    rendered.add(Map.entry(example.input(), example.output()));
+                }
+            }
+            String prompt = CompiledPrompts.fewShotPrompt(task, rendered);
+            int tokens = encoder.countTokens(prompt);
+            if (tokens <= maxTokens) {
+                return result(prompt, tokens, examples, chosen, truncatedIndex >= 0 && chosen[truncatedIndex] != null);
+            }
+            // 整段计数比分段相加多出几个: 去掉优先级最低的一条再试
+            chosen[lowestIncluded(chosen, order)] = null;
+        }
+    }
+
+    private Result result(String prompt, int tokens, List<Example> examples, Example[] chosen, boolean truncated) {
+        List<Example> included = new ArrayList<>();
+        List<Example> dropped = new ArrayList<>();
+        for (int i = 0; i < chosen.length; i++) {
+            if (chosen[i] != null) {
+                included.add(chosen[i]);
+            } else {
+                dropped.add(examples.get(i));
+            }
+        }
+        return new Result(prompt, tokens, List.copyOf(included), List.copyOf(dropped), truncated);
+    }
+
+    private static int lowestIncluded(Example[] chosen, List<Integer> order) {
+        for (int k = order.size() - 1; k >= 0; k--) {
+            if (chosen[order.get(k)] != null) {
+                return order.get(k);
+            }
+        }
+        throw new IllegalStateException("没有示例时也超出预算"); // fixed <= maxTokens 时不会发生
+    }
+
+    private int exampleTokens(String input, String output) {
+        // 与 CompiledPrompts 的示例模板保持一致: "Input: {{input}}\nOutput: {{output}}\n\n"
+        return encoder.countTokens("Input: " + input + "\nOutput: " + output + "\n\n");
+    }
+
+    /**
+     * 保留输入，把输出截断到剩余预算内；连空输出都放不下时返回 null。
+     */
+    private Example truncate(Example example, int budget) {
+        int overhead = exampleTokens(example.input(), ELLIPSIS);
+        if (overhead >= budget) {
+            return null;
+        }
+        int[] ids = encoder.encode(example.output());
+        int keep = Math.min(ids.length, budget - overhead);
+        while (keep > 0) {
+            String prefix = stripBrokenTail(tokenizer.decode(ids, 0, keep));
+            Example cut = new Example(example.input(), prefix + ELLIPSIS, example.priority());
+            if (exampleTokens(cut.input(), cut.output()) <= budget) {
+                return cut;
+            }
+            keep--; // 前缀和省略号拼接后可能多出一个 token
+        }
+        return null;
+    }
+
+    private static String stripBrokenTail(String s) {
+        int end = s.length();
+        while (end > 0 && s.charAt(end - 1) == '\uFFFD') {
+            end--;
+        }
+        return s.substring(0, end);
+    }
+}
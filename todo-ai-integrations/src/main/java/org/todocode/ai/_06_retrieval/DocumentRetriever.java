@@ -0,0 +1,123 @@
+package org.todocode.ai._06_retrieval;
+
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.todocode.ai._01_prompts.PromptTemplates;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * [TodoCode] 进程内的检索增强: 段落 embedding 进 HNSW 索引，按问题取回最相关的段落拼进提示词
+ *
+ * <h3>背景:</h3>
+ * 以前检索要单独部署一个向量数据库，多一次网络往返和一套运维。
+ * 段落数在百万级以内时，{@link HnswIndex} 放在进程内就够了:
+ * - add: 批量 embedding 后写入索引，索引返回的 id 就是段落在列表里的下标
+ * - retrieve: 问题 embedding 后查 k 个最近邻
+ * - prompt: 把检索结果交给 {@link PromptTemplates#retrievalPrompt} 生成提示词
+ *
+ * <h3>易错点:</h3>
+ * 1. 段落文本和索引必须一一对应: 从文件加载的索引要同时提供当初的段落列表，数量不一致直接报错。
+ * 2. 问题和段落必须用同一个 embedding 模型，换模型就要重建索引 (维度相同也不行，向量空间不同)。
+ * 3. 相似度太低的段落会误导模型，用 minSimilarity 过滤掉，宁可让模型回答"不知道"。
+ * 4. retrieve 查索引时不持有这里的锁，一个 id 一旦能被索引查到，它的段落就必须已经在列表里:
+ *    所以先追加段落、再写入索引。索引如果被别处写入过 (id 超出段落列表)，查到的结果直接跳过，而不是抛出越界异常。
+ *    embedding 是一次网络调用，放在锁外，锁只保护"段落 + 向量"这一对写入。
+ *
+ * <h3>核心理解:</h3>
+ * 检索的质量决定回答的上限: 模型只能基于拿到的上下文回答。
+ *
+ * TODO: 长文档要先切块，块多大、相邻块重叠多少，召回效果最好？
+ */
+public class DocumentRetriever {
+
+    /**
+     * 一个检索结果。
+     */
+    public record Passage(int id, String text, float similarity) {
+    }
+
+    private final EmbeddingModel embeddingModel;
+    private final HnswIndex index;
+    private final List<String> passages;
+    private final float minSimilarity;
+
+    public DocumentRetriever(EmbeddingModel embeddingModel, HnswIndex index, float minSimilarity) {
+        this(embeddingModel, index, List.of(), minSimilarity);
+    }
+
+    /**
+     * 使用已经建好 (例如从文件加载) 的索引，passages 是与索引 id 一一对应的段落。
+     */
+    public DocumentRetriever(EmbeddingModel embeddingModel, HnswIndex index, List<String> passages,
+                             float minSimilarity) {
+        if (index.size() != passages.size()) {
+            throw new IllegalArgumentException("索引有 " + index.size() + " 个向量，段落却有 " + passages.size() + " 个");
+        }
+        this.embeddingModel = embeddingModel;
+        this.index = index;
+        this.passages = new ArrayList<>(passages);
+        this.minSimilarity = minSimilarity;
+    }
+
+    /**
+     * 批量 embedding 并写入索引。
+     */
+    public void addAll(List<String> texts) {
+        List<float[]> vectors = embeddingModel.embed(texts);
+        for (int i = 0; i < texts.size(); i++) {
+            add(texts.get(i), vectors.get(i));
+        }
+    }
+
+    private synchronized void add(String text, float[] vector) {
+        int expected = passages.size();
+        passages.add(text);
+        int id;
+        try {
+            id = index.add(vector);
+        } catch (RuntimeException e) {
+            passages.removeLast();
+            throw e;
+        }
+        if (id != expected) {
+            throw new IllegalStateException("索引被其他地方写入过，id " + id + " 与段落下标 " + expected + " 不一致");
+        }
+    }
+
+    /**
+     * 与问题最相关的至多 k 个段落，按相似度从高到低排列。
+     */
+    public List<Passage> retrieve(String question, int k) {
+        List<Passage> result = new ArrayList<>(k);
+        for (HnswIndex.Neighbor neighbor : index.search(embeddingModel.embed(question), k)) {
+            String text = passage(neighbor.id());
+            if (text != null && neighbor.similarity() >= minSimilarity) {
+                result.add(new Passage(neighbor.id(), text, neighbor.similarity()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 检索后生成检索增强提示词。
+     */
+    public String prompt(String question, int k) {
+        List<String> context = new ArrayList<>(k);
+        for (Passage passage : retrieve(question, k)) {
+            context.add(passage.text());
+        }
+        return PromptTemplates.retrievalPrompt(question, context);
+    }
+
+    public synchronized int size() {
+        return passages.size();
+    }
+
+    /**
+     * 段落文本；id 不在段落列表里 (索引被别处写入过) 时返回 null。
+     */
+    private synchronized String passage(int id) {
+        return id < passages.size() ? passages.get(id) : null;
+    }
+}
@@ -0,0 +1,700 @@
+package org.todocode.ai._06_retrieval;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * [TodoCode] HNSW 近似最近邻索引
+ *
+ * <h3>背景:</h3>
+ * InMemoryVectorIndex 的暴力扫描是 O(n)，一百万条 768 维向量每次查询要读 3GB 内存。
+ * HNSW (Hierarchical Navigable Small World) 把向量连成多层的近邻图:
+ * - 第 0 层包含所有节点，每个节点连着最多 2M 个近邻
+ * - 越往上节点越少 (每层大约是下一层的 1/M)，像跳表一样用来快速接近目标区域
+ * - 查询从顶层入口贪心下降，到第 0 层再用宽度为 ef 的最佳优先搜索收集候选
+ * 一次查询只算几千次点积，代价是结果是近似的 (召回率通常 95% 以上)。
+ *
+ * 存储布局都是扁平数组，没有每个节点一个对象:
+ * - vectors: 第 i 个向量占 [i*dim, (i+1)*dim)
+ * - layer0: 第 i 个节点占 [i*(2M+1), (i+1)*(2M+1))，第一个 int 是邻居数
+ * - upper[i]: 只有层数大于 0 的节点 (约 1/M) 才分配
+ * 持久化时按同样的布局顺序写出，加载时内存映射文件、整段复制回数组，不需要重建图。
+ *
+ * <h3>易错点:</h3>
+ * 1. 选邻居不能只取最近的 M 个: 聚簇数据里它们往往都挤在同一个簇内，图在簇之间断开，
+ *    召回率会突然跌到很低。这里用论文的启发式: 候选比所有已选邻居都更接近新节点时才保留。
+ * 2. 邻居表满了以后再连入新节点，要在"原邻居 + 新节点"里重新做一次启发式选择，而不是直接丢掉新连接。
+ * 3. visited 集合用"轮次编号"数组代替 HashSet: 每次查询只把轮次加一，不用清空，也不装箱。
+ * 4. 查询并发执行 (读锁)，每个查询从池里借一个 SearchContext，不能共享 visited 和堆。
+ * 5. 单个 MappedByteBuffer 最大 2GB，大索引要分窗口映射。
+ *
+ * <h3>核心理解:</h3>
+ * ef 是召回率和速度之间的旋钮: ef 越大，第 0 层搜得越宽，越接近暴力扫描的精确结果。
+ *
+ * TODO: 删除节点怎么办？只打墓碑标记的话，墓碑多了以后图的连通性会怎样变化？
+ */
+public class HnswIndex {
+
+    /**
+     * @param m              上层每个节点的最大邻居数，第 0 层是 2m
+     * @param efConstruction 插入时的搜索宽度，越大图的质量越高、构建越慢
+     * @param efSearch       查询时默认的搜索宽度
+     * @param seed           层数随机数的种子，同样的数据和种子得到同样的图
+     */
+    public record Params(int m, int efConstruction, int efSearch, long seed) {
+        public Params {
+            if (m < 2 || efConstruction < m || efSearch < 1) {
+                throw new IllegalArgumentException("m 至少为 2，efConstruction 不能小于 m，efSearch 必须大于 0");
+            }
+        }
+
+        public static Params defaults() {
+            return new Params(16, 200, 64, 42);
+        }
+    }
+
+    /**
+     * 一个查询结果: 插入时返回的 id 和余弦相似度。
+     */
+    public record Neighbor(int id, float similarity) {
+    }
+
+    /**
+     * {@link #save} 写出的文件格式版本。把索引缓存在磁盘上的调用方应该把它放进文件名，格式变了就不会误用旧文件。
+     */
+    public static final int FORMAT_VERSION = 1;
+
+    private static final int MAGIC = 0x484E5357; // "HNSW"
+    private static final int HEADER_BYTES = 64;
+    private static final long MAP_WINDOW = 1L << 30;
+
+    private final int dimensions;
+    private final Params params;
+    private final int maxM0;
+    private final int stride0;
+    private final int strideUpper;
+    private final double levelFactor;
+    private final VectorKernels.Kernel kernel = VectorKernels.best();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ConcurrentLinkedQueue<SearchContext> contexts = new ConcurrentLinkedQueue<>();
+    private final SplittableRandom random;
+    private final SearchContext writer;
+
+    private float[] vectors;
+    private int[] levels;
+    private int[] layer0;
+    private int[][] upper;
+    private int size;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    public HnswIndex(int dimensions, int initialCapacity, Params params) {
+        if (dimensions <= 0 || initialCapacity <= 0) {
+            throw new IllegalArgumentException("维度和初始容量必须大于 0");
+        }
+        this.dimensions = dimensions;
+        this.params = params;
+        this.maxM0 = params.m() * 2;
+        this.stride0 = maxM0 + 1;
+        this.strideUpper = params.m() + 1;
+        this.levelFactor = 1 / Math.log(params.m());
+        this.random = new SplittableRandom(params.seed());
+        this.writer = new SearchContext();
+        allocate(initialCapacity);
+    }
+
+    public HnswIndex(int dimensions, int initialCapacity) {
+        this(dimensions, initialCapacity, Params.defaults());
+    }
+
+    /**
+     * 插入一个向量 (内部会归一化)，返回它的 id。id 从 0 开始按插入顺序分配。
+     */
+    public int add(float[] vector) {
+        checkDimensions(vector);
+        float[] normalized = VectorKernels.normalize(vector);
+        lock.writeLock().lock();
+        try {
+            int node = size;
+            if (node == levels.length) {
+                grow();
+            }
+            System.arraycopy(normalized, 0, vectors, node * dimensions, dimensions);
+            int level = randomLevel();
+            levels[node] = level;
+            if (level > 0) {
+                upper[node] = new int[level * strideUpper];
+            }
+            size++;
+            insert(node, level);
+            return node;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 近似的 k 个最近邻，按相似度从高到低排列。
+     */
+    public List<Neighbor> search(float[] query, int k) {
+        return search(query, k, params.efSearch());
+    }
+
+    public List<Neighbor> search(float[] query, int k, int ef) {
+        checkDimensions(query);
+        float[] q = VectorKernels.normalize(query);
+        lock.readLock().lock();
+        try {
+            if (size == 0) {
+                return List.of();
+            }
+            int current = entryPoint;
+            for (int level = maxLevel; level > 0; level--) {
+                current = greedy(q, 0, current, level);
+            }
+            SearchContext ctx = acquire();
+            try {
+                searchLayer(ctx, q, 0, current, Math.max(ef, k), 0);
+                return drain(ctx, k);
+            } finally {
+                contexts.offer(ctx);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 暴力扫描得到的精确 k 近邻，用来评估召回率。
+     */
+    public List<Neighbor> searchExact(float[] query, int k) {
+        checkDimensions(query);
+        float[] q = VectorKernels.normalize(query);
+        lock.readLock().lock();
+        try {
+            SearchContext ctx = acquire();
+            try {
+                FloatIntHeap results = ctx.results;
+                for (int node = 0; node < size; node++) {
+                    float s = similarity(q, 0, node);
+                    if (results.size() < k) {
+                        results.push(s, node);
+                    } else if (s > results.topKey()) {
+                        results.pop();
+                        results.push(s, node);
+                    }
+                }
+                return drain(ctx, k);
+            } finally {
+                contexts.offer(ctx);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int dimensions() {
+        return dimensions;
+    }
+
+    public Params params() {
+        return params;
+    }
+
+    // ==================== 插入 ====================
+
+    private void insert(int node, int level) {
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return;
+        }
+        int offset = node * dimensions;
+        int current = entryPoint;
+        for (int l = maxLevel; l > level; l--) {
+            current = greedy(vectors, offset, current, l);
+        }
+        SearchContext ctx = writer;
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            ctx.reset(size);
+            searchLayer(ctx, vectors, offset, current, params.efConstruction(), l);
+            int count = ctx.drainDescending();
+            current = ctx.ids[0];
+            int selected = selectNeighbors(ctx.ids, ctx.sims, count, params.m());
+            int[] links = links(node, l);
+            int base = base(node, l);
+            links[base] = selected;
+            System.arraycopy(ctx.ids, 0, links, base + 1, selected);
+            for (int i = 0; i < selected; i++) {
+                connect(ctx, ctx.ids[i], node, l);
+            }
+        }
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = node;
+        }
+    }
+
+    /**
+     * 把 node 加入 neighbor 在第 level 层的邻居表，满了就重新做启发式选择。
+     */
+    private void connect(SearchContext ctx, int neighbor, int node, int level) {
+        int[] links = links(neighbor, level);
+        int base = base(neighbor, level);
+        int capacity = level == 0 ? maxM0 : params.m();
+        int count = links[base];
+        if (count < capacity) {
+            links[base + 1 + count] = node;
+            links[base] = count + 1;
+            return;
+        }
+        int[] ids = ctx.pruneIds;
+        float[] sims = ctx.pruneSims;
+        for (int i = 0; i < count; i++) {
+            ids[i] = links[base + 1 + i];
+        }
+        ids[count] = node;
+        for (int i = 0; i <= count; i++) {
+            sims[i] = similarity(neighbor, ids[i]);
+        }
+        sortDescending(ids, sims, count + 1);
+        int kept = selectNeighbors(ids, sims, count + 1, capacity);
+        links[base] = kept;
+        System.arraycopy(ids, 0, links, base + 1, kept);
+    }
+
+    /**
+     * 启发式选邻居: ids/sims 按相似度降序排列，保留的候选被压缩到数组前部，返回保留的个数。
+     * 候选与某个已选邻居的相似度高于它与目标的相似度时，说明可以经由那个邻居到达它，丢弃。
+     */
+    private int selectNeighbors(int[] ids, float[] sims, int count, int max) {
+        int selected = 0;
+        for (int i = 0; i < count && selected < max; i++) {
+            int candidate = ids[i];
+            float s = sims[i];
+            boolean keep = true;
+            for (int j = 0; j < selected; j++) {
+                if (similarity(candidate, ids[j]) > s) {
+                    keep = false;
+                    break;
+                }
+            }
+            if (keep) {
+                ids[selected] = candidate;
+                sims[selected] = s;
+                selected++;
+            }
+        }
+        return selected;
+    }
+
+    private static void sortDescending(int[] ids, float[] sims, int n) {
+        for (int i = 1; i < n; i++) {
+            int id = ids[i];
+            float s = sims[i];
+            int j = i - 1;
+            while (j >= 0 && sims[j] < s) {
+                ids[j + 1] = ids[j];
+                sims[j + 1] = sims[j];
+                j--;
+            }
+            ids[j + 1] = id;
+            sims[j + 1] = s;
+        }
+    }
+
+    private int randomLevel() {
+        return Math.min(31, (int) (-Math.log(1 - random.nextDouble()) * levelFactor));
+    }
+
+    // ==================== 搜索 ====================
+
+    /**
+     * 在第 level 层从 current 出发贪心移动到局部最优 (相当于 ef = 1)。
+     */
+    private int greedy(float[] q, int qOffset, int current, int level) {
+        float best = similarity(q, qOffset, current);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int[] links = links(current, level);
+            int base = base(current, level);
+            for (int i = 1, count = links[base]; i <= count; i++) {
+                int candidate = links[base + i];
+                float s = similarity(q, qOffset, candidate);
+                if (s > best) {
+                    best = s;
+                    current = candidate;
+                    changed = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 最佳优先搜索，结果留在 ctx.results (按相似度的小顶堆，最多 ef 个)。
+     */
+    private void searchLayer(SearchContext ctx, float[] q, int qOffset, int entry, int ef, int level) {
+        FloatIntHeap candidates = ctx.candidates; // 按 -相似度 的小顶堆，堆顶是最相似的候选
+        FloatIntHeap results = ctx.results;       // 按相似度的小顶堆，堆顶是当前结果里最差的
+        ctx.visit(entry);
+        float s = similarity(q, qOffset, entry);
+        candidates.push(-s, entry);
+        results.push(s, entry);
+        while (candidates.size() > 0) {
+            float candidateSim = -candidates.topKey();
+            if (results.size() >= ef && candidateSim < results.topKey()) {
+                break; // 剩下的候选都比当前最差的结果还远
+            }
+            int candidate = candidates.pop();
+            int[] links = links(candidate, level);
+            int base = base(candidate, level);
+            for (int i = 1, count = links[base]; i <= count; i++) {
+                int neighbor = links[base + i];
+                if (!ctx.visit(neighbor)) {
+                    continue;
+                }
+                float ns = similarity(q, qOffset, neighbor);
+                if (results.size() < ef || ns > results.topKey()) {
+                    candidates.push(-ns, neighbor);
+                    results.push(ns, neighbor);
+                    if (results.size() > ef) {
+                        results.pop();
+                    }
+                }
+            }
+        }
+    }
+
+    private List<Neighbor> drain(SearchContext ctx, int k) {
+        while (ctx.results.size() > k) {
+            ctx.results.pop();
+        }
+        int n = ctx.drainDescending();
+        List<Neighbor> result = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            result.add(new Neighbor(ctx.ids[i], ctx.sims[i]));
+        }
+        return result;
+    }
+
+    private SearchContext acquire() {
+        SearchContext ctx = contexts.poll();
+        if (ctx == null) {
+            ctx = new SearchContext();
+        }
+        ctx.reset(size);
+        return ctx;
+    }
+
+    private float similarity(float[] q, int qOffset, int node) {
+        return kernel.dot(q, qOffset, vectors, node * dimensions, dimensions);
+    }
+
+    private float similarity(int a, int b) {
+        return kernel.dot(vectors, a * dimensions, vectors, b * dimensions, dimensions);
+    }
+
+    private int[] links(int node, int level) {
+        return level == 0 ? layer0 : upper[node];
+    }
+
+    private int base(int node, int level) {
+        return level == 0 ? node * stride0 : (level - 1) * strideUpper;
+    }
+
+    // ==================== 存储 ====================
+
+    private void allocate(int capacity) {
+        if ((long) capacity * Math.max(dimensions, stride0) > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("容量 " + capacity + " 超出了单个数组能容纳的范围");
+        }
+        vectors = vectors == null ? new float[capacity * dimensions] : Arrays.copyOf(vectors, capacity * dimensions);
+        levels = levels == null ? new int[capacity] : Arrays.copyOf(levels, capacity);
+        layer0 = layer0 == null ? new int[capacity * stride0] : Arrays.copyOf(layer0, capacity * stride0);
+        upper = upper == null ? new int[capacity][] : Arrays.copyOf(upper, capacity);
+    }
+
+    private void grow() {
+        long limit = (Integer.MAX_VALUE - 8) / Math.max(dimensions, stride0);
+        if (size >= limit) {
+            throw new IllegalStateException("索引已满: " + size);
+        }
+        allocate((int) Math.min(limit, Math.max(16, size * 2L)));
+    }
+
+    private void checkDimensions(float[] vector) {
+        if (vector.length != dimensions) {
+            throw new IllegalArgumentException("向量维度不一致: 期望 " + dimensions + "，实际 " + vector.length);
+        }
+    }
+
+    /**
+     * 写入内存映射文件: 64 字节文件头，之后依次是 levels、vectors、layer0、各节点的上层邻居表 (小端)。
+     */
+    public void save(Path file) throws IOException {
+        lock.readLock().lock();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(dimensions).putInt(params.m())
+                    .putInt(params.efConstruction()).putInt(params.efSearch()).putLong(params.seed())
+                    .putInt(size).putInt(entryPoint).putInt(maxLevel);
+
+            long position = HEADER_BYTES;
+            position = transferInts(channel, FileChannel.MapMode.READ_WRITE, position, levels, size);
+            position = transferFloats(channel, FileChannel.MapMode.READ_WRITE, position, vectors, size * dimensions);
+            position = transferInts(channel, FileChannel.MapMode.READ_WRITE, position, layer0, size * stride0);
+            IntBuffer upperSection = mapUpper(channel, FileChannel.MapMode.READ_WRITE, position, levels, size);
+            for (int node = 0; node < size; node++) {
+                if (levels[node] > 0) {
+                    upperSection.put(upper[node]);
+                }
+            }
+            channel.force(true);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 从 {@link #save} 写出的文件加载。图直接从文件复制回来，不需要重新构建。
+     */
+    public static HnswIndex load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                throw new IOException("不是 HNSW 索引文件: " + file);
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt() != MAGIC) {
+                throw new IOException("不是 HNSW 索引文件: " + file);
+            }
+            int version = header.getInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("不支持的索引文件版本: " + version);
+            }
+            int dimensions = header.getInt();
+            Params params = new Params(header.getInt(), header.getInt(), header.getInt(), header.getLong());
+            int size = header.getInt();
+            int entryPoint = header.getInt();
+            int maxLevel = header.getInt();
+
+            HnswIndex index = new HnswIndex(dimensions, Math.max(size, 1), params);
+            long minimum = HEADER_BYTES + 4L * size * (1 + dimensions + index.stride0);
+            if (channel.size() < minimum) {
+                throw new IOException("索引文件不完整: " + channel.size() + " 字节，至少需要 " + minimum);
+            }
+            long position = HEADER_BYTES;
+            position = transferInts(channel, FileChannel.MapMode.READ_ONLY, position, index.levels, size);
+            position = transferFloats(channel, FileChannel.MapMode.READ_ONLY, position, index.vectors, size * dimensions);
+            position = transferInts(channel, FileChannel.MapMode.READ_ONLY, position, index.layer0, size * index.stride0);
+            IntBuffer upperSection = index.mapUpper(channel, FileChannel.MapMode.READ_ONLY, position, index.levels, size);
+            for (int node = 0; node < size; node++) {
+                if (index.levels[node] > 0) {
+                    index.upper[node] = new int[index.levels[node] * index.strideUpper];
+                    upperSection.get(index.upper[node]);
+                }
+            }
+            index.size = size;
+            index.entryPoint = entryPoint;
+            index.maxLevel = maxLevel;
+            return index;
+        }
+    }
+
+    /**
+     * 按不超过 1GB 的窗口映射文件，与 array[0, count) 之间整段复制；READ_WRITE 为写出，READ_ONLY 为读入。
+     * 返回下一段的起始位置。
+     */
+    private static long transferInts(FileChannel channel, FileChannel.MapMode mode, long position,
+                                     int[] array, int count) throws IOException {
+        for (int offset = 0; offset < count; ) {
+            int n = (int) Math.min(count - offset, MAP_WINDOW / Integer.BYTES);
+            IntBuffer window = channel.map(mode, position, (long) n * Integer.BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            if (mode == FileChannel.MapMode.READ_ONLY) {
+                window.get(array, offset, n);
+            } else {
+                window.put(array, offset, n);
+            }
+            offset += n;
+            position += (long) n * Integer.BYTES;
+        }
+        return position;
+    }
+
+    private static long transferFloats(FileChannel channel, FileChannel.MapMode mode, long position,
+                                       float[] array, int count) throws IOException {
+        for (int offset = 0; offset < count; ) {
+            int n = (int) Math.min(count - offset, MAP_WINDOW / Float.BYTES);
+            FloatBuffer window = channel.map(mode, position, (long) n * Float.BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+            if (mode == FileChannel.MapMode.READ_ONLY) {
+                window.get(array, offset, n);
+            } else {
+                window.put(array, offset, n);
+            }
+            offset += n;
+            position += (long) n * Float.BYTES;
+        }
+        return position;
+    }
+
+    /**
+     * 上层邻居表一共只有约 size/M 个小数组，整段映射一次，按节点顺序依次读写。
+     */
+    private IntBuffer mapUpper(FileChannel channel, FileChannel.MapMode mode, long position, int[] levels, int size)
+            throws IOException {
+        long ints = 0;
+        for (int node = 0; node < size; node++) {
+            ints += (long) levels[node] * strideUpper;
+        }
+        if (ints * Integer.BYTES > Integer.MAX_VALUE) {
+            throw new IOException("上层邻居表超过 2GB: " + ints * Integer.BYTES);
+        }
+        return channel.map(mode, position, ints * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    }
+
+    // ==================== 每次搜索的临时状态 ====================
+
+    private final class SearchContext {
+        private int[] visited = new int[0];
+        private int epoch;
+        final FloatIntHeap candidates = new FloatIntHeap();
+        final FloatIntHeap results = new FloatIntHeap();
+        int[] ids = new int[64];
+        float[] sims = new float[64];
+        final int[] pruneIds = new int[maxM0 + 1];
+        final float[] pruneSims = new float[maxM0 + 1];
+
+        void reset(int size) {
+            if (visited.length < size) {
+                visited = new int[Math.max(size, visited.length * 2)];
+                epoch = 0;
+            }
+            if (++epoch == 0) { // 轮次用完一圈，清零重来
+                Arrays.fill(visited, 0);
+                epoch = 1;
+            }
+            candidates.clear();
+            results.clear();
+        }
+
+        /**
+         * 第一次访问返回 true。
+         */
+        boolean visit(int node) {
+            if (visited[node] == epoch) {
+                return false;
+            }
+            visited[node] = epoch;
+            return true;
+        }
+
+        /**
+         * 把 results 按相似度降序倒进 ids/sims，返回个数。
+         */
+        int drainDescending() {
+            int n = results.size();
+            if (ids.length < n) {
+                ids = new int[n];
+                sims = new float[n];
+            }
+            for (int i = n - 1; i >= 0; i--) {
+                sims[i] = results.topKey();
+                ids[i] = results.pop();
+            }
+            return n;
+        }
+    }
+
+    /**
+     * float 键、int 值的小顶堆，不装箱。
+     */
+    private static final class FloatIntHeap {
+        private float[] keys = new float[64];
+        private int[] values = new int[64];
+        private int size;
+
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        float topKey() {
+            return keys[0];
+        }
+
+        void push(float key, int value) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (keys[parent] <= key) {
+                    break;
+                }
+                keys[i] = keys[parent];
+                values[i] = values[parent];
+                i = parent;
+            }
+            keys[i] = key;
+            values[i] = value;
+        }
+
+        /**
+         * 弹出堆顶，返回它的值。
+         */
+        int pop() {
+            int top = values[0];
+            float key = keys[--size];
+            int value = values[size];
+            int i = 0;
+            int half = size >>> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && keys[child + 1] < keys[child]) {
+                    child++;
+                }
+                if (key <= keys[child]) {
+                    break;
+                }
+                keys[i] = keys[child];
+                values[i] = values[child];
+                i = child;
+            }
+            keys[i] = key;
+            values[i] = value;
+            return top;
+        }
+    }
+}
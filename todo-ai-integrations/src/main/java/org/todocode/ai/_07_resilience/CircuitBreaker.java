@@ -0,0 +1,170 @@
+package org.todocode.ai._07_resilience;
+
+import java.time.Duration;
+
+/**
+ * [TodoCode] 熔断器
+ *
+ * <h3>背景:</h3>
+ * 模型服务整体故障时 (5xx 连成一片、一直 429)，继续请求只会让每个调用方都等到超时，还会拖慢服务恢复。
+ * 熔断器按最近 windowSize 次调用的失败率在三个状态间切换:
+ * - CLOSED: 正常放行，记录结果；失败率超过阈值就打开
+ * - OPEN: 直接拒绝，调用方立刻失败 (或改用其他端点)；openDuration 之后进入半开
+ * - HALF_OPEN: 只放行 halfOpenCalls 个试探请求，全部成功就关闭，任何一个失败就重新打开
+ *
+ * <h3>易错点:</h3>
+ * 1. 调用次数太少时失败率没有意义 (1 次失败就是 100%)，不到 minimumCalls 不判断。
+ * 2. 客户端自己的错误 (400 参数错误) 和被取消的对冲请求不代表服务不健康，用 {@link #release()} 归还许可，不计入窗口。
+ * 3. 半开状态下试探请求的许可必须归还，否则试探请求被取消后熔断器会永远卡在半开。
+ *
+ * <h3>核心理解:</h3>
+ * 熔断是为了快速失败: 已知会失败的请求，越早失败对调用方和下游都越好。
+ *
+ * TODO: 半开时如果试探请求本身很慢 (没有失败但超过了截止时间)，应该算成功还是失败？
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * @param windowSize           统计失败率的最近调用数
+     * @param minimumCalls         窗口内至少有多少次调用才判断失败率
+     * @param failureRateThreshold 失败率达到多少就打开，(0, 1]
+     * @param openDuration         打开多久之后进入半开
+     * @param halfOpenCalls        半开时放行的试探请求数
+     */
+    public record Config(int windowSize, int minimumCalls, double failureRateThreshold, Duration openDuration,
+                         int halfOpenCalls) {
+        public Config {
+            if (windowSize <= 0 || minimumCalls <= 0 || minimumCalls > windowSize || halfOpenCalls <= 0) {
+                throw new IllegalArgumentException("windowSize、minimumCalls、halfOpenCalls 必须大于 0，且 minimumCalls 不能超过 windowSize");
+            }
+            if (failureRateThreshold <= 0 || failureRateThreshold > 1) {
+                throw new IllegalArgumentException("失败率阈值必须在 (0, 1] 之间: " + failureRateThreshold);
+            }
+        }
+
+        public static Config defaults() {
+            return new Config(20, 10, 0.5, Duration.ofSeconds(30), 1);
+        }
+    }
+
+    private final Config config;
+    private final boolean[] window; // 环形缓冲，true 表示失败
+    private int next;
+    private int calls;
+    private int failures;
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int halfOpenPermits;
+    private int halfOpenSuccesses;
+
+    public CircuitBreaker(Config config) {
+        this.config = config;
+        this.window = new boolean[config.windowSize()];
+    }
+
+    /**
+     * 申请一次调用许可。返回 true 时调用方必须在结束后调用 onSuccess、onFailure 或 release 之一。
+     */
+    public synchronized boolean tryAcquire() {
+        switch (currentState()) {
+            case CLOSED:
+                return true;
+            case HALF_OPEN:
+                if (halfOpenPermits < config.halfOpenCalls()) {
+                    halfOpenPermits++;
+                    return true;
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        switch (state) {
+            case CLOSED -> record(false);
+            case HALF_OPEN -> {
+                if (++halfOpenSuccesses >= config.halfOpenCalls()) {
+                    close();
+                }
+            }
+            case OPEN -> {
+                // 打开之前发出的请求现在才返回，不影响状态
+            }
+        }
+    }
+
+    public synchronized void onFailure() {
+        switch (state) {
+            case CLOSED -> {
+                record(true);
+                if (calls >= config.minimumCalls() && failures >= config.failureRateThreshold() * calls) {
+                    open();
+                }
+            }
+            case HALF_OPEN -> open();
+            case OPEN -> {
+            }
+        }
+    }
+
+    /**
+     * 归还许可但不记录结果: 调用被取消，或者失败原因与服务健康无关。
+     */
+    public synchronized void release() {
+        if (state == State.HALF_OPEN && halfOpenPermits > halfOpenSuccesses) {
+            halfOpenPermits--;
+        }
+    }
+
+    public synchronized State state() {
+        return currentState();
+    }
+
+    /**
+     * 当前窗口内的失败率，调用数为 0 时返回 0。
+     */
+    public synchronized double failureRate() {
+        return calls == 0 ? 0 : failures / (double) calls;
+    }
+
+    private State currentState() {
+        if (state == State.OPEN && System.nanoTime() - openedAt >= config.openDuration().toNanos()) {
+            state = State.HALF_OPEN;
+            halfOpenPermits = 0;
+            halfOpenSuccesses = 0;
+        }
+        return state;
+    }
+
+    private void record(boolean failed) {
+        if (calls == window.length) {
+            if (window[next]) {
+                failures--;
+            }
+        } else {
+            calls++;
+        }
+        window[next] = failed;
+        if (failed) {
+            failures++;
+        }
+        next = (next + 1) % window.length;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        next = 0;
+        calls = 0;
+        failures = 0;
+    }
+}
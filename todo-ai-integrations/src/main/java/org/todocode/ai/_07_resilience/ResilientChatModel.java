@@ -0,0 +1,471 @@
+package org.todocode.ai._07_resilience;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.retry.NonTransientAiException;
+import org.springframework.ai.retry.TransientAiException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientResponseException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * [TodoCode] 带截止时间、对冲请求、重试和熔断的 ChatModel
+ *
+ * <h3>背景:</h3>
+ * 模型服务的延迟长尾很重: 中位数 1 秒的接口，p99 可能是 20 秒，偶尔还会 429 或 5xx。
+ * 一个页面等最慢的那次调用，长尾就成了常态。这里在一组等价的端点 (同一模型的多个区域或服务商) 外面包一层:
+ * - 截止时间: 每次调用有总的时间预算，包括所有重试和退避，到点就取消所有在途请求
+ * - 对冲请求: 第一个请求超过该端点 p95 延迟还没返回，就向下一个端点再发一个，谁先成功用谁，另一个取消
+ * - 重试: 429 和 5xx 按指数退避 + 全抖动重试，退避会越过截止时间就不再重试
+ * - 熔断: 每个端点一个 {@link CircuitBreaker}，打开的端点被跳过，请求落到下一个端点
+ * 每次调用和每个请求都跑在虚拟线程上，阻塞等待不占平台线程。
+ *
+ * <h3>易错点:</h3>
+ * 1. 底层模型自带的重试 (OpenAiChatModel 默认的 RetryTemplate) 要关掉，否则两层重试次数相乘，还会越过截止时间。
+ * 2. 对冲会增加负载。延迟阈值用 p95，意味着大约 5% 的调用会多发一个请求；
+ *    样本太少时分位数没有意义，先用固定的初始延迟，p95 太小时用下限，避免快接口上几乎每次都对冲。
+ * 3. 延迟只记录成功的请求: 快速失败的请求会把 p95 拉低，导致过早对冲。
+ * 4. 输给对冲的请求、调用方取消的请求和 400 这类客户端错误不计入熔断器，只归还许可；
+ *    到截止时间还没返回的请求却是端点的失败，要计入熔断器，否则一个只挂起、从不报错的端点永远不会被熔断。
+ *    到点时由协调线程当场记失败，不等请求线程退出: 挂在网络读上的请求不一定响应中断。
+ * 5. 重试没有全抖动时，同时失败的客户端会在同一时刻一起重试，把刚恢复的服务再打垮一次。
+ *
+ * <h3>核心理解:</h3>
+ * 截止时间是预算，对冲、重试、退避都在花这份预算；熔断决定哪些端点还值得花。
+ *
+ * TODO: 429 响应里的 Retry-After 头应该怎样参与退避时间的计算？
+ */
+public class ResilientChatModel implements ChatModel, AutoCloseable {
+
+    /**
+     * 一个等价的端点。按列表顺序优先，排在前面的是主端点。
+     */
+    public record Endpoint(String name, ChatModel model) {
+    }
+
+    /**
+     * @param percentile     第一个请求超过这个分位数的延迟就发对冲请求，例如 0.95
+     * @param initialDelay   样本不足 minSamples 时使用的对冲延迟
+     * @param minDelay       对冲延迟的下限
+     * @param minSamples     端点至少有多少次成功调用才使用分位数
+     */
+    public record Hedging(double percentile, Duration initialDelay, Duration minDelay, int minSamples) {
+        public Hedging {
+            if (percentile <= 0 || percentile >= 1) {
+                throw new IllegalArgumentException("对冲分位数必须在 (0, 1) 之间: " + percentile);
+            }
+        }
+
+        public static Hedging defaults() {
+            return new Hedging(0.95, Duration.ofSeconds(2), Duration.ofMillis(50), 20);
+        }
+    }
+
+    /**
+     * @param deadline       一次调用的总时间预算
+     * @param maxAttempts    最多尝试几轮 (含第一轮)，一轮里可能有一个对冲请求
+     * @param initialBackoff 第一次重试的退避上限，之后每次翻倍
+     * @param maxBackoff     退避上限的最大值
+     * @param hedging        对冲配置，null 表示不对冲
+     */
+    public record Options(Duration deadline, int maxAttempts, Duration initialBackoff, Duration maxBackoff,
+                          Hedging hedging) {
+        public Options {
+            if (deadline.isNegative() || deadline.isZero() || maxAttempts <= 0) {
+                throw new IllegalArgumentException("deadline 和 maxAttempts 必须大于 0");
+            }
+        }
+
+        public static Options defaults() {
+            return new Options(Duration.ofSeconds(30), 3, Duration.ofMillis(200), Duration.ofSeconds(5),
+                    Hedging.defaults());
+        }
+    }
+
+    private record Outcome(Attempt attempt, ChatResponse response, Throwable error) {
+    }
+
+    private final class EndpointState {
+        final Endpoint endpoint;
+        final CircuitBreaker breaker;
+        final Timer latency;
+
+        EndpointState(Endpoint endpoint, CircuitBreaker breaker, Timer latency) {
+            this.endpoint = endpoint;
+            this.breaker = breaker;
+            this.latency = latency;
+        }
+
+        long hedgeDelayNanos() {
+            Hedging hedging = options.hedging();
+            if (latency.count() < hedging.minSamples()) {
+                return hedging.initialDelay().toNanos();
+            }
+            for (ValueAtPercentile v : latency.takeSnapshot().percentileValues()) {
+                if (v.percentile() == hedging.percentile()) {
+                    return Math.max((long) v.value(TimeUnit.NANOSECONDS), hedging.minDelay().toNanos());
+                }
+            }
+            return hedging.initialDelay().toNanos();
+        }
+    }
+
+    /**
+     * 一个在途的请求。熔断器的许可由请求线程或协调线程中先结算的一方归还，恰好一次。
+     */
+    private final class Attempt {
+        final EndpointState target;
+        private final AtomicBoolean settled = new AtomicBoolean();
+        Future<?> future;
+
+        Attempt(EndpointState target) {
+            this.target = target;
+        }
+
+        boolean settle() {
+            return settled.compareAndSet(false, true);
+        }
+
+        /**
+         * @param timedOut true 表示因为截止时间被取消，计入熔断器；false 表示输给了对冲或调用方取消，只归还许可
+         */
+        void cancel(boolean timedOut) {
+            if (settle()) {
+                if (timedOut) {
+                    target.breaker.onFailure();
+                } else {
+                    target.breaker.release();
+                }
+            }
+            future.cancel(true);
+        }
+    }
+
+    private final Options options;
+    private final List<EndpointState> endpoints;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final Counter hedges;
+    private final Counter hedgeWins;
+    private final Counter retries;
+    private final Counter deadlineExceeded;
+    private final Counter rejected;
+
+    public ResilientChatModel(String name, List<Endpoint> endpoints, Options options,
+                              CircuitBreaker.Config breakerConfig, MeterRegistry registry) {
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("至少需要一个端点");
+        }
+        this.options = options;
+        this.endpoints = new ArrayList<>(endpoints.size());
+        for (Endpoint endpoint : endpoints) {
+            CircuitBreaker breaker = new CircuitBreaker(breakerConfig);
+            Timer.Builder latency = Timer.builder("todocode.llm.client.latency")
+                    .description("成功请求的延迟，对冲延迟取它的分位数")
+                    .tag("client", name)
+                    .tag("endpoint", endpoint.name());
+            if (options.hedging() != null) {
+                latency.publishPercentiles(0.5, options.hedging().percentile());
+            }
+            Gauge.builder("todocode.llm.client.circuit.state", breaker, b -> b.state().ordinal())
+                    .description("熔断器状态: 0 关闭，1 打开，2 半开")
+                    .tag("client", name)
+                    .tag("endpoint", endpoint.name())
+                    .register(registry);
+            this.endpoints.add(new EndpointState(endpoint, breaker, latency.register(registry)));
+        }
+
+        this.hedges = Counter.builder("todocode.llm.client.hedges")
+                .description("发出的对冲请求数")
+                .tag("client", name)
+                .register(registry);
+        this.hedgeWins = Counter.builder("todocode.llm.client.hedge.wins")
+                .description("对冲请求先于原请求成功的次数")
+                .tag("client", name)
+                .register(registry);
+        this.retries = Counter.builder("todocode.llm.client.retries")
+                .description("退避后重试的次数")
+                .tag("client", name)
+                .register(registry);
+        this.deadlineExceeded = Counter.builder("todocode.llm.client.deadline.exceeded")
+                .description("超过截止时间的调用数")
+                .tag("client", name)
+                .register(registry);
+        this.rejected = Counter.builder("todocode.llm.client.rejected")
+                .description("所有端点熔断而被拒绝的调用数")
+                .tag("client", name)
+                .register(registry);
+    }
+
+    /**
+     * 同步调用。超过截止时间抛出 TransientAiException (cause 是 TimeoutException)，
+     * 所有端点熔断时抛出 RejectedExecutionException。
+     */
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        try {
+            return callAsync(prompt).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            if (cause instanceof TimeoutException) {
+                throw new TransientAiException(cause.getMessage(), cause);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 异步调用。取消返回的 future 会取消所有在途请求。
+     */
+    public CompletableFuture<ChatResponse> callAsync(Prompt prompt) {
+        long deadline = System.nanoTime() + options.deadline().toNanos();
+        CompletableFuture<ChatResponse> result = new CompletableFuture<>();
+        Future<?> coordinator = executor.submit(() -> coordinate(prompt, deadline, result));
+        result.whenComplete((r, t) -> {
+            if (t instanceof CancellationException) {
+                coordinator.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 流式调用只做端点选择和熔断，不对冲也不重试: 已经输出给调用方的 token 收不回来。
+     */
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        return Flux.defer(() -> {
+            EndpointState target = acquire(-1);
+            if (target == null) {
+                rejected.increment();
+                return Flux.error(new RejectedExecutionException("所有端点的熔断器都已打开"));
+            }
+            return target.endpoint.model().stream(prompt)
+                    .doOnComplete(target.breaker::onSuccess)
+                    .doOnError(t -> {
+                        if (isRetryable(t)) {
+                            target.breaker.onFailure();
+                        } else {
+                            target.breaker.release();
+                        }
+                    })
+                    .doOnCancel(target.breaker::release);
+        });
+    }
+
+    @Override
+    public ChatOptions getDefaultOptions() {
+        return endpoints.getFirst().endpoint.model().getDefaultOptions();
+    }
+
+    public CircuitBreaker.State circuitState(String endpoint) {
+        return state(endpoint).breaker.state();
+    }
+
+    /**
+     * 发往该端点的请求在多久没返回后会触发对冲。
+     */
+    public Duration hedgeDelay(String endpoint) {
+        if (options.hedging() == null) {
+            throw new IllegalStateException("没有启用对冲");
+        }
+        return Duration.ofNanos(state(endpoint).hedgeDelayNanos());
+    }
+
+    /**
+     * 等待在途调用结束后关闭。
+     */
+    @Override
+    public void close() {
+        executor.close();
+    }
+
+    /**
+     * 失败是否值得重试，同时决定是否计入熔断器: 429、5xx、超时和网络错误。
+     */
+    public static boolean isRetryable(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof TransientAiException || t instanceof ResourceAccessException
+                    || t instanceof IOException || t instanceof TimeoutException) {
+                return true;
+            }
+            if (t instanceof NonTransientAiException) {
+                // Spring AI 的默认错误处理把所有 4xx 都当成不可重试，状态码在消息开头
+                return t.getMessage() != null && t.getMessage().startsWith("429");
+            }
+            if (t instanceof RestClientResponseException e) {
+                return e.getStatusCode().value() == 429 || e.getStatusCode().is5xxServerError();
+            }
+            if (t instanceof WebClientResponseException e) {
+                return e.getStatusCode().value() == 429 || e.getStatusCode().is5xxServerError();
+            }
+        }
+        return false;
+    }
+
+    private EndpointState state(String endpoint) {
+        for (EndpointState state : endpoints) {
+            if (state.endpoint.name().equals(endpoint)) {
+                return state;
+            }
+        }
+        throw new IllegalArgumentException("未知的端点: " + endpoint);
+    }
+
+    /**
+     * 从 after 的下一个端点开始按顺序找第一个熔断器放行的端点，最后才回到 after 自己。
+     */
+    private EndpointState acquire(int after) {
+        int n = endpoints.size();
+        for (int i = 1; i <= n; i++) {
+            EndpointState state = endpoints.get(Math.floorMod(after + i, n));
+            if (state.breaker.tryAcquire()) {
+                return state;
+            }
+        }
+        return null;
+    }
+
+    private void coordinate(Prompt prompt, long deadline, CompletableFuture<ChatResponse> result) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                result.complete(attemptOnce(prompt, deadline));
+                return;
+            } catch (InterruptedException e) {
+                result.completeExceptionally(new CancellationException("调用已取消"));
+                return;
+            } catch (TimeoutException e) {
+                deadlineExceeded.increment();
+                result.completeExceptionally(e);
+                return;
+            } catch (Throwable t) {
+                if (attempt >= options.maxAttempts() || !isRetryable(t)) {
+                    result.completeExceptionally(t);
+                    return;
+                }
+                long cap = Math.min(options.maxBackoff().toNanos(),
+                        options.initialBackoff().toNanos() << Math.min(attempt - 1, 30));
+                long backoff = ThreadLocalRandom.current().nextLong(cap + 1); // 全抖动
+                if (System.nanoTime() + backoff - deadline >= 0) {
+                    result.completeExceptionally(t); // 剩余时间不够退避，直接返回最后一次的错误
+                    return;
+                }
+                retries.increment();
+                try {
+                    TimeUnit.NANOSECONDS.sleep(backoff);
+                } catch (InterruptedException e) {
+                    result.completeExceptionally(new CancellationException("调用已取消"));
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 一轮尝试: 发出第一个请求，到对冲延迟还没结果就再发一个，返回第一个成功的结果。
+     * 所有请求都失败时抛出最后一个错误。
+     */
+    private ChatResponse attemptOnce(Prompt prompt, long deadline) throws Exception {
+        EndpointState primary = acquire(-1);
+        if (primary == null) {
+            rejected.increment();
+            throw new RejectedExecutionException("所有端点的熔断器都已打开");
+        }
+        BlockingQueue<Outcome> outcomes = new LinkedBlockingQueue<>();
+        List<Attempt> running = new ArrayList<>(2);
+        Attempt first = start(primary, prompt, outcomes);
+        running.add(first);
+        long hedgeAt = options.hedging() != null ? System.nanoTime() + primary.hedgeDelayNanos() : Long.MAX_VALUE;
+        boolean hedged = options.hedging() == null;
+        boolean timedOut = false;
+        Throwable failure = null;
+        try {
+            while (!running.isEmpty()) {
+                long now = System.nanoTime();
+                long wait = hedged ? deadline - now : Math.min(deadline - now, hedgeAt - now);
+                Outcome outcome = wait > 0 ? outcomes.poll(wait, TimeUnit.NANOSECONDS) : outcomes.poll();
+                if (outcome == null) {
+                    if (System.nanoTime() - deadline >= 0) {
+                        timedOut = true;
+                        throw new TimeoutException("超过截止时间 " + options.deadline().toMillis() + " ms");
+                    }
+                    hedged = true;
+                    EndpointState backup = acquire(endpoints.indexOf(primary));
+                    if (backup != null) {
+                        hedges.increment();
+                        running.add(start(backup, prompt, outcomes));
+                    }
+                    continue;
+                }
+                running.remove(outcome.attempt());
+                if (outcome.error() == null) {
+                    if (outcome.attempt() != first) {
+                        hedgeWins.increment();
+                    }
+                    return outcome.response();
+                }
+                failure = outcome.error();
+            }
+            throw failure instanceof Exception e ? e : new ExecutionException(failure);
+        } finally {
+            for (Attempt attempt : running) {
+                attempt.cancel(timedOut);
+            }
+        }
+    }
+
+    private Attempt start(EndpointState target, Prompt prompt, BlockingQueue<Outcome> outcomes) {
+        Attempt attempt = new Attempt(target);
+        attempt.future = executor.submit(() -> {
+            long start = System.nanoTime();
+            try {
+                ChatResponse response = target.endpoint.model().call(prompt);
+                target.latency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                if (attempt.settle()) {
+                    target.breaker.onSuccess();
+                }
+                outcomes.add(new Outcome(attempt, response, null));
+            } catch (Throwable t) {
+                if (attempt.settle()) {
+                    if (isRetryable(t)) {
+                        target.breaker.onFailure();
+                    } else {
+                        target.breaker.release();
+                    }
+                }
+                outcomes.add(new Outcome(attempt, null, t));
+            }
+        });
+        return attempt;
+    }
+}
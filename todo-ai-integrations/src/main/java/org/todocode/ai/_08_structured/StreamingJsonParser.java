@@ -0,0 +1,405 @@
+package org.todocode.ai._08_structured;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.core.io.JsonEOFException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * [TodoCode] 流式结构化输出解析器
+ *
+ * <h3>背景:</h3>
+ * {@code PromptTemplates.structuredOutputPrompt} 要求模型按 JSON Schema 输出，
+ * 但通常要等整个响应生成完才能解析: 下游干等，最后几个 token 写坏了整次调用白费。
+ * 这里用 Jackson 的非阻塞解析器边收边解析:
+ * - 每收到一段文本就喂给解析器，读到 NOT_AVAILABLE 就等下一段
+ * - 每个字段值、数组元素一完成就回调，路径用 JSON Pointer (例如 /items/0/name)
+ * - 按 Schema 在线校验: 类型在值开始时检查，未知字段在读到字段名时检查，必填字段在对象结束时检查
+ * - 一旦违反 Schema 或 JSON 语法错误立即抛出，配合 {@link #parse(Flux, String)} 会取消上游，停止生成
+ *
+ * <h3>易错点:</h3>
+ * 1. 非阻塞解析器要求上一段输入完全消费 (nextToken 返回 NOT_AVAILABLE) 之后才能喂下一段。
+ * 2. 数字在分段末尾时解析器不知道它是否结束，要等到下一个分隔符才会给出 token，所以 "12" 不会被误读成 "1"。
+ * 3. 模型经常在 JSON 外面包一层 ```json 代码块: 根值开始之前的文本跳过，根值结束之后的文本忽略。
+ *    因此根值必须是对象或数组。
+ * 4. 只支持 Schema 的常用子集: type、properties、required、additionalProperties、items、enum、maxItems、maxLength。
+ *    不认识的关键字直接忽略，不会误报。
+ *
+ * <h3>核心理解:</h3>
+ * 流式解析把"生成完再处理"变成流水线: 第一个数组元素生成完就能开始下游工作，写坏的输出在出错的那个 token 就被发现。
+ *
+ * TODO: 字符串值很长时 (例如一整段摘要)，能否在字符串还没结束时就把已经收到的部分交给下游？
+ */
+public class StreamingJsonParser {
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final JsonNodeFactory NODES = JsonNodeFactory.instance;
+
+    /**
+     * 一个完成的值。path 是 JSON Pointer，根值的 path 是空串。
+     */
+    public record Field(String path, JsonNode value) {
+    }
+
+    /**
+     * 解析后的 Schema。null 表示不限制。
+     */
+    private record Schema(Set<String> types, Map<String, Schema> properties, Set<String> required,
+                          boolean additionalProperties, Schema items, Set<JsonNode> enumValues, int maxItems,
+                          int maxLength) {
+
+        static Schema of(JsonNode node) {
+            if (node == null || !node.isObject()) {
+                return null;
+            }
+            Set<String> types = new HashSet<>();
+            JsonNode type = node.get("type");
+            if (type != null && type.isArray()) {
+                type.forEach(t -> types.add(t.asText()));
+            } else if (type != null) {
+                types.add(type.asText());
+            }
+            Map<String, Schema> properties = new HashMap<>();
+            JsonNode props = node.get("properties");
+            if (props != null) {
+                for (Iterator<Map.Entry<String, JsonNode>> it = props.fields(); it.hasNext(); ) {
+                    Map.Entry<String, JsonNode> e = it.next();
+                    properties.put(e.getKey(), of(e.getValue()));
+                }
+            }
+            Set<String> required = new HashSet<>();
+            JsonNode req = node.get("required");
+            if (req != null) {
+                req.forEach(r -> required.add(r.asText()));
+            }
+            Set<JsonNode> enumValues = null;
+            JsonNode en = node.get("enum");
+            if (en != null && en.isArray()) {
+                enumValues = new HashSet<>();
+                en.forEach(enumValues::add);
+            }
+            return new Schema(types, properties, required, node.path("additionalProperties").asBoolean(true),
+                    of(node.get("items")), enumValues, node.path("maxItems").asInt(Integer.MAX_VALUE),
+                    node.path("maxLength").asInt(Integer.MAX_VALUE));
+        }
+
+        Schema property(String name) {
+            return properties.get(name);
+        }
+    }
+
+    /**
+     * 一个未完成的对象或数组。
+     */
+    private static final class Frame {
+        final JsonNode node;
+        final Schema schema;
+        final String path;
+        final Set<String> seen = new HashSet<>();
+        String fieldName;
+        int size;
+
+        Frame(JsonNode node, Schema schema, String path) {
+            this.node = node;
+            this.schema = schema;
+            this.path = path;
+        }
+    }
+
+    private final Schema schema;
+    private final Consumer<Field> listener;
+    private final JsonParser parser;
+    private final ByteArrayFeeder feeder;
+    private final Deque<Frame> stack = new ArrayDeque<>();
+    private boolean started;
+    private JsonNode result;
+
+    /**
+     * @param jsonSchema 与 structuredOutputPrompt 使用的同一个 Schema，null 表示不校验
+     * @param listener   每个完成的值回调一次，内层先于外层
+     */
+    public StreamingJsonParser(String jsonSchema, Consumer<Field> listener) {
+        try {
+            this.schema = jsonSchema == null ? null : Schema.of(MAPPER.readTree(jsonSchema));
+            this.parser = FACTORY.createNonBlockingByteArrayParser();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("无效的 JSON Schema: " + e.getMessage(), e);
+        }
+        this.feeder = (ByteArrayFeeder) parser.getNonBlockingInputFeeder();
+        this.listener = listener;
+    }
+
+    /**
+     * 把流式响应解析成完成值的流。违反 Schema 或语法错误时以错误结束并取消上游 (停止生成)，
+     * 根值结束后立即完成并取消上游，不再接收 JSON 之后的文本。
+     *
+     * <pre>{@code
+     * Flux<String> chunks = chatModel.stream(prompt).map(r -> r.getResult().getOutput().getText());
+     * StreamingJsonParser.parse(chunks, schema).subscribe(field -> ...);
+     * }</pre>
+     */
+    public static Flux<Field> parse(Flux<String> chunks, String jsonSchema) {
+        return Flux.defer(() -> {
+            List<Field> completed = new ArrayList<>();
+            StreamingJsonParser parser = new StreamingJsonParser(jsonSchema, completed::add);
+            return chunks
+                    .<List<Field>>handle((chunk, sink) -> {
+                        Exception error = null;
+                        try {
+                            parser.feed(chunk);
+                        } catch (IOException | IllegalArgumentException e) {
+                            error = e;
+                        }
+                        // 出错之前已经完成的值照样交给下游
+                        if (!completed.isEmpty()) {
+                            sink.next(new ArrayList<>(completed));
+                            completed.clear();
+                        }
+                        if (error != null) {
+                            sink.error(error);
+                        }
+                    })
+                    .takeUntil(batch -> parser.isComplete())
+                    .concatWith(Flux.defer(() -> {
+                        try {
+                            parser.finish();
+                        } catch (IOException e) {
+                            return Flux.error(e);
+                        }
+                        return Flux.empty();
+                    }))
+                    .concatMapIterable(batch -> batch);
+        });
+    }
+
+    /**
+     * 喂入一段文本，期间完成的值会同步回调。
+     *
+     * @throws IOException              JSON 语法错误
+     * @throws IllegalArgumentException 违反 Schema，消息以出错位置的路径开头
+     */
+    public void feed(String chunk) throws IOException {
+        if (result != null || chunk.isEmpty()) {
+            return; // 根值之后的文本忽略
+        }
+        if (!started) {
+            int start = rootStart(chunk);
+            if (start < 0) {
+                return;
+            }
+            started = true;
+            chunk = chunk.substring(start);
+        }
+        byte[] bytes = chunk.getBytes(StandardCharsets.UTF_8);
+        feeder.feedInput(bytes, 0, bytes.length);
+        JsonToken token;
+        while (result == null && (token = parser.nextToken()) != JsonToken.NOT_AVAILABLE && token != null) {
+            onToken(token);
+        }
+    }
+
+    /**
+     * 输入结束。根值还没完成说明响应被截断。
+     */
+    public JsonNode finish() throws IOException {
+        if (result == null) {
+            feeder.endOfInput();
+            JsonEOFException eof = null;
+            try {
+                JsonToken token;
+                while (result == null && (token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+                    onToken(token);
+                }
+            } catch (JsonEOFException e) {
+                eof = e;
+            }
+            if (result == null) {
+                throw new IOException("响应在 JSON 结束之前中断"
+                        + (stack.isEmpty() ? "" : "，停在 " + pointer(stack.peek().path)), eof);
+            }
+        }
+        return result;
+    }
+
+    public boolean isComplete() {
+        return result != null;
+    }
+
+    /**
+     * 解析完成的根值，未完成时返回 null。
+     */
+    public JsonNode result() {
+        return result;
+    }
+
+    private static int rootStart(String chunk) {
+        for (int i = 0; i < chunk.length(); i++) {
+            char c = chunk.charAt(i);
+            if (c == '{' || c == '[') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void onToken(JsonToken token) throws IOException {
+        Frame parent = stack.peek();
+        switch (token) {
+            case FIELD_NAME -> {
+                String name = parser.currentName();
+                if (parent.schema != null && !parent.schema.additionalProperties()
+                        && !parent.schema.properties().containsKey(name)) {
+                    throw violation(parent.path + "/" + escape(name), "Schema 中没有这个字段");
+                }
+                parent.fieldName = name;
+                parent.seen.add(name);
+            }
+            case START_OBJECT, START_ARRAY -> {
+                Schema s = childSchema(parent);
+                String path = childPath(parent);
+                boolean object = token == JsonToken.START_OBJECT;
+                checkType(s, path, object ? "object" : "array");
+                JsonNode node = object ? NODES.objectNode() : NODES.arrayNode();
+                attach(parent, path, node);
+                stack.push(new Frame(node, s, path));
+            }
+            case END_OBJECT -> {
+                Frame frame = stack.pop();
+                if (frame.schema != null) {
+                    for (String name : frame.schema.required()) {
+                        if (!frame.seen.contains(name)) {
+                            throw violation(frame.path, "缺少必填字段 " + name);
+                        }
+                    }
+                }
+                complete(frame.path, frame.node);
+            }
+            case END_ARRAY -> {
+                Frame frame = stack.pop();
+                complete(frame.path, frame.node);
+            }
+            default -> {
+                Schema s = childSchema(parent);
+                String path = childPath(parent);
+                JsonNode value = scalar(token);
+                checkType(s, path, typeOf(token));
+                if (s != null) {
+                    if (s.enumValues() != null && !s.enumValues().contains(value)) {
+                        throw violation(path, value + " 不在枚举 " + s.enumValues() + " 中");
+                    }
+                    if (value.isTextual() && value.asText().codePointCount(0, value.asText().length()) > s.maxLength()) {
+                        throw violation(path, "字符串超过 maxLength " + s.maxLength());
+                    }
+                }
+                attach(parent, path, value);
+                complete(path, value);
+            }
+        }
+    }
+
+    private Schema childSchema(Frame parent) {
+        if (parent == null) {
+            return schema;
+        }
+        if (parent.schema == null) {
+            return null;
+        }
+        return parent.node.isObject() ? parent.schema.property(parent.fieldName) : parent.schema.items();
+    }
+
+    private static String childPath(Frame parent) {
+        if (parent == null) {
+            return "";
+        }
+        return parent.path + "/" + (parent.node.isObject() ? escape(parent.fieldName) : Integer.toString(parent.size));
+    }
+
+    private void attach(Frame parent, String path, JsonNode value) {
+        if (parent == null) {
+            return;
+        }
+        if (parent.node instanceof ObjectNode object) {
+            object.set(parent.fieldName, value);
+        } else {
+            if (parent.schema != null && parent.size >= parent.schema.maxItems()) {
+                throw violation(parent.path, "元素个数超过 maxItems " + parent.schema.maxItems());
+            }
+            ((ArrayNode) parent.node).add(value);
+        }
+        parent.size++;
+    }
+
+    private void complete(String path, JsonNode value) {
+        if (stack.isEmpty()) {
+            result = value;
+        }
+        listener.accept(new Field(path, value));
+    }
+
+    private JsonNode scalar(JsonToken token) throws IOException {
+        return switch (token) {
+            case VALUE_STRING -> NODES.textNode(parser.getText());
+            case VALUE_NUMBER_INT -> switch (parser.getNumberType()) {
+                case INT -> NODES.numberNode(parser.getIntValue());
+                case LONG -> NODES.numberNode(parser.getLongValue());
+                default -> NODES.numberNode(parser.getBigIntegerValue());
+            };
+            case VALUE_NUMBER_FLOAT -> NODES.numberNode(parser.getDoubleValue()); // 与 ObjectMapper.readTree 的默认行为一致
+            case VALUE_TRUE -> NODES.booleanNode(true);
+            case VALUE_FALSE -> NODES.booleanNode(false);
+            case VALUE_NULL -> NODES.nullNode();
+            default -> throw new IOException("意外的 token: " + token);
+        };
+    }
+
+    private static String typeOf(JsonToken token) {
+        return switch (token) {
+            case VALUE_STRING -> "string";
+            case VALUE_NUMBER_INT -> "integer";
+            case VALUE_NUMBER_FLOAT -> "number";
+            case VALUE_TRUE, VALUE_FALSE -> "boolean";
+            default -> "null";
+        };
+    }
+
+    private static void checkType(Schema s, String path, String actual) {
+        if (s == null || s.types().isEmpty() || s.types().contains(actual)
+                || (actual.equals("integer") && s.types().contains("number"))) {
+            return;
+        }
+        throw violation(path, "期望 " + String.join("|", s.types()) + "，实际是 " + actual);
+    }
+
+    private static IllegalArgumentException violation(String path, String message) {
+        return new IllegalArgumentException(pointer(path) + ": " + message);
+    }
+
+    private static String pointer(String path) {
+        return path.isEmpty() ? "/" : path;
+    }
+
+    private static String escape(String name) {
+        return name.replace("~", "~0").replace("/", "~1");
+    }
+}
@@ -0,0 +1,124 @@
+package org.todocode.ai._01_prompts;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * [TodoCode] 预编译提示词模板测试
+ */
+class CompiledTemplateTest {
+
+    private static final String SCHEMA = "{\"type\": \"object\", \"properties\": {\"name\": {\"type\": \"string\"}}}";
+
+    @Test
+    @DisplayName("预编译版本的输出应该与 PromptTemplates 完全一致")
+    void testMatchesPromptTemplates() {
+        assertEquals(PromptTemplates.systemPrompt("a Java expert", "- Answer in English"),
+                CompiledPrompts.systemPrompt("a Java expert", "- Answer in English"));
+        assertEquals(PromptTemplates.chainOfThoughtPrompt("死锁的四个必要条件"),
+                CompiledPrompts.chainOfThoughtPrompt("死锁的四个必要条件"));
+        assertEquals(PromptTemplates.structuredOutputPrompt("Extract the name", SCHEMA),
+                CompiledPrompts.structuredOutputPrompt("Extract the name", SCHEMA));
+
+        Map<String, String> examples = new LinkedHashMap<>();
+        examples.put("great product", "positive");
+        examples.put("broke after a day", "negative");
+        assertEquals(PromptTemplates.fewShotPrompt("sentiment", examples),
+                CompiledPrompts.fewShotPrompt("sentiment", examples));
+        assertEquals(PromptTemplates.fewShotPrompt("sentiment", Map.of()),
+                CompiledPrompts.fewShotPrompt("sentiment", Map.of()));
+
+        List<String> passages = List.of("HashMap 不是线程安全的", "ConcurrentHashMap 按桶加锁");
+        assertEquals(PromptTemplates.retrievalPrompt("为什么要用 ConcurrentHashMap?", passages),
+                CompiledPrompts.retrievalPrompt("为什么要用 ConcurrentHashMap?", passages));
+        assertEquals(PromptTemplates.retrievalPrompt("q", List.of()), CompiledPrompts.retrievalPrompt("q", List.of()));
+    }
+
+    @Test
+    @DisplayName("单花括号的 JSON 不是占位符，同名占位符可以出现多次")
+    void testCompile() {
+        CompiledTemplate template = CompiledTemplate.compile("{\"a\": 1} {{ x }}-{{y}}-{{x}}");
+        assertEquals(List.of("x", "y", "x"), template.slotNames());
+        assertEquals("{\"a\": 1} 1-2-3", template.render("1", "2", "3"));
+        assertEquals("{\"a\": 1} 1-2-1", template.render(Map.of("x", "1", "y", "2")));
+        assertEquals(template.render("1", "2", "3").length(), template.length("1", "2", "3"));
+
+        assertThrows(IllegalArgumentException.class, () -> CompiledTemplate.compile("{{open"));
+        assertThrows(IllegalArgumentException.class, () -> CompiledTemplate.compile("{{ }}"));
+        assertThrows(IllegalArgumentException.class, () -> template.render("1", "2"));
+        assertThrows(IllegalArgumentException.class, () -> template.render("1", null, "3"));
+        assertThrows(IllegalArgumentException.class, () -> template.render(Map.of("x", "1")));
+    }
+
+    @Test
+    @DisplayName("bind 应该把固定参数合并进字面量，全部绑定后只剩静态文本")
+    void testBind() {
+        CompiledTemplate partial = CompiledPrompts.SYSTEM.bind("role", "a reviewer");
+        assertEquals(List.of("constraints"), partial.slotNames());
+        assertEquals(CompiledPrompts.systemPrompt("a reviewer", "- Be strict"), partial.render("- Be strict"));
+        assertThrows(IllegalStateException.class, partial::staticText);
+
+        CompiledTemplate fixed = CompiledPrompts.bindSystemPrompt("a reviewer", "- Be strict");
+        assertEquals(List.of(), fixed.slotNames());
+        assertEquals(CompiledPrompts.systemPrompt("a reviewer", "- Be strict"), fixed.staticText());
+        assertEquals(fixed.staticText(), fixed.render());
+
+        assertThrows(IllegalArgumentException.class, () -> partial.bind("role", "x"));
+    }
+
+    @Test
+    @DisplayName("复用的 StringBuilder 在容量足够后不应该再扩容")
+    void testRenderToReusedBuffer() {
+        StringBuilder buffer = new StringBuilder();
+        CompiledPrompts.chainOfThoughtPrompt(buffer, "first problem");
+        int capacity = buffer.capacity();
+        for (int i = 0; i < 100; i++) {
+            buffer.setLength(0);
+            CompiledPrompts.chainOfThoughtPrompt(buffer, "problem " + i);
+            assertEquals(PromptTemplates.chainOfThoughtPrompt("problem " + i), buffer.toString());
+        }
+        assertEquals(capacity, buffer.capacity());
+
+        buffer.setLength(0);
+        buffer.append("prefix|");
+        CompiledPrompts.structuredOutputPrompt(buffer, "req", SCHEMA);
+        assertEquals("prefix|" + PromptTemplates.structuredOutputPrompt("req", SCHEMA), buffer.toString());
+    }
+
+    @Test
+    @DisplayName("写入 Writer 和 ByteBuffer 的结果应该与 String 版本一致，包括非 ASCII 字符")
+    void testWriterAndByteBuffer() throws IOException {
+        String[] values = {"资深 Java 工程师 🚀", "- 回答使用中文\n- café ñ"};
+        String expected = CompiledPrompts.SYSTEM.render(values);
+
+        StringWriter writer = new StringWriter();
+        CompiledPrompts.SYSTEM.writeTo(writer, values);
+        assertEquals(expected, writer.toString());
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
+        CompiledPrompts.SYSTEM.encodeTo(buffer, values);
+        buffer.flip();
+        assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), toArray(buffer));
+
+        ByteBuffer lone = ByteBuffer.allocate(16);
+        CompiledTemplate.encodeUtf8("a\uD800b", lone);
+        lone.flip();
+        assertArrayEquals("a\uD800b".getBytes(StandardCharsets.UTF_8), toArray(lone));
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,211 @@
+package org.todocode.ai._02_caching;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.metadata.ChatResponseMetadata;
+import org.springframework.ai.chat.metadata.DefaultUsage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.todocode.ai._01_prompts.PromptTemplates;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * [TodoCode] LLM 响应缓存测试
+ */
+class CachingChatModelTest {
+
+    /**
+     * 假的聊天模型: 回答里带上调用序号，每次调用报告 100 个 token。
+     */
+    static class FakeChatModel implements ChatModel {
+        final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public ChatResponse call(Prompt prompt) {
+            int n = calls.incrementAndGet();
+            return new ChatResponse(List.of(new Generation(new AssistantMessage("answer #" + n))),
+                    ChatResponseMetadata.builder().usage(new DefaultUsage(60L, 40L)).build());
+        }
+    }
+
+    /**
+     * 假的 embedding 模型: 词袋哈希到 64 维，共享的词越多余弦相似度越高。
+     */
+    static class FakeEmbeddingModel implements EmbeddingModel {
+        final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            List<Embedding> embeddings = new ArrayList<>();
+            for (String text : request.getInstructions()) {
+                embeddings.add(new Embedding(embed(text), embeddings.size()));
+            }
+            return new EmbeddingResponse(embeddings);
+        }
+
+        @Override
+        public float[] embed(String text) {
+            calls.incrementAndGet();
+            float[] vector = new float[64];
+            for (String word : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+                if (!word.isEmpty()) {
+                    vector[Math.floorMod(word.hashCode(), vector.length)] += 1;
+                }
+            }
+            return vector;
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return embed(document.getText());
+        }
+    }
+
+    @Test
+    @DisplayName("只有首尾空白、换行符和行尾空格不同的提示词应该命中精确缓存，并统计节省的 token")
+    void testExactHit() {
+        FakeChatModel model = new FakeChatModel();
+        CachingChatModel cache = new CachingChatModel(model, Duration.ofMinutes(5), 100);
+
+        String prompt = PromptTemplates.chainOfThoughtPrompt("Why is HashMap not thread-safe?");
+        String first = cache.call(new Prompt(prompt)).getResult().getOutput().getText();
+        String second = cache.call(new Prompt("\n  " + prompt.replace("\n", " \t\r\n") + "\r\n")).getResult().getOutput().getText();
+
+        assertEquals("answer #1", first);
+        assertEquals(first, second);
+        assertEquals(1, model.calls.get());
+        CachingChatModel.Stats stats = cache.stats();
+        assertEquals(2, stats.requests());
+        assertEquals(1, stats.exactHits());
+        assertEquals(100, stats.savedTokens());
+        assertEquals(0.5, stats.hitRatio(), 1e-9);
+    }
+
+    @Test
+    @DisplayName("缩进、空行或行内空白不同的提示词是不同的提示词，不应该共享缓存")
+    void testLayoutIsPartOfKey() {
+        FakeChatModel model = new FakeChatModel();
+        CachingChatModel cache = new CachingChatModel(model, Duration.ofMinutes(5), 100);
+
+        cache.call(new Prompt("Fix this YAML:\nserver:\n  port: 8080"));
+        cache.call(new Prompt("Fix this YAML:\nserver:\nport: 8080"));
+        cache.call(new Prompt("Fix this YAML:\n\nserver:\n  port: 8080"));
+        cache.call(new Prompt("Fix this YAML: server:  port: 8080"));
+        cache.call(new Prompt("Fix this YAML: server: port: 8080"));
+        assertEquals(5, model.calls.get());
+        assertEquals(0, cache.stats().exactHits());
+
+        assertNotEquals(CachingChatModel.normalizeText("a\n  b"), CachingChatModel.normalizeText("a\nb"));
+        assertEquals("a\n  b", CachingChatModel.normalizeText(" a \r\n  b\t\r"));
+    }
+
+    @Test
+    @DisplayName("大小写、角色或选项不同的提示词不应该共享缓存")
+    void testKeyIncludesRoleAndOptions() {
+        FakeChatModel model = new FakeChatModel();
+        CachingChatModel cache = new CachingChatModel(model, Duration.ofMinutes(5), 100);
+
+        cache.call(new Prompt("List.of() vs Arrays.asList()"));
+        cache.call(new Prompt("list.of() vs arrays.aslist()"));
+        cache.call(new Prompt(new SystemMessage("List.of() vs Arrays.asList()")));
+        cache.call(new Prompt("List.of() vs Arrays.asList()", ChatOptions.builder().temperature(0.0).build()));
+        cache.call(new Prompt("List.of() vs Arrays.asList()", ChatOptions.builder().temperature(0.9).build()));
+        assertEquals(5, model.calls.get());
+
+        cache.call(new Prompt("List.of() vs Arrays.asList()", ChatOptions.builder().temperature(0.9).build()));
+        assertEquals(5, model.calls.get());
+    }
+
+    @Test
+    @DisplayName("措辞相近的问题应该命中语义缓存，无关的问题和不同的上下文不应该命中")
+    void testSemanticHit() {
+        FakeChatModel model = new FakeChatModel();
+        FakeEmbeddingModel embeddings = new FakeEmbeddingModel();
+        CachingChatModel cache = new CachingChatModel(model, embeddings, Duration.ofMinutes(5), 100, 0.9);
+        SystemMessage system = new SystemMessage(PromptTemplates.systemPrompt("a Java expert", "- Be brief"));
+
+        String a = text(cache.call(new Prompt(List.of(system, new UserMessage(
+                "How do I reverse a list in Java without copying it")))));
+        String b = text(cache.call(new Prompt(List.of(system, new UserMessage(
+                "how do I reverse a list in Java without copying it?  Thanks")))));
+        assertEquals(a, b);
+        assertEquals(1, model.calls.get());
+        assertEquals(1, cache.stats().semanticHits());
+
+        // 语义命中的措辞被写进了精确层，再问一次不需要 embedding
+        int embedCalls = embeddings.calls.get();
+        cache.call(new Prompt(List.of(system, new UserMessage(
+                "how do I reverse a list in Java without copying it?  Thanks"))));
+        assertEquals(embedCalls, embeddings.calls.get());
+        assertEquals(1, cache.stats().exactHits());
+
+        cache.call(new Prompt(List.of(system, new UserMessage("What is the capital of France"))));
+        assertEquals(2, model.calls.get());
+
+        SystemMessage otherSystem = new SystemMessage(PromptTemplates.systemPrompt("a Python expert", "- Be brief"));
+        cache.call(new Prompt(List.of(otherSystem, new UserMessage(
+                "How do I reverse a list in Java without copying it"))));
+        assertEquals(3, model.calls.get());
+
+        CachingChatModel.Stats stats = cache.stats();
+        assertEquals(5, stats.requests());
+        assertEquals(3, stats.misses());
+        assertEquals(200, stats.savedTokens());
+    }
+
+    @Test
+    @DisplayName("过期的条目在两层缓存中都不应该再命中")
+    void testTtl() throws InterruptedException {
+        FakeChatModel model = new FakeChatModel();
+        CachingChatModel cache = new CachingChatModel(model, new FakeEmbeddingModel(), Duration.ofMillis(100), 100, 0.9);
+
+        cache.call(new Prompt("Explain the volatile keyword"));
+        cache.call(new Prompt("Explain the volatile keyword"));
+        assertEquals(1, model.calls.get());
+
+        Thread.sleep(150);
+        cache.call(new Prompt("Explain the volatile keyword"));
+        cache.call(new Prompt("explain the Volatile keyword!"));
+        assertEquals(2, model.calls.get());
+        assertEquals(1, cache.stats().semanticHits());
+    }
+
+    @Test
+    @DisplayName("超过容量时应该淘汰最久未使用的条目")
+    void testEviction() {
+        FakeChatModel model = new FakeChatModel();
+        CachingChatModel cache = new CachingChatModel(model, Duration.ofMinutes(5), 2);
+
+        cache.call(new Prompt("a"));
+        cache.call(new Prompt("b"));
+        cache.call(new Prompt("a")); // a 变成最近使用
+        cache.call(new Prompt("c")); // 淘汰 b
+        assertEquals(3, model.calls.get());
+        cache.call(new Prompt("a"));
+        assertEquals(3, model.calls.get());
+        cache.call(new Prompt("b"));
+        assertEquals(4, model.calls.get());
+    }
+
+    private static String text(ChatResponse response) {
+        return response.getResult().getOutput().getText();
+    }
+}
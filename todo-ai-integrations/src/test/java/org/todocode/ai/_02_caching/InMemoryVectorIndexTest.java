@@ -0,0 +1,45 @@
+package org.todocode.ai._02_caching;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * [TodoCode] 内存向量索引测试
+ */
+class InMemoryVectorIndexTest {
+
+    @Test
+    @DisplayName("最近邻应该按余弦相似度选择，与向量长度无关")
+    void testNearest() {
+        InMemoryVectorIndex<String> index = new InMemoryVectorIndex<>(10);
+        assertNull(index.nearest(new float[]{1, 0, 0}));
+
+        index.add(new float[]{1, 0, 0}, "x");
+        index.add(new float[]{0, 5, 0}, "y");
+        index.add(new float[]{0, 0, 0.1f}, "z");
+
+        InMemoryVectorIndex.Match<String> match = index.nearest(new float[]{0.1f, 3, 0.2f});
+        assertEquals("y", match.value());
+        assertTrue(match.similarity() > 0.99);
+        assertEquals(1.0, index.nearest(new float[]{0, 0, 7}).similarity(), 1e-6);
+
+        assertThrows(IllegalArgumentException.class, () -> index.add(new float[]{1, 2}, "bad"));
+        assertThrows(IllegalArgumentException.class, () -> index.add(new float[]{0, 0, 0}, "zero"));
+    }
+
+    @Test
+    @DisplayName("写满后应该覆盖最老的条目")
+    void testRingOverwrite() {
+        InMemoryVectorIndex<String> index = new InMemoryVectorIndex<>(2);
+        index.add(new float[]{1, 0}, "old");
+        index.add(new float[]{0, 1}, "b");
+        index.add(new float[]{1, 0.01f}, "new");
+        assertEquals(2, index.size());
+        assertEquals("new", index.nearest(new float[]{1, 0}).value());
+        index.clear();
+        assertEquals(0, index.size());
+        assertNull(index.nearest(new float[]{1, 0}));
+    }
+}
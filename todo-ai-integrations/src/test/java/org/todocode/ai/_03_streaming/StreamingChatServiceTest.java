@@ -0,0 +1,263 @@
+package org.todocode.ai._03_streaming;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscription;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.model.StreamingChatModel;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.openai.OpenAiChatModel;
+import org.springframework.ai.openai.api.OpenAiApi;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.http.server.reactive.ReactorHttpHandlerAdapter;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * [TodoCode] 流式聊天测试
+ *
+ * 用 JDK 自带的 HttpServer 模拟 OpenAI 的流式接口 (chat.completion.chunk 的 SSE)，
+ * 经过真实的 OpenAiChatModel 和 WebFlux 服务端，再由 WebClient 作为浏览器读取。
+ */
+class StreamingChatServiceTest {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final ParameterizedTypeReference<ServerSentEvent<String>> SSE = new ParameterizedTypeReference<>() {
+    };
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final List<AutoCloseable> resources = new ArrayList<>();
+
+    /**
+     * 按固定间隔逐个 token 输出 chunk 的假 OpenAI 服务。
+     */
+    static class StubOpenAiServer implements AutoCloseable {
+        final com.sun.net.httpserver.HttpServer server;
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        final AtomicInteger chunksWritten = new AtomicInteger();
+        final CountDownLatch disconnected = new CountDownLatch(1);
+        private final List<String> tokens;
+        private final long firstDelayMillis;
+        private final long delayMillis;
+
+        StubOpenAiServer(List<String> tokens, long firstDelayMillis, long delayMillis) throws IOException {
+            this.tokens = tokens;
+            this.firstDelayMillis = firstDelayMillis;
+            this.delayMillis = delayMillis;
+            server = com.sun.net.httpserver.HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.createContext("/v1/chat/completions", this::handle);
+            server.setExecutor(executor);
+            server.start();
+        }
+
+        String baseUrl() {
+            return "http://127.0.0.1:" + server.getAddress().getPort();
+        }
+
+        private void handle(HttpExchange exchange) throws IOException {
+            exchange.getRequestBody().readAllBytes();
+            exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+            exchange.sendResponseHeaders(200, 0); // 0 = chunked
+            try (OutputStream out = exchange.getResponseBody()) {
+                write(out, chunk(Map.of("role", "assistant", "content", ""), null));
+                sleep(firstDelayMillis);
+                for (String token : tokens) {
+                    write(out, chunk(Map.of("content", token), null));
+                    chunksWritten.incrementAndGet();
+                    sleep(delayMillis);
+                }
+                write(out, chunk(Map.of(), "stop"));
+                out.write("data: [DONE]\n\n".getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                disconnected.countDown(); // 客户端断开后写入失败
+            }
+        }
+
+        private static String chunk(Map<String, String> delta, String finishReason) throws IOException {
+            Map<String, Object> choice = new HashMap<>();
+            choice.put("index", 0);
+            choice.put("delta", delta);
+            choice.put("finish_reason", finishReason);
+            return JSON.writeValueAsString(Map.of("id", "chatcmpl-stub", "object", "chat.completion.chunk",
+                    "created", 1, "model", "stub", "choices", List.of(choice)));
+        }
+
+        private static void write(OutputStream out, String json) throws IOException {
+            out.write(("data: " + json + "\n\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+
+        private static void sleep(long millis) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void close() {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        for (AutoCloseable resource : resources) {
+            resource.close();
+        }
+    }
+
+    private StreamingChatService serviceFor(StubOpenAiServer stub) {
+        resources.add(stub);
+        OpenAiChatModel model = new OpenAiChatModel(new OpenAiApi(stub.baseUrl(), "test-key"));
+        return new StreamingChatService("test", model, 8, registry);
+    }
+
+    private WebClient serve(StreamingChatService service) {
+        DisposableServer server = HttpServer.create()
+                .host("127.0.0.1")
+                .port(0)
+                .handle(new ReactorHttpHandlerAdapter(RouterFunctions.toHttpHandler(service.routes())))
+                .bindNow();
+        resources.add(server::disposeNow);
+        return WebClient.create("http://127.0.0.1:" + server.port());
+    }
+
+    @Test
+    @DisplayName("token 应该逐个以 SSE 事件到达客户端，开头的空格不能丢，最后是统计事件")
+    void testEndToEnd() throws Exception {
+        StubOpenAiServer stub = new StubOpenAiServer(List.of("Hello", ",", " world", "!"), 0, 5);
+        WebClient client = serve(serviceFor(stub));
+
+        List<ServerSentEvent<String>> events = client.get().uri("/chat/stream?q={q}", "say hello")
+                .retrieve().bodyToFlux(SSE).collectList().block(Duration.ofSeconds(10));
+
+        assertNotNull(events);
+        StringBuilder text = new StringBuilder();
+        for (ServerSentEvent<String> event : events.subList(0, events.size() - 1)) {
+            assertEquals("token", event.event());
+            text.append(JSON.readValue(event.data(), String.class));
+        }
+        assertEquals("Hello, world!", text.toString());
+
+        ServerSentEvent<String> done = events.getLast();
+        assertEquals("done", done.event());
+        JsonNode stats = JSON.readTree(done.data());
+        assertEquals(4, stats.get("tokens").asInt());
+        assertEquals(1, registry.get("todocode.llm.stream.completed").counter().count());
+        assertEquals(1, registry.get("todocode.llm.stream.ttft").timer().count());
+
+        assertEquals(400, client.get().uri("/chat/stream").exchangeToMono(r -> Mono.just(
+                r.statusCode().value())).block(Duration.ofSeconds(5)));
+    }
+
+    @Test
+    @DisplayName("应该记录首 token 时间和生成速度")
+    void testTtftAndTokensPerSecond() throws Exception {
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            tokens.add(" t" + i);
+        }
+        StubOpenAiServer stub = new StubOpenAiServer(tokens, 300, 10);
+        StreamingChatService service = serviceFor(stub);
+
+        List<String> received = service.stream(new Prompt("count")).collectList().block(Duration.ofSeconds(10));
+        assertEquals(tokens, received);
+
+        double ttftMillis = registry.get("todocode.llm.stream.ttft").timer().max(TimeUnit.MILLISECONDS);
+        assertTrue(ttftMillis >= 300, "TTFT 应该包含首 token 前的等待: " + ttftMillis);
+        double tokensPerSecond = registry.get("todocode.llm.stream.tokens.per.second").summary().max();
+        // 每 10ms 一个 token，理论上约 100/s；单核机器上调度抖动很大，只检查数量级
+        assertTrue(tokensPerSecond > 10 && tokensPerSecond < 1000, "tokens/s = " + tokensPerSecond);
+    }
+
+    @Test
+    @DisplayName("客户端断开后取消应该一直传到模型服务，停止生成")
+    void testCancellationPropagates() throws Exception {
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            tokens.add(" t" + i);
+        }
+        StubOpenAiServer stub = new StubOpenAiServer(tokens, 0, 20); // 完整输出需要约 4 秒
+        WebClient client = serve(serviceFor(stub));
+
+        List<ServerSentEvent<String>> firstThree = client.get().uri("/chat/stream?q={q}", "count")
+                .retrieve().bodyToFlux(SSE).take(3).collectList().block(Duration.ofSeconds(10));
+        assertEquals(3, firstThree.size());
+
+        assertTrue(stub.disconnected.await(5, TimeUnit.SECONDS), "模型服务应该发现连接已关闭");
+        assertTrue(stub.chunksWritten.get() < 200, "取消后不应该继续生成: " + stub.chunksWritten.get());
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (registry.get("todocode.llm.stream.cancelled").counter().count() < 1 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, registry.get("todocode.llm.stream.cancelled").counter().count());
+        assertEquals(0, registry.get("todocode.llm.stream.completed").counter().count());
+    }
+
+    @Test
+    @DisplayName("慢消费者只请求少量元素时，上游最多多生产 prefetch 个")
+    void testBackpressure() throws Exception {
+        AtomicLong produced = new AtomicLong();
+        AtomicLong maxRequest = new AtomicLong();
+        StreamingChatModel model = prompt -> Flux.range(0, 10_000)
+                .doOnRequest(n -> maxRequest.accumulateAndGet(n, Math::max))
+                .doOnNext(i -> produced.incrementAndGet())
+                .map(i -> new ChatResponse(List.of(new Generation(new AssistantMessage("t" + i)))));
+        StreamingChatService service = new StreamingChatService("bp", model, 8, registry);
+
+        AtomicInteger received = new AtomicInteger();
+        BaseSubscriber<String> slow = new BaseSubscriber<>() {
+            @Override
+            protected void hookOnSubscribe(Subscription subscription) {
+                request(5);
+            }
+
+            @Override
+            protected void hookOnNext(String value) {
+                received.incrementAndGet();
+            }
+        };
+        service.stream(new Prompt("go")).subscribe(slow);
+        Thread.sleep(200);
+
+        assertEquals(5, received.get());
+        assertTrue(maxRequest.get() <= 8, "向上游的请求量不应该超过 prefetch: " + maxRequest.get());
+        assertTrue(produced.get() <= 5 + 8, "上游生产了 " + produced.get() + " 个");
+        slow.dispose();
+        assertEquals(1, registry.get("todocode.llm.stream.cancelled").tag("service", "bp").counter().count());
+    }
+}
@@ -0,0 +1,241 @@
+package org.todocode.ai._04_batching;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * [TodoCode] 微批处理分发器测试
+ */
+class MicroBatcherTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    /**
+     * 假的 embedding 服务: 每次调用固定 20ms 往返，与批大小基本无关；
+     * 超过自己的 RPM (按 1 秒滑动窗口检查) 时像真实服务一样返回 429。
+     */
+    static class FakeProvider implements MicroBatcher.BatchProvider<String, String> {
+        final AtomicInteger calls = new AtomicInteger();
+        final AtomicInteger maxBatch = new AtomicInteger();
+        final AtomicInteger rateLimited = new AtomicInteger();
+        private final Deque<Long> window = new ArrayDeque<>();
+        private final int maxCallsPerSecond;
+
+        FakeProvider(int maxCallsPerSecond) {
+            this.maxCallsPerSecond = maxCallsPerSecond;
+        }
+
+        @Override
+        public List<String> call(List<String> batch) throws Exception {
+            checkRate();
+            calls.incrementAndGet();
+            maxBatch.accumulateAndGet(batch.size(), Math::max);
+            Thread.sleep(20);
+            List<String> result = new ArrayList<>(batch.size());
+            for (String s : batch) {
+                if (s.equals("boom")) {
+                    throw new IllegalArgumentException("输入无效: boom");
+                }
+                result.add("emb(" + s + ")");
+            }
+            return result;
+        }
+
+        private synchronized void checkRate() {
+            long now = System.nanoTime();
+            while (!window.isEmpty() && now - window.peekFirst() > TimeUnit.SECONDS.toNanos(1)) {
+                window.pollFirst();
+            }
+            if (window.size() >= maxCallsPerSecond) {
+                rateLimited.incrementAndGet();
+                throw new IllegalStateException("429 Too Many Requests");
+            }
+            window.addLast(now);
+        }
+    }
+
+    private static MicroBatcher.Limits limits(int maxBatchSize, Duration linger, long rpm, long tpm, Duration burst) {
+        return new MicroBatcher.Limits(maxBatchSize, linger, rpm, tpm, burst, 4);
+    }
+
+    @Test
+    @DisplayName("并发提交的请求应该被合并成批，结果按下标回到各自的 future")
+    void testBatchingAndDemultiplexing() throws Exception {
+        FakeProvider provider = new FakeProvider(1000);
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        try (MicroBatcher<String, String> batcher = new MicroBatcher<>("demux", provider, s -> 1,
+                limits(32, Duration.ofMillis(20), 6000, 1_000_000, Duration.ofSeconds(1)), registry);
+             ExecutorService clients = Executors.newFixedThreadPool(8)) {
+            List<Future<CompletableFuture<String>>> submitted = new ArrayList<>();
+            for (int i = 0; i < 300; i++) {
+                String doc = "doc-" + i;
+                submitted.add(clients.submit(() -> batcher.submit(doc)));
+            }
+            for (Future<CompletableFuture<String>> f : submitted) {
+                futures.add(f.get());
+            }
+            for (int i = 0; i < 300; i++) {
+                assertEquals("emb(doc-" + i + ")", futures.get(i).get(5, TimeUnit.SECONDS));
+            }
+        }
+        assertTrue(provider.maxBatch.get() <= 32);
+        assertTrue(provider.calls.get() < 300 / 4, "应该明显少于逐条调用: " + provider.calls.get());
+        assertEquals(300, registry.get("todocode.batcher.queue.wait").timer().count());
+    }
+
+    @Test
+    @DisplayName("凑不满一批时，第一条最多等 maxLinger 就发出")
+    void testLinger() throws Exception {
+        FakeProvider provider = new FakeProvider(1000);
+        try (MicroBatcher<String, String> batcher = new MicroBatcher<>("linger", provider, s -> 1,
+                limits(100, Duration.ofMillis(50), 6000, 1_000_000, Duration.ofSeconds(1)), registry)) {
+            long start = System.nanoTime();
+            assertEquals("emb(alone)", batcher.submit("alone").get(5, TimeUnit.SECONDS));
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue(elapsedMillis >= 45, "应该等了 linger: " + elapsedMillis);
+            assertTrue(elapsedMillis < 2000, "不应该等到凑满一批: " + elapsedMillis);
+        }
+        assertEquals(1, provider.maxBatch.get());
+    }
+
+    @Test
+    @DisplayName("批处理的吞吐量应该远高于逐条调用")
+    void testThroughputAgainstPerDocumentCalls() throws Exception {
+        int n = 400;
+        FakeProvider direct = new FakeProvider(Integer.MAX_VALUE);
+        long start = System.nanoTime();
+        try (ExecutorService clients = Executors.newFixedThreadPool(8)) {
+            List<Future<List<String>>> results = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                String doc = "doc-" + i;
+                results.add(clients.submit(() -> direct.call(List.of(doc))));
+            }
+            for (Future<List<String>> r : results) {
+                r.get();
+            }
+        }
+        long directNanos = System.nanoTime() - start;
+
+        FakeProvider batched = new FakeProvider(Integer.MAX_VALUE);
+        start = System.nanoTime();
+        try (MicroBatcher<String, String> batcher = new MicroBatcher<>("throughput", batched, s -> 1,
+                limits(64, Duration.ofMillis(5), 60_000, 10_000_000, Duration.ofSeconds(1)), registry)) {
+            List<CompletableFuture<String>> futures = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                futures.add(batcher.submit("doc-" + i));
+            }
+            CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get(10, TimeUnit.SECONDS);
+        }
+        long batchedNanos = System.nanoTime() - start;
+
+        String rates = String.format("逐条调用 (8 线程) %.0f docs/s，微批处理 %.0f docs/s",
+                n * 1e9 / directNanos, n * 1e9 / batchedNanos);
+        assertEquals(n, direct.calls.get());
+        assertTrue(batched.calls.get() <= n / 64 + 4, "批次数: " + batched.calls.get());
+        assertTrue(batchedNanos < directNanos, "批处理应该更快: " + rates);
+    }
+
+    @Test
+    @DisplayName("RPM 预算应该让请求速率保持在服务商限制之内，不触发 429")
+    void testRequestsPerMinuteBudget() throws Exception {
+        FakeProvider provider = new FakeProvider(11); // 服务商: 每秒最多 11 次
+        try (MicroBatcher<String, String> batcher = new MicroBatcher<>("rpm", provider, s -> 1,
+                limits(1, Duration.ZERO, 600, 1_000_000, Duration.ofMillis(100)), registry)) { // 600 RPM = 每 100ms 一次
+            long start = System.nanoTime();
+            List<CompletableFuture<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                futures.add(batcher.submit("doc-" + i));
+            }
+            CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get(10, TimeUnit.SECONDS);
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue(elapsedMillis >= 1400, "16 次调用至少需要 1.5 秒: " + elapsedMillis);
+        }
+        assertEquals(0, provider.rateLimited.get());
+        assertEquals(16, provider.calls.get());
+        assertTrue(registry.get("todocode.batcher.throttled").timer().totalTime(TimeUnit.MILLISECONDS) > 1000);
+    }
+
+    @Test
+    @DisplayName("TPM 预算应该限制每批的 token 数，超大的单条输入直接失败")
+    void testTokensPerMinuteBudget() throws Exception {
+        FakeProvider provider = new FakeProvider(1000);
+        // 60000 TPM、突发窗口 100ms: 桶容量 100 个 token，每批最多 10 条 x 10 token
+        try (MicroBatcher<String, String> batcher = new MicroBatcher<>("tpm", provider, s -> s.equals("huge") ? 101 : 10,
+                limits(100, Duration.ofMillis(20), 6000, 60_000, Duration.ofMillis(100)), registry)) {
+            ExecutionException tooLarge = assertThrows(ExecutionException.class, () -> batcher.submit("huge").get());
+            assertInstanceOf(IllegalArgumentException.class, tooLarge.getCause());
+
+            long start = System.nanoTime();
+            List<CompletableFuture<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 30; i++) {
+                futures.add(batcher.submit("doc-" + i));
+            }
+            CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get(10, TimeUnit.SECONDS);
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue(elapsedMillis >= 150, "第 2、3 批要等 TPM 预算: " + elapsedMillis);
+        }
+        assertEquals(10, provider.maxBatch.get());
+        assertEquals(3, provider.calls.get());
+    }
+
+    @Test
+    @DisplayName("批次失败时批内所有 future 都应该失败，结果数量不符也算失败")
+    void testFailures() throws Exception {
+        try (MicroBatcher<String, String> batcher = new MicroBatcher<>("fail", new FakeProvider(1000), s -> 1,
+                limits(10, Duration.ofMillis(100), 6000, 1_000_000, Duration.ofSeconds(1)), registry)) {
+            List<CompletableFuture<String>> futures = List.of(
+                    batcher.submit("a"), batcher.submit("boom"), batcher.submit("c"));
+            for (CompletableFuture<String> f : futures) {
+                ExecutionException e = assertThrows(ExecutionException.class, () -> f.get(5, TimeUnit.SECONDS));
+                assertEquals("输入无效: boom", e.getCause().getMessage());
+            }
+        }
+
+        try (MicroBatcher<String, String> batcher = new MicroBatcher<>("mismatch", batch -> List.of("only one"), s -> 1,
+                limits(10, Duration.ofMillis(50), 6000, 1_000_000, Duration.ofSeconds(1)), registry)) {
+            CompletableFuture<String> a = batcher.submit("a");
+            CompletableFuture<String> b = batcher.submit("b");
+            ExecutionException e = assertThrows(ExecutionException.class, () -> a.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(IllegalStateException.class, e.getCause());
+            assertThrows(ExecutionException.class, () -> b.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(2, registry.get("todocode.batcher.failed").counters().stream().mapToDouble(c -> c.count()).sum());
+    }
+
+    @Test
+    @DisplayName("关闭时应该立即发出已入队的请求，之后的提交被拒绝")
+    void testCloseFlushes() throws Exception {
+        FakeProvider provider = new FakeProvider(1000);
+        MicroBatcher<String, String> batcher = new MicroBatcher<>("close", provider, s -> 1,
+                limits(100, Duration.ofSeconds(30), 6000, 1_000_000, Duration.ofSeconds(1)), registry);
+        List<CompletableFuture<String>> futures = List.of(batcher.submit("a"), batcher.submit("b"), batcher.submit("c"));
+
+        long start = System.nanoTime();
+        batcher.close();
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5), "不应该等满 30 秒的 linger");
+        for (CompletableFuture<String> f : futures) {
+            assertTrue(f.isDone());
+        }
+        assertEquals("emb(b)", futures.get(1).get());
+
+        ExecutionException rejected = assertThrows(ExecutionException.class, () -> batcher.submit("late").get());
+        assertInstanceOf(RejectedExecutionException.class, rejected.getCause());
+    }
+}
@@ -0,0 +1,78 @@
+package org.todocode.ai._04_batching;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * [TodoCode] 加权令牌桶测试
+ */
+class TokenBudgetTest {
+
+    /**
+     * 模拟共用这个桶的另一个分发器: 第一次看到令牌够了的时候 (刚回答完 nanosUntil，或者正要 tryAcquire)，
+     * 抢先把桶里的令牌全部拿走。
+     */
+    static final class ContendedBudget extends TokenBudget {
+        private boolean stolen;
+        boolean lastAcquired;
+
+        ContendedBudget(long perMinute, Duration burst) {
+            super(perMinute, burst);
+        }
+
+        @Override
+        public synchronized long nanosUntil(long n) {
+            long wait = super.nanosUntil(n);
+            if (wait == 0) {
+                steal();
+            }
+            return wait;
+        }
+
+        @Override
+        public synchronized boolean tryAcquire(long n) {
+            if (super.nanosUntil(n) == 0) {
+                steal();
+            }
+            lastAcquired = super.tryAcquire(n);
+            return lastAcquired;
+        }
+
+        private void steal() {
+            if (!stolen) {
+                stolen = true;
+                super.tryAcquire(capacity());
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("nanosUntil 说够了之后令牌被别人拿走，acquire 应该继续等，而不是当作已经拿到")
+    void testAcquireWaitsWhenTokensAreTaken() throws Exception {
+        // 6000/分钟 = 每毫秒 0.1 个，突发窗口 100ms: 桶容量 10，从空到满 100ms
+        ContendedBudget budget = new ContendedBudget(6000, Duration.ofMillis(100));
+        budget.stolen = true; // 先把桶拿空，竞争从桶重新装满时开始
+        assertTrue(budget.tryAcquire(10));
+        budget.stolen = false;
+
+        long start = System.nanoTime();
+        budget.acquire(10);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue(budget.stolen, "应该模拟到一次竞争");
+        assertTrue(budget.lastAcquired, "acquire 返回时必须真的扣掉了令牌");
+        assertTrue(elapsedMillis >= 190, "被拿走后要再等一整桶: " + elapsedMillis + "ms");
+    }
+
+    @Test
+    @DisplayName("一次消耗超过桶容量时直接报错，而不是永远等下去")
+    void testAcquireMoreThanCapacity() {
+        TokenBudget budget = new TokenBudget(6000, Duration.ofMillis(100));
+        assertThrows(IllegalArgumentException.class, () -> budget.acquire(11));
+    }
+}
@@ -0,0 +1,124 @@
+package org.todocode.ai._05_tokens;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * [TodoCode] BPE 分词器测试
+ */
+class BpeTokenizerTest {
+
+    private final BpeTokenizer tokenizer = BpeTokenizer.defaultTokenizer();
+
+    @Test
+    @DisplayName("编码结果应该与参考实现 (tiktoken 同款合并规则) 一致")
+    void testMatchesReferenceEncoding() {
+        // 期望值由按 tiktoken _byte_pair_merge 规则实现的参考脚本对同一个词表生成
+        assertArrayEquals(new int[]{545, 3918, 2718, 110, 274, 111, 120, 825, 461, 1625, 1024, 32, 2257, 1763,
+                        54, 55, 315, 2697, 121, 463, 103, 115, 369},
+                tokenizer.encode("The quick brown fox doesn't jump over 1234567 lazy dogs.\n\n"));
+        assertArrayEquals(new int[]{272, 1649, 2166, 2138, 2605, 40, 1670, 2086, 3667, 115, 41, 779, 511, 2949,
+                        46, 610, 46, 1718, 1061, 918, 2108, 160, 229, 165, 189, 44, 32, 822, 150, 231, 149, 140, 32,
+                        240, 159, 154, 128, 3232, 272, 1187},
+                tokenizer.encode("    public static void main(String[] args) {\n"
+                        + "        System.out.println(\"你好, 世界 🚀\");\n    }\n"));
+    }
+
+    @Test
+    @DisplayName("预分词: 前导空格归入单词，数字最多 3 位一组，缩写单独成段")
+    void testPretokenizer() {
+        assertEquals(List.of(" the"), pieces(" the"));
+        assertEquals(List.of("123", "456", "7"), pieces("1234567"));
+        assertEquals(List.of("don", "'t", " go"), pieces("don't go"));
+        assertEquals(List.of("a", "  ", " b"), pieces("a   b"));
+        assertEquals(List.of("x", " {\n", "    ", " y"), pieces("x {\n     y"));
+        assertEquals(1, tokenizer.encode(" the").length);
+    }
+
+    @Test
+    @DisplayName("解码应该还原原文，包括中文、emoji 和孤立的换行")
+    void testRoundTrip() {
+        for (String text : List.of("", "hello world", "你好，世界！", "emoji 🚀🔥 mixed 中文 and English\r\n",
+                "  leading and trailing  ", "tab\there", "x".repeat(1000))) {
+            assertEquals(text, tokenizer.decode(tokenizer.encode(text)), text);
+        }
+    }
+
+    @Test
+    @DisplayName("带缓存和不带缓存的编码器在大文本上结果相同，缓存满了清空也不影响结果")
+    void testCachedEncoderMatchesUncached() {
+        String text = randomDocument(new Random(42), 200_000);
+        BpeTokenizer.Encoder cached = tokenizer.newEncoder(64); // 很小的缓存，会反复清空
+        BpeTokenizer.Encoder uncached = tokenizer.newEncoder(0);
+
+        int[] expected = uncached.encode(text);
+        assertArrayEquals(expected, cached.encode(text));
+        assertArrayEquals(expected, cached.encode(text)); // 第二遍全部命中缓存
+        assertEquals(expected.length, cached.countTokens(text));
+        assertEquals(expected.length, tokenizer.countTokens(text));
+        assertEquals(text, tokenizer.decode(expected));
+
+        char[] chars = text.toCharArray();
+        List<Integer> streamed = new ArrayList<>();
+        assertEquals(expected.length, cached.encode(chars, 0, chars.length, streamed::add));
+        assertEquals(expected.length, streamed.size());
+        assertEquals(expected[expected.length - 1], streamed.getLast());
+    }
+
+    @Test
+    @DisplayName("常见英文文本的压缩率应该明显好于逐字节")
+    void testCompression() {
+        String text = "The tokenizer merges frequent byte pairs, so common words become single tokens. ".repeat(20);
+        int tokens = tokenizer.countTokens(text);
+        int bytes = text.getBytes(StandardCharsets.UTF_8).length;
+        assertTrue(bytes / (double) tokens > 3, "每个 token 平均字节数: " + bytes / (double) tokens);
+    }
+
+    @Test
+    @DisplayName("词表必须包含全部 256 个单字节，rank 必须连续")
+    void testLoadValidation() {
+        String oneByte = "YQ== 0\n"; // 只有 "a"
+        assertThrows(IllegalArgumentException.class,
+                () -> BpeTokenizer.load(new ByteArrayInputStream(oneByte.getBytes(StandardCharsets.US_ASCII))));
+        String gap = "YQ== 0\nYg== 2\n";
+        assertThrows(IOException.class,
+                () -> BpeTokenizer.load(new ByteArrayInputStream(gap.getBytes(StandardCharsets.US_ASCII))));
+        assertTrue(tokenizer.vocabularySize() > 256);
+    }
+
+    private static List<String> pieces(String text) {
+        char[] chars = text.toCharArray();
+        List<String> result = new ArrayList<>();
+        int i = 0;
+        while (i < chars.length) {
+            int end = BpeTokenizer.nextPiece(chars, i, chars.length);
+            result.add(text.substring(i, end));
+            i = end;
+        }
+        return result;
+    }
+
+    static String randomDocument(Random random, int length) {
+        String[] words = {"the", "token", "budget", "return", "public", "class", "你好", "世界", "分词", "🚀",
+                "1234", "x=y+1;", "{", "}", "\n", "\n\n    ", "don't", "we'll", "Hello", "BPE"};
+        StringBuilder sb = new StringBuilder(length + 16);
+        while (sb.length() < length) {
+            if (random.nextInt(8) == 0) {
+                sb.append((char) (0x20 + random.nextInt(0x3000))); // 零散的 BMP 字符 (不含代理区)
+            } else {
+                sb.append(words[random.nextInt(words.length)]);
+            }
+            sb.append(random.nextInt(4) == 0 ? "  " : " ");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,154 @@
+package org.todocode.ai._05_tokens;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.todocode.ai._01_prompts.CompiledPrompts;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * [TodoCode] 少样本提示词预算测试
+ */
+class PromptBudgeterTest {
+
+    private static final String TASK = "Classify the sentiment of the review";
+
+    private final BpeTokenizer tokenizer = BpeTokenizer.defaultTokenizer();
+    private final PromptBudgeter budgeter = new PromptBudgeter(tokenizer);
+
+    private static final List<PromptBudgeter.Example> EXAMPLES = List.of(
+            new PromptBudgeter.Example("The battery lasts all day", "positive", 1),
+            new PromptBudgeter.Example("Screen cracked after a week", "negative", 5),
+            new PromptBudgeter.Example("It works, nothing special", "neutral", 3),
+            new PromptBudgeter.Example("Shipping was slow but the product is great", "positive, despite shipping", 4),
+            new PromptBudgeter.Example("Returned it the next day", "negative", 2));
+
+    @Test
+    @DisplayName("预算足够时保留全部示例，结果与直接渲染相同")
+    void testEverythingFits() {
+        PromptBudgeter.Result result = budgeter.fewShot(TASK, EXAMPLES, 10_000);
+
+        Map<String, String> all = new LinkedHashMap<>();
+        EXAMPLES.forEach(e -> all.put(e.input(), e.output()));
+        assertEquals(CompiledPrompts.fewShotPrompt(TASK, all), result.prompt());
+        assertEquals(tokenizer.countTokens(result.prompt()), result.tokens());
+        assertEquals(EXAMPLES, result.included());
+        assertTrue(result.dropped().isEmpty());
+        assertFalse(result.truncated());
+    }
+
+    @Test
+    @DisplayName("预算不够时按优先级丢弃，保留的示例保持原来的顺序")
+    void testDropsLowestPriorityFirst() {
+        int full = budgeter.fewShot(TASK, EXAMPLES, 10_000).tokens();
+
+        // 只差 1 个 token: 受影响的只能是优先级最低的那条 (丢弃或截断)
+        PromptBudgeter.Result tight = budgeter.fewShot(TASK, EXAMPLES, full - 1);
+        assertTrue(tight.tokens() <= full - 1);
+        for (PromptBudgeter.Example example : EXAMPLES) {
+            if (example.priority() > 1) {
+                assertTrue(tight.included().contains(example), "不应该影响 " + example);
+            }
+        }
+
+        for (int limit = full - 1; limit > full - 60; limit--) {
+            PromptBudgeter.Result result = budgeter.fewShot(TASK, EXAMPLES, limit);
+            assertTrue(result.tokens() <= limit, "超出预算: " + result.tokens() + " > " + limit);
+            assertEquals(tokenizer.countTokens(result.prompt()), result.tokens());
+            assertEquals(EXAMPLES.size(), result.included().size() + result.dropped().size());
+            assertInOriginalOrder(result.included());
+        }
+    }
+
+    @Test
+    @DisplayName("剩余预算放得下一部分时截断输出，而不是整条丢弃")
+    void testTruncatesOneExample() {
+        String longAnswer = "The answer is positive because the reviewer praises the battery, the screen, "
+                + "the keyboard, the speakers and the build quality in great detail. ".repeat(5);
+        List<PromptBudgeter.Example> examples = List.of(
+                new PromptBudgeter.Example("short", "ok", 10),
+                new PromptBudgeter.Example("detailed review", longAnswer, 5));
+        int withoutLong = budgeter.fewShot(TASK, examples.subList(0, 1), 10_000).tokens();
+
+        PromptBudgeter.Result result = budgeter.fewShot(TASK, examples, withoutLong + 30);
+
+        assertTrue(result.tokens() <= withoutLong + 30);
+        assertTrue(result.truncated());
+        assertEquals(2, result.included().size());
+        String cut = result.included().get(1).output();
+        assertTrue(cut.endsWith("…"), cut);
+        assertTrue(longAnswer.startsWith(cut.substring(0, cut.length() - 1)), cut);
+        assertTrue(cut.length() < longAnswer.length());
+    }
+
+    @Test
+    @DisplayName("截断中文时不能留下半个字符")
+    void testTruncateDoesNotSplitCharacters() {
+        String chinese = "这条评论整体是正面的，用户称赞了电池续航、屏幕显示效果和做工，只是对物流速度有些不满。".repeat(4);
+        List<PromptBudgeter.Example> examples = List.of(new PromptBudgeter.Example("评论", chinese, 1));
+        int fixed = budgeter.fewShot(TASK, List.of(), 10_000).tokens();
+
+        for (int extra = 10; extra < 60; extra += 7) {
+            PromptBudgeter.Result result = budgeter.fewShot(TASK, examples, fixed + extra);
+            assertTrue(result.tokens() <= fixed + extra);
+            assertFalse(result.prompt().contains("\uFFFD"), result.prompt());
+            if (result.truncated()) {
+                String cut = result.included().getFirst().output();
+                assertTrue(chinese.startsWith(cut.substring(0, cut.length() - 1)), cut);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("输入重复的示例逐条渲染，提示词、included 和 token 计数一致")
+    void testDuplicateInputs() {
+        List<PromptBudgeter.Example> examples = List.of(
+                new PromptBudgeter.Example("It arrived on time", "positive", 3),
+                new PromptBudgeter.Example("It arrived on time", "neutral", 2),
+                new PromptBudgeter.Example("Broke in a day", "negative", 1));
+
+        PromptBudgeter.Result result = budgeter.fewShot(TASK, examples, 10_000);
+        assertEquals(examples, result.included());
+        assertEquals(CompiledPrompts.fewShotPrompt(TASK, examples.stream()
+                .map(e -> Map.entry(e.input(), e.output())).toList()), result.prompt());
+        assertTrue(result.prompt().contains("Output: positive") && result.prompt().contains("Output: neutral"),
+                result.prompt());
+        assertEquals(tokenizer.countTokens(result.prompt()), result.tokens());
+
+        // 预算紧张时每个结果都要和自己的提示词对得上
+        for (int limit = result.tokens() - 1; limit > result.tokens() - 40; limit--) {
+            PromptBudgeter.Result tight = budgeter.fewShot(TASK, examples, limit);
+            assertTrue(tight.tokens() <= limit, "超出预算: " + tight.tokens() + " > " + limit);
+            assertEquals(tokenizer.countTokens(tight.prompt()), tight.tokens());
+            assertEquals(tight.included().size(), tight.prompt().split("Input: ", -1).length - 1, tight.prompt());
+        }
+    }
+
+    @Test
+    @DisplayName("任务描述本身就超出预算时应该报错")
+    void testTaskTooLarge() {
+        assertThrows(IllegalArgumentException.class, () -> budgeter.fewShot(TASK, EXAMPLES, 5));
+        PromptBudgeter.Result empty = budgeter.fewShot(TASK, EXAMPLES,
+                budgeter.fewShot(TASK, List.of(), 10_000).tokens());
+        assertTrue(empty.included().isEmpty());
+        assertEquals(EXAMPLES, empty.dropped());
+    }
+
+    private static void assertInOriginalOrder(List<PromptBudgeter.Example> included) {
+        int last = -1;
+        for (PromptBudgeter.Example example : included) {
+            int index = -1;
+            for (int i = 0; i < EXAMPLES.size(); i++) {
+                if (EXAMPLES.get(i).input().equals(example.input())) {
+                    index = i;
+                }
+            }
+            assertTrue(index > last, "顺序被打乱: " + included);
+            last = index;
+        }
+    }
+}
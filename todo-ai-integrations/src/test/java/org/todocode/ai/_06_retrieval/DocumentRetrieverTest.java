@@ -0,0 +1,136 @@
+package org.todocode.ai._06_retrieval;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.todocode.ai._01_prompts.PromptTemplates;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * [TodoCode] 检索增强测试
+ */
+class DocumentRetrieverTest {
+
+    private static final List<String> PASSAGES = List.of(
+            "HashMap is not thread safe; concurrent resize can lose entries.",
+            "ConcurrentHashMap locks individual bins and never blocks readers.",
+            "A volatile field guarantees visibility but not atomicity.",
+            "Virtual threads are cheap and should not be pooled.",
+            "The G1 collector divides the heap into equal sized regions.");
+
+    /**
+     * 假的 embedding 模型: 词袋哈希到 64 维，共享的词越多余弦相似度越高。
+     */
+    static class FakeEmbeddingModel implements EmbeddingModel {
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            List<Embedding> embeddings = new ArrayList<>();
+            for (String text : request.getInstructions()) {
+                embeddings.add(new Embedding(embed(text), embeddings.size()));
+            }
+            return new EmbeddingResponse(embeddings);
+        }
+
+        @Override
+        public float[] embed(String text) {
+            float[] vector = new float[64];
+            for (String word : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+                if (!word.isEmpty()) {
+                    vector[Math.floorMod(word.hashCode(), vector.length)] += 1;
+                }
+            }
+            return vector;
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return embed(document.getText());
+        }
+    }
+
+    @Test
+    @DisplayName("应该取回最相关的段落，并按编号拼进检索增强提示词")
+    void testRetrieveAndPrompt() {
+        DocumentRetriever retriever = new DocumentRetriever(new FakeEmbeddingModel(), new HnswIndex(64, 16), 0.2f);
+        retriever.addAll(PASSAGES);
+        assertEquals(PASSAGES.size(), retriever.size());
+
+        List<DocumentRetriever.Passage> found = retriever.retrieve("is a volatile field atomicity safe?", 2);
+        assertEquals(2, found.getFirst().id());
+        assertTrue(found.getFirst().similarity() > 0.3f);
+
+        String prompt = retriever.prompt("why are virtual threads not pooled?", 1);
+        assertEquals(PromptTemplates.retrievalPrompt("why are virtual threads not pooled?", List.of(PASSAGES.get(3))),
+                prompt);
+        assertTrue(prompt.contains("[1] Virtual threads are cheap"));
+
+        assertTrue(retriever.retrieve("quantum chromodynamics", 3).isEmpty(), "不相关的问题不应该取回任何段落");
+    }
+
+    @Test
+    @DisplayName("从文件加载的索引需要配上原来的段落列表")
+    void testLoadedIndex(@TempDir Path dir) throws Exception {
+        FakeEmbeddingModel model = new FakeEmbeddingModel();
+        HnswIndex index = new HnswIndex(64, 16);
+        new DocumentRetriever(model, index, 0).addAll(PASSAGES);
+        index.save(dir.resolve("passages.hnsw"));
+
+        HnswIndex loaded = HnswIndex.load(dir.resolve("passages.hnsw"));
+        DocumentRetriever retriever = new DocumentRetriever(model, loaded, PASSAGES, 0.2f);
+        assertEquals(4, retriever.retrieve("G1 heap regions", 1).getFirst().id());
+
+        assertThrows(IllegalArgumentException.class,
+                () -> new DocumentRetriever(model, loaded, PASSAGES.subList(0, 2), 0.2f));
+    }
+
+    @Test
+    @DisplayName("索引里有段落列表之外的 id 时跳过它，而不是抛出越界异常")
+    void testIndexWrittenElsewhere() {
+        FakeEmbeddingModel model = new FakeEmbeddingModel();
+        HnswIndex index = new HnswIndex(64, 16);
+        DocumentRetriever retriever = new DocumentRetriever(model, index, 0);
+        retriever.addAll(PASSAGES.subList(0, 2));
+        index.add(model.embed("orphan vector about garbage collection"));
+
+        List<DocumentRetriever.Passage> found = retriever.retrieve("orphan vector about garbage collection", 3);
+        assertEquals(2, found.size(), found.toString());
+        assertTrue(found.stream().allMatch(p -> p.id() < 2));
+
+        assertThrows(IllegalStateException.class, () -> retriever.addAll(PASSAGES.subList(2, 3)));
+    }
+
+    @Test
+    @DisplayName("边写入边检索: 能查到的 id 一定有对应的段落")
+    void testConcurrentAddAndRetrieve() throws Exception {
+        FakeEmbeddingModel model = new FakeEmbeddingModel();
+        DocumentRetriever retriever = new DocumentRetriever(model, new HnswIndex(64, 16), 0);
+        List<String> texts = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            texts.add(PASSAGES.get(i % PASSAGES.size()) + " #" + i);
+        }
+
+        Thread writer = Thread.ofPlatform().start(() -> {
+            for (int i = 0; i < texts.size(); i += 10) {
+                retriever.addAll(texts.subList(i, i + 10));
+            }
+        });
+        while (writer.isAlive()) {
+            for (DocumentRetriever.Passage passage : retriever.retrieve("volatile field visibility", 5)) {
+                assertEquals(texts.get(passage.id()), passage.text());
+            }
+        }
+        writer.join();
+        assertEquals(texts.size(), retriever.size());
+    }
+}
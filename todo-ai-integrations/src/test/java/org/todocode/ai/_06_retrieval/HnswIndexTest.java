@@ -0,0 +1,210 @@
+package org.todocode.ai._06_retrieval;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * [TodoCode] HNSW 索引与点积内核测试
+ */
+class HnswIndexTest {
+
+    /**
+     * 聚簇数据: 若干个随机中心，每个点是中心加高斯噪声。真实的 embedding 也是这样成簇分布的。
+     */
+    static float[][] clustered(Random random, int n, int dimensions, int clusters) {
+        float[][] centers = new float[clusters][dimensions];
+        for (float[] center : centers) {
+            for (int j = 0; j < dimensions; j++) {
+                center[j] = (float) random.nextGaussian();
+            }
+        }
+        float[][] points = new float[n][dimensions];
+        for (float[] point : points) {
+            float[] center = centers[random.nextInt(clusters)];
+            for (int j = 0; j < dimensions; j++) {
+                point[j] = center[j] + 0.5f * (float) random.nextGaussian();
+            }
+        }
+        return points;
+    }
+
+    static double recall(HnswIndex index, float[][] queries, int k, int ef) {
+        int hits = 0;
+        for (float[] query : queries) {
+            Set<Integer> exact = new HashSet<>();
+            index.searchExact(query, k).forEach(n -> exact.add(n.id()));
+            for (HnswIndex.Neighbor neighbor : index.search(query, k, ef)) {
+                if (exact.contains(neighbor.id())) {
+                    hits++;
+                }
+            }
+        }
+        return hits / (double) (queries.length * k);
+    }
+
+    private static HnswIndex build(float[][] points, int initialCapacity) {
+        HnswIndex index = new HnswIndex(points[0].length, initialCapacity, new HnswIndex.Params(12, 100, 64, 7));
+        for (int i = 0; i < points.length; i++) {
+            assertEquals(i, index.add(points[i]));
+        }
+        return index;
+    }
+
+    @Test
+    @DisplayName("标量和 SIMD 内核的点积应该在误差范围内一致，包括不足一个向量宽度的尾部")
+    void testKernelsAgree() {
+        Random random = new Random(1);
+        VectorKernels.Kernel simd = VectorKernels.simd();
+        assumeTrue(simd != null, "JVM 没有加载 jdk.incubator.vector");
+        assertSame(simd, VectorKernels.best());
+        for (int length : new int[]{0, 1, 3, 7, 8, 15, 16, 17, 33, 64, 100, 384, 1536}) {
+            float[] a = new float[length + 5];
+            float[] b = new float[length + 9];
+            for (int i = 0; i < a.length; i++) {
+                a[i] = (float) random.nextGaussian();
+            }
+            for (int i = 0; i < b.length; i++) {
+                b[i] = (float) random.nextGaussian();
+            }
+            double expected = 0;
+            for (int i = 0; i < length; i++) {
+                expected += (double) a[i + 5] * b[i + 9];
+            }
+            assertEquals(expected, VectorKernels.SCALAR.dot(a, 5, b, 9, length), 1e-3 * (1 + Math.abs(expected)));
+            assertEquals(expected, simd.dot(a, 5, b, 9, length), 1e-3 * (1 + Math.abs(expected)), simd.name());
+        }
+    }
+
+    @Test
+    @DisplayName("JVM 没有加载 jdk.incubator.vector 时退回标量内核 (由不加该模块的 surefire 执行覆盖)")
+    void testScalarFallback() {
+        assumeTrue(ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty(), "JVM 加载了 jdk.incubator.vector");
+        assertNull(VectorKernels.simd());
+        assertSame(VectorKernels.SCALAR, VectorKernels.best());
+
+        float[][] data = clustered(new Random(5), 1010, 16, 10);
+        HnswIndex index = build(Arrays.copyOf(data, 1000), 16);
+        assertTrue(recall(index, Arrays.copyOfRange(data, 1000, 1010), 10, 100) >= 0.9);
+    }
+
+    @Test
+    @DisplayName("聚簇数据上 recall@10 应该很高，ef 越大越接近精确结果")
+    void testRecall() {
+        float[][] data = clustered(new Random(42), 5100, 32, 40);
+        float[][] points = Arrays.copyOf(data, 5000);
+        float[][] queries = Arrays.copyOfRange(data, 5000, 5100); // 与索引同分布、但不在索引里
+        HnswIndex index = build(points, 1); // 从容量 1 开始，顺便覆盖扩容
+
+        double low = recall(index, queries, 10, 10);
+        double high = recall(index, queries, 10, 200);
+        String recalls = String.format("recall@10: ef=10 %.3f, ef=200 %.3f", low, high);
+        assertTrue(high >= 0.97, recalls);
+        assertTrue(high >= low, recalls);
+
+        List<HnswIndex.Neighbor> exact = index.searchExact(points[123], 10);
+        assertEquals(123, exact.getFirst().id());
+        assertEquals(1.0f, exact.getFirst().similarity(), 1e-4);
+        for (int i = 1; i < exact.size(); i++) {
+            assertTrue(exact.get(i - 1).similarity() >= exact.get(i).similarity());
+        }
+        assertEquals(123, index.search(points[123], 1).getFirst().id());
+    }
+
+    @Test
+    @DisplayName("保存后加载的索引应该返回完全相同的结果，并且可以继续插入")
+    void testSaveAndLoad(@TempDir Path dir) throws IOException {
+        float[][] data = clustered(new Random(3), 2051, 24, 20);
+        float[][] points = Arrays.copyOf(data, 2000);
+        HnswIndex index = build(points, 64);
+        Path file = dir.resolve("index.hnsw");
+        index.save(file);
+
+        HnswIndex loaded = HnswIndex.load(file);
+        assertEquals(index.size(), loaded.size());
+        assertEquals(index.dimensions(), loaded.dimensions());
+        assertEquals(index.params(), loaded.params());
+        for (float[] query : Arrays.copyOfRange(data, 2000, 2050)) {
+            assertEquals(index.search(query, 10), loaded.search(query, 10));
+        }
+
+        float[] extra = data[2050];
+        assertEquals(points.length, loaded.add(extra));
+        assertEquals(points.length, loaded.search(extra, 1).getFirst().id());
+
+        Path broken = dir.resolve("broken.hnsw");
+        Files.write(broken, new byte[100]);
+        assertThrows(IOException.class, () -> HnswIndex.load(broken));
+        Path truncated = dir.resolve("truncated.hnsw");
+        Files.write(truncated, Arrays.copyOf(Files.readAllBytes(file), 1000));
+        assertThrows(IOException.class, () -> HnswIndex.load(truncated));
+    }
+
+    @Test
+    @DisplayName("查询可以与插入并发执行")
+    void testConcurrentSearchDuringInsert() throws Exception {
+        float[][] points = clustered(new Random(9), 3000, 16, 10);
+        HnswIndex index = new HnswIndex(16, 16, new HnswIndex.Params(8, 50, 32, 1));
+        for (int i = 0; i < 100; i++) {
+            index.add(points[i]);
+        }
+        AtomicBoolean done = new AtomicBoolean();
+        try (ExecutorService readers = Executors.newFixedThreadPool(3)) {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int t = 0; t < 3; t++) {
+                int seed = t;
+                results.add(readers.submit(() -> {
+                    Random random = new Random(seed);
+                    int searches = 0;
+                    while (!done.get()) {
+                        List<HnswIndex.Neighbor> found = index.search(points[random.nextInt(100)], 5);
+                        assertEquals(5, found.size());
+                        searches++;
+                    }
+                    return searches;
+                }));
+            }
+            for (int i = 100; i < points.length; i++) {
+                index.add(points[i]);
+            }
+            done.set(true);
+            for (Future<Integer> result : results) {
+                assertTrue(result.get() > 0);
+            }
+        }
+        assertEquals(points.length, index.size());
+    }
+
+    @Test
+    @DisplayName("空索引返回空结果，维度不一致和零向量直接报错")
+    void testEdgeCases() {
+        HnswIndex index = new HnswIndex(4, 8);
+        assertTrue(index.search(new float[]{1, 0, 0, 0}, 5).isEmpty());
+        assertTrue(index.searchExact(new float[]{1, 0, 0, 0}, 5).isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> index.add(new float[]{1, 2, 3}));
+        assertThrows(IllegalArgumentException.class, () -> index.add(new float[4]));
+        index.add(new float[]{1, 0, 0, 0});
+        index.add(new float[]{0, 1, 0, 0});
+        List<HnswIndex.Neighbor> found = index.search(new float[]{2, 0.1f, 0, 0}, 10);
+        assertEquals(2, found.size());
+        assertEquals(0, found.getFirst().id());
+        assertThrows(IllegalArgumentException.class, () -> new HnswIndex.Params(1, 10, 10, 0));
+    }
+}
@@ -0,0 +1,311 @@
+package org.todocode.ai._07_resilience;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.openai.OpenAiChatModel;
+import org.springframework.ai.openai.OpenAiChatOptions;
+import org.springframework.ai.openai.api.OpenAiApi;
+import org.springframework.ai.retry.NonTransientAiException;
+import org.springframework.ai.retry.TransientAiException;
+import org.springframework.retry.support.RetryTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * [TodoCode] 容错 LLM 客户端测试
+ *
+ * 用 JDK 自带的 HttpServer 模拟 OpenAI 的 chat.completion 接口，每个请求的延迟和状态码可以编程控制，
+ * 经过真实的 OpenAiChatModel (关掉它自带的重试) 调用。
+ */
+class ResilientChatModelTest {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final List<AutoCloseable> resources = new ArrayList<>();
+
+    /**
+     * 第 n 个请求 (从 1 开始) 等待 delayMillis 后返回 status。
+     */
+    record Reply(int status, long delayMillis) {
+        static Reply ok(long delayMillis) {
+            return new Reply(200, delayMillis);
+        }
+    }
+
+    /**
+     * 回答内容是服务名的假 OpenAI 服务。
+     */
+    static class StubServer implements AutoCloseable {
+        final HttpServer server;
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        final AtomicInteger requests = new AtomicInteger();
+        final String name;
+        volatile IntFunction<Reply> behavior;
+
+        StubServer(String name, IntFunction<Reply> behavior) throws IOException {
+            this.name = name;
+            this.behavior = behavior;
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.createContext("/v1/chat/completions", this::handle);
+            server.setExecutor(executor);
+            server.start();
+        }
+
+        String baseUrl() {
+            return "http://127.0.0.1:" + server.getAddress().getPort();
+        }
+
+        private void handle(HttpExchange exchange) throws IOException {
+            exchange.getRequestBody().readAllBytes();
+            Reply reply = behavior.apply(requests.incrementAndGet());
+            try {
+                Thread.sleep(reply.delayMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            Object body = reply.status() == 200
+                    ? Map.of("id", "chatcmpl-stub", "object", "chat.completion", "created", 1, "model", "stub",
+                    "choices", List.of(Map.of("index", 0, "finish_reason", "stop",
+                            "message", Map.of("role", "assistant", "content", name))))
+                    : Map.of("error", Map.of("message", "stub " + reply.status()));
+            byte[] bytes = JSON.writeValueAsBytes(body);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            try (OutputStream out = exchange.getResponseBody()) {
+                exchange.sendResponseHeaders(reply.status(), bytes.length);
+                out.write(bytes);
+            } catch (IOException e) {
+                // 客户端已经取消请求
+            }
+        }
+
+        @Override
+        public void close() {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        for (AutoCloseable resource : resources) {
+            resource.close();
+        }
+    }
+
+    private StubServer stub(String name, IntFunction<Reply> behavior) throws IOException {
+        StubServer stub = new StubServer(name, behavior);
+        resources.add(stub);
+        return stub;
+    }
+
+    private static ResilientChatModel.Endpoint endpoint(StubServer stub) {
+        ChatModel model = new OpenAiChatModel(new OpenAiApi(stub.baseUrl(), "test-key"),
+                OpenAiChatOptions.builder().model("stub").build(), null,
+                RetryTemplate.builder().maxAttempts(1).build());
+        return new ResilientChatModel.Endpoint(stub.name, model);
+    }
+
+    private ResilientChatModel client(ResilientChatModel.Options options, CircuitBreaker.Config breaker,
+                                      StubServer... stubs) {
+        List<ResilientChatModel.Endpoint> endpoints = new ArrayList<>();
+        for (StubServer stub : stubs) {
+            endpoints.add(endpoint(stub));
+        }
+        ResilientChatModel client = new ResilientChatModel("test", endpoints, options, breaker, registry);
+        resources.addFirst(client);
+        return client;
+    }
+
+    private static ResilientChatModel.Options noHedging(Duration deadline, int maxAttempts) {
+        return new ResilientChatModel.Options(deadline, maxAttempts, Duration.ofMillis(10), Duration.ofMillis(50), null);
+    }
+
+    private static String text(ResilientChatModel client) {
+        return client.call(new Prompt("hi")).getResult().getOutput().getText();
+    }
+
+    private double count(String name) {
+        return registry.get(name).counter().count();
+    }
+
+    @Test
+    @DisplayName("429 和 503 应该退避后重试，400 不重试也不计入熔断器")
+    void testRetry() throws IOException {
+        StubServer flaky = stub("flaky", n -> switch (n) {
+            case 1 -> new Reply(429, 0);
+            case 2 -> new Reply(503, 0);
+            default -> Reply.ok(0);
+        });
+        ResilientChatModel client = client(noHedging(Duration.ofSeconds(10), 3), CircuitBreaker.Config.defaults(), flaky);
+        assertEquals("flaky", text(client));
+        assertEquals(3, flaky.requests.get());
+        assertEquals(2, count("todocode.llm.client.retries"));
+
+        StubServer invalid = stub("invalid", n -> new Reply(400, 0));
+        ResilientChatModel strict = client(noHedging(Duration.ofSeconds(10), 3), CircuitBreaker.Config.defaults(), invalid);
+        assertThrows(NonTransientAiException.class, () -> text(strict));
+        assertEquals(1, invalid.requests.get());
+        assertEquals(CircuitBreaker.State.CLOSED, strict.circuitState("invalid"));
+
+        assertTrue(ResilientChatModel.isRetryable(new NonTransientAiException("429 - rate limited")));
+        assertFalse(ResilientChatModel.isRetryable(new NonTransientAiException("401 - unauthorized")));
+    }
+
+    @Test
+    @DisplayName("主端点超过 p95 延迟还没返回时，对冲请求应该先返回")
+    void testHedging() throws IOException {
+        AtomicInteger slowAfter = new AtomicInteger(Integer.MAX_VALUE);
+        StubServer primary = stub("primary", n -> Reply.ok(n > slowAfter.get() ? 3000 : 20));
+        StubServer backup = stub("backup", n -> Reply.ok(0));
+        ResilientChatModel.Hedging hedging = new ResilientChatModel.Hedging(0.95, Duration.ofSeconds(1),
+                Duration.ofMillis(10), 20);
+        ResilientChatModel client = client(new ResilientChatModel.Options(Duration.ofSeconds(10), 1,
+                Duration.ofMillis(10), Duration.ofMillis(50), hedging), CircuitBreaker.Config.defaults(), primary, backup);
+
+        assertEquals(Duration.ofSeconds(1), client.hedgeDelay("primary"), "样本不足时使用初始延迟");
+        for (int i = 0; i < 20; i++) {
+            assertEquals("primary", text(client));
+        }
+        Duration p95 = client.hedgeDelay("primary");
+        assertTrue(p95.toMillis() >= 10 && p95.toMillis() < 500, "p95 对冲延迟: " + p95);
+
+        slowAfter.set(primary.requests.get());
+        double hedges = count("todocode.llm.client.hedges");
+        double wins = count("todocode.llm.client.hedge.wins");
+        long start = System.nanoTime();
+        assertEquals("backup", text(client));
+        long elapsed = Duration.ofNanos(System.nanoTime() - start).toMillis();
+        assertTrue(elapsed < 1500, "对冲后应该很快返回，实际 " + elapsed + " ms");
+        assertEquals(hedges + 1, count("todocode.llm.client.hedges"));
+        assertEquals(wins + 1, count("todocode.llm.client.hedge.wins"));
+        assertEquals(CircuitBreaker.State.CLOSED, client.circuitState("primary"), "被取消的请求不算失败");
+    }
+
+    @Test
+    @DisplayName("超过截止时间应该取消请求并抛出 TimeoutException，不再等慢请求")
+    void testDeadline() throws Exception {
+        StubServer slow = stub("slow", n -> Reply.ok(3000));
+        ResilientChatModel client = client(noHedging(Duration.ofMillis(300), 3), CircuitBreaker.Config.defaults(), slow);
+
+        long start = System.nanoTime();
+        TransientAiException e = assertThrows(TransientAiException.class, () -> text(client));
+        assertInstanceOf(TimeoutException.class, e.getCause());
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() < 1500);
+
+        CompletableFuture<?> future = client.callAsync(new Prompt("hi"));
+        ExecutionException failed = assertThrows(ExecutionException.class, future::get);
+        assertInstanceOf(TimeoutException.class, failed.getCause());
+        assertEquals(2, count("todocode.llm.client.deadline.exceeded"));
+        assertEquals(2, slow.requests.get(), "截止时间内没有失败，不应该重试");
+    }
+
+    @Test
+    @DisplayName("端点持续 5xx 时熔断器打开，请求转到下一个端点；打开时间过后半开试探成功就关闭")
+    void testCircuitBreakerFailover() throws Exception {
+        AtomicInteger status = new AtomicInteger(503);
+        StubServer broken = stub("broken", n -> new Reply(status.get(), 0));
+        StubServer healthy = stub("healthy", n -> Reply.ok(0));
+        CircuitBreaker.Config config = new CircuitBreaker.Config(4, 4, 0.5, Duration.ofMillis(300), 1);
+        ResilientChatModel client = client(noHedging(Duration.ofSeconds(10), 1), config, broken, healthy);
+
+        for (int i = 0; i < 4; i++) {
+            assertThrows(TransientAiException.class, () -> text(client));
+        }
+        assertEquals(CircuitBreaker.State.OPEN, client.circuitState("broken"));
+        for (int i = 0; i < 3; i++) {
+            assertEquals("healthy", text(client));
+        }
+        assertEquals(4, broken.requests.get(), "熔断期间不应该再访问故障端点");
+
+        status.set(200);
+        Thread.sleep(350);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, client.circuitState("broken"));
+        assertEquals("broken", text(client));
+        assertEquals(CircuitBreaker.State.CLOSED, client.circuitState("broken"));
+        assertEquals(0, registry.get("todocode.llm.client.circuit.state").tag("endpoint", "broken").gauge().value());
+
+        StubServer lonely = stub("lonely", n -> new Reply(500, 0));
+        ResilientChatModel single = client(noHedging(Duration.ofSeconds(10), 1), config, lonely);
+        for (int i = 0; i < 4; i++) {
+            assertThrows(TransientAiException.class, () -> text(single));
+        }
+        assertThrows(RejectedExecutionException.class, () -> text(single));
+        assertEquals(4, lonely.requests.get());
+    }
+
+    @Test
+    @DisplayName("端点只挂起不报错时，到截止时间被取消的请求计入熔断器，熔断后转到下一个端点")
+    void testHangingEndpointOpensBreaker() throws Exception {
+        StubServer hanging = stub("hanging", n -> Reply.ok(60_000));
+        StubServer healthy = stub("healthy", n -> Reply.ok(0));
+        CircuitBreaker.Config config = new CircuitBreaker.Config(4, 4, 0.5, Duration.ofSeconds(30), 1);
+        ResilientChatModel client = client(noHedging(Duration.ofMillis(200), 1), config, hanging, healthy);
+
+        for (int i = 0; i < 4; i++) {
+            TransientAiException e = assertThrows(TransientAiException.class, () -> text(client));
+            assertInstanceOf(TimeoutException.class, e.getCause());
+        }
+        assertEquals(CircuitBreaker.State.OPEN, client.circuitState("hanging"), "超时是端点的失败");
+        assertEquals("healthy", text(client));
+        assertEquals(4, hanging.requests.get(), "熔断期间不应该再访问挂起的端点");
+        assertEquals(CircuitBreaker.State.CLOSED, client.circuitState("healthy"));
+    }
+
+    @Test
+    @DisplayName("熔断器: 调用数不足时不打开，半开时被取消的试探请求要归还许可")
+    void testCircuitBreakerStates() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(new CircuitBreaker.Config(10, 5, 0.5, Duration.ofMillis(50), 1));
+        for (int i = 0; i < 4; i++) {
+            assertTrue(breaker.tryAcquire());
+            breaker.onFailure();
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state(), "不到 minimumCalls 不判断失败率");
+        assertTrue(breaker.tryAcquire());
+        breaker.onSuccess();
+        assertEquals(0.8, breaker.failureRate(), 1e-9);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state(), "成功不会打开熔断器");
+        assertTrue(breaker.tryAcquire());
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+        assertFalse(breaker.tryAcquire());
+
+        Thread.sleep(60);
+        assertTrue(breaker.tryAcquire());
+        assertFalse(breaker.tryAcquire(), "半开时只放行一个试探请求");
+        breaker.release();
+        assertTrue(breaker.tryAcquire(), "归还后可以再试探");
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state(), "试探失败重新打开");
+
+        Thread.sleep(60);
+        assertTrue(breaker.tryAcquire());
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+        assertEquals(0, breaker.failureRate());
+    }
+}
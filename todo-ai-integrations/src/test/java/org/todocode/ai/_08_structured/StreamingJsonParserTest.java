@@ -0,0 +1,185 @@
+package org.todocode.ai._08_structured;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * [TodoCode] 流式结构化输出解析测试
+ */
+class StreamingJsonParserTest {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private static final String SCHEMA = """
+            {
+              "type": "object",
+              "required": ["title", "items"],
+              "additionalProperties": false,
+              "properties": {
+                "title": {"type": "string", "maxLength": 40},
+                "status": {"type": "string", "enum": ["draft", "final"]},
+                "items": {
+                  "type": "array",
+                  "maxItems": 3,
+                  "items": {
+                    "type": "object",
+                    "required": ["name"],
+                    "properties": {
+                      "name": {"type": "string"},
+                      "qty": {"type": "integer"},
+                      "price": {"type": "number"}
+                    }
+                  }
+                }
+              }
+            }
+            """;
+
+    private static final String DOCUMENT = """
+            {"title": "订单 ~/汇总", "status": "final", "items": [
+              {"name": "apple", "qty": 12, "price": 3.5},
+              {"name": "pear", "qty": 1234567890123, "price": 2, "note": null}
+            ]}""";
+
+    /**
+     * 按随机长度切成若干段，模拟模型逐 token 输出。
+     */
+    private static List<String> split(String text, Random random, int maxChunk) {
+        List<String> chunks = new ArrayList<>();
+        for (int i = 0; i < text.length(); ) {
+            int end = Math.min(text.length(), i + 1 + random.nextInt(maxChunk));
+            chunks.add(text.substring(i, end));
+            i = end;
+        }
+        return chunks;
+    }
+
+    private static List<StreamingJsonParser.Field> parseAll(String schema, List<String> chunks) throws IOException {
+        List<StreamingJsonParser.Field> fields = new ArrayList<>();
+        StreamingJsonParser parser = new StreamingJsonParser(schema, fields::add);
+        for (String chunk : chunks) {
+            parser.feed(chunk);
+        }
+        parser.finish();
+        return fields;
+    }
+
+    @Test
+    @DisplayName("任意切分方式都应该得到相同的字段序列，最终结果与一次性解析相同")
+    void testChunkBoundaries() throws IOException {
+        List<StreamingJsonParser.Field> expected = parseAll(SCHEMA, List.of(DOCUMENT));
+        assertEquals(List.of("/title", "/status", "/items/0/name", "/items/0/qty", "/items/0/price", "/items/0",
+                        "/items/1/name", "/items/1/qty", "/items/1/price", "/items/1/note", "/items/1", "/items", ""),
+                expected.stream().map(StreamingJsonParser.Field::path).toList());
+        assertEquals(JSON.readTree(DOCUMENT), expected.getLast().value());
+        assertEquals(1234567890123L, expected.get(7).value().longValue());
+
+        Random random = new Random(7);
+        for (int maxChunk : new int[]{1, 2, 3, 8, 40}) {
+            assertEquals(expected, parseAll(SCHEMA, split(DOCUMENT, random, maxChunk)), "maxChunk=" + maxChunk);
+        }
+
+        List<StreamingJsonParser.Field> escaped = parseAll(null, List.of("{\"a/b\": {\"c~d\": true}}"));
+        assertEquals("/a~1b/c~0d", escaped.getFirst().path());
+    }
+
+    @Test
+    @DisplayName("数组元素一完成就回调，不用等整个响应结束")
+    void testEmitsBeforeEnd() throws IOException {
+        List<String> paths = new ArrayList<>();
+        StreamingJsonParser parser = new StreamingJsonParser(SCHEMA, f -> paths.add(f.path()));
+        parser.feed("```json\n{\"title\": \"t\", \"items\": [{\"name\": \"a\", \"qty\": 1");
+        assertEquals(List.of("/title", "/items/0/name"), paths, "数字后面还没有分隔符，不能确定已经结束");
+        parser.feed("}, {\"name\": \"b");
+        assertEquals("/items/0", paths.getLast());
+        assertFalse(parser.isComplete());
+        parser.feed("\"}]}\n```\n希望对你有帮助!");
+        assertTrue(parser.isComplete());
+        assertEquals(2, parser.finish().get("items").size());
+    }
+
+    @Test
+    @DisplayName("违反 Schema 时在出错的位置立即失败，消息包含路径")
+    void testSchemaViolations() {
+        record Case(String json, String message) {
+        }
+        List<Case> cases = List.of(
+                new Case("{\"title\": \"t\", \"items\": [{\"name\": \"a\", \"qty\": \"two\"", "/items/0/qty: 期望 integer，实际是 string"),
+                new Case("{\"title\": \"t\", \"extra\"", "/extra: Schema 中没有这个字段"),
+                new Case("{\"title\": \"t\", \"status\": \"done\"", "/status: \"done\" 不在枚举"),
+                new Case("{\"title\": \"t\", \"items\": [{\"qty\": 1}", "/items/0: 缺少必填字段 name"),
+                new Case("{\"title\": \"t\", \"items\": [{\"name\": \"a\"}, {\"name\": \"b\"}, {\"name\": \"c\"}, {",
+                        "/items: 元素个数超过 maxItems 3"),
+                new Case("{\"title\": \"" + "x".repeat(41) + "\"", "/title: 字符串超过 maxLength 40"),
+                new Case("[1, 2]", "/: 期望 object，实际是 array"));
+        for (Case c : cases) {
+            StreamingJsonParser parser = new StreamingJsonParser(SCHEMA, f -> {
+            });
+            IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> parser.feed(c.json()), c.json());
+            assertTrue(e.getMessage().startsWith(c.message()), e.getMessage());
+        }
+    }
+
+    @Test
+    @DisplayName("语法错误立即失败，响应被截断时 finish 报告停在哪里")
+    void testMalformedAndTruncated() throws IOException {
+        StreamingJsonParser broken = new StreamingJsonParser(SCHEMA, f -> {
+        });
+        broken.feed("{\"title\": \"t\", ");
+        assertThrows(JsonParseException.class, () -> broken.feed("\"items\": [}"));
+
+        StreamingJsonParser truncated = new StreamingJsonParser(SCHEMA, f -> {
+        });
+        truncated.feed("{\"title\": \"t\", \"items\": [{\"name\": \"a\"");
+        IOException e = assertThrows(IOException.class, truncated::finish);
+        assertTrue(e.getMessage().contains("/items/0"), e.getMessage());
+    }
+
+    @Test
+    @DisplayName("Flux 版本: 违反 Schema 或根值结束时取消上游，不再消费后面的输出")
+    void testFluxCancelsUpstream() {
+        List<String> chunks = split(DOCUMENT + "\n以上就是结果。", new Random(1), 4);
+        AtomicInteger consumed = new AtomicInteger();
+        AtomicBoolean cancelled = new AtomicBoolean();
+        Flux<String> upstream = Flux.fromIterable(chunks)
+                .doOnNext(c -> consumed.incrementAndGet())
+                .doOnCancel(() -> cancelled.set(true));
+        List<StreamingJsonParser.Field> fields = StreamingJsonParser.parse(upstream, SCHEMA).collectList().block();
+        assertEquals("", fields.getLast().path());
+        assertTrue(cancelled.get(), "根值结束后应该取消上游");
+        assertTrue(consumed.get() < chunks.size());
+
+        String invalid = "{\"title\": \"t\", \"items\": [{\"name\": \"a\", \"qty\": 1.5}, {\"name\": \"b\"}]}" + " ".repeat(200);
+        List<String> invalidChunks = split(invalid, new Random(2), 4);
+        consumed.set(0);
+        cancelled.set(false);
+        List<String> paths = new ArrayList<>();
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> StreamingJsonParser
+                .parse(Flux.fromIterable(invalidChunks)
+                        .doOnNext(c -> consumed.incrementAndGet())
+                        .doOnCancel(() -> cancelled.set(true)), SCHEMA)
+                .doOnNext(f -> paths.add(f.path()))
+                .blockLast());
+        assertTrue(e.getMessage().startsWith("/items/0/qty"), e.getMessage());
+        assertEquals(List.of("/title", "/items/0/name"), paths);
+        assertTrue(cancelled.get());
+        assertTrue(consumed.get() < invalidChunks.size() / 2, "出错后不应该继续消费: " + consumed.get());
+
+        RuntimeException truncated = assertThrows(RuntimeException.class, () -> StreamingJsonParser
+                .parse(Flux.just("{\"title\": \"t\", ", "\"items\": ["), SCHEMA).blockLast());
+        assertInstanceOf(IOException.class, Exceptions.unwrap(truncated));
+    }
+}
@@ -0,0 +1,46 @@
+package org.todocode.benchmarks.ai;
+
+import org.openjdk.jmh.annotations.*;
+import org.todocode.ai._06_retrieval.HnswIndex;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.todocode.benchmarks.ai.VectorDataset.K;
+import static org.todocode.benchmarks.ai.VectorDataset.QUERIES;
+
+/**
+ * [TodoCode] 向量检索: 暴力扫描的 QPS
+ *
+ * 与 {@link VectorSearchBenchmark} 用同一份数据和查询，是 HNSW 要打败的参照。
+ * 精确扫描和 ef 无关，单独成一个类，免得每个 ef 都重复跑一遍同样的结果。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(jvmArgsPrepend = {"--add-modules=jdk.incubator.vector", "-Xmx3g"})
+public class ExactSearchBenchmark {
+
+    @Param({"20000"})
+    private int size;
+
+    @Param({"128"})
+    private int dimensions;
+
+    private HnswIndex index;
+    private float[][] queries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        VectorDataset dataset = VectorDataset.open(size, dimensions);
+        index = dataset.index;
+        queries = dataset.queries;
+    }
+
+    @Benchmark
+    public List<HnswIndex.Neighbor> bruteForce() {
+        return index.searchExact(queries[next++ % QUERIES], K);
+    }
+}
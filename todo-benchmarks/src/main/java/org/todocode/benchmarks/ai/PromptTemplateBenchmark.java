@@ -0,0 +1,141 @@
+package org.todocode.benchmarks.ai;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+import org.todocode.ai._01_prompts.CompiledPrompts;
+import org.todocode.ai._01_prompts.CompiledTemplate;
+import org.todocode.ai._01_prompts.PromptTemplates;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * [TodoCode] 提示词渲染: String.formatted vs 预编译模板
+ *
+ * <h3>背景:</h3>
+ * PromptTemplates 每次调用都解析文本块；CompiledPrompts 只在类加载时解析一次。
+ * 每种提示词比较三种方式:
+ * - legacy: PromptTemplates 原方法
+ * - compiled: 预编译模板渲染成 String (精确预分配，仍然要分配结果)
+ * - reused: 追加到每个线程复用的 StringBuilder (稳态下不分配)
+ * 系统提示词另外比较 bind 后的静态文本，这是"缓存静态前缀"的极限情况。
+ *
+ * <h3>易错点:</h3>
+ * 分配量要用 -prof gc 看 gc.alloc.rate.norm (B/op)，吞吐量的差距反而不是重点:
+ * 在线服务里，分配速率决定 GC 频率和尾延迟。
+ *
+ * <h3>核心理解:</h3>
+ * reused 的 B/op 应该接近 0；compiled 约等于结果 String 本身的大小；legacy 是它的数倍。
+ *
+ * TODO: 把 reused 换成 ThreadLocal<StringBuilder>，在虚拟线程下会发生什么？
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class PromptTemplateBenchmark {
+
+    private static final String SCHEMA = """
+            {"type": "object", "properties": {"name": {"type": "string"}, "age": {"type": "integer"}}}""";
+
+    private String role;
+    private String constraints;
+    private String problem;
+    private Map<String, String> examples;
+    private CompiledTemplate boundSystem;
+    private StringBuilder buffer;
+
+    @Setup
+    public void setup() {
+        role = "a senior Java engineer";
+        constraints = "- Answer in English\n- Cite the JDK version";
+        problem = "Why does this service deadlock under load?";
+        examples = new LinkedHashMap<>();
+        examples.put("great product", "positive");
+        examples.put("broke after a day", "negative");
+        examples.put("it is fine", "neutral");
+        boundSystem = CompiledPrompts.bindSystemPrompt(role, constraints);
+        buffer = new StringBuilder(1024);
+    }
+
+    @Benchmark
+    public String systemLegacy() {
+        return PromptTemplates.systemPrompt(role, constraints);
+    }
+
+    @Benchmark
+    public String systemCompiled() {
+        return CompiledPrompts.systemPrompt(role, constraints);
+    }
+
+    @Benchmark
+    public int systemReused() {
+        buffer.setLength(0);
+        return CompiledPrompts.systemPrompt(buffer, role, constraints).length();
+    }
+
+    @Benchmark
+    public int systemBound() {
+        buffer.setLength(0);
+        return buffer.append(boundSystem.staticText()).length();
+    }
+
+    @Benchmark
+    public String chainOfThoughtLegacy() {
+        return PromptTemplates.chainOfThoughtPrompt(problem);
+    }
+
+    @Benchmark
+    public int chainOfThoughtReused() {
+        buffer.setLength(0);
+        return CompiledPrompts.chainOfThoughtPrompt(buffer, problem).length();
+    }
+
+    @Benchmark
+    public String structuredLegacy() {
+        return PromptTemplates.structuredOutputPrompt(problem, SCHEMA);
+    }
+
+    @Benchmark
+    public int structuredReused() {
+        buffer.setLength(0);
+        return CompiledPrompts.structuredOutputPrompt(buffer, problem, SCHEMA).length();
+    }
+
+    @Benchmark
+    public String fewShotLegacy() {
+        return PromptTemplates.fewShotPrompt(problem, examples);
+    }
+
+    @Benchmark
+    public String fewShotCompiled() {
+        return CompiledPrompts.fewShotPrompt(problem, examples);
+    }
+
+    @Benchmark
+    public int fewShotReused() {
+        buffer.setLength(0);
+        return CompiledPrompts.fewShotPrompt(buffer, problem, examples).length();
+    }
+
+    /**
+     * 单线程运行，附带 GC 分配统计。
+     */
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(PromptTemplateBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .forks(1)
+                .warmupIterations(3)
+                .warmupTime(TimeValue.seconds(1))
+                .measurementIterations(5)
+                .measurementTime(TimeValue.seconds(1))
+                .jvmArgsAppend("--enable-preview")
+                .build();
+        new Runner(options).run();
+    }
+}
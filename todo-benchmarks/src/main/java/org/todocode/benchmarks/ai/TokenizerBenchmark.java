@@ -0,0 +1,131 @@
+package org.todocode.benchmarks.ai;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+import org.todocode.ai._05_tokens.BpeTokenizer;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * [TodoCode] BPE 分词吞吐量: 大文档的 tokens/s
+ *
+ * <h3>背景:</h3>
+ * 对约 1MB 的混合文档 (英文、Java 代码、中文、数字) 计数和编码，比较:
+ * - countCached: 复用 Encoder，片段缓存命中时不做合并
+ * - countUncached: 复用 Encoder 的缓冲区，但每个片段都重新合并
+ * - encodeCached: 输出 int[]，额外付出结果数组的分配
+ * 每次调用处理整篇文档，tokens/s 看 @AuxCounters 统计的 tokens。
+ *
+ * <h3>易错点:</h3>
+ * 文档要在 setup 里用固定种子生成: 每次迭代内容不同，缓存命中率就不同，结果没法比较。
+ *
+ * <h3>核心理解:</h3>
+ * 真实文本里片段高度重复，两个 count 的 B/op 都应该接近 0 (整篇文档只分配几十字节)，countCached 比 countUncached 快一倍左右。
+ *
+ * TODO: 用多个线程各自持有 Encoder 分段编码同一篇文档，吞吐量能不能线性扩展？
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class TokenizerBenchmark {
+
+    private static final String[] ENGLISH = {"the", "request", "budget", "context", "window", "model", "returns",
+            "a", "token", "of", "and", "to", "in", "is", "prompt", "cache", "latency", "throughput", "example",
+            "should", "never", "exceed", "limit", "user", "response", "stream"};
+    private static final String[] CODE = {
+            "    public int countTokens(CharSequence text) {\n",
+            "        return run(chars, 0, load(text), null);\n",
+            "    }\n\n",
+            "        for (int i = 0; i < parts - 1; i++) {\n",
+            "            if (pairRanks[i] < bestRank) {\n",
+            "        Map<String, List<Integer>> index = new HashMap<>();\n"};
+    private static final String[] CHINESE = {"上下文窗口和计费都按 token 算。", "调用服务商的接口来数 token 太慢，",
+            "这里在本地实现字节级 BPE。", "真实文本里片段高度重复，", "缓存命中时不分配任何对象。"};
+
+    private String text;
+    private char[] document;
+    private BpeTokenizer.Encoder cached;
+    private BpeTokenizer.Encoder uncached;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long tokens;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            tokens = 0;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        text = generate(new Random(42), 1 << 20);
+        document = text.toCharArray();
+        BpeTokenizer tokenizer = BpeTokenizer.defaultTokenizer();
+        cached = tokenizer.newEncoder(4096);
+        uncached = tokenizer.newEncoder(0);
+    }
+
+    static String generate(Random random, int length) {
+        StringBuilder sb = new StringBuilder(length + 256);
+        while (sb.length() < length) {
+            switch (random.nextInt(10)) {
+                case 0, 1 -> sb.append(CODE[random.nextInt(CODE.length)]);
+                case 2 -> sb.append(CHINESE[random.nextInt(CHINESE.length)]);
+                case 3 -> sb.append(' ').append(random.nextInt(100_000));
+                default -> {
+                    int words = 5 + random.nextInt(10);
+                    for (int i = 0; i < words; i++) {
+                        sb.append(i == 0 ? "" : " ").append(ENGLISH[random.nextInt(ENGLISH.length)]);
+                    }
+                    sb.append(random.nextBoolean() ? ". " : ",\n");
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    @Benchmark
+    public int countCached(Counters counters) {
+        int n = cached.countTokens(document, 0, document.length);
+        counters.tokens += n;
+        return n;
+    }
+
+    @Benchmark
+    public int countUncached(Counters counters) {
+        int n = uncached.countTokens(document, 0, document.length);
+        counters.tokens += n;
+        return n;
+    }
+
+    @Benchmark
+    public int[] encodeCached(Counters counters) {
+        int[] ids = cached.encode(text);
+        counters.tokens += ids.length;
+        return ids;
+    }
+
+    /**
+     * 单线程运行，附带 GC 分配统计。
+     */
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(TokenizerBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .forks(1)
+                .warmupIterations(3)
+                .warmupTime(TimeValue.seconds(1))
+                .measurementIterations(5)
+                .measurementTime(TimeValue.seconds(1))
+                .jvmArgsAppend("--enable-preview")
+                .build();
+        new Runner(options).run();
+    }
+}
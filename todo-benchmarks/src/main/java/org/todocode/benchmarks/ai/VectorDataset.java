@@ -0,0 +1,138 @@
+package org.todocode.benchmarks.ai;
+
+import org.todocode.ai._06_retrieval.HnswIndex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * [TodoCode] 向量检索基准共用的数据集: 聚簇向量、查询和缓存的 HNSW 索引
+ *
+ * <h3>背景:</h3>
+ * {@link VectorSearchBenchmark} 和 {@link ExactSearchBenchmark} 要在同一份数据、同一组查询上比较，
+ * 数据生成和索引缓存放在这里，两个基准按 (size, dimensions) 共用同一个缓存文件。
+ *
+ * <h3>易错点:</h3>
+ * 1. 索引和标准答案都缓存在临时目录，文件名包含数据规模、M、efConstruction、种子和文件格式版本，
+ *    任何一个变了都不会加载到旧文件。
+ * 2. 均匀随机的高维向量没有结构，所有点之间的距离都差不多，HNSW 在上面的表现远差于真实数据；
+ *    这里用 1000 个簇的高斯混合模拟 embedding 的分布。
+ */
+final class VectorDataset {
+
+    static final int QUERIES = 200;
+    static final int K = 10;
+
+    private static final int CLUSTERS = 1000;
+    private static final int M = 16;
+    private static final int EF_CONSTRUCTION = 100;
+    private static final long SEED = 42;
+
+    final HnswIndex index;
+    final float[][] queries;
+    final Path file;
+
+    private VectorDataset(HnswIndex index, float[][] queries, Path file) {
+        this.index = index;
+        this.queries = queries;
+        this.file = file;
+    }
+
+    /**
+     * 加载缓存的索引；第一次使用时构建并写入临时目录。
+     */
+    static VectorDataset open(int size, int dimensions) throws IOException {
+        Random random = new Random(SEED);
+        float[][] centers = new float[CLUSTERS][dimensions];
+        for (float[] center : centers) {
+            fill(center, random, null);
+        }
+        float[][] queries = new float[QUERIES][dimensions];
+        Random queryRandom = new Random(SEED + 1);
+        for (float[] query : queries) {
+            fill(query, queryRandom, centers[queryRandom.nextInt(CLUSTERS)]);
+        }
+
+        String key = String.format("todocode-hnsw-v%d-%dx%d-m%d-efc%d-s%d",
+                HnswIndex.FORMAT_VERSION, size, dimensions, M, EF_CONSTRUCTION, SEED);
+        Path file = Path.of(System.getProperty("java.io.tmpdir")).resolve(key + ".idx");
+        HnswIndex index;
+        if (Files.exists(file)) {
+            index = HnswIndex.load(file);
+        } else {
+            index = new HnswIndex(dimensions, size, new HnswIndex.Params(M, EF_CONSTRUCTION, 64, SEED));
+            float[] point = new float[dimensions];
+            for (int i = 0; i < size; i++) {
+                fill(point, random, centers[random.nextInt(CLUSTERS)]);
+                index.add(point);
+            }
+            saveAtomically(file, index::save);
+        }
+        return new VectorDataset(index, queries, file);
+    }
+
+    /**
+     * 每个查询的精确 top-K id。文件不存在时用暴力扫描算出来并写入，之后的试验直接读文件。
+     */
+    int[][] groundTruth() throws IOException {
+        Path truthFile = file.resolveSibling(file.getFileName().toString().replace(".idx", "")
+                + "-q" + QUERIES + "k" + K + ".truth");
+        int[][] truth = new int[QUERIES][K];
+        if (Files.exists(truthFile)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(truthFile)))) {
+                for (int[] ids : truth) {
+                    for (int j = 0; j < K; j++) {
+                        ids[j] = in.readInt();
+                    }
+                }
+            }
+            return truth;
+        }
+        for (int q = 0; q < QUERIES; q++) {
+            List<HnswIndex.Neighbor> exact = index.searchExact(queries[q], K);
+            for (int j = 0; j < K; j++) {
+                truth[q][j] = exact.get(j).id();
+            }
+        }
+        saveAtomically(truthFile, target -> {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(target)))) {
+                for (int[] ids : truth) {
+                    for (int id : ids) {
+                        out.writeInt(id);
+                    }
+                }
+            }
+        });
+        return truth;
+    }
+
+    private interface CacheWriter {
+        void write(Path target) throws IOException;
+    }
+
+    /**
+     * 先写临时文件再改名: 构建到一半被中断时，不会留下一个之后每次都被加载的残缺缓存。
+     */
+    private static void saveAtomically(Path file, CacheWriter writer) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        writer.write(tmp);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * center 为 null 时生成标准高斯向量，否则生成 center 附近的点。
+     */
+    private static void fill(float[] target, Random random, float[] center) {
+        for (int j = 0; j < target.length; j++) {
+            target[j] = (center == null ? 0 : center[j]) + (float) random.nextGaussian() * (center == null ? 1 : 0.5f);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package org.todocode.benchmarks.ai;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+import org.todocode.ai._06_retrieval.HnswIndex;
+import org.todocode.ai._06_retrieval.VectorKernels;
+import org.todocode.benchmarks.gate.QualityMetrics;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.todocode.benchmarks.ai.VectorDataset.K;
+import static org.todocode.benchmarks.ai.VectorDataset.QUERIES;
+
+/**
+ * [TodoCode] 向量检索: HNSW 在不同 ef 下的 QPS 和 recall@10
+ *
+ * <h3>背景:</h3>
+ * 在 size 条 dimensions 维的聚簇向量 ({@link VectorDataset}) 上查 10 个最近邻，ef 越大越准越慢。
+ * 吞吐量 (ops/s) 就是单线程的 QPS，同一份数据上的精确扫描见 {@link ExactSearchBenchmark}。
+ * setup 用 200 个查询算出 recall@10，写进质量指标 ({@link QualityMetrics})，门禁报告里和 QPS 并排列出。
+ *
+ * <h3>易错点:</h3>
+ * 1. 默认 size=20000，几秒就能建好，可以放进回归门禁的默认集合。
+ *    一百万条向量 (-p size=1000000) 单核构建要几分钟，缓存文件约 650MB，需要单独运行。
+ * 2. 只看 QPS 会鼓励把 ef 调小。ef >= {@value #RECALL_FLOOR_EF} 时 recall@10 低于 {@value #MIN_RECALL}
+ *    直接让试验失败 (索引坏了，或者参数和缓存文件对不上)，这时的 QPS 没有意义。
+ * 3. 每个 ef 是一次独立的试验 (单独 fork)，标准答案只在第一次试验时用暴力扫描算出来，之后的试验直接读文件。
+ * 4. Vector API 是孵化模块，fork 出来的 JVM 必须加 --add-modules，否则退回标量内核。
+ *
+ * <h3>核心理解:</h3>
+ * 暴力扫描的成本随数据量线性增长，HNSW 大致按对数增长: 数据越多差距越大。
+ *
+ * TODO: 用 -Dtodocode.vector.simd=false 对比标量内核，两种搜索各慢了多少？为什么暴力扫描受影响更大？
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(jvmArgsPrepend = {"--add-modules=jdk.incubator.vector", "-Xmx3g"})
+public class VectorSearchBenchmark {
+
+    private static final int RECALL_FLOOR_EF = 128;
+    private static final double MIN_RECALL = 0.9;
+
+    @Param({"20000"})
+    private int size;
+
+    @Param({"128"})
+    private int dimensions;
+
+    @Param({"32", "64", "128"})
+    private int ef;
+
+    private HnswIndex index;
+    private float[][] queries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup(BenchmarkParams params) throws IOException {
+        VectorDataset dataset = VectorDataset.open(size, dimensions);
+        index = dataset.index;
+        queries = dataset.queries;
+
+        double recall = recall(dataset.groundTruth());
+        QualityMetrics.record(params, "recall@" + K, recall);
+        if (ef >= RECALL_FLOOR_EF && recall < MIN_RECALL) {
+            throw new IllegalStateException(String.format("内核 %s，ef=%d 的 recall@%d 只有 %.4f，低于 %.2f: %s",
+                    VectorKernels.best().name(), ef, K, recall, MIN_RECALL, dataset.file));
+        }
+    }
+
+    private double recall(int[][] truth) {
+        int hits = 0;
+        for (int q = 0; q < QUERIES; q++) {
+            Set<Integer> exact = new HashSet<>();
+            for (int id : truth[q]) {
+                exact.add(id);
+            }
+            for (HnswIndex.Neighbor neighbor : index.search(queries[q], K, ef)) {
+                if (exact.contains(neighbor.id())) {
+                    hits++;
+                }
+            }
+        }
+        return hits / (double) (QUERIES * K);
+    }
+
+    @Benchmark
+    public List<HnswIndex.Neighbor> hnsw() {
+        return index.search(queries[next++ % QUERIES], K, ef);
+    }
+
+    /**
+     * 单线程运行，连同暴力扫描一起。第一次运行会构建索引，之后从临时目录加载。
+     */
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(VectorSearchBenchmark.class.getSimpleName())
+                .include(ExactSearchBenchmark.class.getSimpleName())
+                .forks(1)
+                .warmupIterations(3)
+                .warmupTime(TimeValue.seconds(1))
+                .measurementIterations(5)
+                .measurementTime(TimeValue.seconds(1))
+                .jvmArgsAppend("--enable-preview")
+                .build();
+        new Runner(options).run();
+    }
+}
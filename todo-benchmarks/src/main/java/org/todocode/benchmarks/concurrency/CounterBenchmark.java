@@ -0,0 +1,121 @@
+package org.todocode.benchmarks.concurrency;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+import org.todocode.concurrency._03_locks.ReentrantLockDemo;
+import org.todocode.concurrency._08_primitives.LockStriping;
+import org.todocode.concurrency._08_primitives.StampedLockGuard;
+import org.todocode.concurrency._08_primitives.StripedCounter;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * [TodoCode] 计数器吞吐量对比
+ *
+ * <h3>背景:</h3>
+ * ReentrantLockDemo.safeIncrement 用一把锁保护一个 int，这是团队里最常被复制的写法。
+ * 这里把它与 AtomicLong、LongAdder、StripedCounter、按 key 分段加锁、
+ * StampedLock 乐观读放在同样的线程数下比较。
+ *
+ * <h3>易错点:</h3>
+ * JMH 的线程数不是 @Param，不能在一次 -t 运行里扫描。
+ * 用 main() 依次以 1..64 线程运行，或在命令行用 -t 指定。
+ *
+ * <h3>核心理解:</h3>
+ * 单线程时几种写法差别不大；线程数超过核数后，单锁和单 CAS 会急剧退化，
+ * 而分散到多个缓存行的实现几乎线性扩展。
+ *
+ * TODO: 在 1 核机器上运行 main()，曲线还会分叉吗？
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class CounterBenchmark {
+
+    private static final int KEYS = 1024;
+
+    private ReentrantLockDemo lockDemo;
+    private AtomicLong atomicLong;
+    private LongAdder longAdder;
+    private StripedCounter stripedCounter;
+    private LockStriping<Integer> striping;
+    private long[] perKeyCounters;
+    private StampedLockGuard<long[]> stampedGuard;
+
+    @Setup
+    public void setup() {
+        lockDemo = new ReentrantLockDemo();
+        atomicLong = new AtomicLong();
+        longAdder = new LongAdder();
+        stripedCounter = new StripedCounter();
+        striping = new LockStriping<>(64);
+        perKeyCounters = new long[KEYS];
+        stampedGuard = new StampedLockGuard<>(new long[1]);
+    }
+
+    @Benchmark
+    public void reentrantLockDemo() {
+        lockDemo.safeIncrement();
+    }
+
+    @Benchmark
+    public long atomicLong() {
+        return atomicLong.incrementAndGet();
+    }
+
+    @Benchmark
+    public void longAdder() {
+        longAdder.increment();
+    }
+
+    @Benchmark
+    public void stripedCounter() {
+        stripedCounter.increment();
+    }
+
+    @Benchmark
+    public void lockStripingPerKey() {
+        int key = ThreadLocalRandom.current().nextInt(KEYS);
+        striping.runWithLock(key, () -> perKeyCounters[key]++);
+    }
+
+    /**
+     * 读多写少: 每 100 次操作 1 次写。
+     */
+    @Benchmark
+    public long stampedReadMostly() {
+        if (ThreadLocalRandom.current().nextInt(100) == 0) {
+            stampedGuard.write(s -> s[0]++);
+            return 0;
+        }
+        return stampedGuard.read(s -> s[0]);
+    }
+
+    /**
+     * 以 1 到 64 线程依次运行全部计数器基准。
+     */
+    public static void main(String[] args) throws RunnerException {
+        for (int threads = 1; threads <= 64; threads <<= 1) {
+            Options options = new OptionsBuilder()
+                    .include(CounterBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .forks(1)
+                    .warmupIterations(3)
+                    .warmupTime(TimeValue.seconds(1))
+                    .measurementIterations(5)
+                    .measurementTime(TimeValue.seconds(1))
+                    .jvmArgsAppend("--enable-preview")
+                    .resultFormat(org.openjdk.jmh.results.format.ResultFormatType.JSON)
+                    .result("target/counter-" + threads + "t.json")
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
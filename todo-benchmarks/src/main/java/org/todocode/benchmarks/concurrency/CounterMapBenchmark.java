@@ -0,0 +1,115 @@
+package org.todocode.benchmarks.concurrency;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+import org.todocode.concurrency._05_collections.ConcurrentIntLongMap;
+import org.todocode.concurrency._05_collections.ConcurrentLongLongMap;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * [TodoCode] 按 key 计数: ConcurrentHashMap.merge vs 原始类型并发表
+ *
+ * <h3>背景:</h3>
+ * ConcurrentCollectionsDemo.atomicOperationsDemo 用 merge(key, 1L, Long::sum) 计数。
+ * 这里在同样的 key 分布下比较它与 ConcurrentLongLongMap / ConcurrentIntLongMap 的吞吐量。
+ *
+ * <h3>易错点:</h3>
+ * 吞吐量只是一半，另一半是分配速率: 加上 -prof gc 运行，
+ * 看 gc.alloc.rate.norm (每次操作分配的字节数)。merge 每次都要装箱 key 和新值，
+ * 原始类型表在已有 key 上应该是 0。
+ *
+ * <h3>核心理解:</h3>
+ * key 序列预先生成，基准方法内不做随机数以外的分配，测到的就是 map 本身的开销。
+ *
+ * TODO: 把 KEYS 调到 1 (所有线程争抢同一个 key)，两种实现谁退化得更厉害？
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class CounterMapBenchmark {
+
+    @Param({"1024", "65536"})
+    public int keys;
+
+    private ConcurrentHashMap<Long, Long> chm;
+    private ConcurrentLongLongMap longLongMap;
+    private ConcurrentIntLongMap intLongMap;
+
+    @Setup
+    public void setup() {
+        chm = new ConcurrentHashMap<>();
+        longLongMap = new ConcurrentLongLongMap();
+        intLongMap = new ConcurrentIntLongMap();
+        for (int k = 0; k < keys; k++) { // 预先插入，测量的是稳态的自增
+            chm.put(k * 7919L, 0L);
+            longLongMap.addAndGet(k * 7919L, 0);
+            intLongMap.addAndGet(k * 7919, 0);
+        }
+    }
+
+    /**
+     * 每个线程自己的 key 序列，避免在基准方法里生成 key。
+     */
+    @State(Scope.Thread)
+    public static class Keys {
+        private static final int LENGTH = 1 << 16;
+        final long[] sequence = new long[LENGTH];
+        int cursor;
+
+        @Setup
+        public void setup(CounterMapBenchmark benchmark) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < LENGTH; i++) {
+                sequence[i] = random.nextInt(benchmark.keys) * 7919L;
+            }
+        }
+
+        long next() {
+            return sequence[cursor++ & (LENGTH - 1)];
+        }
+    }
+
+    @Benchmark
+    public Long concurrentHashMapMerge(Keys keys) {
+        return chm.merge(keys.next(), 1000L, Long::sum);
+    }
+
+    @Benchmark
+    public long longLongMapAddAndGet(Keys keys) {
+        return longLongMap.addAndGet(keys.next(), 1000);
+    }
+
+    @Benchmark
+    public long intLongMapAddAndGet(Keys keys) {
+        return intLongMap.addAndGet((int) keys.next(), 1000);
+    }
+
+    /**
+     * 以 1、4、16 线程运行，并打开 GC 分析器输出每次操作的分配字节数。
+     */
+    public static void main(String[] args) throws RunnerException {
+        for (int threads = 1; threads <= 16; threads <<= 2) {
+            Options options = new OptionsBuilder()
+                    .include(CounterMapBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .forks(1)
+                    .warmupIterations(3)
+                    .warmupTime(TimeValue.seconds(1))
+                    .measurementIterations(5)
+                    .measurementTime(TimeValue.seconds(1))
+                    .addProfiler("gc")
+                    .jvmArgsAppend("--enable-preview")
+                    .resultFormat(org.openjdk.jmh.results.format.ResultFormatType.JSON)
+                    .result("target/counter-map-" + threads + "t.json")
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
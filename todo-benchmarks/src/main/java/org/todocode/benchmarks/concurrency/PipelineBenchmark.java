@@ -0,0 +1,77 @@
+package org.todocode.benchmarks.concurrency;
+
+import org.openjdk.jmh.annotations.*;
+import org.todocode.concurrency._07_patterns.StagedPipeline;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * [TodoCode] CompletableFuture 链 vs 分阶段流水线
+ *
+ * <h3>背景:</h3>
+ * 复刻 ThreadPoolDemo.completableFutureDemo 的三个步骤 (获取、转大写、丰富化)，
+ * 每次调用处理一批 batch 个元素:
+ * - completableFuture: 固定 3 线程池 + thenApplyAsync，每个步骤一次线程交接
+ * - stagedPipeline: 一个异步阶段 + 两个融合步骤，批量在工作线程上连续处理
+ *
+ * <h3>核心理解:</h3>
+ * 步骤本身几乎不花时间，测到的主要是线程交接 (入队、唤醒、上下文切换) 的成本。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class PipelineBenchmark {
+
+    @Param({"1000"})
+    private int batch;
+
+    private ExecutorService fixedPool;
+    private ForkJoinPool forkJoinPool;
+    private StagedPipeline<String, String> pipeline;
+    private CompletableFuture<?>[] futures;
+
+    @Setup
+    public void setup() {
+        fixedPool = Executors.newFixedThreadPool(3);
+        forkJoinPool = new ForkJoinPool(3);
+        pipeline = StagedPipeline.<String>builder(forkJoinPool, batch)
+                .thenApplyAsync("fetch", PipelineBenchmark::fetch, 3)
+                .thenApply(String::toUpperCase)
+                .thenApply(data -> data + "_ENRICHED")
+                .build();
+        futures = new CompletableFuture<?>[batch];
+    }
+
+    @TearDown
+    public void tearDown() {
+        fixedPool.shutdownNow();
+        forkJoinPool.shutdownNow();
+    }
+
+    private static String fetch(String key) {
+        return "raw-" + key;
+    }
+
+    @Benchmark
+    public Object completableFuture() {
+        for (int i = 0; i < batch; i++) {
+            String key = "k" + (i & 63);
+            futures[i] = CompletableFuture.supplyAsync(() -> fetch(key), fixedPool)
+                    .thenApplyAsync(String::toUpperCase, fixedPool)
+                    .thenApplyAsync(data -> data + "_ENRICHED", fixedPool);
+        }
+        return CompletableFuture.allOf(futures).join();
+    }
+
+    @Benchmark
+    public Object stagedPipeline() throws InterruptedException {
+        for (int i = 0; i < batch; i++) {
+            futures[i] = pipeline.submit("k" + (i & 63));
+        }
+        return CompletableFuture.allOf(futures).join();
+    }
+}
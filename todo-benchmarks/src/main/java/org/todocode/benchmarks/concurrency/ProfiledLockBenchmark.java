@@ -0,0 +1,64 @@
+package org.todocode.benchmarks.concurrency;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.todocode.concurrency._03_locks.ProfiledReentrantLock;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * [TodoCode] ProfiledReentrantLock 无竞争路径的额外开销
+ *
+ * <h3>背景:</h3>
+ * ProfiledReentrantLock 声称无竞争的获取只多了一次采样倒数。
+ * 这里单线程反复加锁、解锁，和同样用法的 ReentrantLock 对比，两者的比值就是额外开销。
+ * 门禁的开销规则 (overhead-rules.properties) 要求 profiledLock 比 reentrantLock 慢不超过 5%。
+ *
+ * <h3>易错点:</h3>
+ * 1. 两种锁放在各自的 @Benchmark 方法里，字段用具体类型声明:
+ *    如果共用一个 Lock 参数的方法，lock()/unlock() 调用点会变成双态，测到的是内联失败而不是锁本身。
+ * 2. 空临界区 (work=0) 放大了相对开销，work=64 更接近业务里被锁保护的一次小更新。
+ *
+ * <h3>核心理解:</h3>
+ * 单线程无竞争的加锁只是一次 CAS，几纳秒的额外工作在这里就是几十个百分点；
+ * 把它和临界区本身的耗时放在一起看才有意义。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class ProfiledLockBenchmark {
+
+    @Param({"0", "64"})
+    private int work;
+
+    private ReentrantLock plain;
+    private ProfiledReentrantLock profiled;
+
+    @Setup
+    public void setup() {
+        plain = new ReentrantLock();
+        profiled = new ProfiledReentrantLock("bench", new SimpleMeterRegistry());
+    }
+
+    @Benchmark
+    public void reentrantLock() {
+        plain.lock();
+        try {
+            Blackhole.consumeCPU(work);
+        } finally {
+            plain.unlock();
+        }
+    }
+
+    @Benchmark
+    public void profiledLock() {
+        profiled.lock();
+        try {
+            Blackhole.consumeCPU(work);
+        } finally {
+            profiled.unlock();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package org.todocode.benchmarks.concurrency;
+
+import org.openjdk.jmh.annotations.*;
+import org.todocode.concurrency._07_patterns.RingBufferBlockingQueue;
+import org.todocode.concurrency._07_patterns.WaitStrategy;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * [TodoCode] 有界队列吞吐量对比
+ *
+ * <h3>背景:</h3>
+ * ProducerConsumerDemo 默认使用 ArrayBlockingQueue (put/take 共用一把锁)。
+ * 这里让 2 个生产者和 2 个消费者同时打同一个队列，比较
+ * ArrayBlockingQueue、LinkedTransferQueue 和三种 {@link WaitStrategy} 下的无锁 RingBufferBlockingQueue。
+ *
+ * <h3>易错点:</h3>
+ * 1. 用 put/take 时，迭代结束的瞬间另一组线程可能永远阻塞，JMH 会卡住。
+ *    所以这里用带超时的 offer/poll，超时就算一次空转。
+ * 2. 非阻塞的 offer/poll 不会等待，RingBuffer 的等待策略根本不起作用，比较出来的只是自旋重试的速度；
+ *    带超时的版本才会在满/空时按策略等待 (ArrayBlockingQueue 在条件变量上等)。
+ * 3. 只看调用次数会把超时的 offer/poll 也算进去，等待越短、空转越多分数反而越高。
+ *    真正的吞吐量看 @AuxCounters 统计的 offered/polled，回归门禁比较的也是 polled
+ *    (见 todo-benchmarks/gate-metrics.properties)，不是主分数。
+ *
+ * <h3>核心理解:</h3>
+ * LinkedTransferQueue 是无界的，这里只作为"无锁链表"的参照。
+ * 为了不把堆撑爆，用一个容量为 capacity 的 Semaphore 给它限界:
+ * offer 前 tryAcquire，poll 成功后 release。不能用 size() 判断，
+ * 它的 size() 要遍历链表，测出来的就是 size() 而不是队列本身。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Group)
+public class QueueBenchmark {
+
+    /**
+     * RingBuffer-等待策略: 等待策略只对 RingBuffer 有意义，写进同一个参数，其余队列不会重复跑三遍。
+     */
+    @Param({"ArrayBlockingQueue", "LinkedTransferQueue", "RingBuffer-BUSY_SPIN", "RingBuffer-YIELD", "RingBuffer-PARK"})
+    private String queueType;
+
+    @Param({"1024"})
+    private int capacity;
+
+    private BlockingQueue<Integer> queue;
+    private Semaphore slots; // 只给无界的 LinkedTransferQueue 限界，其余为 null
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        queue = switch (queueType) {
+            case "ArrayBlockingQueue" -> new ArrayBlockingQueue<>(capacity);
+            case "LinkedTransferQueue" -> new LinkedTransferQueue<>();
+            default -> {
+                if (!queueType.startsWith(RING_BUFFER)) {
+                    throw new IllegalArgumentException(queueType);
+                }
+                yield new RingBufferBlockingQueue<>(capacity,
+                        WaitStrategy.valueOf(queueType.substring(RING_BUFFER.length())));
+            }
+        };
+        slots = queue instanceof LinkedTransferQueue ? new Semaphore(capacity) : null;
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long offered;
+        public long polled;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            offered = 0;
+            polled = 0;
+        }
+    }
+
+    private static final Integer ITEM = 42;
+    private static final String RING_BUFFER = "RingBuffer-";
+
+    /**
+     * 满/空时最多等这么久: 足够 PARK 走完自旋和让出进入 park，又保证迭代结束时线程很快退出。
+     */
+    private static final long TIMEOUT_MICROS = 100;
+
+    @Benchmark
+    @Group("mpmc")
+    @GroupThreads(2)
+    public void offer(Counters counters) throws InterruptedException {
+        // 无界队列的 offer 总是成功，等待发生在 slots 上
+        if ((slots == null || slots.tryAcquire(TIMEOUT_MICROS, TimeUnit.MICROSECONDS))
+                && queue.offer(ITEM, TIMEOUT_MICROS, TimeUnit.MICROSECONDS)) {
+            counters.offered++;
+        }
+    }
+
+    @Benchmark
+    @Group("mpmc")
+    @GroupThreads(2)
+    public Integer poll(Counters counters) throws InterruptedException {
+        Integer item = queue.poll(TIMEOUT_MICROS, TimeUnit.MICROSECONDS);
+        if (item != null) {
+            if (slots != null) {
+                slots.release();
+            }
+            counters.polled++;
+        }
+        return item;
+    }
+}
@@ -0,0 +1,136 @@
+package org.todocode.benchmarks.concurrency;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+import org.todocode.concurrency._05_collections.ConcurrentLongSkipList;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * [TodoCode] 有序索引: ConcurrentSkipListMap&lt;Long, V&gt; vs 原始 long 键跳表
+ *
+ * <h3>背景:</h3>
+ * 两者是同一个无锁算法，区别只在 key 是否装箱。这里分别测量
+ * 点查、floor 查找、100 个元素的范围扫描以及插入+删除的混合写入。
+ *
+ * <h3>易错点:</h3>
+ * 装箱的开销有两部分: 查询参数的装箱 (-prof gc 能看到的分配)，
+ * 以及每次比较时对节点 key 的拆箱 (多一次缓存未命中，只体现在吞吐量里)。
+ * key 稀疏地分布在很大的范围里，避免全部落在 Long 缓存 (-128~127) 中。
+ *
+ * <h3>核心理解:</h3>
+ * 数据结构一样时，内存布局和分配往往就是全部的差距。
+ *
+ * TODO: 用 -prof perfnorm 对比两者每次操作的 L1 缓存未命中数。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class SkipListBenchmark {
+
+    private static final int SIZE = 100_000;
+    private static final long STRIDE = 1_000;
+
+    private ConcurrentSkipListMap<Long, Long> boxed;
+    private ConcurrentLongSkipList<Long> primitive;
+
+    @Setup
+    public void setup() {
+        boxed = new ConcurrentSkipListMap<>();
+        primitive = new ConcurrentLongSkipList<>();
+        for (long i = 0; i < SIZE; i++) {
+            boxed.put(i * STRIDE, i);
+            primitive.put(i * STRIDE, i);
+        }
+    }
+
+    private static long randomKey() {
+        return ThreadLocalRandom.current().nextLong(SIZE * STRIDE);
+    }
+
+    @Benchmark
+    public Long boxedGet() {
+        return boxed.get(randomKey() / STRIDE * STRIDE);
+    }
+
+    @Benchmark
+    public Long primitiveGet() {
+        return primitive.get(randomKey() / STRIDE * STRIDE);
+    }
+
+    @Benchmark
+    public Long boxedFloor() {
+        Map.Entry<Long, Long> e = boxed.floorEntry(randomKey());
+        return e == null ? null : e.getValue();
+    }
+
+    @Benchmark
+    public Long primitiveFloor() {
+        return primitive.floorValue(randomKey());
+    }
+
+    @Benchmark
+    public long boxedRangeScan() {
+        long from = randomKey();
+        long sum = 0;
+        for (Long v : boxed.subMap(from, from + 100 * STRIDE).values()) {
+            sum += v;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long primitiveRangeScan() {
+        long from = randomKey();
+        long sum = 0;
+        ConcurrentLongSkipList.Cursor<Long> cursor = primitive.range(from, from + 100 * STRIDE).cursor();
+        while (cursor.advance()) {
+            sum += cursor.value();
+        }
+        return sum;
+    }
+
+    /**
+     * 插入一个不在表中的 key 再删除它，表的大小保持不变。
+     */
+    @Benchmark
+    public Long boxedPutRemove() {
+        long key = randomKey() | 1; // 奇数 key 不与预置的 key 冲突
+        boxed.put(key, key);
+        return boxed.remove(key);
+    }
+
+    @Benchmark
+    public Long primitivePutRemove() {
+        long key = randomKey() | 1;
+        primitive.put(key, key);
+        return primitive.remove(key);
+    }
+
+    /**
+     * 以 1 线程和 4 线程运行，并打开 GC 分析器。
+     */
+    public static void main(String[] args) throws RunnerException {
+        for (int threads : new int[]{1, 4}) {
+            Options options = new OptionsBuilder()
+                    .include(SkipListBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .forks(1)
+                    .warmupIterations(3)
+                    .warmupTime(TimeValue.seconds(1))
+                    .measurementIterations(5)
+                    .measurementTime(TimeValue.seconds(1))
+                    .addProfiler("gc")
+                    .jvmArgsAppend("--enable-preview")
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
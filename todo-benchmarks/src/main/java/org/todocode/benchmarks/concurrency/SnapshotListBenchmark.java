@@ -0,0 +1,93 @@
+package org.todocode.benchmarks.concurrency;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+import org.todocode.concurrency._05_collections.SnapshotList;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * [TodoCode] 读写混合: CopyOnWriteArrayList vs 持久化向量快照列表
+ *
+ * <h3>背景:</h3>
+ * ConcurrentCollectionsDemo.copyOnWriteDemo 用 CopyOnWriteArrayList。
+ * 这里在不同的列表大小和写入比例下比较它与 SnapshotList:
+ * 每次操作以 writePercent% 的概率替换一个随机位置的元素，否则读一个随机位置。
+ *
+ * <h3>易错点:</h3>
+ * 写入用 set 而不是 add，保持列表大小不变，否则测量期间 n 一直在增长，结果无法比较。
+ *
+ * <h3>核心理解:</h3>
+ * CopyOnWriteArrayList 的写入是 O(n)，SnapshotList 是 O(log32 n)；
+ * 读取前者是一次数组访问，后者要走 2~3 层树。写入比例越高、列表越大，交叉点越早出现。
+ *
+ * TODO: 写入比例为 0 时 SnapshotList 比 CopyOnWriteArrayList 慢多少？这就是树的层数的代价。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class SnapshotListBenchmark {
+
+    @Param({"1000", "10000"})
+    public int size;
+
+    @Param({"0", "1", "10", "50"})
+    public int writePercent;
+
+    private CopyOnWriteArrayList<Integer> copyOnWrite;
+    private SnapshotList<Integer> snapshotList;
+
+    @Setup
+    public void setup() {
+        copyOnWrite = new CopyOnWriteArrayList<>();
+        snapshotList = new SnapshotList<>();
+        for (int i = 0; i < size; i++) {
+            copyOnWrite.add(i);
+            snapshotList.add(i);
+        }
+    }
+
+    @Benchmark
+    public Integer copyOnWriteArrayList() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int index = random.nextInt(size);
+        if (random.nextInt(100) < writePercent) {
+            return copyOnWrite.set(index, index);
+        }
+        return copyOnWrite.get(index);
+    }
+
+    @Benchmark
+    public Integer snapshotList() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int index = random.nextInt(size);
+        if (random.nextInt(100) < writePercent) {
+            snapshotList.set(index, index);
+            return index;
+        }
+        return snapshotList.get(index);
+    }
+
+    /**
+     * 以 4 线程运行全部组合。
+     */
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(SnapshotListBenchmark.class.getSimpleName())
+                .threads(4)
+                .forks(1)
+                .warmupIterations(3)
+                .warmupTime(TimeValue.seconds(1))
+                .measurementIterations(5)
+                .measurementTime(TimeValue.seconds(1))
+                .jvmArgsAppend("--enable-preview")
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,83 @@
+package org.todocode.benchmarks.concurrency;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.todocode.concurrency._06_executors.ThreadPoolDemo;
+import org.todocode.concurrency._06_executors.VirtualThreadExecutor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * [TodoCode] 平台线程池 vs 虚拟线程: 10000 个并发阻塞任务
+ *
+ * <h3>背景:</h3>
+ * 每个任务模拟一次 1ms 的 I/O 等待 (sleep)。
+ * ThreadPoolDemo.createProperThreadPool 最多 5 个线程 + CallerRunsPolicy，
+ * 理论下限约 10000 * 1ms / 6 ≈ 1.7s；虚拟线程的并发只受信号量限制。
+ *
+ * <h3>易错点:</h3>
+ * 1. 这是单次耗时 (SingleShotTime)，每次调用都是一整批 10000 个任务，
+ *    不要用吞吐量模式，否则测到的是提交速度而不是完成时间。
+ * 2. 虚拟线程每次调用都新建执行器 (不池化)，平台线程池也每次新建以保持公平。
+ *
+ * <h3>核心理解:</h3>
+ * 对阻塞型任务，并发度决定完成时间；平台线程池的并发度被线程数锁死。
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@State(Scope.Benchmark)
+public class VirtualThreadBenchmark {
+
+    @Param({"10000"})
+    private int tasks;
+
+    @Param({"1000"})
+    private int permits;
+
+    private final Callable<Integer> blockingTask = () -> {
+        TimeUnit.MILLISECONDS.sleep(1);
+        return 1;
+    };
+
+    @Benchmark
+    public int platformPool() throws Exception {
+        ExecutorService executor = new ThreadPoolDemo().createProperThreadPool();
+        try {
+            List<Future<Integer>> futures = new ArrayList<>(tasks);
+            for (int i = 0; i < tasks; i++) {
+                futures.add(executor.submit(blockingTask));
+            }
+            return sum(futures);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Benchmark
+    public int virtualThreads() throws Exception {
+        try (VirtualThreadExecutor executor = new VirtualThreadExecutor("bench",
+                Map.of("io", permits), new SimpleMeterRegistry())) {
+            List<Future<Integer>> futures = new ArrayList<>(tasks);
+            for (int i = 0; i < tasks; i++) {
+                futures.add(executor.submit("io", blockingTask));
+            }
+            return sum(futures);
+        }
+    }
+
+    private static int sum(List<Future<Integer>> futures) throws Exception {
+        int sum = 0;
+        for (Future<Integer> f : futures) {
+            sum += f.get();
+        }
+        return sum;
+    }
+}
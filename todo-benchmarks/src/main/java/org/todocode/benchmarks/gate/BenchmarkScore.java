@@ -0,0 +1,52 @@
+package org.todocode.benchmarks.gate;
+
+/**
+ * [TodoCode] 单个基准测试的得分及其置信区间
+ *
+ * <h3>背景:</h3>
+ * JMH 为每个基准输出 score 和 scoreError，
+ * scoreError 是 99.9% 置信区间的半宽。
+ *
+ * <h3>易错点:</h3>
+ * 1. 只迭代一次时 scoreError 为 NaN，此时区间退化为单点。
+ * 2. scoreError 比 score 还大时，区间下界是负数，这个结果几乎没有信息量，见 {@link #noisy()}。
+ *
+ * <h3>核心理解:</h3>
+ * 吞吐量模式(thrpt)越高越好，其余模式(avgt/sample/ss)越低越好。
+ *
+ * @param key       完整方法名 + 模式 + 参数，例如
+ *                  {@code org.todocode.benchmarks.systemdesign.LRUCacheBenchmark.get:thrpt:capacity=1024}
+ * @param benchmark JMH 输出的完整方法名 (含包名)，与 {@code bench.include} 的正则匹配的就是它
+ * @param mode      JMH 模式 (thrpt, avgt, sample, ss)
+ * @param unit      得分单位，例如 ops/s
+ * @param score     平均得分
+ * @param error     置信区间半宽
+ */
+public record BenchmarkScore(String key, String benchmark, String mode, String unit, double score, double error) {
+
+    public double lower() {
+        return Double.isNaN(error) ? score : score - error;
+    }
+
+    public double upper() {
+        return Double.isNaN(error) ? score : score + error;
+    }
+
+    public boolean higherIsBetter() {
+        return "thrpt".equals(mode);
+    }
+
+    /**
+     * 误差超过得分本身: 迭代之间波动太大，不能用来判定回归。
+     */
+    public boolean noisy() {
+        return error > score;
+    }
+
+    /**
+     * 两个置信区间是否重叠。重叠意味着差异在统计上不显著。
+     */
+    public boolean overlaps(BenchmarkScore other) {
+        return lower() <= other.upper() && other.lower() <= upper();
+    }
+}
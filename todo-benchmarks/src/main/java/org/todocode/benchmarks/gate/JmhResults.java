@@ -0,0 +1,155 @@
+package org.todocode.benchmarks.gate;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * [TodoCode] JMH JSON 结果读取器
+ *
+ * <h3>背景:</h3>
+ * 使用 {@code -rf json} 运行 JMH 会输出一个数组，每个元素对应一个
+ * (基准, 参数组合)。基线文件就是一次被认可的运行结果，格式完全相同。
+ *
+ * <h3>易错点:</h3>
+ * 1. 同一个基准方法会因 @Param 不同、模式不同 (@BenchmarkMode 可以同时写多个) 而出现多次，
+ *    不同包下也可能有同名的类，key 必须包含完整方法名、模式和参数，否则后者会覆盖前者。
+ * 2. 只运行了一部分基准 (-Dbench.include=...) 时更新基线，不能整个文件覆盖，
+ *    否则没运行的基准从基线里消失了，见 {@link #updateBaseline}。
+ * 3. 主分数是方法的调用次数，并不总是要门禁的量。例如 QueueBenchmark 里超时的 offer/poll 也算一次调用，
+ *    等待越短、空转越多分数反而越高。这类基准在 metrics 里指定一个 @AuxCounters
+ *    次要指标 (例如 polled) 代替主分数，key 末尾加上 {@code #指标名}，报告里一眼能看出门禁的是什么。
+ */
+public final class JmhResults {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private JmhResults() {
+    }
+
+    public static Map<String, BenchmarkScore> read(Path file) throws IOException {
+        return read(file, Map.of());
+    }
+
+    /**
+     * @param metrics 完整方法名 → 代替主分数参与门禁的次要指标名
+     */
+    public static Map<String, BenchmarkScore> read(Path file, Map<String, String> metrics) throws IOException {
+        return parse(MAPPER.readTree(file.toFile()), metrics);
+    }
+
+    public static Map<String, BenchmarkScore> parse(String json) throws IOException {
+        return parse(json, Map.of());
+    }
+
+    public static Map<String, BenchmarkScore> parse(String json, Map<String, String> metrics) throws IOException {
+        return parse(MAPPER.readTree(json), metrics);
+    }
+
+    /**
+     * 读取 properties 格式的指标文件，每行 {@code 完整方法名 = 次要指标名}。
+     */
+    public static Map<String, String> loadMetrics(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file)) {
+            properties.load(reader);
+        }
+        Map<String, String> metrics = new TreeMap<>();
+        properties.forEach((benchmark, metric) -> metrics.put(benchmark.toString().trim(), metric.toString().trim()));
+        return metrics;
+    }
+
+    /**
+     * 文件里出现过的 JDK 版本 (每条结果的 jdkVersion 字段，没有这个字段的条目忽略)。
+     */
+    public static Set<String> jdkVersions(Path file) throws IOException {
+        Set<String> versions = new TreeSet<>();
+        for (JsonNode run : MAPPER.readTree(file.toFile())) {
+            if (run.hasNonNull("jdkVersion")) {
+                versions.add(run.get("jdkVersion").asText());
+            }
+        }
+        return versions;
+    }
+
+    /**
+     * 用本次结果更新基线: 基线里被 include 选中的基准全部换成本次的结果，没被选中的原样保留。
+     */
+    public static void updateBaseline(Path baseline, Path result, Pattern include) throws IOException {
+        ArrayNode merged = MAPPER.createArrayNode();
+        if (Files.exists(baseline)) {
+            for (JsonNode run : MAPPER.readTree(baseline.toFile())) {
+                if (!include.matcher(run.path("benchmark").asText()).find()) {
+                    merged.add(run);
+                }
+            }
+        }
+        MAPPER.readTree(result.toFile()).forEach(merged::add);
+        Files.createDirectories(baseline.toAbsolutePath().getParent());
+        MAPPER.writerWithDefaultPrettyPrinter().writeValue(baseline.toFile(), merged);
+    }
+
+    private static Map<String, BenchmarkScore> parse(JsonNode root, Map<String, String> metrics) {
+        Map<String, BenchmarkScore> scores = new LinkedHashMap<>();
+        for (JsonNode run : root) {
+            String key = keyOf(run);
+            JsonNode metric = run.path("primaryMetric");
+            String secondary = metrics.get(run.path("benchmark").asText());
+            if (secondary != null) {
+                metric = run.path("secondaryMetrics").path(secondary);
+                if (metric.isMissingNode()) {
+                    Set<String> available = new TreeSet<>();
+                    run.path("secondaryMetrics").fieldNames().forEachRemaining(available::add);
+                    throw new IllegalArgumentException(run.path("benchmark").asText() + " 的结果里没有次要指标 "
+                            + secondary + "，现有: " + available);
+                }
+                key += "#" + secondary;
+            }
+            scores.put(key, new BenchmarkScore(
+                    key,
+                    run.path("benchmark").asText(),
+                    run.path("mode").asText(),
+                    metric.path("scoreUnit").asText(),
+                    metric.path("score").asDouble(Double.NaN),
+                    metric.path("scoreError").asDouble(Double.NaN)));
+        }
+        return scores;
+    }
+
+    /**
+     * 完整方法名 + 模式 + 参数，例如
+     * {@code org.todocode.benchmarks.systemdesign.LRUCacheBenchmark.get:thrpt:capacity=1024}
+     */
+    static String keyOf(JsonNode run) {
+        StringBuilder sb = new StringBuilder(run.path("benchmark").asText())
+                .append(':').append(run.path("mode").asText());
+        JsonNode params = run.path("params");
+        if (params.isMissingNode() || params.isEmpty()) {
+            return sb.toString();
+        }
+        // 按参数名排序，保证 key 稳定
+        Map<String, String> sorted = new TreeMap<>();
+        Iterator<Map.Entry<String, JsonNode>> fields = params.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            sorted.put(field.getKey(), field.getValue().asText());
+        }
+        sb.append(':');
+        sorted.forEach((name, value) -> sb.append(name).append('=').append(value).append(','));
+        sb.setLength(sb.length() - 1);
+        return sb.toString();
+    }
+}
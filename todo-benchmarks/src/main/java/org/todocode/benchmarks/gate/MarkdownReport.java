@@ -0,0 +1,80 @@
+package org.todocode.benchmarks.gate;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * [TodoCode] 基准比较结果的 Markdown 差异表
+ *
+ * 输出可以直接贴到 PR 描述里，一眼看出哪个基准变慢了。
+ */
+public final class MarkdownReport {
+
+    private MarkdownReport() {
+    }
+
+    public static String render(List<RegressionGate.Comparison> comparisons, double thresholdPercent) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("## JMH 回归报告 (阈值 ").append(format(thresholdPercent)).append("%, 99.9% 置信区间)\n\n");
+        sb.append("| Benchmark | Mode | Baseline | Current | Change | Verdict |\n");
+        sb.append("|---|---|---:|---:|---:|---|\n");
+        for (RegressionGate.Comparison c : comparisons) {
+            BenchmarkScore any = c.current() != null ? c.current() : c.baseline();
+            sb.append("| ").append(c.key())
+                    .append(" | ").append(any.mode())
+                    .append(" | ").append(cell(c.baseline()))
+                    .append(" | ").append(cell(c.current()))
+                    .append(" | ").append(Double.isNaN(c.changePercent()) ? "-" : signed(c.changePercent()) + "%")
+                    .append(" | ").append(c.verdict()).append(c.allowed() ? " (allowed)" : "")
+                    .append(" |\n");
+        }
+        return sb.toString();
+    }
+
+    public static String renderOverhead(List<OverheadRule.Check> checks) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("## 开销规则 (与同一次运行里的参照基准比较)\n\n");
+        sb.append("| Benchmark | Reference | Current | Overhead | Limit | Verdict |\n");
+        sb.append("|---|---|---:|---:|---:|---|\n");
+        for (OverheadRule.Check c : checks) {
+            sb.append("| ").append(c.key())
+                    .append(" | ").append(c.rule().reference())
+                    .append(" | ").append(cell(c.candidate()))
+                    .append(" | ").append(Double.isNaN(c.overheadPercent()) ? "-" : signed(c.overheadPercent()) + "%")
+                    .append(" | ").append(format(c.rule().maxPercent())).append('%')
+                    .append(" | ").append(c.reference() == null ? "NO REFERENCE" : c.violated() ? "EXCEEDED" : "OK")
+                    .append(" |\n");
+        }
+        return sb.toString();
+    }
+
+    public static String renderQuality(List<QualityMetrics.Metric> metrics) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("## 质量指标\n\n");
+        sb.append("| Benchmark | Metric | Value |\n");
+        sb.append("|---|---|---:|\n");
+        for (QualityMetrics.Metric m : metrics) {
+            sb.append("| ").append(m.key())
+                    .append(" | ").append(m.name())
+                    .append(" | ").append(String.format(Locale.ROOT, "%.4f", m.value()))
+                    .append(" |\n");
+        }
+        return sb.toString();
+    }
+
+    private static String cell(BenchmarkScore score) {
+        if (score == null) {
+            return "-";
+        }
+        String error = Double.isNaN(score.error()) ? "" : " ± " + format(score.error());
+        return format(score.score()) + error + " " + score.unit();
+    }
+
+    private static String signed(double value) {
+        return (value >= 0 ? "+" : "") + format(value);
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.2f", value);
+    }
+}
@@ -0,0 +1,95 @@
+package org.todocode.benchmarks.gate;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * [TodoCode] 同一次运行里两个基准之间的开销规则
+ *
+ * <h3>背景:</h3>
+ * 有些性能承诺不是"和上次比没变慢"，而是"和另一个实现比只慢几个百分点"，
+ * 例如 ProfiledReentrantLock 的无竞争路径相对 ReentrantLock 的额外开销。
+ * 这类规则只看本次结果，不需要基线，换机器、换 JDK 也成立。
+ *
+ * <h3>易错点:</h3>
+ * 1. 两个基准要按相同的模式和 @Param 组合一一配对，
+ *    做法是把 key 里的方法名换成参照方法名 (key 的其余部分就是模式和参数)。
+ * 2. 和回归判定一样不能只看均值: 这里用两边置信区间里最有利的一端算开销，
+ *    超出上限的部分在统计上显著时才算违反规则。
+ * 3. 被测基准跑了、参照基准却没跑 (例如 -Dbench.include 只选中了一个) 时规则无从检查，
+ *    算作违反，而不是悄悄跳过。
+ *
+ * <h3>核心理解:</h3>
+ * 规则文件是 properties 格式，每行 {@code 被测方法全名 = 参照方法全名, 允许的额外开销百分比}。
+ */
+public record OverheadRule(String candidate, String reference, double maxPercent) {
+
+    /**
+     * 一组配对的检查结果。
+     *
+     * @param overheadPercent 按均值算的额外开销 (已按模式调整方向)，参照缺失时为 NaN
+     */
+    public record Check(String key, OverheadRule rule, BenchmarkScore candidate, BenchmarkScore reference,
+                        double overheadPercent, boolean violated) {
+    }
+
+    public OverheadRule {
+        if (maxPercent < 0) {
+            throw new IllegalArgumentException("允许的开销不能为负数: " + maxPercent);
+        }
+    }
+
+    public static List<OverheadRule> load(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file)) {
+            properties.load(reader);
+        }
+        List<OverheadRule> rules = new ArrayList<>();
+        // 按被测方法名排序，报告顺序稳定
+        new TreeMap<>(properties).forEach((candidate, value) -> {
+            String[] parts = value.toString().split(",");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("规则格式应为 被测 = 参照, 百分比: " + candidate + " = " + value);
+            }
+            rules.add(new OverheadRule(candidate.toString().trim(), parts[0].trim(),
+                    Double.parseDouble(parts[1].trim())));
+        });
+        return rules;
+    }
+
+    public List<Check> check(Map<String, BenchmarkScore> current) {
+        List<Check> checks = new ArrayList<>();
+        for (BenchmarkScore score : current.values()) {
+            if (!score.benchmark().equals(candidate)) {
+                continue;
+            }
+            String suffix = score.key().substring(candidate.length());
+            BenchmarkScore base = current.get(reference + suffix);
+            if (base == null) {
+                checks.add(new Check(score.key(), this, score, null, Double.NaN, true));
+                continue;
+            }
+            double overhead = overhead(score.score(), base.score(), score.higherIsBetter());
+            double provable = score.higherIsBetter()
+                    ? overhead(score.upper(), base.lower(), true)
+                    : overhead(score.lower(), base.upper(), false);
+            checks.add(new Check(score.key(), this, score, base, overhead, provable > maxPercent));
+        }
+        return checks;
+    }
+
+    private static double overhead(double candidate, double reference, boolean higherIsBetter) {
+        return (higherIsBetter ? reference / candidate - 1 : candidate / reference - 1) * 100.0;
+    }
+
+    public static boolean hasViolation(List<Check> checks) {
+        return checks.stream().anyMatch(Check::violated);
+    }
+}
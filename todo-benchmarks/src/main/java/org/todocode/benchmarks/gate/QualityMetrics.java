@@ -0,0 +1,93 @@
+package org.todocode.benchmarks.gate;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * [TodoCode] 基准附带的质量指标 (例如近似搜索的 recall@10)
+ *
+ * <h3>背景:</h3>
+ * JMH 只报告速度，而近似算法的 QPS 离开准确率没有意义: ef 调小一点 QPS 就上去了。
+ * {@code @AuxCounters} 只能表达按时间归一化的操作数，或者跨迭代求和的事件数，
+ * 表达不了"这次试验的召回率"这种一次性的值。所以基准在 @Setup 里把它追加到一个 JSON Lines 文件，
+ * 门禁按 key 和本次 JMH 结果对上之后写进报告。
+ *
+ * <h3>易错点:</h3>
+ * 1. 文件路径通过系统属性 {@value #PROPERTY} 传给基准。fork 出来的 JVM 默认继承宿主 JVM 的参数，
+ *    所以在运行 JMH 的那条命令上加 -D 即可；没有设置时不写 (例如在 IDE 里直接运行)。
+ * 2. 文件只追加不清空: 同一个 key 和指标以最后一条为准，和本次 JMH 结果对不上的旧条目忽略。
+ *
+ * <h3>核心理解:</h3>
+ * 指标的 key 和 {@link JmhResults} 的完全相同 (完整方法名 + 模式 + 参数)，报告里一眼就能对上是哪组参数。
+ */
+public final class QualityMetrics {
+
+    public static final String PROPERTY = "todocode.bench.quality";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * @param key 对应的 JMH 结果的 key
+     */
+    public record Metric(String key, String name, double value) {
+    }
+
+    private QualityMetrics() {
+    }
+
+    /**
+     * 在当前试验的 @Setup 里调用 (params 由 JMH 注入)。
+     */
+    public static void record(BenchmarkParams params, String name, double value) throws IOException {
+        String file = System.getProperty(PROPERTY);
+        if (file == null) {
+            return;
+        }
+        ObjectNode line = MAPPER.createObjectNode()
+                .put("benchmark", params.getBenchmark())
+                .put("mode", params.getMode().shortLabel())
+                .put("metric", name)
+                .put("value", value);
+        ObjectNode values = line.putObject("params");
+        for (String param : params.getParamsKeys()) {
+            values.put(param, params.getParam(param));
+        }
+        Path path = Path.of(file);
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        Files.writeString(path, MAPPER.writeValueAsString(line) + "\n", StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * 读出和 current 里的结果对得上的指标，按 current 的顺序排列。
+     */
+    public static List<Metric> read(Path file, Map<String, BenchmarkScore> current) throws IOException {
+        Map<String, Metric> latest = new LinkedHashMap<>();
+        for (String text : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (text.isBlank()) {
+                continue;
+            }
+            JsonNode line = MAPPER.readTree(text);
+            Metric metric = new Metric(JmhResults.keyOf(line), line.path("metric").asText(),
+                    line.path("value").asDouble(Double.NaN));
+            latest.put(metric.key() + '\u0000' + metric.name(), metric);
+        }
+        List<Metric> metrics = new ArrayList<>();
+        for (String key : current.keySet()) {
+            latest.values().stream().filter(m -> m.key().equals(key)).forEach(metrics::add);
+        }
+        return metrics;
+    }
+}
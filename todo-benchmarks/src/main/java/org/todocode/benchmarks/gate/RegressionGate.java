@@ -0,0 +1,259 @@
+package org.todocode.benchmarks.gate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * [TodoCode] 基准回归门禁
+ *
+ * <h3>背景:</h3>
+ * 性能回归往往在代码评审中看不出来 (例如换了一个 LRUCache 实现)。
+ * 门禁把本次 JMH 结果与提交在仓库里的基线 JSON 比较，
+ * 回归超过阈值时让 Maven 构建失败。
+ *
+ * <h3>易错点:</h3>
+ * 1. 只比较平均分会被噪声误导。这里要求两个条件同时满足才判定回归:
+ *    - 变化幅度超过阈值 (默认 10%)
+ *    - 两次运行的 99.9% 置信区间不重叠 (差异在统计上显著)
+ * 2. 没有基线的基准 (NEW) 和基线里有、这次却没跑出结果的基准 (MISSING) 都等于没有被门禁覆盖，
+ *    默认让构建失败；确实要暂时放行的，用 --allow-missing 的正则显式列出来。
+ *    没被 --include 选中的基线条目是有意不跑的，不参与比较。
+ * 3. 不同 JDK 的分数不能互相比较 (JIT、GC、内联策略都不同)，
+ *    基线和本次结果的 JDK 主版本不一致时直接失败，提示在参考环境上重新录制。
+ * 4. 误差比分数还大的结果 (例如 63.54 ± 109.82 ms) 置信区间跨过了 0，
+ *    和什么比都"不显著"，放进门禁只会制造虚假的 UNCHANGED。
+ *    这样的条目标记为 NOISY，不参与判定，报告里单独列出来提醒调整迭代次数。
+ * 5. 主分数不代表有效工作的基准 (例如失败的 offer/poll 也算一次调用)，用 --metrics 改为门禁它的 @AuxCounters 指标，
+ *    基线和本次结果按同一份映射读取，见 {@link JmhResults}。
+ * 6. "和基线比没变慢"管不住"比参照实现慢多少"这类承诺，后者用 --overhead-rules 表达 (见 {@link OverheadRule})，
+ *    只看本次结果，没有基线时也照常检查。
+ *
+ * <h3>核心理解:</h3>
+ * 基线只在"参考机器"上录制才有意义，仓库里不提交别的环境上录的基线:
+ * {@code mvn verify -Pbench -pl todo-benchmarks -am -Dbench.updateBaseline=true}
+ * 还没有基线时门禁只输出报告，不做判定。
+ *
+ * TODO: 如果 CI 机器比基线机器慢 20%，所有基准都会"回归"。如何归一化？
+ */
+public class RegressionGate {
+
+    public enum Verdict {
+        IMPROVED, UNCHANGED, REGRESSED, NEW, MISSING, NOISY
+    }
+
+    /**
+     * 一个基准的比较结果。
+     *
+     * @param changePercent 相对基线的变化，正数表示变好 (已按模式调整方向)
+     * @param allowed       NEW 或 MISSING 被 --allow-missing 放行
+     */
+    public record Comparison(String key, BenchmarkScore baseline, BenchmarkScore current,
+                             double changePercent, Verdict verdict, boolean allowed) {
+
+        /**
+         * 没有被门禁覆盖、又没有被显式放行。
+         */
+        public boolean ungated() {
+            return (verdict == Verdict.NEW || verdict == Verdict.MISSING) && !allowed;
+        }
+    }
+
+    private static final Pattern EVERYTHING = Pattern.compile(".*");
+    private static final Pattern NOTHING = Pattern.compile("^$");
+
+    private final double thresholdPercent;
+    private final Pattern include;
+    private final Pattern allowMissing;
+
+    public RegressionGate(double thresholdPercent) {
+        this(thresholdPercent, EVERYTHING, NOTHING);
+    }
+
+    /**
+     * @param include      本次运行的 JMH include 正则 (与完整方法名做 find)，没选中的基线条目不参与比较
+     * @param allowMissing 与 key 做 find，匹配的 NEW/MISSING 不让构建失败
+     */
+    public RegressionGate(double thresholdPercent, Pattern include, Pattern allowMissing) {
+        if (thresholdPercent < 0) {
+            throw new IllegalArgumentException("阈值不能为负数: " + thresholdPercent);
+        }
+        this.thresholdPercent = thresholdPercent;
+        this.include = include;
+        this.allowMissing = allowMissing;
+    }
+
+    public List<Comparison> compare(Map<String, BenchmarkScore> baseline, Map<String, BenchmarkScore> current) {
+        List<Comparison> comparisons = new ArrayList<>();
+        for (BenchmarkScore now : current.values()) {
+            BenchmarkScore before = baseline.get(now.key());
+            if (before == null) {
+                comparisons.add(new Comparison(now.key(), null, now, Double.NaN, Verdict.NEW, allowed(now.key())));
+            } else {
+                comparisons.add(compare(before, now));
+            }
+        }
+        for (BenchmarkScore before : baseline.values()) {
+            if (!current.containsKey(before.key()) && include.matcher(before.benchmark()).find()) {
+                comparisons.add(new Comparison(before.key(), before, null, Double.NaN, Verdict.MISSING,
+                        allowed(before.key())));
+            }
+        }
+        return comparisons;
+    }
+
+    private boolean allowed(String key) {
+        return allowMissing.matcher(key).find();
+    }
+
+    private Comparison compare(BenchmarkScore before, BenchmarkScore now) {
+        double delta = (now.score() - before.score()) / before.score() * 100.0;
+        double change = now.higherIsBetter() ? delta : -delta;
+        boolean significant = !now.overlaps(before);
+
+        Verdict verdict = Verdict.UNCHANGED;
+        if (before.noisy() || now.noisy()) {
+            verdict = Verdict.NOISY;
+        } else if (significant && change < -thresholdPercent) {
+            verdict = Verdict.REGRESSED;
+        } else if (significant && change > thresholdPercent) {
+            verdict = Verdict.IMPROVED;
+        }
+        return new Comparison(now.key(), before, now, change, verdict, false);
+    }
+
+    public static boolean hasRegression(List<Comparison> comparisons) {
+        return comparisons.stream().anyMatch(c -> c.verdict() == Verdict.REGRESSED);
+    }
+
+    public static List<String> ungated(List<Comparison> comparisons) {
+        return comparisons.stream().filter(Comparison::ungated).map(Comparison::key).toList();
+    }
+
+    /**
+     * 两组 JDK 版本号的主版本是否完全相同 (例如 21.0.1 与 21.0.5 相同，与 25 不同)。
+     */
+    public static boolean sameFeatureRelease(Set<String> baseline, Set<String> current) {
+        return featureReleases(baseline).equals(featureReleases(current));
+    }
+
+    private static Set<Integer> featureReleases(Set<String> versions) {
+        return versions.stream().map(v -> Runtime.Version.parse(v).feature()).collect(Collectors.toSet());
+    }
+
+    /**
+     * 用法:
+     * {@code RegressionGate --baseline b.json --result r.json [--report r.md] [--threshold 10]
+     * [--include 正则] [--allow-missing 正则] [--metrics metrics.properties] [--overhead-rules rules.properties]
+     * [--quality q.jsonl]
+     * [--update-baseline true]}
+     */
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = parseArgs(args);
+        Path baselineFile = Path.of(require(options, "--baseline"));
+        Path resultFile = Path.of(require(options, "--result"));
+        double threshold = Double.parseDouble(options.getOrDefault("--threshold", "10"));
+        Pattern include = Pattern.compile(options.getOrDefault("--include", ".*"));
+        Pattern allowMissing = Pattern.compile(options.getOrDefault("--allow-missing", "^$"));
+        Map<String, String> gatedMetrics = options.containsKey("--metrics")
+                ? JmhResults.loadMetrics(Path.of(options.get("--metrics")))
+                : Map.of();
+
+        Set<String> baselineJdks = Files.exists(baselineFile) ? JmhResults.jdkVersions(baselineFile) : Set.of();
+        Set<String> currentJdks = JmhResults.jdkVersions(resultFile);
+        boolean sameJdk = baselineJdks.isEmpty() || currentJdks.isEmpty()
+                || sameFeatureRelease(baselineJdks, currentJdks);
+
+        if (Boolean.parseBoolean(options.get("--update-baseline"))) {
+            if (!sameJdk && !include.pattern().equals(".*")) {
+                System.err.println("基线在 JDK " + baselineJdks + " 上录制，本次是 JDK " + currentJdks
+                        + "，只更新一部分会混入两个 JDK 的结果: 请用 -Dbench.include=.* 全部重新录制。");
+                System.exit(1);
+            }
+            JmhResults.updateBaseline(baselineFile, resultFile, include);
+            System.out.println("基线已更新: " + baselineFile);
+            return;
+        }
+
+        if (!sameJdk) {
+            System.err.println("基线在 JDK " + baselineJdks + " 上录制，本次是 JDK " + currentJdks
+                    + "，分数不可比: 请在参考环境上用 -Dbench.updateBaseline=true 重新录制基线。");
+            System.exit(1);
+        }
+
+        Map<String, BenchmarkScore> baseline = Files.exists(baselineFile)
+                ? JmhResults.read(baselineFile, gatedMetrics)
+                : Map.of();
+
+        Map<String, BenchmarkScore> current = JmhResults.read(resultFile, gatedMetrics);
+        List<Comparison> comparisons = new RegressionGate(threshold, include, allowMissing).compare(baseline, current);
+        String report = MarkdownReport.render(comparisons, threshold);
+
+        List<OverheadRule.Check> checks = new ArrayList<>();
+        String rulesPath = options.get("--overhead-rules");
+        if (rulesPath != null) {
+            for (OverheadRule rule : OverheadRule.load(Path.of(rulesPath))) {
+                checks.addAll(rule.check(current));
+            }
+            if (!checks.isEmpty()) {
+                report += "\n" + MarkdownReport.renderOverhead(checks);
+            }
+        }
+        String qualityPath = options.get("--quality");
+        if (qualityPath != null && Files.exists(Path.of(qualityPath))) {
+            List<QualityMetrics.Metric> metrics = QualityMetrics.read(Path.of(qualityPath), current);
+            if (!metrics.isEmpty()) {
+                report += "\n" + MarkdownReport.renderQuality(metrics);
+            }
+        }
+        System.out.println(report);
+
+        String reportPath = options.get("--report");
+        if (reportPath != null) {
+            Files.writeString(Path.of(reportPath), report);
+        }
+
+        if (OverheadRule.hasViolation(checks)) {
+            System.err.println("额外开销超出 " + rulesPath + " 里的上限 (或者参照基准没有结果)，构建失败。");
+            System.exit(1);
+        }
+        if (baseline.isEmpty()) {
+            System.out.println("未找到基线 " + baselineFile + "，本次只输出报告，不做回归判定: "
+                    + "请在参考环境上用 -Dbench.updateBaseline=true 录制基线。");
+            return;
+        }
+        if (hasRegression(comparisons)) {
+            System.err.println("性能回归超过 " + threshold + "% 阈值，构建失败。");
+            System.exit(1);
+        }
+        List<String> ungated = ungated(comparisons);
+        if (!ungated.isEmpty()) {
+            System.err.println("以下基准没有被门禁覆盖 (NEW 需要录入基线，MISSING 需要确认是否被删除或没有跑出结果)，"
+                    + "暂时放行请加 -Dbench.allowMissing=<正则>: " + ungated);
+            System.exit(1);
+        }
+    }
+
+    private static Map<String, String> parseArgs(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i], args[i + 1]);
+        }
+        return options;
+    }
+
+    private static String require(Map<String, String> options, String name) {
+        String value = options.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("缺少参数 " + name);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,57 @@
+package org.todocode.benchmarks.systemdesign;
+
+import org.openjdk.jmh.annotations.*;
+import org.todocode.systemdesign._02_caching.LRUCache;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * [TodoCode] LRUCache 基准测试
+ *
+ * <h3>背景:</h3>
+ * ThreadSafeLRUCache 用一把 synchronized 锁保护 LinkedHashMap。
+ * 即使是 get() 也会修改访问顺序链表，所以读操作同样要加锁。
+ *
+ * <h3>易错点:</h3>
+ * 键空间必须大于容量，否则永远命中，测不到淘汰路径。
+ *
+ * TODO: 把 @Threads 从 1 改到 8，吞吐量会如何变化？
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class LRUCacheBenchmark {
+
+    @Param({"1024"})
+    private int capacity;
+
+    private LRUCache.ThreadSafeLRUCache<Integer, Integer> cache;
+    private int keySpace;
+
+    @Setup
+    public void setup() {
+        cache = new LRUCache.ThreadSafeLRUCache<>(capacity);
+        keySpace = capacity * 2; // 约 50% 命中率
+        for (int i = 0; i < capacity; i++) {
+            cache.put(i, i);
+        }
+    }
+
+    @Benchmark
+    public Integer get() {
+        return cache.get(ThreadLocalRandom.current().nextInt(keySpace));
+    }
+
+    @Benchmark
+    public void put() {
+        int key = ThreadLocalRandom.current().nextInt(keySpace);
+        cache.put(key, key);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Integer getContended() {
+        return cache.get(ThreadLocalRandom.current().nextInt(keySpace));
+    }
+}
@@ -0,0 +1,253 @@
+package org.todocode.benchmarks.gate;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * [TodoCode] 回归门禁测试
+ *
+ * 用手写的 JMH JSON 片段验证判定规则，无需真正运行基准。
+ */
+class RegressionGateTest {
+
+    private static final String P = "org.todocode.benchmarks.";
+
+    private static String run(String benchmark, String mode, double score, double error) {
+        return """
+                {"benchmark":"org.todocode.benchmarks.%s","mode":"%s","params":{"capacity":"1024"},
+                 "primaryMetric":{"score":%s,"scoreError":%s,"scoreUnit":"ops/ms"}}
+                """.formatted(benchmark, mode, score, error);
+    }
+
+    private static Map<String, BenchmarkScore> results(String... runs) throws IOException {
+        return JmhResults.parse("[" + String.join(",", runs) + "]");
+    }
+
+    @Test
+    @DisplayName("key 由完整方法名、模式和参数组成")
+    void testKeyIncludesParams() throws IOException {
+        Map<String, BenchmarkScore> scores = results(run("systemdesign.LRUCacheBenchmark.get", "thrpt", 100, 1));
+        assertEquals(Set.of("org.todocode.benchmarks.systemdesign.LRUCacheBenchmark.get:thrpt:capacity=1024"),
+                scores.keySet());
+    }
+
+    @Test
+    @DisplayName("不同包下的同名类、同一方法的不同模式不能互相覆盖")
+    void testKeyDistinguishesPackageAndMode() throws IOException {
+        Map<String, BenchmarkScore> scores = results(
+                run("systemdesign.CacheBenchmark.get", "thrpt", 100, 1),
+                run("ai.CacheBenchmark.get", "thrpt", 200, 1),
+                run("ai.CacheBenchmark.get", "avgt", 300, 1));
+        assertEquals(3, scores.size(), scores.keySet().toString());
+        assertEquals(200, scores.get("org.todocode.benchmarks.ai.CacheBenchmark.get:thrpt:capacity=1024").score());
+        assertEquals(300, scores.get("org.todocode.benchmarks.ai.CacheBenchmark.get:avgt:capacity=1024").score());
+    }
+
+    @Test
+    @DisplayName("指定了次要指标的基准按次要指标判定，key 末尾带上指标名")
+    void testSecondaryMetric() throws IOException {
+        String json = """
+                [{"benchmark":"org.todocode.benchmarks.Q.mpmc","mode":"thrpt","params":{"capacity":"1024"},
+                  "primaryMetric":{"score":%s,"scoreError":1,"scoreUnit":"ops/us"},
+                  "secondaryMetrics":{"offered":{"score":%s,"scoreError":1,"scoreUnit":"ops/us"},
+                                      "polled":{"score":%s,"scoreError":1,"scoreUnit":"ops/us"}}}]
+                """;
+        Map<String, String> metrics = Map.of(P + "Q.mpmc", "polled");
+        // 空转让调用次数变多，真正取走的元素却少了一半
+        Map<String, BenchmarkScore> baseline = JmhResults.parse(json.formatted(100, 50, 50), metrics);
+        Map<String, BenchmarkScore> current = JmhResults.parse(json.formatted(150, 25, 25), metrics);
+
+        assertEquals(Set.of(P + "Q.mpmc:thrpt:capacity=1024#polled"), current.keySet());
+        List<RegressionGate.Comparison> comparisons = new RegressionGate(10).compare(baseline, current);
+        assertEquals(RegressionGate.Verdict.REGRESSED, comparisons.get(0).verdict());
+        assertEquals(-50.0, comparisons.get(0).changePercent(), 1e-9);
+
+        assertThrows(IllegalArgumentException.class,
+                () -> JmhResults.parse(json.formatted(1, 1, 1), Map.of(P + "Q.mpmc", "transferred")));
+    }
+
+    @Test
+    @DisplayName("吞吐量显著下降超过阈值应该判定为回归")
+    void testThroughputRegression() throws IOException {
+        Map<String, BenchmarkScore> baseline = results(run("A.get", "thrpt", 1000, 10));
+        Map<String, BenchmarkScore> current = results(run("A.get", "thrpt", 800, 10));
+
+        List<RegressionGate.Comparison> comparisons = new RegressionGate(10).compare(baseline, current);
+
+        assertEquals(RegressionGate.Verdict.REGRESSED, comparisons.get(0).verdict());
+        assertEquals(-20.0, comparisons.get(0).changePercent(), 1e-9);
+        assertTrue(RegressionGate.hasRegression(comparisons));
+    }
+
+    @Test
+    @DisplayName("平均时间模式下分数变高才是回归")
+    void testAverageTimeDirection() throws IOException {
+        Map<String, BenchmarkScore> baseline = results(run("A.get", "avgt", 100, 1));
+        Map<String, BenchmarkScore> faster = results(run("A.get", "avgt", 50, 1));
+        Map<String, BenchmarkScore> slower = results(run("A.get", "avgt", 150, 1));
+
+        RegressionGate gate = new RegressionGate(10);
+        assertEquals(RegressionGate.Verdict.IMPROVED, gate.compare(baseline, faster).get(0).verdict());
+        assertEquals(RegressionGate.Verdict.REGRESSED, gate.compare(baseline, slower).get(0).verdict());
+    }
+
+    @Test
+    @DisplayName("置信区间重叠时即使均值下降也不应该判定为回归")
+    void testOverlappingIntervalsAreNoise() throws IOException {
+        Map<String, BenchmarkScore> baseline = results(run("A.get", "thrpt", 1000, 300));
+        Map<String, BenchmarkScore> current = results(run("A.get", "thrpt", 700, 300));
+
+        List<RegressionGate.Comparison> comparisons = new RegressionGate(10).compare(baseline, current);
+
+        assertEquals(RegressionGate.Verdict.UNCHANGED, comparisons.get(0).verdict());
+        assertFalse(RegressionGate.hasRegression(comparisons));
+    }
+
+    @Test
+    @DisplayName("误差比分数还大的结果不参与判定，标记为 NOISY")
+    void testNoisyResultsAreExcluded() throws IOException {
+        Map<String, BenchmarkScore> baseline = results(run("A.get", "avgt", 63.54, 109.82));
+        Map<String, BenchmarkScore> current = results(run("A.get", "avgt", 200, 1));
+
+        List<RegressionGate.Comparison> comparisons = new RegressionGate(10).compare(baseline, current);
+
+        assertEquals(RegressionGate.Verdict.NOISY, comparisons.get(0).verdict());
+        assertFalse(RegressionGate.hasRegression(comparisons));
+        assertTrue(RegressionGate.ungated(comparisons).isEmpty());
+        assertTrue(MarkdownReport.render(comparisons, 10).contains("| NOISY |"));
+    }
+
+    @Test
+    @DisplayName("新增和消失的基准应该分别标记为 NEW 和 MISSING")
+    void testNewAndMissing() throws IOException {
+        Map<String, BenchmarkScore> baseline = results(run("A.old", "thrpt", 1000, 10));
+        Map<String, BenchmarkScore> current = results(run("A.fresh", "thrpt", 1000, 10));
+
+        List<RegressionGate.Comparison> comparisons = new RegressionGate(10).compare(baseline, current);
+
+        assertEquals(RegressionGate.Verdict.NEW, comparisons.get(0).verdict());
+        assertEquals(RegressionGate.Verdict.MISSING, comparisons.get(1).verdict());
+        assertFalse(RegressionGate.hasRegression(comparisons));
+        assertEquals(List.of(P + "A.fresh:thrpt:capacity=1024", P + "A.old:thrpt:capacity=1024"),
+                RegressionGate.ungated(comparisons),
+                "没有基线的和没跑出结果的基准都没有被门禁覆盖");
+
+        String report = MarkdownReport.render(comparisons, 10);
+        assertTrue(report.contains("| " + P + "A.fresh:thrpt:capacity=1024 | thrpt | - | 1000.00 ± 10.00 ops/ms | - | NEW |"));
+    }
+
+    @Test
+    @DisplayName("NEW/MISSING 只有匹配 allow-missing 正则时才放行")
+    void testAllowMissing() throws IOException {
+        Map<String, BenchmarkScore> baseline = results(run("A.old", "thrpt", 1000, 10));
+        Map<String, BenchmarkScore> current = results(run("A.fresh", "thrpt", 1000, 10));
+
+        List<RegressionGate.Comparison> comparisons = new RegressionGate(10, Pattern.compile(".*"),
+                Pattern.compile("\\.A\\.fresh:")).compare(baseline, current);
+
+        assertTrue(comparisons.get(0).allowed());
+        assertEquals(List.of(P + "A.old:thrpt:capacity=1024"), RegressionGate.ungated(comparisons));
+        assertTrue(MarkdownReport.render(comparisons, 10).contains("| NEW (allowed) |"));
+    }
+
+    @Test
+    @DisplayName("没被 include 选中的基线条目是有意不跑的，不算 MISSING")
+    void testIncludeLimitsMissing() throws IOException {
+        Map<String, BenchmarkScore> baseline = results(
+                run("ai.TokenizerBenchmark.encode", "thrpt", 1000, 10),
+                run("systemdesign.LRUCacheBenchmark.get", "thrpt", 1000, 10),
+                run("systemdesign.LRUCacheBenchmark.put", "thrpt", 1000, 10));
+        Map<String, BenchmarkScore> current = results(run("systemdesign.LRUCacheBenchmark.get", "thrpt", 1000, 10));
+
+        List<RegressionGate.Comparison> comparisons = new RegressionGate(10, Pattern.compile("systemdesign\\.LRU"),
+                Pattern.compile("^$")).compare(baseline, current);
+
+        assertEquals(2, comparisons.size(), comparisons.toString());
+        assertEquals(List.of(P + "systemdesign.LRUCacheBenchmark.put:thrpt:capacity=1024"),
+                RegressionGate.ungated(comparisons));
+    }
+
+    @Test
+    @DisplayName("开销规则按相同的模式和参数配对，显著超出上限才算违反")
+    void testOverheadRule(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("overhead-rules.properties");
+        Files.writeString(file, "# 注释\n" + P + "Lock.profiled = " + P + "Lock.plain, 5\n");
+        List<OverheadRule> rules = OverheadRule.load(file);
+        assertEquals(List.of(new OverheadRule(P + "Lock.profiled", P + "Lock.plain", 5)), rules);
+
+        OverheadRule rule = rules.getFirst();
+        List<OverheadRule.Check> slow = rule.check(results(
+                run("Lock.profiled", "avgt", 16.1, 0.2), run("Lock.plain", "avgt", 14.3, 0.3)));
+        assertEquals(1, slow.size());
+        assertEquals(P + "Lock.profiled:avgt:capacity=1024", slow.getFirst().key());
+        assertTrue(slow.getFirst().violated(), "慢了 12%: " + slow.getFirst().overheadPercent());
+
+        List<OverheadRule.Check> close = rule.check(results(
+                run("Lock.profiled", "avgt", 15.2, 0.4), run("Lock.plain", "avgt", 14.3, 0.3)));
+        assertFalse(OverheadRule.hasViolation(close), "均值超出 5% 但区间里够得着，不算显著");
+
+        List<OverheadRule.Check> thrpt = rule.check(results(
+                run("Lock.profiled", "thrpt", 80, 1), run("Lock.plain", "thrpt", 100, 1)));
+        assertTrue(thrpt.getFirst().violated());
+        assertEquals(25.0, thrpt.getFirst().overheadPercent(), 1e-9);
+
+        List<OverheadRule.Check> alone = rule.check(results(run("Lock.profiled", "avgt", 14.3, 0.3)));
+        assertTrue(alone.getFirst().violated(), "参照没跑时不能悄悄通过");
+        assertTrue(MarkdownReport.renderOverhead(alone).contains("| NO REFERENCE |"));
+        assertTrue(rule.check(results(run("Lock.plain", "avgt", 14.3, 0.3))).isEmpty());
+    }
+
+    @Test
+    @DisplayName("质量指标按 key 和本次结果对上，同一指标以最后一条为准，对不上的旧条目忽略")
+    void testQualityMetrics(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("jmh-quality.jsonl");
+        String line = """
+                {"benchmark":"org.todocode.benchmarks.%s","mode":"thrpt","metric":"recall@10","value":%s,"params":{"capacity":"1024"}}
+                """;
+        Files.writeString(file, line.formatted("A.hnsw", 0.5) + line.formatted("Old.hnsw", 0.7)
+                + line.formatted("A.hnsw", 0.96));
+
+        List<QualityMetrics.Metric> metrics = QualityMetrics.read(file, results(run("A.hnsw", "thrpt", 100, 1)));
+
+        assertEquals(List.of(new QualityMetrics.Metric(P + "A.hnsw:thrpt:capacity=1024", "recall@10", 0.96)), metrics);
+        assertTrue(MarkdownReport.renderQuality(metrics).contains("| recall@10 | 0.9600 |"));
+    }
+
+    @Test
+    @DisplayName("JDK 主版本不同的结果不可比，补丁版本不同可以比")
+    void testSameFeatureRelease() {
+        assertTrue(RegressionGate.sameFeatureRelease(Set.of("25"), Set.of("25.0.1")));
+        assertTrue(RegressionGate.sameFeatureRelease(Set.of("21.0.1"), Set.of("21.0.5")));
+        assertFalse(RegressionGate.sameFeatureRelease(Set.of("21.0.1"), Set.of("25")));
+        assertFalse(RegressionGate.sameFeatureRelease(Set.of("21.0.1", "25"), Set.of("25")));
+    }
+
+    @Test
+    @DisplayName("只跑了部分基准时更新基线，只替换被选中的条目")
+    void testPartialBaselineUpdate(@TempDir Path dir) throws IOException {
+        Path baseline = dir.resolve("baseline/jmh-baseline.json");
+        Path result = dir.resolve("jmh-result.json");
+        Files.createDirectories(baseline.getParent());
+        Files.writeString(baseline, "[" + run("ai.TokenizerBenchmark.encode", "thrpt", 1000, 10) + ","
+                + run("systemdesign.LRUCacheBenchmark.get", "thrpt", 1000, 10) + "]");
+        Files.writeString(result, "[" + run("systemdesign.LRUCacheBenchmark.get", "thrpt", 2000, 10) + "]");
+
+        JmhResults.updateBaseline(baseline, result, Pattern.compile("LRUCache"));
+
+        Map<String, BenchmarkScore> merged = JmhResults.read(baseline);
+        assertEquals(1000, merged.get(P + "ai.TokenizerBenchmark.encode:thrpt:capacity=1024").score());
+        assertEquals(2000, merged.get(P + "systemdesign.LRUCacheBenchmark.get:thrpt:capacity=1024").score());
+        assertEquals(2, merged.size());
+    }
+}
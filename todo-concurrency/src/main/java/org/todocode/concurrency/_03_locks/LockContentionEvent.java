@@ -0,0 +1,33 @@
+package org.todocode.concurrency._03_locks;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * [TodoCode] JFR 自定义事件: 一次有竞争的锁获取
+ *
+ * 事件的 duration 就是等待时间。只有真正发生等待时才会提交，
+ * 在 JMC 里按 ownerCallSite 分组即可找到让别人等待最多的加锁位置。
+ */
+@Name("org.todocode.LockContention")
+@Label("Lock Contention")
+@Category({"TodoCode", "Locks"})
+@Description("等待获取 ProfiledReentrantLock 的时间")
+@StackTrace(false)
+class LockContentionEvent extends Event {
+
+    @Label("Lock Name")
+    String lockName;
+
+    @Label("Queue Length")
+    @Description("开始等待时排队的线程数 (估计值)")
+    int queueLength;
+
+    @Label("Owner Call Site")
+    @Description("开始等待时持有锁的一方的加锁位置，它的这次持有没有被采样时为空")
+    String ownerCallSite;
+}
@@ -0,0 +1,28 @@
+package org.todocode.concurrency._03_locks;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * [TodoCode] JFR 自定义事件: 一次被采样的锁持有
+ *
+ * 事件的 duration 就是从获取到释放 (最外层 unlock) 的持有时间。
+ */
+@Name("org.todocode.LockHold")
+@Label("Lock Hold")
+@Category({"TodoCode", "Locks"})
+@Description("持有 ProfiledReentrantLock 的时间 (采样)")
+@StackTrace(false)
+class LockHoldEvent extends Event {
+
+    @Label("Lock Name")
+    String lockName;
+
+    @Label("Call Site")
+    @Description("持有者加锁的位置")
+    String callSite;
+}
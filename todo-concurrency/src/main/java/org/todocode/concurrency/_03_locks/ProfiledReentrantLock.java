@@ -0,0 +1,464 @@
+package org.todocode.concurrency._03_locks;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * [TodoCode] 带竞争分析的 ReentrantLock
+ *
+ * <h3>背景:</h3>
+ * 生产环境里看不到哪把锁是热点。ReentrantLock 本身只提供
+ * getQueueLength() 之类的瞬时快照，没有历史分布。
+ * 这个子类在不改变加锁语义的前提下记录:
+ * - 等待时间直方图 (只记录真正发生竞争的获取)
+ * - 持有时间直方图 (按采样率记录)
+ * - 排队长度
+ * - 竞争时持有锁的一方是在哪里加的锁 (按采样率用 StackWalker 获取)
+ * 并同时输出为 JFR 自定义事件和 Micrometer 指标。
+ *
+ * <h3>易错点:</h3>
+ * 1. 非公平锁的 lock() 本来就先 CAS 插队，快速路径直接 tryLock()，失败才进入计时的竞争路径。
+ *    公平锁不能这样做，tryLock() 会无视公平性插队，只能用 isLocked() 预判是否有竞争。
+ * 2. 可重入时只统计最外层的获取与释放，否则持有时间会被重复计算。
+ *    但不要每次 lock/unlock 都调用 getHoldCount() 来判断: 只在这次获取被采样、
+ *    或者正在采样的持有要结束时才需要看。采样也用倒数计数，不用取模 (除法比整个 CAS 还贵)。
+ *    采样本身也不便宜，默认采样率的取值见 {@link #DEFAULT_SAMPLE_RATE}。
+ * 3. 调用位置不能作为 Micrometer 标签 (基数爆炸)，只保存在内存表和 JFR 事件里。
+ * 4. Condition.await() 在 AQS 内部直接释放锁，不经过 unlock()。
+ *    所以 newCondition() 返回包装过的 Condition: 等待前结束当前的持有采样，醒来重新拿到锁后再开始一段新的，
+ *    否则等待时间会被算进持有时间，或者被下一个持有者的 unlock() 错记。
+ * 5. 排查竞争要找的是"谁占着锁"，而等待方的栈只说明"谁在排队"。
+ *    持有方的调用位置只能在它加锁时取 (事后拿不到别的线程的栈)，所以在开始持有采样时记下来，
+ *    等待方通过当前持有者读到它。为了不让无竞争的锁也付 StackWalker 的代价，
+ *    只有这把锁出现过竞争 (或者 JFR 在录制持有事件) 之后才取调用位置。
+ *
+ * <h3>核心理解:</h3>
+ * 无竞争的获取只比 ReentrantLock 多了一次采样倒数 (获取次数也由它推算)，
+ * 开销集中在"已经要等待"的路径上，那里多花几十纳秒无关紧要。
+ * ProfiledLockBenchmark 对比两者，门禁规则要求 profiledLock 的额外开销不超过几个百分点。
+ *
+ * TODO: 用 jcmd JFR.start 录制 ReentrantLockDemo 的压测，在 JMC 里找出最热的调用位置。
+ */
+public class ProfiledReentrantLock extends ReentrantLock {
+
+    /**
+     * 一次持有采样要两次 nanoTime() 加一次直方图记录，大约 100ns；
+     * 每 64 次采样一次摊到每次获取上接近 2ns，比无竞争的 ReentrantLock 慢 10% 以上，每 1024 次就测不出来了。
+     */
+    public static final int DEFAULT_SAMPLE_RATE = 1024;
+
+    private static final StackWalker WALKER = StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE);
+
+    private final String name;
+    private final boolean fair;
+    private final int sampleRate;
+
+    private final Timer waitTimer;
+    private final Timer holdTimer;
+    private final Counter contendedAcquisitions;
+    private final DistributionSummary queueOnContention;
+    private final Counter timeouts;
+    private final Map<String, LongAdder> callSites = new ConcurrentHashMap<>();
+
+    // 以下字段只由持锁线程读写，由锁本身保证可见性，热路径上不需要任何原子操作
+    // 获取次数 = sampleRounds * sampleRate + (sampleRate - untilSample)，热路径上只改 untilSample 一个字段
+    private long sampleRounds; // 指标读取方可能看到略旧的值
+    private int untilSample;
+    private long holdStartNanos;
+    private LockHoldEvent holdEvent;
+
+    // 等待方要读，所以是 volatile；只在采样路径和竞争路径上读写
+    private volatile String ownerCallSite;
+    private volatile boolean contentionSeen;
+
+    public ProfiledReentrantLock(String name, MeterRegistry registry) {
+        this(name, false, registry, DEFAULT_SAMPLE_RATE);
+    }
+
+    /**
+     * @param sampleRate 每 sampleRate 次获取采样一次持有时间和调用位置 (1 表示全部记录)
+     */
+    public ProfiledReentrantLock(String name, boolean fair, MeterRegistry registry, int sampleRate) {
+        super(fair);
+        if (sampleRate <= 0) {
+            throw new IllegalArgumentException("采样率必须为正数: " + sampleRate);
+        }
+        this.name = name;
+        this.fair = fair;
+        this.sampleRate = sampleRate;
+        this.untilSample = sampleRate;
+
+        this.waitTimer = Timer.builder("todocode.lock.wait")
+                .description("有竞争时获取锁的等待时间")
+                .tag("lock", name)
+                .publishPercentileHistogram()
+                .register(registry);
+        this.holdTimer = Timer.builder("todocode.lock.hold")
+                .description("持有锁的时间 (采样)")
+                .tag("lock", name)
+                .publishPercentileHistogram()
+                .register(registry);
+        FunctionCounter.builder("todocode.lock.acquisitions", this, ProfiledReentrantLock::acquisitions)
+                .tag("lock", name)
+                .register(registry);
+        this.contendedAcquisitions = Counter.builder("todocode.lock.acquisitions.contended")
+                .tag("lock", name)
+                .register(registry);
+        this.timeouts = Counter.builder("todocode.lock.timeouts")
+                .description("tryLock 超时或被中断的次数")
+                .tag("lock", name)
+                .register(registry);
+        this.queueOnContention = DistributionSummary.builder("todocode.lock.queue.on.contention")
+                .description("开始等待时前面排队的线程数")
+                .tag("lock", name)
+                .register(registry);
+        Gauge.builder("todocode.lock.queue.length", this, ReentrantLock::getQueueLength)
+                .tag("lock", name)
+                .register(registry);
+    }
+
+    @Override
+    public void lock() {
+        if (!fair && super.tryLock()) {
+            onAcquired();
+            return;
+        }
+        lockSlowly();
+    }
+
+    /**
+     * 公平锁，或者非公平锁的 tryLock() 失败了。单独成一个方法，让 lock() 本身小到能被内联。
+     */
+    private void lockSlowly() {
+        if (!isContended()) {
+            super.lock();
+            onAcquired();
+            return;
+        }
+        LockContentionEvent event = beginContention();
+        long start = System.nanoTime();
+        super.lock();
+        onContendedAcquired(event, start);
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        if (!fair) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (super.tryLock()) {
+                onAcquired();
+                return;
+            }
+        } else if (!isContended()) {
+            super.lockInterruptibly();
+            onAcquired();
+            return;
+        }
+        LockContentionEvent event = beginContention();
+        long start = System.nanoTime();
+        try {
+            super.lockInterruptibly();
+        } catch (InterruptedException e) {
+            timeouts.increment();
+            throw e;
+        }
+        onContendedAcquired(event, start);
+    }
+
+    @Override
+    public boolean tryLock() {
+        if (super.tryLock()) {
+            onAcquired();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+        if (!isContended()) {
+            if (super.tryLock(timeout, unit)) {
+                onAcquired();
+                return true;
+            }
+            timeouts.increment();
+            return false;
+        }
+        LockContentionEvent event = beginContention();
+        long start = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = super.tryLock(timeout, unit);
+        } catch (InterruptedException e) {
+            timeouts.increment();
+            throw e;
+        }
+        if (!acquired) {
+            timeouts.increment();
+            waitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return false;
+        }
+        onContendedAcquired(event, start);
+        return true;
+    }
+
+    @Override
+    public void unlock() {
+        if (holdStartNanos != 0 && getHoldCount() == 1) {
+            endHoldSample();
+        }
+        super.unlock();
+    }
+
+    /**
+     * 返回的 Condition 在等待期间暂停持有时间的采样。
+     */
+    @Override
+    public Condition newCondition() {
+        return new ProfiledCondition(super.newCondition());
+    }
+
+    @Override
+    public boolean hasWaiters(Condition condition) {
+        return super.hasWaiters(unwrap(condition));
+    }
+
+    @Override
+    public int getWaitQueueLength(Condition condition) {
+        return super.getWaitQueueLength(unwrap(condition));
+    }
+
+    @Override
+    protected Collection<Thread> getWaitingThreads(Condition condition) {
+        return super.getWaitingThreads(unwrap(condition));
+    }
+
+    /**
+     * 有人持有锁且不是当前线程 (重入不算竞争)。
+     */
+    private boolean isContended() {
+        return isLocked() && !isHeldByCurrentThread();
+    }
+
+    private LockContentionEvent beginContention() {
+        if (!contentionSeen) {
+            contentionSeen = true;
+        }
+        int queueLength = getQueueLength();
+        queueOnContention.record(queueLength);
+        LockContentionEvent event = new LockContentionEvent();
+        event.queueLength = queueLength;
+        // 开始等待时的持有者: 它的这次持有被采样了才有调用位置
+        String owner = ownerCallSite;
+        if (owner != null) {
+            callSites.computeIfAbsent(owner, k -> new LongAdder()).increment();
+            event.ownerCallSite = owner;
+        }
+        event.begin();
+        return event;
+    }
+
+    private void onContendedAcquired(LockContentionEvent event, long start) {
+        waitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        contendedAcquisitions.increment();
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.lockName = name;
+            event.commit();
+        }
+        onAcquired();
+    }
+
+    private void onAcquired() {
+        if (--untilSample == 0) {
+            onSampled();
+        }
+    }
+
+    private void onSampled() {
+        untilSample = sampleRate;
+        sampleRounds++;
+        if (getHoldCount() == 1) {
+            startHoldSample();
+        }
+    }
+
+    private void startHoldSample() {
+        holdStartNanos = System.nanoTime();
+        LockHoldEvent event = new LockHoldEvent();
+        boolean recording = event.isEnabled();
+        String site = recording || contentionSeen ? callSite() : null;
+        if (site != null) {
+            ownerCallSite = site;
+        }
+        if (recording) {
+            event.callSite = site;
+            event.begin();
+            holdEvent = event;
+        }
+    }
+
+    /**
+     * 结束当前的持有采样 (如果有)，返回是否有正在进行的采样。只能由持锁线程调用。
+     */
+    private boolean endHoldSample() {
+        if (holdStartNanos == 0) {
+            return false;
+        }
+        holdTimer.record(System.nanoTime() - holdStartNanos, TimeUnit.NANOSECONDS);
+        holdStartNanos = 0;
+        if (ownerCallSite != null) {
+            ownerCallSite = null;
+        }
+        LockHoldEvent event = holdEvent;
+        holdEvent = null;
+        if (event != null) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.lockName = name;
+                event.commit();
+            }
+        }
+        return true;
+    }
+
+    private double acquisitions() {
+        return (double) sampleRounds * sampleRate + (sampleRate - untilSample);
+    }
+
+    private static Condition unwrap(Condition condition) {
+        return condition instanceof ProfiledCondition profiled ? profiled.delegate : condition;
+    }
+
+    /**
+     * 调用 lock()/await() 的位置 (跳过本类和 ProfiledCondition 的栈帧)。
+     */
+    private static String callSite() {
+        return WALKER.walk(frames -> frames
+                .filter(f -> f.getDeclaringClass().getNestHost() != ProfiledReentrantLock.class)
+                .findFirst()
+                .map(f -> f.getClassName() + "." + f.getMethodName() + ":" + f.getLineNumber())
+                .orElse("unknown"));
+    }
+
+    /**
+     * 发生竞争时持有锁一方的加锁位置 (采样)，按让别人等待的次数降序。
+     */
+    public Map<String, Long> topCallSites(int limit) {
+        Map<String, Long> top = new LinkedHashMap<>();
+        callSites.entrySet().stream()
+                .sorted(Comparator.comparingLong((Map.Entry<String, LongAdder> e) -> e.getValue().sum()).reversed())
+                .limit(limit)
+                .forEach(e -> top.put(e.getKey(), e.getValue().sum()));
+        return top;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String toString() {
+        return "ProfiledReentrantLock[" + name + ", " + super.toString() + "]";
+    }
+
+    /**
+     * await 前结束持有采样，返回后 (此时已重新持有锁，包括被中断或超时的情况) 再开始新的采样。
+     * 没有持锁就调用 await 时不碰采样字段，交给底层 Condition 抛出 IllegalMonitorStateException。
+     */
+    private final class ProfiledCondition implements Condition {
+        private final Condition delegate;
+
+        ProfiledCondition(Condition delegate) {
+            this.delegate = delegate;
+        }
+
+        private boolean suspend() {
+            return isHeldByCurrentThread() && endHoldSample();
+        }
+
+        private void resume(boolean sampling) {
+            if (sampling) {
+                startHoldSample();
+            }
+        }
+
+        @Override
+        public void await() throws InterruptedException {
+            boolean sampling = suspend();
+            try {
+                delegate.await();
+            } finally {
+                resume(sampling);
+            }
+        }
+
+        @Override
+        public void awaitUninterruptibly() {
+            boolean sampling = suspend();
+            try {
+                delegate.awaitUninterruptibly();
+            } finally {
+                resume(sampling);
+            }
+        }
+
+        @Override
+        public long awaitNanos(long nanosTimeout) throws InterruptedException {
+            boolean sampling = suspend();
+            try {
+                return delegate.awaitNanos(nanosTimeout);
+            } finally {
+                resume(sampling);
+            }
+        }
+
+        @Override
+        public boolean await(long time, TimeUnit unit) throws InterruptedException {
+            boolean sampling = suspend();
+            try {
+                return delegate.await(time, unit);
+            } finally {
+                resume(sampling);
+            }
+        }
+
+        @Override
+        public boolean awaitUntil(Date deadline) throws InterruptedException {
+            boolean sampling = suspend();
+            try {
+                return delegate.awaitUntil(deadline);
+            } finally {
+                resume(sampling);
+            }
+        }
+
+        @Override
+        public void signal() {
+            delegate.signal();
+        }
+
+        @Override
+        public void signalAll() {
+            delegate.signalAll();
+        }
+    }
+}
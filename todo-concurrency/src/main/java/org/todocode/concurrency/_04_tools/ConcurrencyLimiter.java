@@ -0,0 +1,340 @@
+package org.todocode.concurrency._04_tools;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.io.IOException;
+import java.sql.SQLTransientException;
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * [TodoCode] 自适应并发限制器
+ *
+ * <h3>背景:</h3>
+ * ConcurrencyToolsDemo.semaphoreDemo 用固定的 Semaphore(2) 限制并发。
+ * 但下游 (例如 MySQL) 能承受的并发随负载变化: 缓冲池冷的时候 10 个就排队，热的时候 50 个也没问题。
+ * 固定值要么太小浪费容量，要么太大把下游压垮。
+ * 这个限制器根据观测到的 RTT 和错误自动调整许可数:
+ * - AIMD: 成功且不慢就加 1，超时或出错就乘以退避系数 (和 TCP 拥塞控制一样)
+ * - 梯度: 比较空载 RTT 基线和近期 RTT，近期明显变慢说明下游开始排队，按比例收缩
+ *
+ * <h3>易错点:</h3>
+ * 1. Semaphore 没有公开的"减少许可"方法，reducePermits 是 protected 的，
+ *    所以这里用一个子类把它暴露出来。减少许可时可用许可数可以变成负数，
+ *    表示当前在途请求超过了新上限，之后归还的许可会先抵消这个差额。
+ * 2. 只有在途请求接近上限时才增加上限: 负载很低时 RTT 很好看，
+ *    但那并不能说明下游能承受更高的并发，不加这个条件上限会无限增长。
+ * 3. 客户端自己的错误 (参数错误、404) 不代表下游过载，用 ignore 释放，不参与调整。
+ *    call 用一个分类器区分: 默认只有超时、I/O 错误、瞬时 SQL 错误和拒绝执行算过载，
+ *    其余异常 (包括 Error) 都走 ignore，否则一串参数错误就能把上限压到 minLimit。
+ * 4. call 在 finally 里归还许可: 只 catch Exception 的话，任务抛出 Error (例如 OutOfMemoryError、AssertionError)
+ *    时许可就泄漏了，几次之后可用并发悄悄降到 0。
+ *
+ * <h3>核心理解:</h3>
+ * 利特尔法则: 并发 = 吞吐量 × 延迟。超过下游容量后吞吐量不再增长，多出的并发只会变成排队延迟，
+ * 所以"延迟开始上升"就是"并发已经够了"的信号。
+ *
+ * TODO: 多个实例各自限流时，总并发是各自上限之和，怎样让它们感知彼此？
+ */
+public class ConcurrencyLimiter {
+
+    /**
+     * 限流算法: 每次请求完成时根据样本给出新的 (连续值) 上限估计。
+     * 调用方保证串行调用，实现可以有内部状态。
+     */
+    public interface LimitAlgorithm {
+        /**
+         * @param limit    当前上限估计
+         * @param rttNanos 这次请求的耗时
+         * @param inFlight 这次请求完成时的在途请求数 (包括它自己)
+         * @param dropped  这次请求是否超时或因过载失败
+         */
+        double update(double limit, long rttNanos, int inFlight, boolean dropped);
+    }
+
+    /**
+     * AIMD: RTT 超过 rttTimeout 或请求失败时乘以 backoffRatio，否则在在途请求接近上限时加 1。
+     */
+    public static LimitAlgorithm aimd(Duration rttTimeout, double backoffRatio) {
+        if (backoffRatio <= 0 || backoffRatio >= 1) {
+            throw new IllegalArgumentException("退避系数必须在 (0, 1) 之间: " + backoffRatio);
+        }
+        long timeoutNanos = rttTimeout.toNanos();
+        return (limit, rttNanos, inFlight, dropped) -> {
+            if (dropped || rttNanos > timeoutNanos) {
+                return limit * backoffRatio;
+            }
+            if (inFlight * 2 >= limit) {
+                return limit + 1;
+            }
+            return limit;
+        };
+    }
+
+    /**
+     * 梯度算法，tolerance 是可接受的 RTT 膨胀倍数 (例如 1.5)，smoothing 是每次调整的步长 (例如 0.2)。
+     */
+    public static LimitAlgorithm gradient(double tolerance, double smoothing) {
+        return new Gradient(tolerance, smoothing);
+    }
+
+    private static final class Gradient implements LimitAlgorithm {
+        private static final double SHORT_ALPHA = 2.0 / (10 + 1); // 约 10 个样本的窗口
+        private static final double DRIFT_ALPHA = 1.0 / 2000; // 基线向上漂移得很慢
+        private static final double DROP_BACKOFF = 0.9;
+
+        private final double tolerance;
+        private final double smoothing;
+        private double shortRtt;
+        private double baselineRtt; // 近似空载 RTT
+
+        Gradient(double tolerance, double smoothing) {
+            if (tolerance < 1 || smoothing <= 0 || smoothing > 1) {
+                throw new IllegalArgumentException("tolerance 必须 >= 1，smoothing 必须在 (0, 1] 之间");
+            }
+            this.tolerance = tolerance;
+            this.smoothing = smoothing;
+        }
+
+        @Override
+        public double update(double limit, long rttNanos, int inFlight, boolean dropped) {
+            if (dropped) {
+                return limit * DROP_BACKOFF; // 快速失败的耗时不是排队延迟，不能进入 RTT 统计
+            }
+            if (baselineRtt == 0) {
+                shortRtt = baselineRtt = rttNanos;
+            } else {
+                shortRtt += (rttNanos - shortRtt) * SHORT_ALPHA;
+                // 更快的样本立即成为新基线；更慢的只让基线缓慢上移，
+                // 否则持续排队时基线会跟着涨上去，把排队延迟当成"正常"
+                baselineRtt = rttNanos < baselineRtt ? rttNanos : baselineRtt + (rttNanos - baselineRtt) * DRIFT_ALPHA;
+            }
+            if (inFlight < limit / 2) {
+                return limit; // 负载不足，样本不能说明容量
+            }
+            double gradient = Math.max(0.5, Math.min(1.0, tolerance * baselineRtt / shortRtt));
+            double target = limit * gradient + Math.sqrt(limit); // sqrt(limit) 是留给排队的余量，也是向上试探的步长
+            return limit * (1 - smoothing) + target * smoothing;
+        }
+    }
+
+    /**
+     * 暴露 reducePermits 的 Semaphore。
+     */
+    private static final class ResizableSemaphore extends Semaphore {
+        ResizableSemaphore(int permits) {
+            super(permits);
+        }
+
+        void reduce(int n) {
+            reducePermits(n);
+        }
+    }
+
+    private final ResizableSemaphore semaphore;
+    private final LimitAlgorithm algorithm;
+    private final int minLimit;
+    private final int maxLimit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final ReentrantLock updateLock = new ReentrantLock();
+    private double estimate; // 受 updateLock 保护
+    private volatile int limit;
+
+    private final Counter rejected;
+    private final Counter dropped;
+    private final Timer rtt;
+
+    public ConcurrencyLimiter(String name, LimitAlgorithm algorithm, int initialLimit, int minLimit, int maxLimit,
+                              MeterRegistry registry) {
+        if (minLimit <= 0 || minLimit > initialLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("需要 0 < minLimit <= initialLimit <= maxLimit: "
+                    + minLimit + ", " + initialLimit + ", " + maxLimit);
+        }
+        this.algorithm = algorithm;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = initialLimit;
+        this.estimate = initialLimit;
+        this.semaphore = new ResizableSemaphore(initialLimit);
+
+        Gauge.builder("todocode.limiter.limit", this, ConcurrencyLimiter::getLimit)
+                .description("当前并发上限")
+                .tag("limiter", name)
+                .register(registry);
+        Gauge.builder("todocode.limiter.inflight", this, ConcurrencyLimiter::getInFlight)
+                .description("在途请求数")
+                .tag("limiter", name)
+                .register(registry);
+        this.rejected = Counter.builder("todocode.limiter.rejected")
+                .description("没有拿到许可而被拒绝的请求数")
+                .tag("limiter", name)
+                .register(registry);
+        this.dropped = Counter.builder("todocode.limiter.dropped")
+                .description("超时或因下游过载失败的请求数")
+                .tag("limiter", name)
+                .register(registry);
+        this.rtt = Timer.builder("todocode.limiter.rtt")
+                .description("持有许可期间的请求耗时")
+                .tag("limiter", name)
+                .register(registry);
+    }
+
+    /**
+     * 非阻塞获取许可，没有可用许可时立即返回 null。
+     */
+    public Permit tryAcquire() {
+        if (!semaphore.tryAcquire()) {
+            rejected.increment();
+            return null;
+        }
+        return new Permit();
+    }
+
+    /**
+     * 最多等待 timeout 获取许可，超时返回 null。
+     */
+    public Permit tryAcquire(Duration timeout) throws InterruptedException {
+        if (!semaphore.tryAcquire(timeout.toNanos(), TimeUnit.NANOSECONDS)) {
+            rejected.increment();
+            return null;
+        }
+        return new Permit();
+    }
+
+    /**
+     * 用默认分类器 {@link #isOverload} 调用 {@link #call(Duration, Callable, Predicate)}。
+     *
+     * @throws RejectedExecutionException 在 acquireTimeout 内没有拿到许可
+     */
+    public <T> T call(Duration acquireTimeout, Callable<T> task) throws Exception {
+        return call(acquireTimeout, task, ConcurrencyLimiter::isOverload);
+    }
+
+    /**
+     * 在许可保护下执行 task: 正常返回记为成功；抛出的异常或 Error 被 overload 判定为下游过载时记为失败
+     * (计入 dropped，上限收缩)，否则只归还许可 (ignore)。
+     *
+     * @param overload 判断失败是否说明下游过载
+     * @throws RejectedExecutionException 在 acquireTimeout 内没有拿到许可
+     */
+    public <T> T call(Duration acquireTimeout, Callable<T> task, Predicate<Throwable> overload) throws Exception {
+        Permit permit = tryAcquire(acquireTimeout);
+        if (permit == null) {
+            throw new RejectedExecutionException("并发已达上限 " + limit);
+        }
+        Throwable failure = null;
+        try {
+            return task.call();
+        } catch (Throwable t) {
+            failure = t;
+            throw t;
+        } finally {
+            // 任何 Throwable (包括 Error) 都要归还许可，否则在途计数和许可永久泄漏，上限越用越小
+            if (failure == null) {
+                permit.success();
+            } else if (overload.test(failure)) {
+                permit.dropped();
+            } else {
+                permit.ignore();
+            }
+        }
+    }
+
+    /**
+     * 默认的过载判定: 异常或它的 cause 链上有超时、I/O 错误、瞬时 SQL 错误 (包括 SQLTimeoutException)
+     * 或拒绝执行。
+     */
+    public static boolean isOverload(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof TimeoutException || t instanceof IOException || t instanceof SQLTransientException
+                    || t instanceof RejectedExecutionException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getRejectedCount() {
+        return (long) rejected.count();
+    }
+
+    /**
+     * 一次持有的许可。必须且只能调用 success、dropped、ignore 中的一个。
+     */
+    public final class Permit {
+        private final long start = System.nanoTime();
+        private boolean released;
+
+        private Permit() {
+            inFlight.incrementAndGet();
+        }
+
+        /** 请求成功，RTT 作为样本参与调整。 */
+        public void success() {
+            release(true, false);
+        }
+
+        /** 请求超时或因下游过载失败，上限会收缩。 */
+        public void dropped() {
+            release(true, true);
+        }
+
+        /** 与下游容量无关的结果 (例如客户端参数错误)，只归还许可，不参与调整。 */
+        public void ignore() {
+            release(false, false);
+        }
+
+        private void release(boolean sample, boolean drop) {
+            if (released) {
+                throw new IllegalStateException("许可已经释放过了");
+            }
+            released = true;
+            long elapsed = System.nanoTime() - start;
+            int current = inFlight.getAndDecrement();
+            semaphore.release();
+            if (drop) {
+                dropped.increment();
+            }
+            if (sample) {
+                rtt.record(elapsed, TimeUnit.NANOSECONDS);
+                onSample(elapsed, current, drop);
+            }
+        }
+    }
+
+    private void onSample(long rttNanos, int inFlightAtCompletion, boolean drop) {
+        updateLock.lock();
+        try {
+            estimate = Math.max(minLimit, Math.min(maxLimit,
+                    algorithm.update(estimate, rttNanos, inFlightAtCompletion, drop)));
+            int newLimit = (int) estimate;
+            int delta = newLimit - limit;
+            if (delta > 0) {
+                semaphore.release(delta);
+            } else if (delta < 0) {
+                semaphore.reduce(-delta);
+            }
+            limit = newLimit;
+        } finally {
+            updateLock.unlock();
+        }
+    }
+}
@@ -57,6 +57,7 @@ public class ConcurrencyToolsDemo {
 
     /**
      * CyclicBarrier 演示: 线程在屏障点互相等待。
+     * 线程复用、动态参与方、每阶段归约和超时的版本见 {@link PhasedBatchProcessor}。
      *
      * TODO: CyclicBarrier 和 CountDownLatch 有什么区别？
      */
@@ -92,6 +93,7 @@ public class ConcurrencyToolsDemo {
 
     /**
      * Semaphore 演示: 限制对资源的并发访问。
+     * 许可数随下游 RTT 和错误自动调整的版本见 {@link ConcurrencyLimiter}。
      *
      * TODO: 想想这如何用于限流。
      */
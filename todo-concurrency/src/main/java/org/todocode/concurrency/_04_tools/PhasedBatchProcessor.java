@@ -0,0 +1,417 @@
+package org.todocode.concurrency._04_tools;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+
+/**
+ * [TodoCode] 基于 Phaser 的分阶段并行批处理
+ *
+ * <h3>背景:</h3>
+ * ConcurrencyToolsDemo.cyclicBarrierDemo 每次运行都新建线程、参与方数量写死、用 sleep 等待结束。
+ * 多阶段 ETL (统计 → 归一化 → 写出) 正是这个形状，但需要:
+ * - 数据切成分区，由一组常驻工作线程领取处理，线程在各阶段、各次运行之间复用
+ * - 参与方可以动态加入和离开 (扩缩容时不必等整批跑完)，所以用 Phaser 而不是 CyclicBarrier
+ * - 每个阶段把各分区的部分结果归约成一个阶段结果，供后续阶段使用
+ * - 整体超时和取消
+ *
+ * <h3>易错点:</h3>
+ * 1. 工作线程在领到任务后才 register，而不是由协调者预先替它们注册:
+ *    线程池忙于其他任务时，预先注册的参与方永远不会到达，阶段就卡住了。
+ * 2. 协调者 (调用 run 的线程) 自己也处理分区，所以即使所有工作线程都在忙，任务也能推进。
+ * 3. 分区按 AtomicInteger 游标动态领取，中途加入的线程马上就能分担剩余分区。
+ * 4. 阶段结果在 onAdvance 中发布，Phaser 的推进保证下一阶段的所有参与方都能看到它。
+ * 5. 离开的线程必须 arriveAndDeregister，而不是直接退出，否则当前阶段永远等不齐。
+ *
+ * <h3>核心理解:</h3>
+ * CyclicBarrier 的参与方数量在构造时固定；Phaser 的参与方可以随时注册/注销，
+ * 而且 onAdvance 提供了一个"所有人都到齐、还没有人继续"的时间点，正适合做归约。
+ *
+ * TODO: 如果某个分区特别大，其他线程都在屏障处干等，怎么把它继续切分？
+ */
+public class PhasedBatchProcessor implements AutoCloseable {
+
+    /** 队列中的退出信号: 取到它的空闲线程尝试退出。 */
+    private static final Job<?> RETIRE = new Job<>(null, List.of(), 0);
+
+    private final String name;
+    private final BlockingDeque<Job<?>> assignments = new LinkedBlockingDeque<>();
+    private final Set<Job<?>> activeJobs = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger pendingRetirements = new AtomicInteger();
+    private final AtomicLong threadsStarted = new AtomicLong();
+    private final List<Thread> threads = new ArrayList<>(); // 受 this 保护
+    private int targetWorkers; // 受 this 保护
+    private volatile boolean closed;
+
+    public PhasedBatchProcessor(String name, int workers) {
+        if (workers < 0) {
+            throw new IllegalArgumentException("工作线程数不能为负数: " + workers);
+        }
+        this.name = name;
+        resize(workers);
+    }
+
+    /**
+     * 创建一个批处理任务，data 被切成 partitions 个连续分区 (subList 视图，不复制)。
+     */
+    public <T> Job<T> job(List<T> data, int partitions) {
+        if (partitions <= 0) {
+            throw new IllegalArgumentException("分区数必须为正数: " + partitions);
+        }
+        return new Job<>(this, data, partitions);
+    }
+
+    /**
+     * 调整工作线程数。新线程会立即加入正在运行的任务；
+     * 多出的线程在当前阶段结束时离开任务并退出。
+     */
+    public synchronized void resize(int workers) {
+        if (closed) {
+            throw new IllegalStateException("处理器已关闭");
+        }
+        int delta = workers - targetWorkers;
+        targetWorkers = workers;
+        if (delta > 0) {
+            for (int i = 0; i < delta; i++) {
+                Thread t = new Thread(this::workerLoop, name + "-" + threadsStarted.getAndIncrement());
+                threads.add(t);
+                t.start();
+            }
+            for (Job<?> job : activeJobs) {
+                for (int i = 0; i < delta; i++) {
+                    assignments.offer(job);
+                }
+            }
+        } else {
+            for (int i = 0; i < -delta; i++) {
+                pendingRetirements.incrementAndGet();
+                assignments.offerFirst(RETIRE); // 唤醒空闲线程
+            }
+        }
+    }
+
+    public synchronized int workers() {
+        return targetWorkers;
+    }
+
+    /**
+     * 累计启动过的线程数。线程被复用时，它不随运行次数增长。
+     */
+    public long threadsStarted() {
+        return threadsStarted.get();
+    }
+
+    private boolean tryRetire() {
+        int n;
+        while ((n = pendingRetirements.get()) > 0) {
+            if (pendingRetirements.compareAndSet(n, n - 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void workerLoop() {
+        try {
+            while (true) {
+                Job<?> job = assignments.take();
+                if (job == RETIRE) {
+                    if (tryRetire()) {
+                        return;
+                    }
+                    continue; // 已经有忙碌的线程替它退出了
+                }
+                if (!job.participate()) {
+                    return; // 在阶段边界上退出了
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            synchronized (this) {
+                threads.remove(Thread.currentThread());
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        List<Thread> toJoin;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            toJoin = new ArrayList<>(threads);
+            targetWorkers = 0;
+            for (int i = 0; i < toJoin.size(); i++) {
+                pendingRetirements.incrementAndGet();
+                assignments.offerFirst(RETIRE);
+            }
+        }
+        activeJobs.forEach(Job::cancel);
+        for (Thread t : toJoin) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 已完成阶段的归约结果，按阶段名读取。
+     */
+    public static final class PhaseResults {
+        private final Map<String, Object> results = Collections.synchronizedMap(new LinkedHashMap<>());
+
+        /**
+         * 阶段没有处理任何分区时返回 null。
+         */
+        @SuppressWarnings("unchecked")
+        public <R> R get(String phase) {
+            return (R) results.get(phase);
+        }
+
+        public boolean contains(String phase) {
+            return results.containsKey(phase);
+        }
+
+        @Override
+        public String toString() {
+            return results.toString();
+        }
+    }
+
+    /**
+     * 一个阶段: 对每个分区调用 work 得到部分结果，再用 reducer 两两归约。
+     */
+    private record PhaseSpec<T, R>(String name,
+                                   BiFunction<List<T>, PhaseResults, R> work,
+                                   BinaryOperator<R> reducer) {
+    }
+
+    /**
+     * 每个阶段的运行状态: 分区游标 + 归约累加器。预先为每个阶段创建一份，避免在阶段切换时重置。
+     */
+    private static final class PhaseState {
+        final AtomicInteger cursor = new AtomicInteger();
+        final AtomicReference<Object> accumulator = new AtomicReference<>();
+    }
+
+    /**
+     * 一次批处理任务。只能运行一次。
+     */
+    public static final class Job<T> {
+        private final PhasedBatchProcessor processor;
+        private final List<List<T>> partitions;
+        private final List<PhaseSpec<T, ?>> phases = new ArrayList<>();
+        private final PhaseResults results = new PhaseResults();
+        private final AtomicBoolean started = new AtomicBoolean();
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private volatile boolean cancelled;
+        private volatile boolean timedOut;
+        private long deadline;
+        private PhaseState[] states;
+        private volatile Phaser phaser;
+
+        private Job(PhasedBatchProcessor processor, List<T> data, int partitions) {
+            this.processor = processor;
+            this.partitions = partition(data, partitions);
+        }
+
+        private static <T> List<List<T>> partition(List<T> data, int partitions) {
+            List<List<T>> result = new ArrayList<>(partitions);
+            int size = data.size();
+            for (int i = 0; i < partitions; i++) {
+                int from = (int) ((long) size * i / partitions);
+                int to = (int) ((long) size * (i + 1) / partitions);
+                result.add(data.subList(from, to));
+            }
+            return result;
+        }
+
+        /**
+         * 追加一个阶段。work 可以通过 PhaseResults 读取之前阶段的结果。
+         */
+        public <R> Job<T> phase(String name, BiFunction<List<T>, PhaseResults, R> work, BinaryOperator<R> reducer) {
+            if (started.get()) {
+                throw new IllegalStateException("任务已开始，不能再添加阶段");
+            }
+            phases.add(new PhaseSpec<>(Objects.requireNonNull(name), work, reducer));
+            return this;
+        }
+
+        /**
+         * 当前注册在 Phaser 上的参与方数量 (包括协调者)。
+         */
+        public int participants() {
+            Phaser p = phaser;
+            return p == null ? 0 : p.getRegisteredParties();
+        }
+
+        /**
+         * 取消任务: 正在处理的分区会跑完，但不会再领取新分区，所有参与方立即离开屏障。
+         */
+        public void cancel() {
+            cancelled = true;
+            Phaser p = phaser;
+            if (p != null) {
+                p.forceTermination();
+            }
+        }
+
+        /**
+         * 在调用线程上协调并参与处理，直到所有阶段完成。
+         *
+         * @throws TimeoutException      超时 (任务已被取消)
+         * @throws ExecutionException    某个分区处理失败 (任务已被取消)
+         * @throws CancellationException 任务被 cancel
+         */
+        public PhaseResults run(Duration timeout) throws InterruptedException, TimeoutException, ExecutionException {
+            if (!started.compareAndSet(false, true)) {
+                throw new IllegalStateException("任务只能运行一次");
+            }
+            if (phases.isEmpty()) {
+                return results;
+            }
+            deadline = System.nanoTime() + timeout.toNanos();
+            states = new PhaseState[phases.size()];
+            for (int i = 0; i < states.length; i++) {
+                states[i] = new PhaseState();
+            }
+            phaser = new Phaser(1) { // 协调者是第一个参与方
+                @Override
+                protected boolean onAdvance(int phase, int registeredParties) {
+                    Object reduced = states[phase].accumulator.get();
+                    if (reduced != null) {
+                        results.results.put(phases.get(phase).name(), reduced);
+                    }
+                    return phase + 1 >= phases.size() || cancelled;
+                }
+            };
+            if (cancelled) {
+                phaser.forceTermination(); // run 之前就被取消了
+            }
+
+            processor.activeJobs.add(this);
+            int workers;
+            synchronized (processor) {
+                workers = processor.targetWorkers;
+            }
+            for (int i = 0; i < workers; i++) {
+                processor.assignments.offer(this);
+            }
+            try {
+                coordinate();
+            } finally {
+                processor.activeJobs.remove(this);
+                processor.assignments.removeIf(j -> j == this); // 没来得及被领取的分配
+            }
+
+            Throwable t = failure.get();
+            if (t != null) {
+                throw new ExecutionException("分区处理失败", t);
+            }
+            if (timedOut) {
+                throw new TimeoutException("任务超时");
+            }
+            if (cancelled) {
+                throw new CancellationException("任务已取消");
+            }
+            return results;
+        }
+
+        private void coordinate() throws InterruptedException {
+            int phase = phaser.getPhase();
+            while (phase >= 0) {
+                work(phase);
+                int arrived = phaser.arrive();
+                try {
+                    phase = phaser.awaitAdvanceInterruptibly(arrived, deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                } catch (TimeoutException e) {
+                    timeOut();
+                    return;
+                } catch (InterruptedException e) {
+                    cancel();
+                    throw e;
+                }
+            }
+        }
+
+        private void timeOut() {
+            timedOut = true;
+            cancel();
+        }
+
+        /**
+         * 工作线程参与这个任务，直到任务结束。
+         *
+         * @return false 表示线程在阶段边界上离开了任务并应该退出
+         */
+        private boolean participate() {
+            int phase = phaser.register(); // 动态加入: 从当前阶段开始参与
+            while (phase >= 0) {
+                work(phase);
+                if (processor.tryRetire()) {
+                    phaser.arriveAndDeregister();
+                    return false;
+                }
+                phase = phaser.awaitAdvance(phaser.arrive());
+            }
+            return true;
+        }
+
+        /**
+         * 领取并处理本阶段的分区，把本线程的部分结果并入阶段累加器。
+         */
+        @SuppressWarnings("unchecked")
+        private void work(int phase) {
+            PhaseSpec<T, Object> spec = (PhaseSpec<T, Object>) phases.get(phase);
+            PhaseState state = states[phase];
+            Object partial = null;
+            int p;
+            while (!cancelled && (p = state.cursor.getAndIncrement()) < partitions.size()) {
+                if (System.nanoTime() - deadline >= 0) { // 每个分区之前检查，而不只是在屏障处
+                    timeOut();
+                    return;
+                }
+                Object r;
+                try {
+                    r = spec.work().apply(partitions.get(p), results);
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                    cancel();
+                    return;
+                }
+                if (r != null) {
+                    partial = partial == null ? r : spec.reducer().apply(partial, r);
+                }
+            }
+            if (partial != null) {
+                Object mine = partial;
+                state.accumulator.accumulateAndGet(mine, (acc, x) -> acc == null ? x : spec.reducer().apply(acc, x));
+            }
+        }
+    }
+}
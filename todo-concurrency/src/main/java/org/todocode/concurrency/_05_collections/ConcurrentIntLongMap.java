@@ -0,0 +1,61 @@
+package org.todocode.concurrency._05_collections;
+
+/**
+ * [TodoCode] 原始类型 int -> long 并发哈希表
+ *
+ * <h3>背景:</h3>
+ * 很多计数器的 key 是 int (商品 id、分片号)。用 ConcurrentHashMap&lt;Integer, Long&gt;
+ * 同样每次自增都要装箱。这里直接复用 {@link ConcurrentLongLongMap} 的实现，
+ * 把 int key 拓宽成 long: 保留值 Long.MIN_VALUE 不在 int 范围内，所以任何 int 都可以作为 key。
+ *
+ * <h3>易错点:</h3>
+ * 拓宽意味着每个 key 占 8 字节而不是 4 字节。换来的是一份经过并发测试的代码，
+ * 而不是两份需要分别维护的无锁实现。
+ *
+ * <h3>核心理解:</h3>
+ * API 层面没有装箱即可，存储布局可以共享。
+ */
+public class ConcurrentIntLongMap {
+
+    private final ConcurrentLongLongMap map;
+
+    public ConcurrentIntLongMap() {
+        this.map = new ConcurrentLongLongMap();
+    }
+
+    public ConcurrentIntLongMap(int segments, int initialCapacity) {
+        this.map = new ConcurrentLongLongMap(segments, initialCapacity);
+    }
+
+    @FunctionalInterface
+    public interface IntLongConsumer {
+        void accept(int key, long value);
+    }
+
+    public long addAndGet(int key, long delta) {
+        return map.addAndGet(key, delta);
+    }
+
+    public long incrementAndGet(int key) {
+        return map.addAndGet(key, 1);
+    }
+
+    /**
+     * key 不存在时返回 0。
+     */
+    public long get(int key) {
+        return map.get(key);
+    }
+
+    public boolean containsKey(int key) {
+        return map.containsKey(key);
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    public void forEach(IntLongConsumer action) {
+        map.forEach((key, value) -> action.accept((int) key, value));
+    }
+}
@@ -0,0 +1,312 @@
+package org.todocode.concurrency._05_collections;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * [TodoCode] 原始类型 long -> long 并发哈希表 (热点计数器专用)
+ *
+ * <h3>背景:</h3>
+ * ConcurrentCollectionsDemo.atomicOperationsDemo 用 ConcurrentHashMap.merge(key, 1L, Long::sum) 计数。
+ * 每次自增都要装箱一个新的 Long (超出 -128~127 缓存后)，还要分配链表/红黑树节点；
+ * 每秒 100 万次的页面浏览计数下，这就是每秒几十 MB 的垃圾。
+ * 这里用开放寻址 + 原始 long 数组存储，addAndGet 在已有 key 上只是一次 CAS，零分配。
+ *
+ * <h3>易错点:</h3>
+ * 1. 扩容时不能锁住所有写入者。表被分成若干段，每段独立扩容 (分段扩容)，
+ *    扩容只阻塞落在这一段的插入，其他段不受影响。
+ * 2. 扩容和并发 CAS 的竞争: 扩容线程逐个槽位把 value 原子地换成 MOVED 标记再复制，
+ *    之后旧表上任何 CAS 都会失败，写入者看到 MOVED 就转到新表重试，增量不会丢。
+ * 3. 开放寻址不支持廉价的删除 (需要墓碑)，计数器场景也不需要，所以这里不提供 remove。
+ * 4. Long.MIN_VALUE 被保留为"空槽位"和"已迁移"标记，不能作为 key，也不能作为计数结果。
+ * 5. key 个数记在每张表自己的计数器上，而不是段上: 扩容时插入旧表的 key 要么已被复制 (算在新表的初始计数里)，
+ *    要么会在新表上重新插入一次 (再计一次)，旧表上的那次计数随旧表一起丢弃。
+ *    共用一个段计数器时，晚于扩容重新计数的旧表插入会被多算一次，size() 越扩容越偏大。
+ *
+ * <h3>核心理解:</h3>
+ * 槽位布局 [key0, value0, key1, value1, ...]: key 和 value 在同一个缓存行，
+ * 一次探测就能拿到两者。插入 = CAS key 从 EMPTY 到 k；自增 = CAS value。
+ *
+ * TODO: 用 JMH 的 -prof gc 对比 CounterMapBenchmark 中两种实现的 gc.alloc.rate.norm。
+ */
+public class ConcurrentLongLongMap {
+
+    /** 空槽位 (key) 和已迁移 (value) 的标记。 */
+    static final long EMPTY = Long.MIN_VALUE;
+    static final long MOVED = Long.MIN_VALUE;
+
+    private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final double LOAD_FACTOR = 0.6;
+
+    private final Segment[] segments;
+    private final int segmentShift;
+
+    public ConcurrentLongLongMap() {
+        this(16, 64);
+    }
+
+    /**
+     * @param segments        段数，向上取 2 的幂，决定扩容的并发度
+     * @param initialCapacity 总初始容量
+     */
+    public ConcurrentLongLongMap(int segments, int initialCapacity) {
+        if (segments <= 0 || initialCapacity <= 0) {
+            throw new IllegalArgumentException("段数和容量必须为正数: " + segments + ", " + initialCapacity);
+        }
+        int n = segments == 1 ? 1 : Integer.highestOneBit(segments - 1) << 1;
+        this.segments = new Segment[n];
+        this.segmentShift = 64 - Integer.numberOfTrailingZeros(n);
+        int perSegment = Math.max(4, (int) Math.ceil(initialCapacity / (double) n / LOAD_FACTOR));
+        for (int i = 0; i < n; i++) {
+            this.segments[i] = new Segment(perSegment);
+        }
+    }
+
+    /**
+     * 原子地把 key 的值加上 delta，key 不存在时视为 0。返回新值。
+     */
+    public long addAndGet(long key, long delta) {
+        checkKey(key);
+        long hash = mix(key);
+        Segment segment = segmentFor(hash);
+        while (true) {
+            Table table = segment.table;
+            int slot = table.findOrInsert(key, hash, segment);
+            if (slot < 0) {
+                segment.resize(table); // 表满了: 扩容后重试
+                continue;
+            }
+            long[] slots = table.slots;
+            long v = (long) SLOTS.getVolatile(slots, slot + 1);
+            while (v != MOVED) {
+                long next = v + delta;
+                if (next == MOVED) {
+                    throw new ArithmeticException("计数溢出到保留值 Long.MIN_VALUE: key=" + key);
+                }
+                long witness = (long) SLOTS.compareAndExchange(slots, slot + 1, v, next);
+                if (witness == v) {
+                    return next;
+                }
+                v = witness;
+            }
+            segment.awaitResize(table); // 这个槽位已被迁移，到新表上重试
+        }
+    }
+
+    public long incrementAndGet(long key) {
+        return addAndGet(key, 1);
+    }
+
+    /**
+     * key 不存在时返回 0 (计数器语义)。
+     */
+    public long get(long key) {
+        checkKey(key);
+        long hash = mix(key);
+        Segment segment = segmentFor(hash);
+        while (true) {
+            Table table = segment.table;
+            int slot = table.find(key, hash);
+            if (slot < 0) {
+                return 0;
+            }
+            long v = (long) SLOTS.getVolatile(table.slots, slot + 1);
+            if (v != MOVED) {
+                return v;
+            }
+            segment.awaitResize(table);
+        }
+    }
+
+    public boolean containsKey(long key) {
+        checkKey(key);
+        long hash = mix(key);
+        return segmentFor(hash).table.find(key, hash) >= 0;
+    }
+
+    /**
+     * key 的个数。并发插入时只是一个近似值，插入停止后是准确值。
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.table.count.get();
+        }
+        return size;
+    }
+
+    @FunctionalInterface
+    public interface LongLongConsumer {
+        void accept(long key, long value);
+    }
+
+    /**
+     * 弱一致遍历: 遍历某一段时暂停该段的扩容 (不影响并发自增)，可能看不到遍历期间的更新。
+     */
+    public void forEach(LongLongConsumer action) {
+        for (Segment segment : segments) {
+            segment.resizeLock.lock();
+            try {
+                segment.table.forEach(action);
+            } finally {
+                segment.resizeLock.unlock();
+            }
+        }
+    }
+
+    private Segment segmentFor(long hash) {
+        return segments.length == 1 ? segments[0] : segments[(int) (hash >>> segmentShift)];
+    }
+
+    private static void checkKey(long key) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("Long.MIN_VALUE 是保留值，不能作为 key");
+        }
+    }
+
+    /**
+     * MurmurHash3 的 fmix64: 连续的 id 也能均匀分布到高位 (选段) 和低位 (选槽位)。
+     */
+    static long mix(long key) {
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static final class Segment {
+        volatile Table table;
+        final ReentrantLock resizeLock = new ReentrantLock();
+
+        Segment(int capacity) {
+            this.table = new Table(Integer.highestOneBit(capacity - 1) << 1);
+        }
+
+        void onInsert(Table table) {
+            if (table.count.incrementAndGet() > table.capacity * LOAD_FACTOR) {
+                resize(table);
+            }
+        }
+
+        /**
+         * 等待正在进行的扩容完成。扩容线程持有 resizeLock，拿到锁就说明扩容已结束。
+         */
+        void awaitResize(Table old) {
+            if (table == old) {
+                resizeLock.lock();
+                resizeLock.unlock();
+            }
+        }
+
+        void resize(Table old) {
+            resizeLock.lock();
+            try {
+                if (table != old) {
+                    return; // 别的线程已经扩容过了
+                }
+                Table bigger = new Table(old.capacity << 1);
+                long[] slots = old.slots;
+                int copied = 0;
+                for (int i = 0; i < slots.length; i += 2) {
+                    long v = (long) SLOTS.getAndSet(slots, i + 1, MOVED); // 先冻结 value
+                    long k = (long) SLOTS.getVolatile(slots, i);
+                    if (k != EMPTY) {
+                        bigger.insertFresh(k, mix(k), v);
+                        copied++;
+                    }
+                }
+                bigger.count.set(copied); // 在发布新表之前设置，之后的插入在它上面累加
+                table = bigger;
+            } finally {
+                resizeLock.unlock();
+            }
+        }
+    }
+
+    private static final class Table {
+        final long[] slots;
+        final int capacity;
+        final int mask;
+        final AtomicInteger count = new AtomicInteger(); // 插入到这张表的 key 数
+
+        Table(int capacity) {
+            this.capacity = capacity;
+            this.mask = capacity - 1;
+            this.slots = new long[capacity * 2];
+            for (int i = 0; i < slots.length; i += 2) {
+                slots[i] = EMPTY;
+            }
+        }
+
+        /**
+         * @return key 所在槽位的下标 (slots 中 key 的位置)，表满时返回 -1
+         */
+        int findOrInsert(long key, long hash, Segment segment) {
+            int index = (int) hash & mask;
+            for (int probe = 0; probe < capacity; probe++) {
+                int slot = index << 1;
+                long k = (long) SLOTS.getVolatile(slots, slot);
+                if (k == key) {
+                    return slot;
+                }
+                if (k == EMPTY) {
+                    long witness = (long) SLOTS.compareAndExchange(slots, slot, EMPTY, key);
+                    if (witness == EMPTY) {
+                        segment.onInsert(this);
+                        return slot;
+                    }
+                    if (witness == key) {
+                        return slot; // 别的线程刚插入了同一个 key
+                    }
+                }
+                index = (index + 1) & mask; // 线性探测
+            }
+            return -1;
+        }
+
+        int find(long key, long hash) {
+            int index = (int) hash & mask;
+            for (int probe = 0; probe < capacity; probe++) {
+                int slot = index << 1;
+                long k = (long) SLOTS.getVolatile(slots, slot);
+                if (k == key) {
+                    return slot;
+                }
+                if (k == EMPTY) {
+                    return -1;
+                }
+                index = (index + 1) & mask;
+            }
+            return -1;
+        }
+
+        /**
+         * 只在扩容线程内调用，新表尚未发布，普通写即可。
+         */
+        void insertFresh(long key, long hash, long value) {
+            int index = (int) hash & mask;
+            while (slots[index << 1] != EMPTY) {
+                index = (index + 1) & mask;
+            }
+            slots[index << 1] = key;
+            slots[(index << 1) + 1] = value;
+        }
+
+        /**
+         * 只在持有 resizeLock 时调用，此时不会有槽位被迁移。
+         */
+        void forEach(LongLongConsumer action) {
+            for (int i = 0; i < slots.length; i += 2) {
+                long k = (long) SLOTS.getVolatile(slots, i);
+                if (k != EMPTY) {
+                    action.accept(k, (long) SLOTS.getVolatile(slots, i + 1));
+                }
+            }
+        }
+    }
+}
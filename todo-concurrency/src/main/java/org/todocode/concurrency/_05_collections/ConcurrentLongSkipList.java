@@ -0,0 +1,643 @@
+package org.todocode.concurrency._05_collections;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * [TodoCode] 原始 long 键的无锁跳表 (有序并发索引)
+ *
+ * <h3>背景:</h3>
+ * _05_collections 里只有哈希容器。订单簿 (按价格)、时间序列 (按时间戳) 需要有序的并发范围查询。
+ * ConcurrentSkipListMap&lt;Long, V&gt; 能做到，但每个 key 都是一个装箱的 Long，
+ * 每次比较都要拆箱、多一次指针跳转；查询参数也要先装箱。
+ * 这里沿用 ConcurrentSkipListMap 的无锁算法，只是把 key 换成了 long:
+ * - floor / ceiling 查找
+ * - 不复制数据的范围视图 (遍历时直接沿底层链表走)
+ * - 从有序数组批量构建，O(n) 且无 CAS
+ *
+ * <h3>易错点:</h3>
+ * 1. 删除分两步: 先把 value CAS 成 null (逻辑删除，这一刻就是删除的线性化点)，
+ *    再在它后面追加一个标记节点，最后把它从链表摘掉。
+ *    标记节点保证没有人能在"正在被摘除的节点"后面插入新节点，否则新节点会随之丢失。
+ * 2. 索引层只是加速结构，允许短暂地指向已删除的节点；遍历时顺手清理即可。
+ * 3. 范围视图是弱一致的: 能看到遍历开始后插入的、位于游标之后的节点，不会抛 ConcurrentModificationException。
+ *
+ * <h3>核心理解:</h3>
+ * 底层是一条有序的单链表 (正确性全在这里)，上面每层以 1/4 的概率抽样建立索引 (只影响速度)。
+ *
+ * TODO: 对比 floorValue 和 ConcurrentSkipListMap.floorEntry 在 -prof gc 下的分配。
+ */
+public class ConcurrentLongSkipList<V> {
+
+    private static final VarHandle HEAD;
+    private static final VarHandle NEXT;
+    private static final VarHandle VALUE;
+    private static final VarHandle RIGHT;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            HEAD = lookup.findVarHandle(ConcurrentLongSkipList.class, "head", Index.class);
+            NEXT = lookup.findVarHandle(Node.class, "next", Node.class);
+            VALUE = lookup.findVarHandle(Node.class, "value", Object.class);
+            RIGHT = lookup.findVarHandle(Index.class, "right", Index.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /** 头节点的 value，永不为 null，也就永远不会被当作已删除。 */
+    private static final Object BASE_HEADER = new Object();
+    /** 标记节点的 value: 表示前一个节点正在被摘除。 */
+    private static final Object MARKER = new Object();
+
+    private volatile Index head;
+    private final LongAdder count = new LongAdder();
+
+    public ConcurrentLongSkipList() {
+        this.head = new Index(new Node(0, BASE_HEADER, null), null, null);
+    }
+
+    static final class Node {
+        final long key;
+        volatile Object value; // null = 已删除, MARKER = 标记节点
+        volatile Node next;
+
+        Node(long key, Object value, Node next) {
+            this.key = key;
+            this.value = value;
+            this.next = next;
+        }
+
+        boolean isMarker() {
+            return value == MARKER;
+        }
+    }
+
+    static final class Index {
+        final Node node;
+        final Index down;
+        volatile Index right;
+
+        Index(Node node, Index down, Index right) {
+            this.node = node;
+            this.down = down;
+            this.right = right;
+        }
+    }
+
+    public record Entry<V>(long key, V value) {
+    }
+
+    @FunctionalInterface
+    public interface LongObjConsumer<V> {
+        void accept(long key, V value);
+    }
+
+    // ---------------------------------------------------------------- 查找
+
+    /**
+     * 返回底层链表中 key 严格小于给定 key 的某个节点 (或头节点)，顺手清理指向已删除节点的索引。
+     */
+    private Node findPredecessor(long key) {
+        Index q = head;
+        while (true) {
+            Index r;
+            while ((r = q.right) != null) {
+                Node p = r.node;
+                if (p.value == null) {
+                    RIGHT.compareAndSet(q, r, r.right);
+                } else if (key > p.key) {
+                    q = r;
+                } else {
+                    break;
+                }
+            }
+            if (q.down == null) {
+                return q.node;
+            }
+            q = q.down;
+        }
+    }
+
+    private Node findNode(long key) {
+        outer:
+        while (true) {
+            Node b = findPredecessor(key);
+            while (true) {
+                Node n = b.next;
+                if (n == null) {
+                    return null;
+                }
+                Object v = n.value;
+                if (v == MARKER) {
+                    continue outer; // b 正在被删除
+                }
+                if (v == null) {
+                    unlinkNode(b, n);
+                } else if (key > n.key) {
+                    b = n;
+                } else {
+                    return key == n.key ? n : null;
+                }
+            }
+        }
+    }
+
+    /**
+     * 第一个 key >= 给定 key 的活节点。
+     */
+    private Node ceilingNode(long key) {
+        outer:
+        while (true) {
+            Node b = findPredecessor(key);
+            while (true) {
+                Node n = b.next;
+                if (n == null) {
+                    return null;
+                }
+                Object v = n.value;
+                if (v == MARKER) {
+                    continue outer;
+                }
+                if (v == null) {
+                    unlinkNode(b, n);
+                } else if (key > n.key) {
+                    b = n;
+                } else {
+                    return n;
+                }
+            }
+        }
+    }
+
+    /**
+     * 最后一个 key <= 给定 key 的活节点。
+     */
+    private Node floorNode(long key) {
+        outer:
+        while (true) {
+            Node b = findPredecessor(key);
+            while (true) {
+                Node n = b.next;
+                Object v = n == null ? null : n.value;
+                if (n != null && v == MARKER) {
+                    continue outer;
+                }
+                if (n != null && v == null) {
+                    unlinkNode(b, n);
+                    continue;
+                }
+                if (n == null || n.key > key) {
+                    if (b.value == BASE_HEADER) {
+                        return null;
+                    }
+                    if (b.value == null) {
+                        continue outer; // b 刚被删除，重新找
+                    }
+                    return b;
+                }
+                b = n;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> V valueOf(Node node) {
+        if (node == null) {
+            return null;
+        }
+        Object v = node.value;
+        return v == MARKER ? null : (V) v;
+    }
+
+    public V get(long key) {
+        return valueOf(findNode(key));
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * 小于等于 key 的最大键对应的值，不存在时返回 null。不分配对象。
+     */
+    public V floorValue(long key) {
+        while (true) {
+            Node n = floorNode(key);
+            V v = valueOf(n);
+            if (n == null || v != null) {
+                return v;
+            }
+            // 找到后、读值前被删除了: 重新找
+        }
+    }
+
+    /**
+     * 大于等于 key 的最小键对应的值，不存在时返回 null。不分配对象。
+     */
+    public V ceilingValue(long key) {
+        while (true) {
+            Node n = ceilingNode(key);
+            V v = valueOf(n);
+            if (n == null || v != null) {
+                return v;
+            }
+        }
+    }
+
+    public Entry<V> floorEntry(long key) {
+        while (true) {
+            Node n = floorNode(key);
+            V v = valueOf(n);
+            if (n == null || v != null) {
+                return n == null ? null : new Entry<>(n.key, v);
+            }
+        }
+    }
+
+    public Entry<V> ceilingEntry(long key) {
+        while (true) {
+            Node n = ceilingNode(key);
+            V v = valueOf(n);
+            if (n == null || v != null) {
+                return n == null ? null : new Entry<>(n.key, v);
+            }
+        }
+    }
+
+    /**
+     * 元素个数。并发修改时只是近似值。
+     */
+    public int size() {
+        return count.intValue();
+    }
+
+    public boolean isEmpty() {
+        return ceilingNode(Long.MIN_VALUE) == null;
+    }
+
+    // ---------------------------------------------------------------- 修改
+
+    /**
+     * @return 旧值，不存在时返回 null
+     */
+    public V put(long key, V value) {
+        return doPut(key, value, false);
+    }
+
+    public V putIfAbsent(long key, V value) {
+        return doPut(key, value, true);
+    }
+
+    @SuppressWarnings("unchecked")
+    private V doPut(long key, V value, boolean onlyIfAbsent) {
+        if (value == null) {
+            throw new NullPointerException("value 不能为 null");
+        }
+        while (true) {
+            Index h = head;
+            int levels = 0; // 下降的层数，决定新索引最多能建几层
+            Index q = h;
+            Node b;
+            while (true) {
+                Index r;
+                while ((r = q.right) != null) {
+                    Node p = r.node;
+                    if (p.value == null) {
+                        RIGHT.compareAndSet(q, r, r.right);
+                    } else if (key > p.key) {
+                        q = r;
+                    } else {
+                        break;
+                    }
+                }
+                if (q.down == null) {
+                    b = q.node;
+                    break;
+                }
+                levels++;
+                q = q.down;
+            }
+
+            Node z = null;
+            while (true) { // 在底层链表中找插入点
+                Node n = b.next;
+                if (n != null) {
+                    Object v = n.value;
+                    if (v == MARKER) {
+                        break; // b 正在被删除，不能在它后面插入，从头再来
+                    }
+                    if (v == null) {
+                        unlinkNode(b, n);
+                        continue;
+                    }
+                    if (key > n.key) {
+                        b = n;
+                        continue;
+                    }
+                    if (key == n.key) {
+                        if (onlyIfAbsent || VALUE.compareAndSet(n, v, value)) {
+                            return (V) v;
+                        }
+                        continue; // value 被并发修改或删除，重读
+                    }
+                }
+                Node p = new Node(key, value, n); // 插在 b 和 n (或链表末尾) 之间
+                if (NEXT.compareAndSet(b, n, p)) {
+                    z = p;
+                    break;
+                }
+            }
+            if (z == null) {
+                continue;
+            }
+            count.increment();
+            addIndicesFor(z, h, levels);
+            return null;
+        }
+    }
+
+    /**
+     * 以 1/4 的概率为新节点建立索引，每多一层概率再乘 1/2 (和 ConcurrentSkipListMap 相同)。
+     */
+    private void addIndicesFor(Node z, Index h, int levels) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if ((random.nextInt() & 0x3) != 0) {
+            return;
+        }
+        long rnd = random.nextLong();
+        int skips = levels;
+        Index x = null;
+        while (true) {
+            x = new Index(z, x, null);
+            if (rnd >= 0L || --skips < 0) {
+                break;
+            }
+            rnd <<= 1;
+        }
+        if (addIndices(h, skips, x) && skips < 0 && head == h) { // 索引比当前层数还高: 加一层
+            Index hx = new Index(z, x, null);
+            Index nh = new Index(h.node, h, hx);
+            HEAD.compareAndSet(this, h, nh);
+        }
+        if (z.value == null) { // 建索引期间被删除了: 清理残留索引
+            findPredecessor(z.key);
+        }
+    }
+
+    /**
+     * 从 q 所在层开始，先下降 skips 层，再把索引塔 x 自上而下拼接进每一层。
+     */
+    private static boolean addIndices(Index q, int skips, Index x) {
+        if (x == null || q == null) {
+            return false;
+        }
+        long key = x.node.key;
+        boolean retrying = false;
+        while (true) {
+            Index r = q.right;
+            int c;
+            if (r != null) {
+                Node p = r.node;
+                if (p.value == null) {
+                    RIGHT.compareAndSet(q, r, r.right);
+                    c = 0;
+                } else if (key > p.key) {
+                    q = r;
+                    c = 1;
+                } else if (key == p.key) {
+                    return false; // 过期
+                } else {
+                    c = -1;
+                }
+            } else {
+                c = -1;
+            }
+            if (c < 0) {
+                Index d = q.down;
+                if (d != null && skips > 0) {
+                    --skips;
+                    q = d;
+                } else if (d != null && !retrying && !addIndices(d, 0, x.down)) {
+                    return false;
+                } else {
+                    x.right = r;
+                    if (RIGHT.compareAndSet(q, r, x)) {
+                        return true;
+                    }
+                    retrying = true; // 重新找拼接点
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 被删除的值，不存在时返回 null
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        outer:
+        while (true) {
+            Node b = findPredecessor(key);
+            while (true) {
+                Node n = b.next;
+                if (n == null) {
+                    return null;
+                }
+                Object v = n.value;
+                if (v == MARKER) {
+                    continue outer;
+                }
+                if (v == null) {
+                    unlinkNode(b, n);
+                } else if (key > n.key) {
+                    b = n;
+                } else if (key < n.key) {
+                    return null;
+                } else if (VALUE.compareAndSet(n, v, null)) { // 线性化点
+                    unlinkNode(b, n);
+                    count.decrement();
+                    findPredecessor(key); // 清理索引
+                    return (V) v;
+                }
+            }
+        }
+    }
+
+    /**
+     * 把已逻辑删除的 n 从 b 之后摘除: 先在 n 后面追加标记节点，再让 b 跳过 n 和标记。
+     */
+    private static void unlinkNode(Node b, Node n) {
+        Node f;
+        Node p;
+        while (true) {
+            f = n.next;
+            if (f != null && f.isMarker()) {
+                p = f.next; // 已经有标记了
+                break;
+            }
+            if (NEXT.compareAndSet(n, f, new Node(0, MARKER, f))) {
+                p = f;
+                break;
+            }
+        }
+        NEXT.compareAndSet(b, n, p);
+    }
+
+    // ---------------------------------------------------------------- 范围视图
+
+    /**
+     * [fromInclusive, toExclusive) 的视图，不复制数据，每次遍历都直接走底层链表。
+     */
+    public Range<V> range(long fromInclusive, long toExclusive) {
+        if (fromInclusive > toExclusive) {
+            throw new IllegalArgumentException("范围起点大于终点: " + fromInclusive + " > " + toExclusive);
+        }
+        return new Range<>(this, fromInclusive, toExclusive);
+    }
+
+    public static final class Range<V> {
+        private final ConcurrentLongSkipList<V> list;
+        private final long from;
+        private final long to;
+
+        private Range(ConcurrentLongSkipList<V> list, long from, long to) {
+            this.list = list;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * 弱一致遍历，不为每个元素分配对象。
+         */
+        public void forEach(LongObjConsumer<? super V> action) {
+            Cursor<V> cursor = cursor();
+            while (cursor.advance()) {
+                action.accept(cursor.key(), cursor.value());
+            }
+        }
+
+        public int count() {
+            int n = 0;
+            Cursor<V> cursor = cursor();
+            while (cursor.advance()) {
+                n++;
+            }
+            return n;
+        }
+
+        public Cursor<V> cursor() {
+            return new Cursor<>(list.ceilingNode(from), to);
+        }
+    }
+
+    /**
+     * 无分配的游标: advance() 成功后用 key()/value() 读取当前元素。
+     */
+    public static final class Cursor<V> {
+        private Node next;
+        private final long to;
+        private long key;
+        private V value;
+
+        private Cursor(Node first, long to) {
+            this.next = first;
+            this.to = to;
+        }
+
+        public boolean advance() {
+            for (Node n = next; n != null; n = n.next) {
+                if (n.key >= to && !n.isMarker()) {
+                    break;
+                }
+                V v = valueOf(n);
+                if (v != null) { // 跳过已删除节点和标记节点
+                    key = n.key;
+                    value = v;
+                    next = n.next;
+                    return true;
+                }
+            }
+            next = null;
+            return false;
+        }
+
+        public long key() {
+            if (value == null) {
+                throw new NoSuchElementException();
+            }
+            return key;
+        }
+
+        public V value() {
+            if (value == null) {
+                throw new NoSuchElementException();
+            }
+            return value;
+        }
+    }
+
+    // ---------------------------------------------------------------- 批量构建
+
+    /**
+     * 从严格递增的 key 数组批量构建。构建期间对象尚未发布，不需要任何 CAS，
+     * 索引按确定的间隔 (每 4 个节点一层) 建立，而不是随机抽样。
+     */
+    public static <V> ConcurrentLongSkipList<V> fromSorted(long[] keys, List<? extends V> values) {
+        if (keys.length != values.size()) {
+            throw new IllegalArgumentException("key 和 value 数量不一致: " + keys.length + " vs " + values.size());
+        }
+        ConcurrentLongSkipList<V> list = new ConcurrentLongSkipList<>();
+        Node header = list.head.node;
+        Node[] nodes = new Node[keys.length];
+        Node prev = header;
+        for (int i = 0; i < keys.length; i++) {
+            if (i > 0 && keys[i] <= keys[i - 1]) {
+                throw new IllegalArgumentException("key 必须严格递增: keys[" + i + "] = " + keys[i]);
+            }
+            Node node = new Node(keys[i], requireValue(values.get(i)), null);
+            prev.next = node;
+            prev = node;
+            nodes[i] = node;
+        }
+
+        Index headIndex = list.head; // 第 1 层索引的头
+        Index[] below = null; // 下一层中与节点对齐的索引，下标是节点下标
+        for (int stride = 4; stride <= keys.length; stride *= 4) {
+            Index[] level = new Index[keys.length];
+            Index tail = null;
+            Index first = null;
+            for (int i = stride - 1; i < keys.length; i += stride) {
+                Index idx = new Index(nodes[i], below == null ? null : below[i], null);
+                level[i] = idx;
+                if (tail == null) {
+                    first = idx;
+                } else {
+                    tail.right = idx;
+                }
+                tail = idx;
+            }
+            if (below == null) {
+                headIndex.right = first; // 最底层索引直接挂在初始头上
+            } else {
+                headIndex = new Index(header, headIndex, first);
+            }
+            below = level;
+        }
+        list.head = headIndex;
+        list.count.add(keys.length);
+        return list;
+    }
+
+    private static <V> V requireValue(V value) {
+        if (value == null) {
+            throw new NullPointerException("value 不能为 null");
+        }
+        return value;
+    }
+}
@@ -0,0 +1,251 @@
+package org.todocode.concurrency._05_collections;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * [TodoCode] 持久化向量 (32 叉字典树)
+ *
+ * <h3>背景:</h3>
+ * CopyOnWriteArrayList 每次写都复制整个数组，几千个元素的监听器/配置注册表上每次写都是 O(n)。
+ * 持久化向量是不可变的: 每次"修改"返回一个新版本，新旧版本共享绝大部分结构，
+ * 只复制从根到被修改叶子的一条路径 (每层 32 个槽位)，写入代价是 O(log32 n)，
+ * 100 万个元素也只有 4 层。
+ *
+ * <h3>易错点:</h3>
+ * 1. 最后不满 32 个的元素放在单独的 tail 数组里，追加只需复制 tail，
+ *    满 32 个才整体挂进树里。这让最常见的 append 几乎和 ArrayList 一样便宜。
+ * 2. 内部节点数组永远不能被修改，只能复制后修改副本，否则旧版本 (读者的快照) 会被破坏。
+ * 3. 随机删除中间元素需要整体平移，这里不提供；需要按 key 删除的注册表用 {@link PersistentHashMap}。
+ *
+ * <h3>核心理解:</h3>
+ * 不可变 + 结构共享 = 快照是 O(1) 的 (就是一个引用)，读者永远不需要加锁或复制。
+ *
+ * TODO: 索引 i 的元素在第几层、哪个槽位？(提示: 每层取 i 的 5 个二进制位)
+ */
+public final class PersistentVector<E> implements Iterable<E> {
+
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    private static final Object[] EMPTY_NODE = new Object[WIDTH];
+    private static final PersistentVector<?> EMPTY =
+            new PersistentVector<>(0, BITS, EMPTY_NODE, new Object[0]);
+
+    private final int size;
+    private final int shift;
+    private final Object[] root;
+    private final Object[] tail;
+
+    private PersistentVector(int size, int shift, Object[] root, Object[] tail) {
+        this.size = size;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <E> PersistentVector<E> empty() {
+        return (PersistentVector<E>) EMPTY;
+    }
+
+    @SafeVarargs
+    public static <E> PersistentVector<E> of(E... elements) {
+        PersistentVector<E> v = empty();
+        for (E e : elements) {
+            v = v.plus(e);
+        }
+        return v;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public E get(int index) {
+        Objects.checkIndex(index, size);
+        return (E) leafFor(index)[index & MASK];
+    }
+
+    /**
+     * 追加一个元素，返回新版本。
+     */
+    public PersistentVector<E> plus(E element) {
+        if (size - tailOffset() < WIDTH) { // tail 还有空位
+            Object[] newTail = Arrays.copyOf(tail, tail.length + 1);
+            newTail[tail.length] = element;
+            return new PersistentVector<>(size + 1, shift, root, newTail);
+        }
+        // tail 满了: 把它挂进树里，再开一个新 tail
+        Object[] newRoot;
+        int newShift = shift;
+        if ((size >>> BITS) > (1 << shift)) { // 根也满了: 树长高一层
+            newRoot = new Object[WIDTH];
+            newRoot[0] = root;
+            newRoot[1] = newPath(shift, tail);
+            newShift += BITS;
+        } else {
+            newRoot = pushTail(shift, root, tail);
+        }
+        return new PersistentVector<>(size + 1, newShift, newRoot, new Object[]{element});
+    }
+
+    /**
+     * 替换 index 处的元素，返回新版本。index == size 时等价于 plus。
+     */
+    public PersistentVector<E> with(int index, E element) {
+        if (index == size) {
+            return plus(element);
+        }
+        Objects.checkIndex(index, size);
+        if (index >= tailOffset()) {
+            Object[] newTail = tail.clone();
+            newTail[index & MASK] = element;
+            return new PersistentVector<>(size, shift, root, newTail);
+        }
+        return new PersistentVector<>(size, shift, assoc(shift, root, index, element), tail);
+    }
+
+    /**
+     * 去掉最后一个元素，返回新版本。
+     */
+    public PersistentVector<E> pop() {
+        if (size == 0) {
+            throw new IllegalStateException("空向量不能 pop");
+        }
+        if (size == 1) {
+            return empty();
+        }
+        if (size - tailOffset() > 1) {
+            return new PersistentVector<>(size - 1, shift, root, Arrays.copyOf(tail, tail.length - 1));
+        }
+        // tail 只剩一个元素: 把树里最后一个叶子取出来当新 tail
+        Object[] newTail = leafFor(size - 2);
+        Object[] newRoot = popTail(shift, root);
+        int newShift = shift;
+        if (newRoot == null) {
+            newRoot = EMPTY_NODE;
+        }
+        if (shift > BITS && newRoot[1] == null) { // 根只剩一个孩子: 树降低一层
+            newRoot = (Object[]) newRoot[0];
+            newShift -= BITS;
+        }
+        return new PersistentVector<>(size - 1, newShift, newRoot, newTail);
+    }
+
+    private int tailOffset() {
+        return size < WIDTH ? 0 : ((size - 1) >>> BITS) << BITS;
+    }
+
+    private Object[] leafFor(int index) {
+        if (index >= tailOffset()) {
+            return tail;
+        }
+        Object[] node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Object[]) node[(index >>> level) & MASK];
+        }
+        return node;
+    }
+
+    private Object[] pushTail(int level, Object[] parent, Object[] tailNode) {
+        int sub = ((size - 1) >>> level) & MASK;
+        Object[] copy = parent.clone(); // 只复制路径上的节点
+        Object[] toInsert;
+        if (level == BITS) {
+            toInsert = tailNode;
+        } else {
+            Object[] child = (Object[]) parent[sub];
+            toInsert = child != null ? pushTail(level - BITS, child, tailNode) : newPath(level - BITS, tailNode);
+        }
+        copy[sub] = toInsert;
+        return copy;
+    }
+
+    private static Object[] newPath(int level, Object[] node) {
+        if (level == 0) {
+            return node;
+        }
+        Object[] path = new Object[WIDTH];
+        path[0] = newPath(level - BITS, node);
+        return path;
+    }
+
+    private static Object[] assoc(int level, Object[] node, int index, Object element) {
+        Object[] copy = node.clone();
+        if (level == 0) {
+            copy[index & MASK] = element;
+        } else {
+            int sub = (index >>> level) & MASK;
+            copy[sub] = assoc(level - BITS, (Object[]) node[sub], index, element);
+        }
+        return copy;
+    }
+
+    private Object[] popTail(int level, Object[] node) {
+        int sub = ((size - 2) >>> level) & MASK;
+        if (level > BITS) {
+            Object[] newChild = popTail(level - BITS, (Object[]) node[sub]);
+            if (newChild == null && sub == 0) {
+                return null;
+            }
+            Object[] copy = node.clone();
+            copy[sub] = newChild;
+            return copy;
+        }
+        if (sub == 0) {
+            return null;
+        }
+        Object[] copy = node.clone();
+        copy[sub] = null;
+        return copy;
+    }
+
+    /**
+     * 按叶子遍历: 每 32 个元素才下降一次树。
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return new Iterator<>() {
+            private int index;
+            private Object[] leaf;
+
+            @Override
+            public boolean hasNext() {
+                return index < size;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public E next() {
+                if (index >= size) {
+                    throw new NoSuchElementException();
+                }
+                if ((index & MASK) == 0 || leaf == null) {
+                    leaf = leafFor(index);
+                }
+                return (E) leaf[index++ & MASK];
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (E e : this) {
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+            sb.append(e);
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -0,0 +1,63 @@
+package org.todocode.concurrency._05_collections;
+
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+/**
+ * [TodoCode] 基于持久化向量的快照列表 (CopyOnWriteArrayList 的替代)
+ *
+ * <h3>背景:</h3>
+ * 和 CopyOnWriteArrayList 一样: 读者无锁、遍历看到的是一致的快照。
+ * 不同的是写入不复制整个数组，而是生成一个共享结构的新 {@link PersistentVector}，
+ * 再通过 AtomicReference 的 CAS 发布，写入是 O(log32 n) 而不是 O(n)。
+ *
+ * <h3>易错点:</h3>
+ * 1. 写入通过 updateAndGet 完成，CAS 失败时更新函数会被重新执行，所以它必须是无副作用的。
+ * 2. 单次读比 CopyOnWriteArrayList 多几次指针跳转 (树的层数)，
+ *    写极少、读极多且列表很短时，CopyOnWriteArrayList 仍然更快。
+ *
+ * <h3>核心理解:</h3>
+ * 可变的只有一个引用，被引用的数据结构永远不变，快照就是把引用读出来。
+ *
+ * TODO: 多个写线程激烈竞争时 CAS 重试会重复构建路径，什么时候应该退回到加锁写？
+ */
+public class SnapshotList<E> implements Iterable<E> {
+
+    private final AtomicReference<PersistentVector<E>> ref = new AtomicReference<>(PersistentVector.empty());
+
+    public void add(E element) {
+        ref.updateAndGet(v -> v.plus(element));
+    }
+
+    public void set(int index, E element) {
+        ref.updateAndGet(v -> v.with(index, element));
+    }
+
+    /**
+     * 原子地应用一个复合修改 (例如"不存在才追加")。
+     */
+    public PersistentVector<E> update(UnaryOperator<PersistentVector<E>> fn) {
+        return ref.updateAndGet(fn);
+    }
+
+    public E get(int index) {
+        return ref.get().get(index);
+    }
+
+    public int size() {
+        return ref.get().size();
+    }
+
+    /**
+     * O(1) 快照: 之后的写入不会影响它。
+     */
+    public PersistentVector<E> snapshot() {
+        return ref.get();
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return ref.get().iterator();
+    }
+}
@@ -0,0 +1,78 @@
+package org.todocode.concurrency._05_collections;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * [TodoCode] 基于 HAMT 的快照映射 (监听器/配置注册表)
+ *
+ * <h3>背景:</h3>
+ * 注册表的典型访问模式: 启动时注册几千项，运行时每个请求都要遍历或查找，偶尔增删一项。
+ * 用 ConcurrentHashMap 时遍历不是快照 (可能看到一半的更新)；用写时复制的 HashMap 每次写都是 O(n)。
+ * 这里用 {@link PersistentHashMap} + AtomicReference: 读者拿到一个一致的快照，写入 O(log32 n)。
+ *
+ * <h3>易错点:</h3>
+ * 多个 key 需要一起修改时 (例如整体替换一组配置)，用 update 在一次 CAS 里完成，
+ * 不要连续调用 put，否则读者可能看到中间状态。
+ *
+ * <h3>核心理解:</h3>
+ * 一次 CAS 发布一个新版本，所有读者要么看到旧版本，要么看到新版本。
+ *
+ * TODO: 给 update 加上版本号，实现配置的"比较并替换"语义。
+ */
+public class SnapshotMap<K, V> {
+
+    private final AtomicReference<PersistentHashMap<K, V>> ref = new AtomicReference<>(PersistentHashMap.empty());
+
+    /**
+     * @return 旧值，不存在时返回 null
+     */
+    public V put(K key, V value) {
+        while (true) {
+            PersistentHashMap<K, V> current = ref.get();
+            if (ref.compareAndSet(current, current.plus(key, value))) {
+                return current.get(key);
+            }
+        }
+    }
+
+    /**
+     * @return 被删除的值，不存在时返回 null
+     */
+    public V remove(K key) {
+        while (true) {
+            PersistentHashMap<K, V> current = ref.get();
+            V old = current.get(key);
+            if (old == null || ref.compareAndSet(current, current.minus(key))) {
+                return old;
+            }
+        }
+    }
+
+    /**
+     * 原子地应用一个复合修改。CAS 失败时 fn 会被重新执行，必须无副作用。
+     */
+    public PersistentHashMap<K, V> update(UnaryOperator<PersistentHashMap<K, V>> fn) {
+        return ref.updateAndGet(fn);
+    }
+
+    public V get(K key) {
+        return ref.get().get(key);
+    }
+
+    public int size() {
+        return ref.get().size();
+    }
+
+    /**
+     * O(1) 快照: 之后的写入不会影响它。
+     */
+    public PersistentHashMap<K, V> snapshot() {
+        return ref.get();
+    }
+
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        ref.get().forEach(action);
+    }
+}
@@ -0,0 +1,298 @@
+package org.todocode.concurrency._06_executors;
+
+import java.lang.ref.WeakReference;
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * [TodoCode] 自适应线程池 - 按排队延迟自动调整线程数
+ *
+ * <h3>背景:</h3>
+ * ThreadPoolDemo.createProperThreadPool 的 core=2、max=5 是拍脑袋写死的:
+ * 负载低时线程闲着，负载高时任务在队列里排队，队列满后 CallerRunsPolicy
+ * 又把任务塞回调用方线程执行，调用方 (例如 Tomcat 请求线程) 的延迟跟着飙升。
+ * 这个线程池周期性地采样"到达率、执行时间、排队延迟、吞吐量"，在运行时调整线程数，
+ * 过载时快速失败 (fast-fail) 而不是拖慢调用方。
+ *
+ * <h3>易错点:</h3>
+ * 1. 调整大小的顺序: 扩容先调 max 再调 core，缩容先调 core 再调 max，
+ *    否则会短暂出现 core > max 而抛 IllegalArgumentException。
+ * 2. 线程数不是越多越好: CPU 密集的任务加线程只会增加上下文切换。
+ *    爬山法检查上一次扩容是否真的带来了吞吐提升，没有就停止扩容。
+ * 3. 任务被包装过，shutdownNow() 返回的是包装后的 Runnable，remove(Runnable) 也找不到原任务。
+ * 4. scheduleAtFixedRate 的任务一旦抛出异常，之后的执行会被静默取消，线程池从此停止调优。
+ *    所以调优逻辑整体包在 try/catch 里，失败只计数 (getTunerFailures)。
+ * 5. 调优线程是 GC root，定时任务如果强引用线程池，忘了 shutdown 的线程池就永远回收不掉。
+ *    所以定时任务只弱引用线程池，线程池被回收后它关掉自己的调度线程；
+ *    空闲的核心线程同样会引用线程池，因此也允许核心线程空闲超时退出。
+ *    所有线程都是守护线程，不会阻止 JVM 退出。正常用法仍然是用完调用 shutdown()，调优线程随线程池终止一起停止。
+ *
+ * <h3>核心理解:</h3>
+ * Little 定律: 需要的并发数 L = 到达率 λ × 平均执行时间 W。
+ * - 排队延迟超过目标: 按 L 扩容，至少 +1 (类似 TCP Vegas 看到 RTT 变大就调整窗口)
+ * - 排队延迟低于目标: 逐步缩回 L，每次最多缩 25%，避免震荡
+ * - 预估排队延迟超过上限: 直接拒绝，让调用方立刻知道并降级
+ *
+ * TODO: 如果任务执行时间本身随并发数增加而变长 (例如共享同一个数据库)，Little 定律的估计会怎样偏差？
+ */
+public class AdaptiveThreadPool extends ThreadPoolExecutor {
+
+    /** 扩容时在 Little 定律估计上留的余量。 */
+    private static final double HEADROOM = 1.2;
+    /** EWMA 平滑系数，越大越跟随最新样本。 */
+    private static final double ALPHA = 0.5;
+    /** 爬山法: 扩容后吞吐提升低于这个比例视为没有收益。 */
+    private static final double MIN_GAIN = 1.05;
+
+    private final int minThreads;
+    private final int maxThreads;
+    private final long targetQueueDelayNanos;
+    private final long maxQueueDelayNanos;
+    private final ScheduledExecutorService tuner;
+
+    private final LongAdder arrivals = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder queueDelaySum = new LongAdder();
+    private final LongAdder executionSum = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder tunerFailures = new LongAdder();
+
+    // 以下字段只由调优线程写入
+    private volatile long avgExecutionNanos;
+    private volatile long avgQueueDelayNanos;
+    private volatile double throughput;
+    private long lastTickNanos = System.nanoTime();
+    private int lastDirection;
+
+    /**
+     * @param minThreads       线程数下限
+     * @param maxThreads       线程数上限
+     * @param queueCapacity    有界队列容量 (最后一道防线)
+     * @param targetQueueDelay 期望的排队延迟，超过则扩容
+     * @param maxQueueDelay    预估排队延迟超过它时直接拒绝新任务
+     * @param sampleInterval   调优周期
+     */
+    public AdaptiveThreadPool(String name, int minThreads, int maxThreads, int queueCapacity,
+                              Duration targetQueueDelay, Duration maxQueueDelay, Duration sampleInterval) {
+        super(minThreads, minThreads, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                namedThreads(name + "-worker-"),
+                new FastFailPolicy());
+        if (minThreads <= 0 || maxThreads < minThreads) {
+            throw new IllegalArgumentException("需要 0 < minThreads <= maxThreads: " + minThreads + ", " + maxThreads);
+        }
+        this.minThreads = minThreads;
+        this.maxThreads = maxThreads;
+        this.targetQueueDelayNanos = targetQueueDelay.toNanos();
+        this.maxQueueDelayNanos = maxQueueDelay.toNanos();
+        allowCoreThreadTimeOut(true); // 空闲的核心线程也会退出，没人用的线程池才能被回收
+
+        this.tuner = Executors.newSingleThreadScheduledExecutor(namedThreads(name + "-tuner-"));
+        long period = sampleInterval.toNanos();
+        tuner.scheduleAtFixedRate(new Tuner(this, tuner), period, period, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 只弱引用线程池的定时任务: 线程池被回收后关掉调度线程，而不是让调度线程把线程池一直留在内存里。
+     */
+    private static final class Tuner implements Runnable {
+        private final WeakReference<AdaptiveThreadPool> pool;
+        private final ScheduledExecutorService scheduler;
+
+        Tuner(AdaptiveThreadPool pool, ScheduledExecutorService scheduler) {
+            this.pool = new WeakReference<>(pool);
+            this.scheduler = scheduler;
+        }
+
+        @Override
+        public void run() {
+            AdaptiveThreadPool target = pool.get();
+            if (target == null) {
+                scheduler.shutdown();
+                return;
+            }
+            target.tick();
+        }
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + counter.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * 快速失败: 计数后立即抛出异常，绝不在调用方线程上执行任务。
+     */
+    public static class FastFailPolicy implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (executor instanceof AdaptiveThreadPool pool) {
+                pool.rejected.increment();
+            }
+            throw new RejectedExecutionException("线程池过载，任务被快速拒绝: " + executor);
+        }
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        arrivals.increment(); // 被拒绝的任务也是需求，计入到达率
+        if (!isShutdown() && estimatedQueueDelayNanos() > maxQueueDelayNanos) {
+            getRejectedExecutionHandler().rejectedExecution(command, this);
+            return;
+        }
+        super.execute(new TimedTask(command, System.nanoTime()));
+    }
+
+    /**
+     * 新任务如果现在入队，预计要排多久: 队列长度 × 平均执行时间 / 线程数。
+     */
+    public long estimatedQueueDelayNanos() {
+        return getQueue().size() * avgExecutionNanos / Math.max(1, getPoolSize());
+    }
+
+    /**
+     * 记录入队时间的包装，执行时顺便统计排队延迟和执行时间。
+     */
+    private final class TimedTask implements Runnable {
+        private final Runnable task;
+        private final long enqueuedAt;
+
+        TimedTask(Runnable task, long enqueuedAt) {
+            this.task = task;
+            this.enqueuedAt = enqueuedAt;
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            queueDelaySum.add(start - enqueuedAt);
+            try {
+                task.run();
+            } finally {
+                executionSum.add(System.nanoTime() - start);
+                completed.increment();
+            }
+        }
+    }
+
+    /**
+     * 调优周期的入口: 任何异常都不能逃出去，否则定时任务被取消。
+     */
+    private void tick() {
+        try {
+            adjust();
+        } catch (Throwable t) {
+            tunerFailures.increment();
+        }
+    }
+
+    /**
+     * 一次调优: 采样 -> 估计需要的并发数 -> 调整 core/max。
+     */
+    private void adjust() {
+        long now = System.nanoTime();
+        double seconds = (now - lastTickNanos) / 1e9;
+        lastTickNanos = now;
+
+        long done = completed.sumThenReset();
+        long queueDelay = queueDelaySum.sumThenReset();
+        long execution = executionSum.sumThenReset();
+        double arrivalRate = arrivals.sumThenReset() / seconds;
+        double lastThroughput = throughput;
+        throughput = done / seconds;
+
+        if (done > 0) {
+            avgExecutionNanos = ewma(avgExecutionNanos, execution / done);
+            avgQueueDelayNanos = ewma(avgQueueDelayNanos, queueDelay / done);
+        } else if (getQueue().isEmpty()) {
+            avgQueueDelayNanos = ewma(avgQueueDelayNanos, 0); // 空闲时让排队延迟衰减
+        }
+
+        int current = getCorePoolSize();
+        int littles = (int) Math.ceil(arrivalRate * avgExecutionNanos / 1e9 * HEADROOM);
+        int target;
+        if (avgQueueDelayNanos > targetQueueDelayNanos) {
+            target = Math.max(littles, current + 1);
+            if (lastDirection > 0 && throughput < lastThroughput * MIN_GAIN) {
+                target = current; // 上次扩容没有换来吞吐: 瓶颈不在线程数，这一轮按兵不动
+            }
+        } else {
+            target = Math.max(littles, current - Math.max(1, current / 4));
+            target = Math.min(target, current); // 延迟达标时只缩不扩
+        }
+        target = Math.clamp(target, minThreads, maxThreads);
+
+        lastDirection = Integer.compare(target, current);
+        resize(target);
+    }
+
+    private static long ewma(long previous, long sample) {
+        return previous == 0 ? sample : (long) (ALPHA * sample + (1 - ALPHA) * previous);
+    }
+
+    private void resize(int size) {
+        int current = getCorePoolSize();
+        if (size > current) {
+            setMaximumPoolSize(size);
+            setCorePoolSize(size); // 有排队任务时会立即启动新线程
+        } else if (size < current) {
+            setCorePoolSize(size);
+            setMaximumPoolSize(size); // 多余的线程在下一次空闲时退出
+        }
+    }
+
+    @Override
+    protected void terminated() {
+        tuner.shutdownNow();
+        super.terminated();
+    }
+
+    /**
+     * 当前线程数上限 (core == max)。
+     */
+    public int getCurrentLimit() {
+        return getCorePoolSize();
+    }
+
+    public Duration getAverageQueueDelay() {
+        return Duration.ofNanos(avgQueueDelayNanos);
+    }
+
+    public Duration getAverageExecutionTime() {
+        return Duration.ofNanos(avgExecutionNanos);
+    }
+
+    /**
+     * 最近一个调优周期的每秒完成任务数。
+     */
+    public double getThroughput() {
+        return throughput;
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * 调优过程中抛出异常的次数，不为 0 说明调优逻辑有缺陷。
+     */
+    public long getTunerFailures() {
+        return tunerFailures.sum();
+    }
+}
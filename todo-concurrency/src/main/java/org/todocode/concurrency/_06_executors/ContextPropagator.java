@@ -0,0 +1,120 @@
+package org.todocode.concurrency._06_executors;
+
+import org.slf4j.MDC;
+
+import java.util.Map;
+
+/**
+ * [TodoCode] 跨线程传递上下文 (MDC / trace id)
+ *
+ * <h3>背景:</h3>
+ * MDC 基于 ThreadLocal，任务一旦提交到线程池，日志里的 traceId 就丢了。
+ * 提交时在调用方线程 capture，执行前在工作线程 restore，执行后 reset 回原值。
+ *
+ * <h3>易错点:</h3>
+ * 1. 执行完必须恢复工作线程原来的上下文，否则上一个任务的 traceId 会"漏"到下一个任务。
+ * 2. {@link #mdc()} 复制整个 MDC Map，每个任务多一次分配；
+ *    只需要 traceId 时用 {@link #mdcKey(String)}，capture 只是读一个已有的 String。
+ *
+ * <h3>核心理解:</h3>
+ * capture 在提交线程上运行，restore/reset 成对地在工作线程上运行。
+ */
+public interface ContextPropagator {
+
+    /**
+     * 在提交任务的线程上抓取上下文快照。
+     */
+    Object capture();
+
+    /**
+     * 在工作线程上安装快照，返回工作线程原来的上下文。
+     */
+    Object restore(Object captured);
+
+    /**
+     * 任务执行完后把工作线程的上下文恢复为 restore 的返回值。
+     */
+    void reset(Object previous);
+
+    /** 不传递任何上下文。 */
+    ContextPropagator NONE = new ContextPropagator() {
+        @Override
+        public Object capture() {
+            return null;
+        }
+
+        @Override
+        public Object restore(Object captured) {
+            return null;
+        }
+
+        @Override
+        public void reset(Object previous) {
+        }
+    };
+
+    /**
+     * 只传递 MDC 中的一个键 (例如 traceId)，capture 不分配内存。
+     */
+    static ContextPropagator mdcKey(String key) {
+        return new ContextPropagator() {
+            @Override
+            public Object capture() {
+                return MDC.get(key);
+            }
+
+            @Override
+            public Object restore(Object captured) {
+                String previous = MDC.get(key);
+                put(captured);
+                return previous;
+            }
+
+            @Override
+            public void reset(Object previous) {
+                put(previous);
+            }
+
+            private void put(Object value) {
+                if (value == null) {
+                    MDC.remove(key);
+                } else {
+                    MDC.put(key, (String) value);
+                }
+            }
+        };
+    }
+
+    /**
+     * 传递整个 MDC。每次 capture 复制一份 Map。
+     */
+    static ContextPropagator mdc() {
+        return new ContextPropagator() {
+            @Override
+            public Object capture() {
+                return MDC.getCopyOfContextMap();
+            }
+
+            @Override
+            public Object restore(Object captured) {
+                Map<String, String> previous = MDC.getCopyOfContextMap();
+                set(captured);
+                return previous;
+            }
+
+            @Override
+            public void reset(Object previous) {
+                set(previous);
+            }
+
+            @SuppressWarnings("unchecked")
+            private void set(Object context) {
+                if (context == null) {
+                    MDC.clear();
+                } else {
+                    MDC.setContextMap((Map<String, String>) context);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,250 @@
+package org.todocode.concurrency._06_executors;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * [TodoCode] 带指标的 ExecutorService 装饰器
+ *
+ * <h3>背景:</h3>
+ * ThreadPoolDemo 的线程池什么都不暴露，shutdownGracefully 也只是打印丢弃了多少任务。
+ * 线上出问题时我们想知道: 任务排了多久队？执行了多久？有几个线程在忙？
+ * 队列积压多少？被哪个拒绝策略拒绝了多少次？
+ * 这个装饰器把这些都注册为 Micrometer 指标 (引入 actuator 后可以从 /actuator/metrics 查看)，
+ * 并把 MDC/traceId 跨线程传递给任务。
+ *
+ * <h3>易错点:</h3>
+ * 1. 每个任务只额外分配一个"时间戳持有者": submit 时它就是返回给调用方的 FutureTask 本身
+ *    (重写 newTaskFor)，execute 时是一个只有三个字段的小包装。
+ * 2. 拒绝计数要在 ThreadPoolExecutor 的 RejectedExecutionHandler 里做，
+ *    这样 CallerRunsPolicy 这类"不抛异常"的拒绝也能被统计到。
+ *    线程池是调用方的对象，装饰器不能改变它的行为: 原来的 handler 被包进 {@link CountingRejectionHandler}，
+ *    先计数、再原样委托给它，拒绝策略的效果不变，原 handler 可以用 {@link CountingRejectionHandler#delegate()} 取回。
+ *    之后调用方再 setRejectedExecutionHandler 会把计数包装一起换掉，拒绝就不再计数。
+ * 3. 活跃线程数和队列深度是 Gauge，只在被抓取时读取，不在任务路径上维护计数器。
+ *
+ * <h3>核心理解:</h3>
+ * 排队时间 = 开始执行 - 提交；执行时间 = 结束 - 开始。
+ * 排队时间升高说明线程不够，执行时间升高说明下游变慢，两者要分开看。
+ *
+ * TODO: 把 createProperThreadPool 包一层后压测，CallerRunsPolicy 触发时排队时间会怎样？
+ */
+public class InstrumentedExecutorService extends AbstractExecutorService {
+
+    private final ExecutorService delegate;
+    private final ContextPropagator propagator;
+    private final Timer queueWait;
+    private final Timer execution;
+    private final Counter rejections;
+    private final Counter dropped;
+
+    /**
+     * 先计数、再委托给线程池原来的 handler 的拒绝策略包装。
+     * 委托时传入的是本装饰器包装过的任务，CallerRunsPolicy 在调用方线程执行它时照样记录时间、传递上下文。
+     */
+    public static final class CountingRejectionHandler implements RejectedExecutionHandler {
+        private final RejectedExecutionHandler delegate;
+        private final Counter rejections;
+
+        CountingRejectionHandler(RejectedExecutionHandler delegate, Counter rejections) {
+            this.delegate = Objects.requireNonNull(delegate);
+            this.rejections = rejections;
+        }
+
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            rejections.increment();
+            delegate.rejectedExecution(r, executor);
+        }
+
+        /**
+         * 被包装的原 handler。
+         */
+        public RejectedExecutionHandler delegate() {
+            return delegate;
+        }
+    }
+
+    /**
+     * delegate 是 ThreadPoolExecutor 时，它的 RejectedExecutionHandler 会被换成
+     * 包装了原 handler 的 {@link CountingRejectionHandler}: 拒绝的效果不变，只是多计一次数。
+     */
+    public InstrumentedExecutorService(String name, ExecutorService delegate, MeterRegistry registry,
+                                       ContextPropagator propagator) {
+        this.delegate = Objects.requireNonNull(delegate);
+        this.propagator = Objects.requireNonNull(propagator);
+
+        this.queueWait = Timer.builder("todocode.executor.queue.wait")
+                .description("任务从提交到开始执行的时间")
+                .tag("name", name)
+                .register(registry);
+        this.execution = Timer.builder("todocode.executor.execution")
+                .description("任务执行时间")
+                .tag("name", name)
+                .register(registry);
+        this.dropped = Counter.builder("todocode.executor.dropped")
+                .description("shutdownNow 时丢弃的任务数")
+                .tag("name", name)
+                .register(registry);
+
+        String policy = delegate instanceof ThreadPoolExecutor pool
+                ? policyName(pool.getRejectedExecutionHandler())
+                : "RejectedExecutionException";
+        this.rejections = Counter.builder("todocode.executor.rejected")
+                .description("被拒绝的任务数")
+                .tags("name", name, "policy", policy)
+                .register(registry);
+
+        if (delegate instanceof ThreadPoolExecutor pool) {
+            Gauge.builder("todocode.executor.active", pool, ThreadPoolExecutor::getActiveCount)
+                    .description("正在执行任务的线程数")
+                    .tag("name", name)
+                    .register(registry);
+            Gauge.builder("todocode.executor.pool.size", pool, ThreadPoolExecutor::getPoolSize)
+                    .tag("name", name)
+                    .register(registry);
+            Gauge.builder("todocode.executor.queue.depth", pool, p -> p.getQueue().size())
+                    .description("队列中等待的任务数")
+                    .tag("name", name)
+                    .register(registry);
+            pool.setRejectedExecutionHandler(new CountingRejectionHandler(pool.getRejectedExecutionHandler(), rejections));
+        }
+    }
+
+    /**
+     * 同一个线程池被装饰了多次时，policy 标签用最里面的原 handler 的名字。
+     */
+    private static String policyName(RejectedExecutionHandler handler) {
+        while (handler instanceof CountingRejectionHandler counting) {
+            handler = counting.delegate();
+        }
+        return handler.getClass().getSimpleName();
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        return new TimedFutureTask<>(callable);
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+        return new TimedFutureTask<>(runnable, value);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        Runnable task = command instanceof TimedFutureTask<?> ? command : new TimedRunnable(command);
+        try {
+            delegate.execute(task);
+        } catch (RejectedExecutionException e) {
+            if (!(delegate instanceof ThreadPoolExecutor)) {
+                rejections.increment(); // ThreadPoolExecutor 的拒绝已经在 handler 里计数
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * submit 返回的 Future 本身兼做时间戳持有者。
+     */
+    private final class TimedFutureTask<V> extends FutureTask<V> {
+        private final long submittedAt = System.nanoTime();
+        private final Object context = propagator.capture();
+
+        TimedFutureTask(Callable<V> callable) {
+            super(callable);
+        }
+
+        TimedFutureTask(Runnable runnable, V value) {
+            super(runnable, value);
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            queueWait.record(start - submittedAt, TimeUnit.NANOSECONDS);
+            Object previous = propagator.restore(context);
+            try {
+                super.run();
+            } finally {
+                propagator.reset(previous);
+                execution.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    /**
+     * execute 提交的普通 Runnable 的包装，异常照常抛给工作线程。
+     */
+    private final class TimedRunnable implements Runnable {
+        private final Runnable task;
+        private final long submittedAt = System.nanoTime();
+        private final Object context = propagator.capture();
+
+        TimedRunnable(Runnable task) {
+            this.task = Objects.requireNonNull(task);
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            queueWait.record(start - submittedAt, TimeUnit.NANOSECONDS);
+            Object previous = propagator.restore(context);
+            try {
+                task.run();
+            } finally {
+                propagator.reset(previous);
+                execution.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
+    /**
+     * 返回未执行的原始任务，并计入 dropped 指标。
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        List<Runnable> pending = delegate.shutdownNow();
+        dropped.increment(pending.size());
+        List<Runnable> unwrapped = new ArrayList<>(pending.size());
+        for (Runnable r : pending) {
+            unwrapped.add(r instanceof TimedRunnable timed ? timed.task : r);
+        }
+        return unwrapped;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return delegate.awaitTermination(timeout, unit);
+    }
+}
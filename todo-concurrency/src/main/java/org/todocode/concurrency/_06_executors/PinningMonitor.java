@@ -0,0 +1,106 @@
+package org.todocode.concurrency._06_executors;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * [TodoCode] 虚拟线程钉住 (pinning) 监控
+ *
+ * <h3>背景:</h3>
+ * 虚拟线程阻塞时会从载体线程上卸载，但如果此时栈上有本地方法帧 (或 JDK 24 之前的
+ * synchronized 块)，它就被"钉"在载体线程上，载体线程也跟着阻塞。
+ * 载体线程只有 CPU 核数个，钉住几个就足以让整个虚拟线程调度器停摆。
+ * JVM 会发出 jdk.VirtualThreadPinned 事件，这里用 JFR 事件流把它转成 Micrometer 指标。
+ *
+ * <h3>易错点:</h3>
+ * 1. 事件只在"钉住且阻塞时间超过阈值"时发出，阈值设太低会产生大量噪音。
+ * 2. JFR 事件流是异步批量投递的 (大约每秒一次)，指标会有秒级延迟。
+ * 3. JDK 24 起 synchronized 不再钉住虚拟线程 (JEP 491)，剩下的主要来源是
+ *    本地方法帧和类初始化中的阻塞。
+ *
+ * <h3>核心理解:</h3>
+ * 计数器告诉你"有没有"，按栈顶帧聚合的热点表告诉你"在哪里"。
+ *
+ * TODO: 把 VirtualThreadExecutor 的任务放进 synchronized 块再 sleep，对比 JDK 21 和 25 的计数。
+ */
+public class PinningMonitor implements AutoCloseable {
+
+    public static final String EVENT_NAME = "jdk.VirtualThreadPinned";
+
+    private final RecordingStream stream;
+    private final Counter pinnedCount;
+    private final Timer pinnedDuration;
+    private final Map<String, LongAdder> pinnedSites = new ConcurrentHashMap<>();
+
+    /**
+     * @param threshold 只记录钉住时间不短于该阈值的事件
+     */
+    public PinningMonitor(MeterRegistry registry, Duration threshold) {
+        this.pinnedCount = Counter.builder("todocode.vthread.pinned")
+                .description("虚拟线程被钉住在载体线程上的次数")
+                .register(registry);
+        this.pinnedDuration = Timer.builder("todocode.vthread.pinned.duration")
+                .description("虚拟线程被钉住的时长")
+                .register(registry);
+
+        this.stream = new RecordingStream();
+        stream.enable(EVENT_NAME).withThreshold(threshold).withStackTrace();
+        stream.onEvent(EVENT_NAME, this::onPinned);
+        stream.startAsync();
+    }
+
+    private void onPinned(RecordedEvent event) {
+        // 计数器最后更新: 读到计数的人一定也能看到对应的调用位置
+        pinnedSites.computeIfAbsent(topFrame(event), k -> new LongAdder()).increment();
+        pinnedDuration.record(event.getDuration());
+        pinnedCount.increment();
+    }
+
+    private static String topFrame(RecordedEvent event) {
+        RecordedStackTrace stackTrace = event.getStackTrace();
+        if (stackTrace == null) {
+            return "unknown";
+        }
+        // 跳过 JDK 内部的 park/sleep 帧，找到第一个应用代码帧
+        for (RecordedFrame frame : stackTrace.getFrames()) {
+            String type = frame.getMethod().getType().getName();
+            if (!type.startsWith("java.") && !type.startsWith("jdk.") && !type.startsWith("sun.")) {
+                return type + "." + frame.getMethod().getName() + ":" + frame.getLineNumber();
+            }
+        }
+        return "jdk-internal";
+    }
+
+    public long pinnedCount() {
+        return (long) pinnedCount.count();
+    }
+
+    /**
+     * 钉住次数最多的调用位置。
+     */
+    public Map<String, Long> topPinnedSites(int limit) {
+        Map<String, Long> top = new LinkedHashMap<>();
+        pinnedSites.entrySet().stream()
+                .sorted(Comparator.comparingLong((Map.Entry<String, LongAdder> e) -> e.getValue().sum()).reversed())
+                .limit(limit)
+                .forEach(e -> top.put(e.getKey(), e.getValue().sum()));
+        return top;
+    }
+
+    @Override
+    public void close() {
+        stream.close();
+    }
+}
@@ -0,0 +1,376 @@
+package org.todocode.concurrency._06_executors;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * [TodoCode] 按优先级和截止时间调度的执行器
+ *
+ * <h3>背景:</h3>
+ * _06_executors 里的线程池都是 FIFO: 一次批量导入提交了 1 万个任务之后，
+ * 用户点击触发的交互请求只能排在它们后面。这个执行器:
+ * - 把任务分成几个优先级类别，高优先级类别总是先被取走
+ * - 同一类别内按截止时间最早优先 (EDF)
+ * - 已经过了截止时间的任务在运行前直接丢弃 (调用方早就超时了，跑了也白跑)
+ * - 低优先级任务等待太久会被"老化"提升一级，避免饿死
+ * - 按类别记录端到端延迟的分位数 (p50/p95/p99)
+ *
+ * <h3>易错点:</h3>
+ * 1. PriorityQueue 的比较器必须是静态的: 如果排序键随时间变化 (例如"等待越久优先级越高")，
+ *    堆的不变式会被破坏。所以老化不是改比较器，而是在出队时把到期的任务搬到上一级的堆里。
+ * 2. 提升时保留已经等待的时间，否则等了很久的批量任务每升一级都要重新计时。
+ * 3. 老化要按"进入本类别的时间"判断，不能只看 EDF 堆顶: 截止时间很远的批量任务永远到不了堆顶，
+ *    只要不断有截止时间更近的批量任务进来，它就永远得不到提升。
+ *    所以每个类别另有一个按进入时间排序的堆，两个堆都用惰性删除:
+ *    任务被取走或提升后，留在旧堆里的条目在到达堆顶时才丢弃，堆里的废条目过多时整体清理一次。
+ * 4. 截止时间是 System.nanoTime() 上的绝对值，now + 相对时间会溢出: 几百年的 Duration 连 toNanos() 都会抛异常，
+ *    接近 Long.MAX_VALUE 的纳秒数加上去会变成负数，任务变成"早已过期"被丢弃。
+ *    所以相对时间截断到 Long.MAX_VALUE / 2 (约 146 年)，截止时间之间只按差值比较，不直接比较绝对值。
+ * 5. 工作线程是守护线程，忘了关闭的执行器不会阻止 JVM 退出；但线程会一直阻塞在队列上，
+ *    执行器也不会被回收，所以用完仍然要调用 shutdown() 或 close()。
+ *
+ * <h3>核心理解:</h3>
+ * 静态的比较键 (截止时间) + 出队时的动态决策 (提升、丢弃) = 既有优先级又不会饿死。
+ *
+ * TODO: 如果交互请求本身就占满了所有线程，老化还能保证批量任务的进度吗？
+ */
+public class PriorityDeadlineExecutor implements Executor, AutoCloseable {
+
+    /**
+     * 优先级类别，声明顺序即优先级顺序。
+     */
+    public enum PriorityClass {
+        INTERACTIVE(Duration.ZERO), // 最高级，不再提升
+        NORMAL(Duration.ofMillis(200)),
+        BULK(Duration.ofSeconds(1));
+
+        /** 在本类别等待超过这个时间就提升一级。 */
+        private final Duration defaultAging;
+
+        PriorityClass(Duration defaultAging) {
+            this.defaultAging = defaultAging;
+        }
+    }
+
+    private static final PriorityClass[] CLASSES = PriorityClass.values();
+    /** 相对截止时间的上限，保证任意两个截止时间的差值不会溢出。 */
+    private static final long MAX_DEADLINE_NANOS = Long.MAX_VALUE / 2;
+    private static final Comparator<ScheduledTask<?>> BY_DEADLINE =
+            (a, b) -> Long.compare(a.deadline - b.deadline, 0); // 按差值比较，nanoTime 的绝对值可能跨过溢出点
+    private static final Comparator<ScheduledTask<?>> EDF = BY_DEADLINE.thenComparingLong(t -> t.seq);
+    private static final Comparator<ScheduledTask<?>> OLDEST =
+            Comparator.<ScheduledTask<?>>comparingLong(t -> t.levelSince).thenComparingLong(t -> t.seq);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final PriorityQueue<ScheduledTask<?>>[] queues; // 按截止时间，决定执行顺序
+    private final PriorityQueue<ScheduledTask<?>>[] waiting; // 按进入本类别的时间，决定老化
+    private final int[] sizes; // 各类别实际排队的任务数 (不含废条目)，受 lock 保护
+    private final long[] agingNanos;
+    private final Thread[] workers;
+    private long seq; // 受 lock 保护
+    private boolean shutdown; // 受 lock 保护
+
+    private final Map<PriorityClass, Timer> latency = new EnumMap<>(PriorityClass.class);
+    private final Map<PriorityClass, Counter> expired = new EnumMap<>(PriorityClass.class);
+    private final Map<PriorityClass, Counter> promoted = new EnumMap<>(PriorityClass.class);
+
+    public PriorityDeadlineExecutor(String name, int threads, MeterRegistry registry) {
+        this(name, threads, registry, Map.of());
+    }
+
+    /**
+     * @param aging 各类别的老化时间，未指定的类别使用默认值
+     */
+    @SuppressWarnings("unchecked")
+    public PriorityDeadlineExecutor(String name, int threads, MeterRegistry registry,
+                                    Map<PriorityClass, Duration> aging) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("线程数必须为正数: " + threads);
+        }
+        this.queues = new PriorityQueue[CLASSES.length];
+        this.waiting = new PriorityQueue[CLASSES.length];
+        this.sizes = new int[CLASSES.length];
+        this.agingNanos = new long[CLASSES.length];
+        for (PriorityClass c : CLASSES) {
+            queues[c.ordinal()] = new PriorityQueue<>(EDF);
+            waiting[c.ordinal()] = new PriorityQueue<>(OLDEST);
+            agingNanos[c.ordinal()] = aging.getOrDefault(c, c.defaultAging).toNanos();
+            String tag = c.name().toLowerCase();
+            latency.put(c, Timer.builder("todocode.scheduler.latency")
+                    .description("从提交到执行完成的延迟")
+                    .tags("executor", name, "class", tag)
+                    .publishPercentiles(0.5, 0.95, 0.99)
+                    .register(registry));
+            expired.put(c, Counter.builder("todocode.scheduler.expired")
+                    .description("运行前已过截止时间而被丢弃的任务数")
+                    .tags("executor", name, "class", tag)
+                    .register(registry));
+            promoted.put(c, Counter.builder("todocode.scheduler.promoted")
+                    .description("因等待过久被提升一级的任务数")
+                    .tags("executor", name, "class", tag)
+                    .register(registry));
+        }
+
+        this.workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(this::workLoop, name + "-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * 提交任务。
+     *
+     * @param deadline 相对截止时间；到期仍未开始执行的任务会以 TimeoutException 失败。
+     *                 超过约 146 年的截止时间按 146 年处理
+     */
+    public <T> CompletableFuture<T> submit(PriorityClass priority, Duration deadline, Callable<T> task) {
+        long now = System.nanoTime();
+        ScheduledTask<T> scheduled = new ScheduledTask<>(task, priority, now, now + toNanosSaturated(deadline));
+        lock.lock();
+        try {
+            if (shutdown) {
+                throw new RejectedExecutionException("执行器已关闭");
+            }
+            scheduled.seq = seq++;
+            enqueue(scheduled, priority.ordinal());
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        return scheduled.future;
+    }
+
+    /**
+     * Duration.toNanos() 在超过 Long.MAX_VALUE 纳秒时抛 ArithmeticException，这里先比较再转换。
+     */
+    private static long toNanosSaturated(Duration deadline) {
+        return deadline.compareTo(Duration.ofNanos(MAX_DEADLINE_NANOS)) >= 0 ? MAX_DEADLINE_NANOS : deadline.toNanos();
+    }
+
+    /**
+     * 以 NORMAL 优先级、一小时截止时间执行。
+     */
+    @Override
+    public void execute(Runnable command) {
+        submit(PriorityClass.NORMAL, Duration.ofHours(1), () -> {
+            command.run();
+            return null;
+        });
+    }
+
+    private static final class ScheduledTask<T> {
+        final Callable<T> task;
+        final PriorityClass origin;
+        final long submittedAt;
+        final long deadline;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        long seq;
+        long levelSince; // 进入当前类别的 (虚拟) 时间
+        int level; // 当前所在类别；与堆的类别不一致的条目是废条目
+        boolean dequeued; // 已被工作线程取走
+
+        ScheduledTask(Callable<T> task, PriorityClass origin, long submittedAt, long deadline) {
+            this.task = task;
+            this.origin = origin;
+            this.submittedAt = submittedAt;
+            this.deadline = deadline;
+            this.levelSince = submittedAt;
+        }
+
+        /**
+         * 先记录延迟再完成 future，等待 future 的调用方一定能看到这次记录。
+         */
+        void run(Timer latency) {
+            T value;
+            try {
+                value = task.call();
+            } catch (Throwable t) {
+                latency.record(System.nanoTime() - submittedAt, TimeUnit.NANOSECONDS);
+                future.completeExceptionally(t);
+                return;
+            }
+            latency.record(System.nanoTime() - submittedAt, TimeUnit.NANOSECONDS);
+            future.complete(value);
+        }
+    }
+
+    private void workLoop() {
+        while (true) {
+            ScheduledTask<?> task;
+            try {
+                task = take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (task == null) {
+                return; // 已关闭且队列为空
+            }
+            if (task.future.isDone()) {
+                continue; // 调用方已取消
+            }
+            if (System.nanoTime() - task.deadline > 0) {
+                expired.get(task.origin).increment();
+                task.future.completeExceptionally(new TimeoutException("任务在开始前已超过截止时间"));
+                continue;
+            }
+            task.run(latency.get(task.origin));
+        }
+    }
+
+    private ScheduledTask<?> take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                promoteAged(System.nanoTime());
+                for (int c = 0; c < CLASSES.length; c++) {
+                    ScheduledTask<?> task;
+                    while ((task = queues[c].poll()) != null) {
+                        if (isLive(task, c)) {
+                            task.dequeued = true;
+                            sizes[c]--;
+                            return task;
+                        }
+                    }
+                }
+                if (shutdown) {
+                    return null;
+                }
+                notEmpty.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 从最低优先级往上，把在本类别等待超时的任务提升一级 (不论它的截止时间排在第几)。
+     * 提升时保留已等待的时间，所以等得足够久的任务可以一次连升多级。
+     */
+    private void promoteAged(long now) {
+        for (int c = CLASSES.length - 1; c > 0; c--) {
+            PriorityQueue<ScheduledTask<?>> oldest = waiting[c];
+            ScheduledTask<?> head;
+            while ((head = oldest.peek()) != null) {
+                if (!isLive(head, c)) {
+                    oldest.poll(); // 已被取走或已提升
+                } else if (now - head.levelSince >= agingNanos[c]) {
+                    oldest.poll();
+                    sizes[c]--;
+                    head.levelSince += agingNanos[c];
+                    enqueue(head, c - 1); // 留在 queues[c] 里的条目变成废条目
+                    promoted.get(CLASSES[c]).increment();
+                } else {
+                    break;
+                }
+            }
+            compact(c);
+        }
+    }
+
+    private void enqueue(ScheduledTask<?> task, int c) {
+        task.level = c;
+        sizes[c]++;
+        queues[c].add(task);
+        if (c > 0) { // 最高级不再老化
+            waiting[c].add(task);
+        }
+    }
+
+    private static boolean isLive(ScheduledTask<?> task, int c) {
+        return !task.dequeued && task.level == c;
+    }
+
+    /**
+     * 废条目比实际任务还多时整体清理，均摊下来每次操作 O(1)，堆不会无限膨胀。
+     */
+    private void compact(int c) {
+        if (queues[c].size() > 2 * sizes[c] + 64) {
+            queues[c].removeIf(t -> !isLive(t, c));
+        }
+        if (waiting[c].size() > 2 * sizes[c] + 64) {
+            waiting[c].removeIf(t -> !isLive(t, c));
+        }
+    }
+
+    /**
+     * 某个类别的延迟分位数 (例如 0.99)，尚无数据时返回 Duration.ZERO。
+     */
+    public Duration latencyPercentile(PriorityClass priority, double percentile) {
+        for (ValueAtPercentile v : latency.get(priority).takeSnapshot().percentileValues()) {
+            if (v.percentile() == percentile) {
+                return Duration.ofNanos((long) v.value(TimeUnit.NANOSECONDS));
+            }
+        }
+        throw new IllegalArgumentException("未发布的分位数: " + percentile);
+    }
+
+    public long expiredCount(PriorityClass priority) {
+        return (long) expired.get(priority).count();
+    }
+
+    public int queued(PriorityClass priority) {
+        lock.lock();
+        try {
+            return sizes[priority.ordinal()];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 不再接受新任务，已排队的任务继续执行，队列清空后工作线程退出。
+     * 工作线程虽然是守护线程，不关闭的执行器仍然一直占着线程。
+     */
+    public void shutdown() {
+        lock.lock();
+        try {
+            shutdown = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Thread worker : workers) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || !worker.join(Duration.ofNanos(remaining))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        shutdown();
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
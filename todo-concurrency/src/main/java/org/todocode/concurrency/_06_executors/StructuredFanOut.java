@@ -0,0 +1,68 @@
+package org.todocode.concurrency._06_executors;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.StructuredTaskScope;
+import java.util.concurrent.StructuredTaskScope.Joiner;
+import java.util.concurrent.StructuredTaskScope.Subtask;
+
+/**
+ * [TodoCode] 结构化并发扇出 - 截止时间 + 自动取消
+ *
+ * <h3>背景:</h3>
+ * 用 ExecutorService + Future 做扇出时，一个子任务失败后其他子任务还在继续跑，
+ * 调用方超时返回了，子任务却成了"孤儿线程"继续占用 MySQL/LLM 配额。
+ * StructuredTaskScope (Java 25 预览 API) 把子任务的生命周期绑定到一个代码块:
+ * 块结束时所有子任务要么完成，要么已被取消。
+ *
+ * <h3>易错点:</h3>
+ * 1. fork 只能在打开作用域的线程里调用，join 也必须由它调用。
+ * 2. 截止时间到了会中断所有未完成的子任务，子任务代码必须响应中断。
+ * 3. 需要 --enable-preview，API 在 JDK 21~25 之间变化很大 (open + Joiner 是 25 的写法)。
+ *
+ * <h3>核心理解:</h3>
+ * invokeAll: 任一失败 -> 取消其余 -> 抛出第一个异常。
+ * invokeAny: 任一成功 -> 取消其余 -> 返回它的结果 (适合对冲请求)。
+ *
+ * TODO: 子任务里再打开一个 StructuredTaskScope，截止时间会被继承吗？
+ */
+public final class StructuredFanOut {
+
+    private StructuredFanOut() {
+    }
+
+    /**
+     * 并发执行所有任务，按提交顺序返回结果。
+     *
+     * @throws StructuredTaskScope.FailedException  任一子任务失败 (其余子任务已取消)
+     * @throws StructuredTaskScope.TimeoutException 超过截止时间 (所有子任务已取消)
+     */
+    public static <T> List<T> invokeAll(List<? extends Callable<? extends T>> tasks, Duration deadline)
+            throws InterruptedException {
+        try (var scope = StructuredTaskScope.open(Joiner.<T>allSuccessfulOrThrow(),
+                cf -> cf.withTimeout(deadline))) {
+            for (Callable<? extends T> task : tasks) {
+                scope.fork(task);
+            }
+            return scope.join().map(Subtask::get).toList();
+        }
+    }
+
+    /**
+     * 返回最先成功的任务结果，其余任务立即取消。
+     *
+     * @throws StructuredTaskScope.FailedException  所有子任务都失败
+     * @throws StructuredTaskScope.TimeoutException 超过截止时间仍没有任何成功结果
+     */
+    public static <T> T invokeAny(List<? extends Callable<? extends T>> tasks, Duration deadline)
+            throws InterruptedException {
+        try (var scope = StructuredTaskScope.open(Joiner.<T>anySuccessfulResultOrThrow(),
+                cf -> cf.withTimeout(deadline))) {
+            for (Callable<? extends T> task : tasks) {
+                scope.fork(task);
+            }
+            return scope.join();
+        }
+    }
+}
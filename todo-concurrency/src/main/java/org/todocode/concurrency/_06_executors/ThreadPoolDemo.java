@@ -1,5 +1,7 @@
 package org.todocode.concurrency._06_executors;
 
+import io.micrometer.core.instrument.MeterRegistry;
+
 import java.util.List;
 import java.util.concurrent.*;
 
@@ -49,6 +51,14 @@ public class ThreadPoolDemo {
         );
     }
 
+    /**
+     * 同样的线程池，但带排队/执行/拒绝指标，并把 MDC 中的 traceId 传给任务。
+     */
+    public ExecutorService createInstrumentedThreadPool(MeterRegistry registry) {
+        return new InstrumentedExecutorService("todocode-worker", createProperThreadPool(), registry,
+                ContextPropagator.mdcKey("traceId"));
+    }
+
     /**
      * 演示任务提交和结果获取。
      */
@@ -0,0 +1,121 @@
+package org.todocode.concurrency._06_executors;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * [TodoCode] 虚拟线程执行器 - 用信号量而不是线程池大小限制并发
+ *
+ * <h3>背景:</h3>
+ * ThreadPoolDemo.createProperThreadPool 的 2~5 个线程 + 容量 10 的队列，
+ * 对 I/O 密集的扇出 (MySQL、Redis、LLM API) 来说并发上限只有 15。
+ * 平台线程昂贵，所以线程池同时承担了"复用线程"和"限制并发"两个职责。
+ * 虚拟线程几乎免费，每个任务一个线程即可，并发限制应该交给信号量，
+ * 并且按任务类型分别限制: 打满 LLM 的配额不应该影响 Redis 调用。
+ *
+ * <h3>易错点:</h3>
+ * 1. 不要池化虚拟线程! 池化会把它重新变成稀缺资源。
+ * 2. 信号量在虚拟线程内部获取，等待许可的虚拟线程只是挂起，不占用载体线程。
+ * 3. 下游的真实上限 (例如 Hikari 连接池 10 个连接) 才是信号量的正确取值。
+ *
+ * <h3>核心理解:</h3>
+ * 线程池: 并发度 = 线程数，排队发生在线程池队列里。
+ * 虚拟线程: 并发度 = 各类型的许可数，排队发生在信号量上，提交永远不会被拒绝。
+ *
+ * TODO: 把 createProperThreadPool 换成这个执行器后，CallerRunsPolicy 的背压还存在吗？
+ */
+public class VirtualThreadExecutor implements AutoCloseable {
+
+    private final ExecutorService delegate;
+    private final Map<String, Integer> limits;
+    private final Map<String, Semaphore> permits = new LinkedHashMap<>();
+    private final Map<String, Timer> permitWaits = new LinkedHashMap<>();
+
+    /**
+     * @param name   线程名前缀，便于在线程转储中识别
+     * @param limits 任务类型 -> 最大并发数
+     */
+    public VirtualThreadExecutor(String name, Map<String, Integer> limits, MeterRegistry registry) {
+        this.delegate = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 0).factory());
+        this.limits = Map.copyOf(limits);
+        limits.forEach((type, limit) -> {
+            if (limit <= 0) {
+                throw new IllegalArgumentException("任务类型 " + type + " 的并发上限必须为正数: " + limit);
+            }
+            Semaphore semaphore = new Semaphore(limit, true); // 公平: 避免某些虚拟线程一直抢不到
+            permits.put(type, semaphore);
+            permitWaits.put(type, Timer.builder("todocode.vthread.permit.wait")
+                    .description("等待任务类型许可的时间")
+                    .tags("executor", name, "type", type)
+                    .register(registry));
+            Gauge.builder("todocode.vthread.in.flight", semaphore, s -> limit - s.availablePermits())
+                    .tags("executor", name, "type", type)
+                    .register(registry);
+            Gauge.builder("todocode.vthread.waiting", semaphore, Semaphore::getQueueLength)
+                    .tags("executor", name, "type", type)
+                    .register(registry);
+        });
+    }
+
+    /**
+     * 在新的虚拟线程中执行任务，并发数受 taskType 的许可数限制。
+     */
+    public <T> Future<T> submit(String taskType, Callable<T> task) {
+        return delegate.submit(limited(taskType, task));
+    }
+
+    /**
+     * 包装任务，使其运行前先获取 taskType 的许可。
+     * 也可以交给 {@link StructuredFanOut} 的 fork 使用。
+     */
+    public <T> Callable<T> limited(String taskType, Callable<T> task) {
+        Semaphore semaphore = semaphoreFor(taskType);
+        Timer waitTimer = permitWaits.get(taskType);
+        Objects.requireNonNull(task);
+        return () -> {
+            long start = System.nanoTime();
+            semaphore.acquire();
+            waitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            try {
+                return task.call();
+            } finally {
+                semaphore.release();
+            }
+        };
+    }
+
+    /**
+     * 当前正在执行的 taskType 任务数。
+     */
+    public int inFlight(String taskType) {
+        Semaphore semaphore = semaphoreFor(taskType);
+        return limits.get(taskType) - semaphore.availablePermits();
+    }
+
+    private Semaphore semaphoreFor(String taskType) {
+        Semaphore semaphore = permits.get(taskType);
+        if (semaphore == null) {
+            throw new IllegalArgumentException("未知的任务类型: " + taskType + "，已注册: " + permits.keySet());
+        }
+        return semaphore;
+    }
+
+    /**
+     * 等待所有已提交的任务完成 (ExecutorService.close 语义)。
+     */
+    @Override
+    public void close() {
+        delegate.close();
+    }
+}
@@ -0,0 +1,209 @@
+package org.todocode.concurrency._07_patterns;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * [TodoCode] 批量消费者 - drainTo + 自适应批大小
+ *
+ * <h3>背景:</h3>
+ * ProducerConsumerDemo.consume 每次 take() 一个元素，每条消息都要付出一次
+ * 唤醒 (锁 + 条件变量) 和一次处理调用的开销。
+ * 批量消费者每次被唤醒后用 drainTo 一次取走最多 N 个元素，把固定开销摊薄。
+ *
+ * <h3>易错点:</h3>
+ * 1. 批越大吞吐越高，但第一条消息要等批攒满才被处理，延迟变高。
+ *    所以批大小随队列积压自适应: 积压时加倍，队列被取空时减半，
+ *    并且第一条消息到达后最多只等 maxLatency 就必须提交。
+ * 2. 毒丸关闭: 一次 drainTo 可能取走毒丸之后的元素，多个消费者时还可能取走别人的毒丸。
+ *    普通元素不能放回队尾 (会排到并发生产者的新消息后面，有界队列满时还会永远阻塞)，
+ *    而是留在本消费者的最后一批里处理；只把别人的毒丸交还，它的主人还活着，一定会把队列取出空位。
+ * 3. 交给 handler 和 onError 的 List 每批复用，回调不能在返回后继续持有它。
+ * 4. handler 失败不能只打印了事: 失败计入 getFailures()，并交给 onError (例如写入死信队列)。
+ *
+ * <h3>核心理解:</h3>
+ * 低负载时批大小收缩到 minBatch，行为接近逐条消费 (低延迟)；
+ * 高负载时扩张到 maxBatch，每次唤醒处理一整批 (高吞吐)。
+ *
+ * TODO: 如果 handler 是写数据库，maxBatch 应该如何与 JDBC batch size 对齐？
+ */
+public class BatchingConsumer<E> implements Runnable {
+
+    /**
+     * 批处理回调。batch 在回调返回后会被清空复用。
+     */
+    @FunctionalInterface
+    public interface BatchHandler<E> {
+        void onBatch(List<E> batch) throws Exception;
+    }
+
+    /**
+     * 批处理失败回调，在消费者线程上调用。batch 在回调返回后会被清空复用。
+     */
+    @FunctionalInterface
+    public interface ErrorHandler<E> {
+        void onError(List<E> batch, Exception error);
+    }
+
+    private final BlockingQueue<E> queue;
+    private final E poisonPill;
+    private final int minBatch;
+    private final int maxBatch;
+    private final long maxLatencyNanos;
+    private final BatchHandler<E> handler;
+    private final ErrorHandler<E> onError;
+
+    private final ArrayList<E> buffer;
+    private final List<E> readOnlyView;
+
+    // 只由消费者线程写，其他线程读取统计
+    private volatile int targetBatch;
+    private volatile long batches;
+    private volatile long items;
+    private volatile long failures;
+
+    public BatchingConsumer(BlockingQueue<E> queue, E poisonPill, int minBatch, int maxBatch,
+                            Duration maxLatency, BatchHandler<E> handler) {
+        this(queue, poisonPill, minBatch, maxBatch, maxLatency, handler, (batch, error) -> { });
+    }
+
+    /**
+     * @param onError handler 抛出异常时调用；之后继续消费下一批
+     */
+    public BatchingConsumer(BlockingQueue<E> queue, E poisonPill, int minBatch, int maxBatch,
+                            Duration maxLatency, BatchHandler<E> handler, ErrorHandler<E> onError) {
+        if (minBatch <= 0 || maxBatch < minBatch) {
+            throw new IllegalArgumentException("需要 0 < minBatch <= maxBatch: " + minBatch + ", " + maxBatch);
+        }
+        this.queue = Objects.requireNonNull(queue);
+        this.poisonPill = Objects.requireNonNull(poisonPill);
+        this.minBatch = minBatch;
+        this.maxBatch = maxBatch;
+        this.maxLatencyNanos = maxLatency.toNanos();
+        this.handler = Objects.requireNonNull(handler);
+        this.onError = Objects.requireNonNull(onError);
+        this.buffer = new ArrayList<>(maxBatch);
+        this.readOnlyView = Collections.unmodifiableList(buffer); // 只分配一次
+        this.targetBatch = minBatch;
+    }
+
+    @Override
+    public void run() {
+        try {
+            boolean poisoned = false;
+            while (!poisoned) {
+                buffer.add(queue.take()); // 唯一一次阻塞唤醒
+                long deadline = System.nanoTime() + maxLatencyNanos;
+                int target = targetBatch;
+
+                queue.drainTo(buffer, target - buffer.size());
+                int poisonIndex = indexOfPoison(0);
+                while (buffer.size() < target && poisonIndex < 0) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break; // 延迟上限到了，不再等待凑批
+                    }
+                    E next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    int scanFrom = buffer.size();
+                    buffer.add(next);
+                    queue.drainTo(buffer, target - buffer.size());
+                    poisonIndex = indexOfPoison(scanFrom); // 只检查新取到的元素
+                }
+
+                if (poisonIndex >= 0) {
+                    cutAt(poisonIndex);
+                    poisoned = true;
+                }
+                adapt(target);
+                flush();
+            }
+        } catch (InterruptedException e) {
+            flush(); // 已取出的元素不能丢
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private int indexOfPoison(int from) {
+        for (int i = from; i < buffer.size(); i++) {
+            if (poisonPill.equals(buffer.get(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 去掉毒丸: 之后的普通元素按原顺序留在本批，其他消费者的毒丸交还队列。
+     */
+    private void cutAt(int poisonIndex) throws InterruptedException {
+        int otherPills = 0;
+        int kept = poisonIndex;
+        for (int i = poisonIndex + 1; i < buffer.size(); i++) {
+            E e = buffer.get(i);
+            if (poisonPill.equals(e)) {
+                otherPills++;
+            } else {
+                buffer.set(kept++, e);
+            }
+        }
+        buffer.subList(kept, buffer.size()).clear();
+        for (int i = 0; i < otherPills; i++) {
+            queue.put(poisonPill);
+        }
+    }
+
+    /**
+     * 积压时加倍，取空时减半。
+     */
+    private void adapt(int target) {
+        if (buffer.size() >= target && !queue.isEmpty()) {
+            targetBatch = Math.min(maxBatch, target << 1);
+        } else if (buffer.size() < target) {
+            targetBatch = Math.max(minBatch, target >> 1);
+        }
+    }
+
+    private void flush() {
+        if (buffer.isEmpty()) {
+            return;
+        }
+        try {
+            handler.onBatch(readOnlyView);
+        } catch (Exception e) {
+            failures++;
+            try {
+                onError.onError(readOnlyView, e);
+            } catch (RuntimeException ignored) {
+                // 错误回调自身的失败不能让消费者线程退出
+            }
+        } finally {
+            batches++;
+            items += buffer.size();
+            buffer.clear();
+        }
+    }
+
+    public int getTargetBatch() {
+        return targetBatch;
+    }
+
+    public long getBatches() {
+        return batches;
+    }
+
+    public long getItems() {
+        return items;
+    }
+
+    public long getFailures() {
+        return failures;
+    }
+}
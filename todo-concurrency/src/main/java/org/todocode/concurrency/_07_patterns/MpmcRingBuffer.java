@@ -0,0 +1,303 @@
+package org.todocode.concurrency._07_patterns;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * [TodoCode] 无锁有界多生产者多消费者环形缓冲区 (Vyukov 风格)
+ *
+ * <h3>背景:</h3>
+ * ArrayBlockingQueue 的 put 和 take 共用一把 ReentrantLock，
+ * 每秒百万级消息时锁本身就成了瓶颈。
+ * Dmitry Vyukov 的有界 MPMC 队列给每个槽位配一个序号 (sequence)，
+ * 生产者和消费者只需 CAS 各自的游标 (tail/head)，不需要任何锁。
+ *
+ * <h3>易错点:</h3>
+ * 1. head 和 tail 分别被消费者和生产者疯狂 CAS，如果它们在同一个缓存行上，
+ *    生产者和消费者会互相使对方的缓存失效 (伪共享)。这里用类继承链在两者之间填充。
+ * 2. 元素的写入必须在发布序号 (release) 之前完成，读取必须在读到序号 (acquire) 之后，
+ *    否则消费者可能读到 null 或旧值。
+ * 3. 这是非阻塞结构: offer/poll 失败立即返回，阻塞语义交给 {@link RingBufferBlockingQueue}。
+ * 4. 中间的元素不能真正"挪走": remove(Object) 只把槽位换成墓碑 (REMOVED)，槽位仍被占用，
+ *    直到消费者经过时跳过它。poll 用 getAndSet 取走元素，与 remove 的 CAS 竞争同一个槽位，
+ *    同一个元素不会既被 poll 返回又被 remove 报告删除成功。
+ *
+ * <h3>核心理解:</h3>
+ * 槽位 i 的序号含义 (pos 为游标):
+ * - seq == pos: 槽位空闲，等待位置为 pos 的生产者写入
+ * - seq == pos + 1: 槽位已写入，等待位置为 pos 的消费者读取
+ * - 消费者读完后把 seq 设为 pos + capacity，交给下一圈的生产者
+ *
+ * TODO: 为什么容量必须是 2 的幂？如果用取模会慢多少？
+ */
+public class MpmcRingBuffer<E> extends MpmcTailPad {
+
+    private static final VarHandle SEQUENCE = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle ELEMENT = MethodHandles.arrayElementVarHandle(Object[].class);
+    private static final Object REMOVED = new Object(); // remove(Object) 留下的墓碑
+    private static final VarHandle HEAD;
+    private static final VarHandle TAIL;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            HEAD = lookup.findVarHandle(MpmcHeadField.class, "head", long.class);
+            TAIL = lookup.findVarHandle(MpmcTailField.class, "tail", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final int mask;
+    private final long[] sequences;
+    private final Object[] buffer;
+    private final AtomicLong removed = new AtomicLong(); // 还没被消费者清掉的墓碑数
+
+    public MpmcRingBuffer(int requestedCapacity) {
+        if (requestedCapacity < 2) {
+            throw new IllegalArgumentException("容量至少为 2: " + requestedCapacity);
+        }
+        int capacity = Integer.highestOneBit(requestedCapacity - 1) << 1; // 向上取 2 的幂
+        this.mask = capacity - 1;
+        this.sequences = new long[capacity];
+        this.buffer = new Object[capacity];
+        for (int i = 0; i < capacity; i++) {
+            sequences[i] = i;
+        }
+    }
+
+    /**
+     * 非阻塞入队。
+     *
+     * @return 队列已满时返回 false
+     */
+    public boolean offer(E e) {
+        if (e == null) {
+            throw new NullPointerException("不支持 null 元素");
+        }
+        long pos = (long) TAIL.getOpaque(this);
+        while (true) {
+            int index = (int) pos & mask;
+            long seq = (long) SEQUENCE.getAcquire(sequences, index);
+            long diff = seq - pos;
+            if (diff == 0) {
+                if (TAIL.weakCompareAndSet(this, pos, pos + 1)) {
+                    buffer[index] = e;
+                    SEQUENCE.setRelease(sequences, index, pos + 1); // 发布: 元素对消费者可见
+                    return true;
+                }
+                pos = (long) TAIL.getOpaque(this);
+            } else if (diff < 0) {
+                return false; // 该槽位还没被上一圈的消费者取走: 队列已满
+            } else {
+                pos = (long) TAIL.getOpaque(this); // 被其他生产者抢先，重新读取
+            }
+        }
+    }
+
+    /**
+     * 非阻塞出队。
+     *
+     * @return 队列为空时返回 null
+     */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long pos = (long) HEAD.getOpaque(this);
+        while (true) {
+            int index = (int) pos & mask;
+            long seq = (long) SEQUENCE.getAcquire(sequences, index);
+            long diff = seq - (pos + 1);
+            if (diff == 0) {
+                if (HEAD.weakCompareAndSet(this, pos, pos + 1)) {
+                    Object e = ELEMENT.getAndSet(buffer, index, null); // 同时帮助 GC
+                    SEQUENCE.setRelease(sequences, index, pos + mask + 1); // 交给下一圈的生产者
+                    if (e != REMOVED) {
+                        return (E) e;
+                    }
+                    removed.decrementAndGet(); // 跳过墓碑，继续取下一个
+                }
+                pos = (long) HEAD.getOpaque(this);
+            } else if (diff < 0) {
+                return null; // 该槽位还没被写入: 队列为空
+            } else {
+                pos = (long) HEAD.getOpaque(this);
+            }
+        }
+    }
+
+    /**
+     * 查看队头元素但不移除。并发下仅供参考。
+     */
+    @SuppressWarnings("unchecked")
+    public E peek() {
+        long tail = (long) TAIL.getVolatile(this);
+        for (long pos = (long) HEAD.getVolatile(this); pos < tail; pos++) {
+            Object e = live(pos);
+            if (e != null) {
+                return (E) e;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 删除一个与 o 相等的元素，O(n)。供 ThreadPoolExecutor.remove 之类的低频路径使用。
+     */
+    public boolean remove(Object o) {
+        if (o == null) {
+            return false;
+        }
+        long tail = (long) TAIL.getVolatile(this);
+        for (long pos = (long) HEAD.getVolatile(this); pos < tail; pos++) {
+            Object e = live(pos);
+            if (e != null && o.equals(e) && removeAt(pos, e)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 弱一致的迭代器: 遍历创建时 [head, tail) 之间仍然存在的元素，
+     * 不抛 ConcurrentModificationException，已被消费或删除的元素会被跳过。
+     */
+    public Iterator<E> iterator() {
+        return new Itr();
+    }
+
+    /**
+     * 近似大小 (不含墓碑)。并发修改时只是一个估计值。
+     */
+    public int size() {
+        return (int) Math.max(0, occupied() - removed.get());
+    }
+
+    /**
+     * 还能写入的槽位数。墓碑在被消费者跳过之前仍然占着槽位。
+     */
+    public int remainingCapacity() {
+        return capacity() - occupied();
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    private int occupied() {
+        while (true) {
+            long head = (long) HEAD.getVolatile(this);
+            long tail = (long) TAIL.getVolatile(this);
+            if (head == (long) HEAD.getVolatile(this)) { // 两次读到同一个 head，说明 tail 读得足够新
+                return (int) Math.max(0, Math.min(tail - head, capacity()));
+            }
+        }
+    }
+
+    /**
+     * 位置 pos 上已发布且未删除的元素；槽位尚未写入、已被取走或已进入下一圈时返回 null。
+     */
+    private Object live(long pos) {
+        int index = (int) pos & mask;
+        if ((long) SEQUENCE.getAcquire(sequences, index) != pos + 1) {
+            return null;
+        }
+        Object e = ELEMENT.getAcquire(buffer, index);
+        // 再读一次序号: 没变说明读到的仍是这一圈的元素
+        if (e == REMOVED || (long) SEQUENCE.getAcquire(sequences, index) != pos + 1) {
+            return null;
+        }
+        return e;
+    }
+
+    /**
+     * 把位置 pos 上的 expected 换成墓碑。元素已被 poll 取走时 CAS 失败，返回 false。
+     */
+    private boolean removeAt(long pos, Object expected) {
+        int index = (int) pos & mask;
+        if ((long) SEQUENCE.getAcquire(sequences, index) == pos + 1
+                && ELEMENT.compareAndSet(buffer, index, expected, REMOVED)) {
+            removed.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    private final class Itr implements Iterator<E> {
+        private final long end = (long) TAIL.getVolatile(MpmcRingBuffer.this);
+        private long cursor = (long) HEAD.getVolatile(MpmcRingBuffer.this);
+        private Object next;
+        private Object last;
+        private long lastPos;
+
+        Itr() {
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            cursor = Math.max(cursor, (long) HEAD.getVolatile(MpmcRingBuffer.this)); // 已被消费的位置不用再看
+            while (cursor < end && (next = live(cursor)) == null) {
+                cursor++;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public E next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            last = next;
+            lastPos = cursor++;
+            advance();
+            return (E) last;
+        }
+
+        @Override
+        public void remove() {
+            if (last == null) {
+                throw new IllegalStateException();
+            }
+            removeAt(lastPos, last); // 已经被消费者取走时什么也不做
+            last = null;
+        }
+    }
+}
+
+// ---- 填充布局: [pad] head [pad] tail [pad] 其余字段 ----
+// 类不能继承自己的嵌套类，所以填充类放在同一文件的顶层，包内可见。
+
+@SuppressWarnings("unused")
+abstract class MpmcLeadPad {
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+}
+
+abstract class MpmcHeadField extends MpmcLeadPad {
+    volatile long head;
+}
+
+@SuppressWarnings("unused")
+abstract class MpmcMidPad extends MpmcHeadField {
+    long p10, p11, p12, p13, p14, p15, p16, p17;
+}
+
+abstract class MpmcTailField extends MpmcMidPad {
+    volatile long tail;
+}
+
+@SuppressWarnings("unused")
+abstract class MpmcTailPad extends MpmcTailField {
+    long p20, p21, p22, p23, p24, p25, p26, p27;
+}
@@ -1,5 +1,6 @@
 package org.todocode.concurrency._07_patterns;
 
+import java.time.Duration;
 import java.util.concurrent.*;
 
 /**
@@ -28,7 +29,14 @@ public class ProducerConsumerDemo {
     private volatile boolean running = true;
 
     public ProducerConsumerDemo(int capacity, int consumerCount) {
-        this.queue = new ArrayBlockingQueue<>(capacity);
+        this(new ArrayBlockingQueue<>(capacity), consumerCount);
+    }
+
+    /**
+     * 使用自定义的有界队列，例如无锁的 {@link RingBufferBlockingQueue}。
+     */
+    public ProducerConsumerDemo(BlockingQueue<String> queue, int consumerCount) {
+        this.queue = queue;
         this.poisonPillCount = consumerCount;
     }
 
@@ -71,6 +79,20 @@ public class ProducerConsumerDemo {
         }, consumerName).start();
     }
 
+    /**
+     * 批量处理任务的消费者: 每次唤醒最多取 maxBatch 个，最多为凑批等待 50 ms。
+     * 毒丸关闭对批量消费者同样有效。
+     */
+    public void consumeInBatches(String consumerName, int maxBatch) {
+        BatchingConsumer<String> consumer = new BatchingConsumer<>(
+                queue, "POISON_PILL", 1, maxBatch, Duration.ofMillis(50),
+                batch -> System.out.println("[" + consumerName + "] 批量消费 " + batch.size() + " 个: " + batch));
+        new Thread(() -> {
+            consumer.run();
+            System.out.println("[" + consumerName + "] 收到毒丸，正在关闭。");
+        }, consumerName).start();
+    }
+
     /**
      * 使用毒丸进行优雅关闭。
      */
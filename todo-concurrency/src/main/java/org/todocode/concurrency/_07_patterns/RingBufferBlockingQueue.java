@@ -0,0 +1,169 @@
+package org.todocode.concurrency._07_patterns;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * [TodoCode] 基于 MpmcRingBuffer 的 BlockingQueue 适配器
+ *
+ * <h3>背景:</h3>
+ * 现有代码 (例如 ProducerConsumerDemo) 面向 BlockingQueue 接口编程。
+ * 这个适配器让它们不改一行业务代码就能换上无锁环形缓冲区。
+ *
+ * <h3>易错点:</h3>
+ * 1. 没有条件变量，put/take 靠 {@link WaitStrategy} 轮询等待，
+ *    空闲时的 CPU 占用完全取决于所选策略。
+ * 2. 等待期间必须检查中断，否则 shutdownNow() 停不掉阻塞在 take() 上的消费者。
+ * 3. iterator() 是弱一致的，remove(Object) 是 O(n) 的墓碑删除。
+ *    ThreadPoolExecutor 的 remove/purge/shutdownNow 依赖它们，不支持就不能作为线程池的工作队列。
+ *
+ * <h3>核心理解:</h3>
+ * 阻塞语义 = 非阻塞操作 + 等待策略 + 中断/超时检查。
+ */
+public class RingBufferBlockingQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+    private final MpmcRingBuffer<E> ring;
+    private final WaitStrategy waitStrategy;
+
+    public RingBufferBlockingQueue(int capacity) {
+        this(capacity, WaitStrategy.PARK);
+    }
+
+    public RingBufferBlockingQueue(int capacity, WaitStrategy waitStrategy) {
+        this.ring = new MpmcRingBuffer<>(capacity);
+        this.waitStrategy = Objects.requireNonNull(waitStrategy);
+    }
+
+    @Override
+    public boolean offer(E e) {
+        return ring.offer(e);
+    }
+
+    @Override
+    public E poll() {
+        return ring.poll();
+    }
+
+    @Override
+    public E peek() {
+        return ring.peek();
+    }
+
+    @Override
+    public void put(E e) throws InterruptedException {
+        Objects.requireNonNull(e);
+        for (int attempt = 0; !ring.offer(e); attempt++) {
+            checkInterrupted();
+            waitStrategy.idle(attempt);
+        }
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        Objects.requireNonNull(e);
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (int attempt = 0; !ring.offer(e); attempt++) {
+            checkInterrupted();
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            waitStrategy.idle(attempt);
+        }
+        return true;
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        E e;
+        for (int attempt = 0; (e = ring.poll()) == null; attempt++) {
+            checkInterrupted();
+            waitStrategy.idle(attempt);
+        }
+        return e;
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        E e;
+        for (int attempt = 0; (e = ring.poll()) == null; attempt++) {
+            checkInterrupted();
+            if (System.nanoTime() - deadline >= 0) {
+                return null;
+            }
+            waitStrategy.idle(attempt);
+        }
+        return e;
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return ring.remainingCapacity();
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        Objects.requireNonNull(c);
+        if (c == this) {
+            throw new IllegalArgumentException("不能 drain 到自身");
+        }
+        int n = 0;
+        E e;
+        while (n < maxElements && (e = ring.poll()) != null) {
+            c.add(e);
+            n++;
+        }
+        return n;
+    }
+
+    @Override
+    public int size() {
+        return ring.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return ring.isEmpty();
+    }
+
+    @Override
+    public void clear() {
+        while (ring.poll() != null) {
+            // 逐个丢弃
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return ring.remove(o);
+    }
+
+    /**
+     * 弱一致的迭代器，见 {@link MpmcRingBuffer#iterator()}。
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return ring.iterator();
+    }
+
+    @Override
+    public String toString() {
+        return "RingBufferBlockingQueue[size=" + size() + ", capacity=" + ring.capacity()
+                + ", waitStrategy=" + waitStrategy + "]";
+    }
+
+    private static void checkInterrupted() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+}
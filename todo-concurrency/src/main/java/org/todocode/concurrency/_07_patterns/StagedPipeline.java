@@ -0,0 +1,286 @@
+package org.todocode.concurrency._07_patterns;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * [TodoCode] 基于 ForkJoinPool 的分阶段流水线
+ *
+ * <h3>背景:</h3>
+ * ThreadPoolDemo.completableFutureDemo 用 thenApplyAsync 串起三个步骤，
+ * 每个步骤都要把任务重新提交到线程池: 一次入队、一次唤醒、一次上下文切换，
+ * 哪怕步骤本身只是 toUpperCase。而且 CompletableFuture 链没有背压，
+ * 上游跑得快时下游的任务会在线程池队列里无限堆积。
+ * 这个流水线:
+ * - 每个阶段声明自己的并行度
+ * - 廉价步骤 (thenApply) 融合进前一个阶段，在同一个线程上直接调用，没有线程切换
+ * - 阶段之间是有界缓冲区，下游满了上游就停下来，最终让 submit 阻塞
+ * - 工作线程来自 ForkJoinPool，阶段间的交接优先进入当前线程的本地队列 (工作窃取)
+ *
+ * <h3>易错点:</h3>
+ * 1. 工作线程绝不阻塞: 下游没有空位时，上游的工作线程直接退出，
+ *    等下游释放空位时再重新调度上游，否则 ForkJoinPool 的线程会被占满而死锁。
+ * 2. 工作线程退出后必须重新检查一次条件，否则"下游刚释放空位、上游刚好在退出"
+ *    的交错会让流水线永远停住 (丢失唤醒)。
+ * 3. 不要在 ForkJoinPool 的工作线程里调用阻塞的 submit。
+ *
+ * <h3>核心理解:</h3>
+ * 每个阶段持有 bufferSize 个许可，代表"排队中 + 处理中"的元素数上限。
+ * 元素进入阶段前必须先拿到该阶段的许可，离开时归还 —— 这就是基于信用的背压。
+ *
+ * TODO: 把 completableFutureDemo 的三个步骤改写成一个异步阶段 + 两个融合步骤，线程切换次数变成多少？
+ */
+public class StagedPipeline<I, O> {
+
+    private final Stage first;
+    private final List<Stage> stages;
+    private final ForkJoinPool pool;
+
+    private StagedPipeline(ForkJoinPool pool, List<Stage> stages) {
+        this.pool = pool;
+        this.stages = List.copyOf(stages);
+        this.first = stages.getFirst();
+    }
+
+    public static <T> Builder<T, T> builder(ForkJoinPool pool, int bufferSize) {
+        return new Builder<>(pool, bufferSize);
+    }
+
+    /**
+     * 提交一个元素。第一个阶段的缓冲区满时阻塞等待 (背压)。
+     */
+    public CompletableFuture<O> submit(I item) throws InterruptedException {
+        first.permits.acquire();
+        return enter(item);
+    }
+
+    /**
+     * 非阻塞提交，缓冲区在 timeout 内没有空位时返回 null。
+     */
+    public CompletableFuture<O> trySubmit(I item, long timeout, TimeUnit unit) throws InterruptedException {
+        if (!first.permits.tryAcquire(timeout, unit)) {
+            return null;
+        }
+        return enter(item);
+    }
+
+    @SuppressWarnings("unchecked")
+    private CompletableFuture<O> enter(I item) {
+        Item element = new Item(item);
+        first.enqueue(element);
+        return (CompletableFuture<O>) element.result;
+    }
+
+    public List<String> stageNames() {
+        return stages.stream().map(s -> s.name).toList();
+    }
+
+    /**
+     * 某个阶段已处理的元素数 (包括失败的)。
+     */
+    public long processed(String stageName) {
+        return stages.stream().filter(s -> s.name.equals(stageName)).findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("未知的阶段: " + stageName))
+                .processed.sum();
+    }
+
+    /**
+     * 把任务调度到 ForkJoinPool 的次数，也就是线程交接次数的上限。
+     */
+    public long schedules() {
+        return stages.stream().mapToLong(s -> s.schedules.sum()).sum();
+    }
+
+    public ForkJoinPool pool() {
+        return pool;
+    }
+
+    /**
+     * 在阶段之间流动的元素。每个输入只分配这一个对象，value 在各阶段间原地替换。
+     */
+    private static final class Item {
+        Object value;
+        final CompletableFuture<Object> result = new CompletableFuture<>();
+
+        Item(Object value) {
+            this.value = value;
+        }
+    }
+
+    private static final class Stage {
+        /** 每个工作线程连续处理的最大元素数，之后让出线程保证公平。 */
+        private static final int BATCH = 64;
+
+        final ForkJoinPool pool;
+        final String name;
+        final Function<Object, Object> fn;
+        final int parallelism;
+        final Semaphore permits;
+        final ConcurrentLinkedQueue<Item> queue = new ConcurrentLinkedQueue<>();
+        final AtomicInteger active = new AtomicInteger();
+        final LongAdder processed = new LongAdder();
+        final LongAdder schedules = new LongAdder();
+        Stage prev;
+        Stage next;
+
+        Stage(ForkJoinPool pool, String name, Function<Object, Object> fn, int parallelism, int bufferSize) {
+            this.pool = pool;
+            this.name = name;
+            this.fn = fn;
+            this.parallelism = parallelism;
+            this.permits = new Semaphore(bufferSize);
+        }
+
+        /**
+         * 调用方必须已经持有本阶段的一个许可。
+         */
+        void enqueue(Item item) {
+            queue.offer(item);
+            trySchedule();
+        }
+
+        void trySchedule() {
+            while (!queue.isEmpty() && canHandOff()) {
+                int n = active.get();
+                if (n >= parallelism) {
+                    return;
+                }
+                if (active.compareAndSet(n, n + 1)) {
+                    schedules.increment();
+                    pool.execute(this::drain); // 在池内调用时进入当前线程的本地队列
+                    return;
+                }
+            }
+        }
+
+        private boolean canHandOff() {
+            return next == null || next.permits.availablePermits() > 0;
+        }
+
+        private void drain() {
+            try {
+                for (int i = 0; i < BATCH; i++) {
+                    if (next != null && !next.permits.tryAcquire()) {
+                        break; // 下游满了: 退出，等下游释放许可时再被调度
+                    }
+                    Item item = queue.poll();
+                    if (item == null) {
+                        if (next != null) {
+                            next.permits.release();
+                        }
+                        break;
+                    }
+                    process(item);
+                }
+            } finally {
+                active.decrementAndGet();
+                trySchedule(); // 重新检查，避免丢失唤醒
+            }
+        }
+
+        private void process(Item item) {
+            boolean ok;
+            try {
+                item.value = fn.apply(item.value); // 融合的步骤在这里依次内联执行
+                ok = true;
+            } catch (Throwable t) {
+                item.result.completeExceptionally(t);
+                ok = false;
+            }
+            processed.increment();
+            if (next == null || !ok) {
+                if (next != null) {
+                    next.permits.release(); // 失败的元素不会进入下游
+                }
+                if (ok) {
+                    item.result.complete(item.value);
+                }
+            } else {
+                next.enqueue(item);
+            }
+            leave();
+        }
+
+        /**
+         * 元素离开本阶段: 归还许可，并唤醒可能因为本阶段已满而停下的上游。
+         */
+        private void leave() {
+            permits.release();
+            if (prev != null) {
+                prev.trySchedule();
+            }
+        }
+    }
+
+    /**
+     * 流水线构建器。thenApplyAsync 开启新阶段，thenApply 融合进当前阶段。
+     */
+    public static final class Builder<I, O> {
+        private final ForkJoinPool pool;
+        private final int bufferSize;
+        private final List<String> names = new ArrayList<>();
+        private final List<Function<Object, Object>> fns = new ArrayList<>();
+        private final List<Integer> parallelisms = new ArrayList<>();
+
+        private Builder(ForkJoinPool pool, int bufferSize) {
+            if (bufferSize <= 0) {
+                throw new IllegalArgumentException("缓冲区大小必须为正数: " + bufferSize);
+            }
+            this.pool = Objects.requireNonNull(pool);
+            this.bufferSize = bufferSize;
+        }
+
+        /**
+         * 新开一个阶段，最多 parallelism 个线程同时执行它。
+         */
+        @SuppressWarnings("unchecked")
+        public <R> Builder<I, R> thenApplyAsync(String name, Function<? super O, ? extends R> fn, int parallelism) {
+            if (parallelism <= 0) {
+                throw new IllegalArgumentException("并行度必须为正数: " + parallelism);
+            }
+            names.add(name);
+            fns.add((Function<Object, Object>) fn);
+            parallelisms.add(parallelism);
+            return (Builder<I, R>) this;
+        }
+
+        /**
+         * 廉价步骤: 融合进前一个阶段，在同一个线程上直接调用，不发生线程切换。
+         */
+        @SuppressWarnings("unchecked")
+        public <R> Builder<I, R> thenApply(Function<? super O, ? extends R> fn) {
+            if (fns.isEmpty()) {
+                throw new IllegalStateException("第一个步骤必须用 thenApplyAsync 开启阶段");
+            }
+            int last = fns.size() - 1;
+            fns.set(last, fns.get(last).andThen((Function<Object, Object>) fn));
+            return (Builder<I, R>) this;
+        }
+
+        public StagedPipeline<I, O> build() {
+            if (fns.isEmpty()) {
+                throw new IllegalStateException("流水线至少需要一个阶段");
+            }
+            List<Stage> stages = new ArrayList<>();
+            for (int k = 0; k < fns.size(); k++) {
+                Stage stage = new Stage(pool, names.get(k), fns.get(k), parallelisms.get(k), bufferSize);
+                if (k > 0) {
+                    Stage prev = stages.get(k - 1);
+                    prev.next = stage;
+                    stage.prev = prev;
+                }
+                stages.add(stage);
+            }
+            return new StagedPipeline<>(pool, stages);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package org.todocode.concurrency._07_patterns;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * [TodoCode] 无锁队列的等待策略
+ *
+ * <h3>背景:</h3>
+ * 无锁队列没有条件变量可以 await，队列满/空时只能"等一会儿再试"。
+ * 怎么等决定了延迟与 CPU 占用的取舍，这正是 Disruptor 把它做成可选项的原因。
+ *
+ * <h3>易错点:</h3>
+ * BUSY_SPIN 会把一个核心烧满。线程数超过核数时，自旋的线程会抢走
+ * 本该去生产/消费的线程的 CPU 时间，吞吐量反而暴跌。
+ *
+ * <h3>核心理解:</h3>
+ * - BUSY_SPIN: 最低延迟，每个等待线程独占一个核
+ * - YIELD: 先自旋，再让出 CPU，适合线程数约等于核数
+ * - PARK: 先自旋、再让出、最后指数退避地 park，空闲时几乎不占 CPU
+ */
+public enum WaitStrategy {
+
+    BUSY_SPIN {
+        @Override
+        public void idle(int attempt) {
+            Thread.onSpinWait();
+        }
+    },
+
+    YIELD {
+        @Override
+        public void idle(int attempt) {
+            if (attempt < SPIN_TRIES) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();
+            }
+        }
+    },
+
+    PARK {
+        @Override
+        public void idle(int attempt) {
+            if (attempt < SPIN_TRIES) {
+                Thread.onSpinWait();
+            } else if (attempt < SPIN_TRIES + YIELD_TRIES) {
+                Thread.yield();
+            } else {
+                int shift = Math.min(attempt - SPIN_TRIES - YIELD_TRIES, MAX_PARK_SHIFT);
+                LockSupport.parkNanos(MIN_PARK_NANOS << shift); // 1µs 起步，最长约 1ms
+            }
+        }
+    };
+
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 10;
+    private static final long MIN_PARK_NANOS = 1_000L;
+    private static final int MAX_PARK_SHIFT = 10;
+
+    /**
+     * 第 attempt 次 (从 0 开始) 尝试失败后调用。成功后调用方应把 attempt 归零。
+     */
+    public abstract void idle(int attempt);
+}
@@ -0,0 +1,100 @@
+package org.todocode.concurrency._08_primitives;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * [TodoCode] 锁分段 (Lock Striping)
+ *
+ * <h3>背景:</h3>
+ * ReentrantLockDemo 用一把锁保护一个计数器。当锁保护的是"按 key 划分"的状态
+ * (例如每个用户的余额)，一把全局锁会让互不相关的 key 也互相排队。
+ * 锁分段把 key 哈希到 N 把锁之一: 不同 key 大概率拿到不同的锁。
+ *
+ * <h3>易错点:</h3>
+ * 1. 相邻分配的锁对象可能落在同一个缓存行上 (伪共享)，
+ *    线程各拿各的锁，却在硬件层面互相使对方缓存行失效。这里用填充字段把它们隔开。
+ * 2. 同时锁多个 key 时必须按分段下标排序加锁，否则会死锁。
+ *
+ * <h3>核心理解:</h3>
+ * 分段数是并发度与内存之间的权衡。分段数取 2 的幂，用位与代替取模。
+ * ConcurrentHashMap (JDK 7) 的 Segment 就是这个思想。
+ *
+ * TODO: 分段数从 1 增加到 64，吞吐量曲线在哪里变平？为什么？
+ */
+public class LockStriping<K> {
+
+    private final PaddedLock[] locks;
+    private final int mask;
+
+    public LockStriping(int stripes) {
+        if (stripes <= 0) {
+            throw new IllegalArgumentException("分段数必须为正数: " + stripes);
+        }
+        int size = stripes == 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1; // 向上取 2 的幂
+        this.locks = new PaddedLock[size];
+        for (int i = 0; i < size; i++) {
+            locks[i] = new PaddedLock();
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * 返回 key 对应的锁。相同的 key 总是得到同一把锁。
+     */
+    public Lock lockFor(K key) {
+        return locks[indexFor(key)];
+    }
+
+    /**
+     * 在 key 对应的锁内执行操作。
+     */
+    public <T> T withLock(K key, Supplier<T> action) {
+        Lock lock = lockFor(key);
+        lock.lock();
+        try {
+            return action.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 在 key 对应的锁内执行无返回值的操作。
+     */
+    public void runWithLock(K key, Runnable action) {
+        Lock lock = lockFor(key);
+        lock.lock();
+        try {
+            action.run();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int indexFor(K key) {
+        int h = key == null ? 0 : key.hashCode();
+        h ^= (h >>> 16); // 与 HashMap 相同的扰动，避免只用低位
+        return h & mask;
+    }
+
+    public int stripes() {
+        return locks.length;
+    }
+
+    /**
+     * 带填充的 ReentrantLock。
+     *
+     * 构造时先分配本对象 (含填充) 再分配内部的 Sync，
+     * 因此相邻两把锁的 Sync (真正被 CAS 的 state 所在) 之间至少隔着 64 字节。
+     */
+    @SuppressWarnings("unused")
+    static final class PaddedLock extends ReentrantLock {
+        long p1, p2, p3, p4, p5, p6, p7, p8;
+
+        PaddedLock() {
+            super(false);
+        }
+    }
+}
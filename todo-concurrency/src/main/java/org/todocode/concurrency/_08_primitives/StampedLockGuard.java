@@ -0,0 +1,78 @@
+package org.todocode.concurrency._08_primitives;
+
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * [TodoCode] 基于 StampedLock 乐观读的状态保护器
+ *
+ * <h3>背景:</h3>
+ * 读多写少的状态 (配置、路由表、统计快照) 用 ReentrantLock 保护时，
+ * 读线程之间也要互相排队。ReadWriteLock 允许并发读，但读锁本身仍要 CAS 修改共享计数。
+ * StampedLock 的乐观读完全不写共享内存: 先读，再校验期间有没有写发生。
+ *
+ * <h3>易错点:</h3>
+ * 1. 乐观读期间可能看到"写了一半"的状态，reader 函数必须无副作用，
+ *    并且能容忍不一致的中间值 (不能因此抛异常或死循环)。
+ * 2. reader 返回的结果只有在 validate 成功后才可信，不要把对象内部的可变引用漏出去。
+ * 3. StampedLock 不可重入! 在 reader/writer 里再次调用本对象会死锁。
+ *
+ * <h3>核心理解:</h3>
+ * 乐观读失败时退化为悲观读锁，保证最终一定能读到一致的值。
+ * 写很少时几乎所有读都走无锁路径。
+ *
+ * TODO: 写比例升到 50% 时，乐观读的失败重试会不会让它比 ReentrantLock 更慢？
+ */
+public class StampedLockGuard<S> {
+
+    private final StampedLock lock = new StampedLock();
+    private final S state;
+
+    public StampedLockGuard(S state) {
+        this.state = state;
+    }
+
+    /**
+     * 先尝试乐观读，校验失败则退化为悲观读锁。
+     */
+    public <R> R read(Function<? super S, ? extends R> reader) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            R result = reader.apply(state);
+            if (lock.validate(stamp)) {
+                return result;
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return reader.apply(state);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * 在写锁内修改状态。
+     */
+    public void write(Consumer<? super S> writer) {
+        long stamp = lock.writeLock();
+        try {
+            writer.accept(state);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * 在写锁内修改状态并返回结果。
+     */
+    public <R> R writeAndGet(Function<? super S, ? extends R> writer) {
+        long stamp = lock.writeLock();
+        try {
+            return writer.apply(state);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+}
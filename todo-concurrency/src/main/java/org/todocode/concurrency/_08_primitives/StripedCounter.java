@@ -0,0 +1,218 @@
+package org.todocode.concurrency._08_primitives;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * [TodoCode] 竞争自适应计数器 (LongAdder 风格)
+ *
+ * <h3>背景:</h3>
+ * 用一把锁 (或一个 AtomicLong) 保护计数器时，所有线程都在争同一个缓存行。
+ * 线程越多，CAS 失败重试越多，吞吐量反而下降。
+ *
+ * <h3>易错点:</h3>
+ * 1. 把计数拆成多个 cell 后，如果 cell 紧挨着分配，它们仍在同一缓存行上 (伪共享)。
+ *    JDK 的 LongAdder 用 {@code @jdk.internal.vm.annotation.Contended} 填充，
+ *    但该注解需要 --add-exports 和 -XX:-RestrictContended，业务代码用不了。
+ *    这里用类继承链做手动填充: JVM 会重排同一个类内的字段，但父类字段总在子类字段之前。
+ * 2. sum() 不是原子快照，并发写入时读到的是某个近似值。
+ *
+ * <h3>核心理解:</h3>
+ * 无竞争时只 CAS 一个 base 字段，和 AtomicLong 一样便宜；
+ * 一旦 CAS 失败才创建 cell 数组，并在持续冲突时成倍扩容 (上限为 CPU 数)。
+ * 用空间换掉了竞争: 写很快，读 (sum) 变慢。
+ *
+ * TODO: 为什么计数器适合这种结构，而"先读后写"的序列号生成器不适合？
+ */
+public class StripedCounter {
+
+    private static final int MAX_CELLS = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1);
+
+    private static final VarHandle BASE;
+    private static final VarHandle BUSY;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            BASE = lookup.findVarHandle(StripedCounter.class, "base", long.class);
+            BUSY = lookup.findVarHandle(StripedCounter.class, "busy", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private volatile long base;
+    private volatile int busy; // 创建/扩容 cell 数组时的自旋锁
+    private volatile Cell[] cells;
+
+    public void increment() {
+        add(1L);
+    }
+
+    public void add(long x) {
+        Cell[] cs = cells;
+        if (cs == null) {
+            long b = base;
+            if (BASE.compareAndSet(this, b, b + x)) {
+                return; // 快速路径: 无竞争
+            }
+        }
+        contendedAdd(x);
+    }
+
+    private void contendedAdd(long x) {
+        int h = probe();
+        boolean collided = false;
+        while (true) {
+            Cell[] cs = cells;
+            if (cs == null) {
+                if (busy == 0 && BUSY.compareAndSet(this, 0, 1)) {
+                    try {
+                        if (cells == null) {
+                            Cell[] init = new Cell[2];
+                            init[h & 1] = new Cell(x);
+                            cells = init;
+                            return;
+                        }
+                    } finally {
+                        busy = 0;
+                    }
+                }
+                long b = base;
+                if (BASE.compareAndSet(this, b, b + x)) {
+                    return; // 别人正在初始化，回退到 base
+                }
+                continue;
+            }
+
+            Cell c = cs[h & (cs.length - 1)];
+            long v;
+            if (c == null) {
+                if (busy == 0 && BUSY.compareAndSet(this, 0, 1)) {
+                    try {
+                        Cell[] current = cells;
+                        int i = h & (current.length - 1);
+                        if (current[i] == null) {
+                            current[i] = new Cell(x);
+                            return;
+                        }
+                    } finally {
+                        busy = 0;
+                    }
+                }
+                collided = false;
+            } else if (c.cas(v = c.value, v + x)) {
+                return;
+            } else if (cs.length >= MAX_CELLS || cells != cs) {
+                collided = false; // 已到上限或已被别人扩容
+            } else if (!collided) {
+                collided = true; // 第一次冲突先换个 cell 再试
+            } else if (busy == 0 && BUSY.compareAndSet(this, 0, 1)) {
+                try {
+                    if (cells == cs) {
+                        Cell[] grown = new Cell[cs.length << 1];
+                        System.arraycopy(cs, 0, grown, 0, cs.length);
+                        cells = grown;
+                    }
+                } finally {
+                    busy = 0;
+                }
+                collided = false;
+                continue;
+            }
+            h = rehash(h);
+        }
+    }
+
+    public long sum() {
+        long sum = base;
+        Cell[] cs = cells;
+        if (cs != null) {
+            for (Cell c : cs) {
+                if (c != null) {
+                    sum += c.value;
+                }
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * 重置为 0。仅在没有并发更新时结果才准确。
+     */
+    public void reset() {
+        base = 0L;
+        Cell[] cs = cells;
+        if (cs != null) {
+            for (Cell c : cs) {
+                if (c != null) {
+                    c.value = 0L;
+                }
+            }
+        }
+    }
+
+    /**
+     * 当前 cell 数量，用于观察自适应扩容。
+     */
+    public int cellCount() {
+        Cell[] cs = cells;
+        return cs == null ? 0 : cs.length;
+    }
+
+    /**
+     * 同一线程总是从同一个 cell 开始尝试，保持缓存亲和性。
+     */
+    private static int probe() {
+        long id = Thread.currentThread().threadId();
+        int h = (int) (id * 0x9E3779B97F4A7C15L >>> 32); // 黄金分割乘法散列
+        return h == 0 ? 1 : h;
+    }
+
+    private static int rehash(int h) {
+        // xorshift 伪随机，冲突后换一个 cell
+        h ^= h << 13;
+        h ^= h >>> 17;
+        h ^= h << 5;
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(sum());
+    }
+
+    // ---- 手动填充: 前 64 字节 | value | 后 64 字节 ----
+
+    @SuppressWarnings("unused")
+    abstract static class CellPadBefore {
+        long p01, p02, p03, p04, p05, p06, p07;
+    }
+
+    abstract static class CellValue extends CellPadBefore {
+        volatile long value;
+    }
+
+    @SuppressWarnings("unused")
+    static final class Cell extends CellValue {
+        long p11, p12, p13, p14, p15, p16, p17;
+
+        private static final VarHandle VALUE;
+
+        static {
+            try {
+                VALUE = MethodHandles.lookup().findVarHandle(CellValue.class, "value", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        Cell(long x) {
+            value = x;
+        }
+
+        boolean cas(long expected, long update) {
+            return VALUE.compareAndSet(this, expected, update);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package org.todocode.concurrency._03_locks;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * [TodoCode] 带竞争分析的 ReentrantLock 测试
+ *
+ * 验证指标和 JFR 事件的正确性。无竞争路径的额外开销见 todo-benchmarks 的 ProfiledLockBenchmark。
+ */
+class ProfiledReentrantLockTest {
+
+    /**
+     * 让另一个线程持有锁 holdMillis 毫秒，当前线程在此期间调用 lock()。
+     */
+    private static void contend(ProfiledReentrantLock lock, long holdMillis) throws InterruptedException {
+        CountDownLatch held = new CountDownLatch(1);
+        Thread holder = new Thread(() -> {
+            lock.lock();
+            try {
+                held.countDown();
+                TimeUnit.MILLISECONDS.sleep(holdMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                lock.unlock();
+            }
+        });
+        holder.start();
+        held.await();
+
+        lock.lock();
+        lock.unlock();
+        holder.join();
+    }
+
+    @Test
+    @DisplayName("有竞争的获取应该记录等待时间和持有方的调用位置")
+    void testContendedAcquisitionRecorded() throws InterruptedException {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        ProfiledReentrantLock lock = new ProfiledReentrantLock("orders", false, registry, 1);
+
+        contend(lock, 50);
+        assertTrue(lock.topCallSites(5).isEmpty(), "第一次竞争之前还没有开始取调用位置");
+        contend(lock, 50);
+
+        Timer wait = registry.get("todocode.lock.wait").tag("lock", "orders").timer();
+        assertEquals(2, wait.count());
+        assertTrue(wait.max(TimeUnit.MILLISECONDS) >= 30, "等待时间应接近持有者的持有时间");
+        assertEquals(4.0, registry.get("todocode.lock.acquisitions").functionCounter().count());
+        assertEquals(2.0, registry.get("todocode.lock.acquisitions.contended").counter().count());
+
+        // 记下的是 holder 线程 (contend 里的 lambda) 加锁的位置，而不是排队的主线程
+        Map<String, Long> sites = lock.topCallSites(5);
+        assertEquals(1, sites.size(), sites.toString());
+        String site = sites.keySet().iterator().next();
+        assertTrue(site.contains("ProfiledReentrantLockTest.lambda$contend"), site);
+        assertEquals(1L, sites.get(site));
+    }
+
+    @Test
+    @DisplayName("采样率不为 1 时每 sampleRate 次获取采样一次持有时间")
+    void testHoldSampledEverySampleRate() {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        ProfiledReentrantLock lock = new ProfiledReentrantLock("sampled", false, registry, 4);
+        for (int i = 0; i < 10; i++) {
+            lock.lock();
+            lock.unlock();
+        }
+
+        assertEquals(10.0, registry.get("todocode.lock.acquisitions").functionCounter().count());
+        assertEquals(2, registry.get("todocode.lock.hold").timer().count(), "第 4 次和第 8 次获取被采样");
+        assertFalse(lock.isLocked());
+    }
+
+    @Test
+    @DisplayName("重入时只应该记录最外层的持有时间")
+    void testReentrantHoldRecordedOnce() {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        ProfiledReentrantLock lock = new ProfiledReentrantLock("reentrant", false, registry, 1);
+
+        lock.lock();
+        lock.lock();
+        lock.unlock();
+        lock.unlock();
+
+        assertEquals(1, registry.get("todocode.lock.hold").timer().count());
+        assertEquals(0, registry.get("todocode.lock.wait").timer().count(), "重入不算竞争");
+        assertFalse(lock.isLocked());
+    }
+
+    @Test
+    @DisplayName("Condition.await 期间不算持有时间: 等待前结束采样，醒来后重新开始")
+    void testConditionAwaitPausesHoldSample() throws Exception {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        ProfiledReentrantLock lock = new ProfiledReentrantLock("condition", false, registry, 1);
+        Condition ready = lock.newCondition();
+        CountDownLatch waiting = new CountDownLatch(1);
+        boolean[] flag = {false};
+
+        Thread waiter = new Thread(() -> {
+            lock.lock();
+            try {
+                TimeUnit.MILLISECONDS.sleep(30); // 第一段持有 ~30ms
+                waiting.countDown();
+                while (!flag[0]) {
+                    ready.await(); // 至少等 150ms
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                lock.unlock(); // 第二段持有 ~0ms
+            }
+        });
+        waiter.start();
+        waiting.await();
+        TimeUnit.MILLISECONDS.sleep(150);
+
+        lock.lock(); // 第三段持有 ~0ms
+        try {
+            assertTrue(lock.hasWaiters(ready), "包装过的 Condition 也应该能查询等待者");
+            assertEquals(1, lock.getWaitQueueLength(ready));
+            flag[0] = true;
+            ready.signal();
+        } finally {
+            lock.unlock();
+        }
+        waiter.join();
+
+        Timer hold = registry.get("todocode.lock.hold").timer();
+        assertEquals(3, hold.count(), "await 前后各是一段持有，加上 signal 一方的一段");
+        assertTrue(hold.max(TimeUnit.MILLISECONDS) >= 25, "第一段持有应该被记录: " + hold.max(TimeUnit.MILLISECONDS));
+        assertTrue(hold.totalTime(TimeUnit.MILLISECONDS) < 120,
+                "等待时间不应该算进持有时间: " + hold.totalTime(TimeUnit.MILLISECONDS) + "ms");
+        assertFalse(lock.isLocked());
+    }
+
+    @Test
+    @DisplayName("没有持锁就 await 时应该照常抛出 IllegalMonitorStateException")
+    void testAwaitWithoutLock() {
+        ProfiledReentrantLock lock = new ProfiledReentrantLock("unowned", false, new SimpleMeterRegistry(), 1);
+        assertThrows(IllegalMonitorStateException.class, () -> lock.newCondition().await());
+    }
+
+    @Test
+    @DisplayName("tryLock 超时应该计数")
+    void testTryLockTimeoutCounted() throws InterruptedException {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        ProfiledReentrantLock lock = new ProfiledReentrantLock("timeout", registry);
+
+        Thread holder = new Thread(lock::lock); // 持有后退出，锁永不释放
+        holder.start();
+        holder.join();
+
+        assertFalse(lock.tryLock(20, TimeUnit.MILLISECONDS));
+        assertFalse(lock.tryLock());
+        assertEquals(1.0, registry.get("todocode.lock.timeouts").counter().count());
+        assertEquals(0.0, registry.get("todocode.lock.queue.length").gauge().value());
+    }
+
+    @Test
+    @DisplayName("有竞争的获取应该产生 JFR 事件，带上持有方的调用位置")
+    void testJfrEventEmitted() throws Exception {
+        ProfiledReentrantLock lock = new ProfiledReentrantLock("jfr", false, new SimpleMeterRegistry(), 1);
+        Path file = Files.createTempFile("lock-contention", ".jfr");
+
+        try (Recording recording = new Recording()) {
+            recording.enable("org.todocode.LockContention").withThreshold(Duration.ZERO);
+            recording.enable("org.todocode.LockHold").withThreshold(Duration.ZERO);
+            recording.start();
+            contend(lock, 20);
+            recording.stop();
+            recording.dump(file);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        Files.deleteIfExists(file);
+        RecordedEvent event = events.stream()
+                .filter(e -> e.getEventType().getName().equals("org.todocode.LockContention"))
+                .findFirst()
+                .orElseThrow();
+        assertEquals("jfr", event.getString("lockName"));
+        assertTrue(event.getDuration().toMillis() >= 10);
+        // 录制持有事件时，第一次竞争就能拿到持有方的位置
+        assertTrue(event.getString("ownerCallSite").contains("lambda$contend"), event.getString("ownerCallSite"));
+
+        RecordedEvent hold = events.stream()
+                .filter(e -> e.getEventType().getName().equals("org.todocode.LockHold"))
+                .filter(e -> e.getDuration().toMillis() >= 10)
+                .findFirst()
+                .orElseThrow();
+        assertTrue(hold.getString("callSite").contains("lambda$contend"), hold.getString("callSite"));
+    }
+}
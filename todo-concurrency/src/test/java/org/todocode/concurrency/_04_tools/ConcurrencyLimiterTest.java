@@ -0,0 +1,257 @@
+package org.todocode.concurrency._04_tools;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.SQLTimeoutException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * [TodoCode] 自适应并发限制器测试
+ */
+class ConcurrencyLimiterTest {
+
+    /**
+     * 模拟下游: 并发不超过 capacity 时延迟为 base，超过后延迟按排队线性增长，
+     * 超过 3 倍容量时直接报过载错误。
+     */
+    private static final class FakeBackend {
+        private final int capacity;
+        private final long baseMillis;
+        private final AtomicInteger active = new AtomicInteger();
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder overloads = new LongAdder();
+
+        FakeBackend(int capacity, long baseMillis) {
+            this.capacity = capacity;
+            this.baseMillis = baseMillis;
+        }
+
+        void call() throws InterruptedException {
+            int n = active.incrementAndGet();
+            try {
+                calls.increment();
+                if (n > capacity * 3) {
+                    overloads.increment();
+                    throw new IllegalStateException("下游过载");
+                }
+                Thread.sleep((long) (baseMillis * Math.max(1.0, (double) n / capacity)));
+            } finally {
+                active.decrementAndGet();
+            }
+        }
+    }
+
+    private record Outcome(double averageLimit, double overloadRate, long rejected) {
+    }
+
+    /**
+     * 40 个客户端持续压测 1.5 秒，统计后半段的平均上限和过载比例。
+     * 过载失败是立即返回的，客户端会马上重试，所以按调用数统计的过载比例会偏高。
+     */
+    private static Outcome simulate(ConcurrencyLimiter limiter, FakeBackend backend) throws Exception {
+        int clients = 40;
+        AtomicLong stopAt = new AtomicLong(System.nanoTime() + Duration.ofMillis(1500).toNanos());
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            Thread t = new Thread(() -> {
+                try {
+                    while (System.nanoTime() < stopAt.get()) {
+                        ConcurrencyLimiter.Permit permit = limiter.tryAcquire(Duration.ofMillis(5));
+                        if (permit == null) {
+                            continue; // 被限流: 真实系统里这里会快速失败或降级
+                        }
+                        try {
+                            backend.call();
+                            permit.success();
+                        } catch (IllegalStateException e) {
+                            permit.dropped();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+
+        Thread.sleep(750); // 前半段是收敛期
+        long callsBefore = backend.calls.sum();
+        long overloadsBefore = backend.overloads.sum();
+        long limitSum = 0;
+        int samples = 0;
+        while (System.nanoTime() < stopAt.get()) {
+            limitSum += limiter.getLimit();
+            samples++;
+            Thread.sleep(10);
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        long calls = backend.calls.sum() - callsBefore;
+        long overloads = backend.overloads.sum() - overloadsBefore;
+        return new Outcome((double) limitSum / samples, (double) overloads / Math.max(1, calls),
+                limiter.getRejectedCount());
+    }
+
+    @Test
+    @DisplayName("对照组: 不限流时 40 个客户端会持续压垮容量为 10 的下游")
+    void testWithoutLimiter() throws Exception {
+        FakeBackend backend = new FakeBackend(10, 10);
+        ConcurrencyLimiter unlimited = new ConcurrencyLimiter("unlimited",
+                ConcurrencyLimiter.aimd(Duration.ofMillis(20), 0.9), 1000, 1000, 1000, new SimpleMeterRegistry());
+
+        Outcome outcome = simulate(unlimited, backend);
+        assertTrue(outcome.overloadRate() > 0.5, "不限流时大部分调用应该遇到过载: " + outcome.overloadRate());
+    }
+
+    @Test
+    @DisplayName("AIMD 应该把上限收敛到下游容量附近，而不是停在初始值或压垮下游")
+    void testAimdConverges() throws Exception {
+        FakeBackend backend = new FakeBackend(10, 10);
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("aimd",
+                ConcurrencyLimiter.aimd(Duration.ofMillis(20), 0.9), 40, 1, 200, new SimpleMeterRegistry());
+
+        Outcome outcome = simulate(limiter, backend);
+        assertTrue(outcome.averageLimit() >= 5 && outcome.averageLimit() <= 30,
+                "上限应该在容量附近: " + outcome);
+        assertTrue(outcome.overloadRate() < 0.2, "收敛后过载比例应该远低于不限流时: " + outcome);
+        assertTrue(outcome.rejected() > 0, "40 个客户端超过上限，应该有请求被拒绝: " + outcome);
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    @DisplayName("梯度算法应该从很小的初始值增长，并在 RTT 膨胀时停止增长")
+    void testGradientConverges() throws Exception {
+        FakeBackend backend = new FakeBackend(10, 10);
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("gradient",
+                ConcurrencyLimiter.gradient(1.5, 0.2), 2, 1, 200, new SimpleMeterRegistry());
+
+        Outcome outcome = simulate(limiter, backend);
+        assertTrue(outcome.averageLimit() >= 5 && outcome.averageLimit() <= 30,
+                "上限应该在容量附近: " + outcome);
+        assertTrue(outcome.overloadRate() < 0.2, "收敛后过载比例应该远低于不限流时: " + outcome);
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    @DisplayName("没有许可时 tryAcquire 应该等待到超时再拒绝，并计入指标")
+    void testTryAcquireTimeoutAndMetrics() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("db",
+                ConcurrencyLimiter.aimd(Duration.ofSeconds(1), 0.5), 1, 1, 10, registry);
+
+        ConcurrencyLimiter.Permit held = limiter.tryAcquire();
+        assertNotNull(held);
+        assertNull(limiter.tryAcquire());
+        long start = System.nanoTime();
+        assertNull(limiter.tryAcquire(Duration.ofMillis(100)));
+        assertTrue(System.nanoTime() - start >= Duration.ofMillis(90).toNanos(), "应该等待到超时");
+        assertThrows(RejectedExecutionException.class, () -> limiter.call(Duration.ZERO, () -> "x"));
+
+        assertEquals(1, registry.get("todocode.limiter.inflight").tag("limiter", "db").gauge().value());
+        assertEquals(3, registry.get("todocode.limiter.rejected").tag("limiter", "db").counter().count());
+
+        held.success(); // 在途 1 >= 上限 1 的一半: 加 1
+        assertEquals(2, limiter.getLimit());
+        assertEquals(2, registry.get("todocode.limiter.limit").tag("limiter", "db").gauge().value());
+        assertThrows(IllegalStateException.class, held::success);
+
+        assertThrows(IllegalArgumentException.class, () -> limiter.call(Duration.ZERO, () -> {
+            throw new IllegalArgumentException("参数错误");
+        }));
+        assertEquals(2, limiter.getLimit(), "客户端错误不代表下游过载，不应该收缩");
+        assertEquals(0, registry.get("todocode.limiter.dropped").tag("limiter", "db").counter().count());
+        assertEquals(0, limiter.getInFlight());
+
+        assertThrows(TimeoutException.class, () -> limiter.call(Duration.ZERO, () -> {
+            throw new TimeoutException("下游超时");
+        }));
+        assertEquals(1, limiter.getLimit(), "超时应该乘性收缩，但不低于 minLimit");
+        assertEquals(1, registry.get("todocode.limiter.dropped").tag("limiter", "db").counter().count());
+    }
+
+    @Test
+    @DisplayName("默认分类器沿 cause 链识别过载；自定义分类器决定哪些失败让上限收缩")
+    void testErrorClassifier() throws Exception {
+        assertTrue(ConcurrencyLimiter.isOverload(new RuntimeException(new SQLTimeoutException("查询超时"))));
+        assertTrue(ConcurrencyLimiter.isOverload(new UncheckedIOException(new IOException("连接被重置"))));
+        assertFalse(ConcurrencyLimiter.isOverload(new IllegalStateException("订单状态不对")));
+        assertFalse(ConcurrencyLimiter.isOverload(new AssertionError("bug")));
+
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("custom",
+                ConcurrencyLimiter.aimd(Duration.ofSeconds(1), 0.5), 8, 1, 10, new SimpleMeterRegistry());
+        Predicate<Throwable> overloaded = t -> t.getMessage().startsWith("503");
+        assertThrows(IllegalStateException.class, () -> limiter.call(Duration.ZERO, () -> {
+            throw new IllegalStateException("404 not found");
+        }, overloaded));
+        assertEquals(8, limiter.getLimit());
+        assertThrows(IllegalStateException.class, () -> limiter.call(Duration.ZERO, () -> {
+            throw new IllegalStateException("503 service unavailable");
+        }, overloaded));
+        assertEquals(4, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    @DisplayName("任务抛出 Error 时也要归还许可 (分类器判定为过载时记为 dropped)，上限不会因此泄漏")
+    void testErrorReleasesPermit() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("error",
+                ConcurrencyLimiter.aimd(Duration.ofSeconds(1), 0.5), 2, 2, 10, registry);
+
+        for (int i = 0; i < 5; i++) {
+            assertThrows(AssertionError.class, () -> limiter.call(Duration.ZERO, () -> {
+                throw new AssertionError("任务里的 Error");
+            }, t -> true));
+            assertEquals(0, limiter.getInFlight(), "第 " + i + " 次之后在途计数泄漏");
+        }
+        assertEquals(5, registry.get("todocode.limiter.dropped").tag("limiter", "error").counter().count());
+        assertEquals(2, limiter.getLimit(), "收缩不低于 minLimit");
+
+        // 许可全部归还: 上限 2 的两个许可都还能拿到
+        ConcurrencyLimiter.Permit first = limiter.tryAcquire();
+        ConcurrencyLimiter.Permit second = limiter.tryAcquire();
+        assertNotNull(first);
+        assertNotNull(second);
+        first.ignore();
+        second.ignore();
+        assertEquals("ok", limiter.call(Duration.ZERO, () -> "ok"));
+    }
+
+    @Test
+    @DisplayName("上限收缩后，在途请求归还的许可应该先抵消超出的部分")
+    void testShrinkBelowInFlight() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("shrink",
+                ConcurrencyLimiter.aimd(Duration.ofSeconds(1), 0.5), 4, 1, 10, new SimpleMeterRegistry());
+        List<ConcurrencyLimiter.Permit> permits = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            permits.add(limiter.tryAcquire());
+        }
+        permits.get(0).dropped(); // 上限 4 -> 2，在途 3
+        assertEquals(2, limiter.getLimit());
+        assertNull(limiter.tryAcquire(), "在途 3 个已超过新上限 2");
+        permits.get(1).ignore();
+        assertNull(limiter.tryAcquire(), "在途 2 个，等于上限");
+        permits.get(2).ignore();
+        ConcurrencyLimiter.Permit permit = limiter.tryAcquire();
+        assertNotNull(permit, "在途 1 个，低于上限");
+        permit.ignore();
+        permits.get(3).ignore();
+        assertEquals(0, limiter.getInFlight());
+    }
+}
@@ -0,0 +1,173 @@
+package org.todocode.concurrency._04_tools;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * [TodoCode] 分阶段并行批处理测试
+ */
+class PhasedBatchProcessorTest {
+
+    private static final List<Integer> DATA = IntStream.rangeClosed(1, 10_000).boxed().toList();
+
+    private record Stats(long sum, long count) {
+        Stats merge(Stats o) {
+            return new Stats(sum + o.sum, count + o.count);
+        }
+    }
+
+    /**
+     * 两阶段 ETL: 先求均值，再用均值求平方差之和。
+     */
+    private static PhasedBatchProcessor.Job<Integer> varianceJob(PhasedBatchProcessor processor, int partitions) {
+        return processor.job(DATA, partitions)
+                .phase("stats",
+                        (part, prev) -> new Stats(part.stream().mapToLong(i -> i).sum(), part.size()),
+                        Stats::merge)
+                .phase("squares",
+                        (part, prev) -> {
+                            Stats stats = prev.get("stats");
+                            double mean = (double) stats.sum() / stats.count();
+                            return part.stream().mapToDouble(i -> (i - mean) * (i - mean)).sum();
+                        },
+                        Double::sum);
+    }
+
+    @Test
+    @DisplayName("多阶段归约结果应该与顺序计算一致，后一阶段能读到前一阶段的结果")
+    void testPhasesAndReduction() throws Exception {
+        try (PhasedBatchProcessor processor = new PhasedBatchProcessor("etl", 3)) {
+            PhasedBatchProcessor.PhaseResults results = varianceJob(processor, 16).run(Duration.ofSeconds(30));
+
+            Stats stats = results.get("stats");
+            assertEquals(50_005_000L, stats.sum());
+            assertEquals(10_000, stats.count());
+            double mean = 5_000.5;
+            double expected = DATA.stream().mapToDouble(i -> (i - mean) * (i - mean)).sum();
+            assertEquals(expected, results.<Double>get("squares"), 1e-3);
+        }
+    }
+
+    @Test
+    @DisplayName("工作线程应该在多次运行之间复用，而不是每次新建")
+    void testWorkersAreReused() throws Exception {
+        try (PhasedBatchProcessor processor = new PhasedBatchProcessor("reuse", 2)) {
+            for (int run = 0; run < 20; run++) {
+                Stats stats = varianceJob(processor, 8).run(Duration.ofSeconds(30)).get("stats");
+                assertEquals(10_000, stats.count());
+            }
+            assertEquals(2, processor.threadsStarted());
+        }
+    }
+
+    @Test
+    @DisplayName("运行中扩容的线程应该加入当前任务，缩容的线程在阶段边界离开，结果不受影响")
+    void testDynamicJoinAndLeave() throws Exception {
+        try (PhasedBatchProcessor processor = new PhasedBatchProcessor("dynamic", 1)) {
+            Set<String> threads = ConcurrentHashMap.newKeySet();
+            CountDownLatch firstPartition = new CountDownLatch(1);
+            PhasedBatchProcessor.Job<Integer> job = processor.job(DATA, 40);
+            for (int p = 0; p < 3; p++) {
+                job.phase("p" + p, (part, prev) -> {
+                    threads.add(Thread.currentThread().getName());
+                    firstPartition.countDown();
+                    sleep(5);
+                    return (long) part.size();
+                }, Long::sum);
+            }
+
+            Thread resizer = new Thread(() -> {
+                try {
+                    firstPartition.await();
+                    processor.resize(4); // 加入正在运行的任务
+                    sleep(100);
+                    processor.resize(1); // 在阶段边界离开
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            resizer.start();
+            PhasedBatchProcessor.PhaseResults results = job.run(Duration.ofSeconds(30));
+            resizer.join();
+
+            for (int p = 0; p < 3; p++) {
+                assertEquals(10_000L, results.<Long>get("p" + p), "每个阶段都应该恰好处理全部数据一次");
+            }
+            assertTrue(threads.stream().filter(n -> n.startsWith("dynamic-")).count() >= 2,
+                    "扩容后的线程应该参与了处理: " + threads);
+            assertEquals(1, processor.workers());
+        }
+    }
+
+    @Test
+    @DisplayName("超时应该取消任务，处理器仍可用于下一次运行")
+    void testTimeout() throws Exception {
+        try (PhasedBatchProcessor processor = new PhasedBatchProcessor("timeout", 2)) {
+            PhasedBatchProcessor.Job<Integer> slow = processor.job(DATA, 100)
+                    .phase("slow", (part, prev) -> {
+                        sleep(50);
+                        return 1;
+                    }, Integer::sum);
+            long start = System.nanoTime();
+            assertThrows(TimeoutException.class, () -> slow.run(Duration.ofMillis(200)));
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(3), "超时后应该很快返回");
+
+            Stats stats = varianceJob(processor, 4).run(Duration.ofSeconds(30)).get("stats");
+            assertEquals(10_000, stats.count());
+        }
+    }
+
+    @Test
+    @DisplayName("分区处理失败应该以 ExecutionException 报告，取消应该以 CancellationException 报告")
+    void testFailureAndCancel() throws Exception {
+        try (PhasedBatchProcessor processor = new PhasedBatchProcessor("failure", 2)) {
+            PhasedBatchProcessor.Job<Integer> failing = processor.job(DATA, 8)
+                    .phase("ok", (part, prev) -> 1, Integer::sum)
+                    .phase("boom", (part, prev) -> {
+                        throw new IllegalStateException("坏数据");
+                    }, (a, b) -> a);
+            ExecutionException e = assertThrows(ExecutionException.class, () -> failing.run(Duration.ofSeconds(30)));
+            assertInstanceOf(IllegalStateException.class, e.getCause());
+
+            CountDownLatch running = new CountDownLatch(1);
+            PhasedBatchProcessor.Job<Integer> cancelled = processor.job(DATA, 100)
+                    .phase("slow", (part, prev) -> {
+                        running.countDown();
+                        sleep(20);
+                        return 1;
+                    }, Integer::sum);
+            Thread canceller = new Thread(() -> {
+                try {
+                    running.await();
+                    cancelled.cancel();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            canceller.start();
+            assertThrows(CancellationException.class, () -> cancelled.run(Duration.ofSeconds(30)));
+            canceller.join();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
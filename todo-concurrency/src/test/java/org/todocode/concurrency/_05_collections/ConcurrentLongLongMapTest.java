@@ -0,0 +1,177 @@
+package org.todocode.concurrency._05_collections;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * [TodoCode] 原始类型并发计数表测试
+ */
+class ConcurrentLongLongMapTest {
+
+    @Test
+    @DisplayName("单线程下的基本语义: 不存在的 key 视为 0")
+    void testBasicOperations() {
+        ConcurrentLongLongMap map = new ConcurrentLongLongMap(1, 4);
+        assertEquals(0, map.get(42));
+        assertFalse(map.containsKey(42));
+
+        assertEquals(1, map.incrementAndGet(42));
+        assertEquals(11, map.addAndGet(42, 10));
+        assertEquals(-5, map.addAndGet(-7, -5));
+        assertEquals(0, map.addAndGet(0, 0));
+        assertTrue(map.containsKey(0));
+        assertEquals(3, map.size());
+
+        for (long k = 100; k < 1100; k++) { // 触发多次扩容
+            map.addAndGet(k, k);
+        }
+        assertEquals(1003, map.size());
+        for (long k = 100; k < 1100; k++) {
+            assertEquals(k, map.get(k));
+        }
+        assertEquals(11, map.get(42), "扩容后旧值应该保留");
+
+        assertThrows(IllegalArgumentException.class, () -> map.addAndGet(Long.MIN_VALUE, 1));
+    }
+
+    @Test
+    @DisplayName("forEach 应该恰好访问每个 key 一次")
+    void testForEach() {
+        ConcurrentLongLongMap map = new ConcurrentLongLongMap(4, 8);
+        for (long k = 0; k < 500; k++) {
+            map.addAndGet(k, k * 2);
+        }
+        Map<Long, Long> seen = new HashMap<>();
+        map.forEach((k, v) -> assertNull(seen.put(k, v), "重复访问 " + k));
+        assertEquals(500, seen.size());
+        seen.forEach((k, v) -> assertEquals(k * 2, v));
+    }
+
+    @Test
+    @DisplayName("并发自增与并发扩容同时发生时，增量不应该丢失")
+    void testConcurrentAddsDuringResize() throws Exception {
+        ConcurrentLongLongMap map = new ConcurrentLongLongMap(4, 4); // 很小的初始容量，迫使大量扩容
+        int threads = 4;
+        int keys = 5_000;
+        int rounds = 20;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int offset = t;
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int r = 0; r < rounds; r++) {
+                    for (int i = 0; i < keys; i++) {
+                        map.incrementAndGet((i + offset * 997L) % keys); // 各线程以不同顺序访问
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> f : futures) {
+            f.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertEquals(keys, map.size());
+        for (long k = 0; k < keys; k++) {
+            assertEquals((long) threads * rounds, map.get(k), "key " + k);
+        }
+    }
+
+    @Test
+    @DisplayName("并发插入新 key 与扩容交错时，size() 应该等于不同 key 的个数，不会越扩容越大")
+    void testSizeAfterConcurrentInsertsDuringResize() throws Exception {
+        int threads = 4;
+        int keys = 20_000;
+        for (int round = 0; round < 10; round++) {
+            ConcurrentLongLongMap map = new ConcurrentLongLongMap(1, 4); // 只有一段: 每次扩容都和所有插入竞争
+            CountDownLatch start = new CountDownLatch(1);
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int offset = t;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    // 一半 key 各线程独有，一半所有线程都插入
+                    for (int i = 0; i < keys / 2; i++) {
+                        map.incrementAndGet(keys + offset * (long) keys + i);
+                        map.incrementAndGet(i);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> f : futures) {
+                f.get(60, TimeUnit.SECONDS);
+            }
+            executor.shutdown();
+
+            int distinct = keys / 2 + threads * keys / 2;
+            assertEquals(distinct, map.size(), "第 " + round + " 轮");
+            int[] visited = {0};
+            map.forEach((k, v) -> visited[0]++);
+            assertEquals(distinct, visited[0]);
+        }
+    }
+
+    @Test
+    @DisplayName("int -> long 版本应该接受任意 int，包括 Integer.MIN_VALUE")
+    void testIntLongMap() {
+        ConcurrentIntLongMap map = new ConcurrentIntLongMap();
+        assertEquals(3, map.addAndGet(Integer.MIN_VALUE, 3));
+        assertEquals(1, map.incrementAndGet(Integer.MAX_VALUE));
+        assertEquals(3, map.get(Integer.MIN_VALUE));
+        assertEquals(2, map.size());
+
+        Map<Integer, Long> seen = new HashMap<>();
+        map.forEach(seen::put);
+        assertEquals(Map.of(Integer.MIN_VALUE, 3L, Integer.MAX_VALUE, 1L), seen);
+    }
+
+    @Test
+    @DisplayName("已有 key 上的 addAndGet 不应该分配内存，而 ConcurrentHashMap.merge 会")
+    void testNoAllocationOnHotPath() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        ConcurrentLongLongMap map = new ConcurrentLongLongMap();
+        ConcurrentHashMap<Long, Long> chm = new ConcurrentHashMap<>();
+        int keys = 1024;
+        int ops = 200_000;
+
+        long mapBytes = 0;
+        long chmBytes = 0;
+        for (int round = 0; round < 5; round++) { // 前几轮用于预热和插入 key
+            long before = threads.getCurrentThreadAllocatedBytes();
+            for (int i = 0; i < ops; i++) {
+                map.addAndGet(i & (keys - 1), 1000);
+            }
+            mapBytes = threads.getCurrentThreadAllocatedBytes() - before;
+
+            before = threads.getCurrentThreadAllocatedBytes();
+            for (int i = 0; i < ops; i++) {
+                chm.merge((long) (i & (keys - 1)), 1000L, Long::sum);
+            }
+            chmBytes = threads.getCurrentThreadAllocatedBytes() - before;
+        }
+        assertTrue(mapBytes / ops < 1, "原始类型表每次操作分配 " + (double) mapBytes / ops + " 字节");
+        assertTrue(chmBytes / ops >= 16, "merge 每次至少装箱一个 Long，实际 " + (double) chmBytes / ops + " 字节");
+        assertEquals(chm.get(7L), map.get(7));
+    }
+}
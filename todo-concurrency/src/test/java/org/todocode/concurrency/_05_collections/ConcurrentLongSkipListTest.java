@@ -0,0 +1,155 @@
+package org.todocode.concurrency._05_collections;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * [TodoCode] 原始 long 键跳表测试
+ */
+class ConcurrentLongSkipListTest {
+
+    @Test
+    @DisplayName("单线程随机操作下应该与 TreeMap 一致")
+    void testMatchesTreeMap() {
+        TreeMap<Long, String> expected = new TreeMap<>();
+        ConcurrentLongSkipList<String> list = new ConcurrentLongSkipList<>();
+        Random random = new Random(11);
+        for (int i = 0; i < 30_000; i++) {
+            long key = random.nextInt(2_000) - 1_000;
+            switch (random.nextInt(4)) {
+                case 0 -> assertEquals(expected.remove(key), list.remove(key));
+                case 1 -> assertEquals(expected.putIfAbsent(key, "p" + i), list.putIfAbsent(key, "p" + i));
+                default -> assertEquals(expected.put(key, "v" + i), list.put(key, "v" + i));
+            }
+        }
+        assertEquals(expected.size(), list.size());
+        for (long key = -1_100; key <= 1_100; key++) {
+            assertEquals(expected.get(key), list.get(key));
+            Map.Entry<Long, String> floor = expected.floorEntry(key);
+            Map.Entry<Long, String> ceiling = expected.ceilingEntry(key);
+            assertEquals(floor == null ? null : floor.getValue(), list.floorValue(key), "floor " + key);
+            assertEquals(ceiling == null ? null : ceiling.getValue(), list.ceilingValue(key), "ceiling " + key);
+            if (floor != null) {
+                assertEquals(floor.getKey(), list.floorEntry(key).key());
+            }
+        }
+
+        List<Long> keys = new ArrayList<>();
+        list.range(-500, 500).forEach((k, v) -> {
+            keys.add(k);
+            assertEquals(expected.get(k), v);
+        });
+        assertEquals(new ArrayList<>(expected.subMap(-500L, 500L).keySet()), keys);
+    }
+
+    @Test
+    @DisplayName("极端 key 和空表")
+    void testEdgeKeys() {
+        ConcurrentLongSkipList<String> list = new ConcurrentLongSkipList<>();
+        assertTrue(list.isEmpty());
+        assertNull(list.floorValue(0));
+        assertNull(list.ceilingValue(0));
+
+        list.put(Long.MIN_VALUE, "min");
+        list.put(Long.MAX_VALUE, "max");
+        list.put(0, "zero");
+        assertEquals("min", list.floorValue(-1));
+        assertEquals("min", list.floorValue(Long.MIN_VALUE));
+        assertEquals("max", list.ceilingValue(1));
+        assertEquals(2, list.range(Long.MIN_VALUE, Long.MAX_VALUE).count());
+        assertEquals(0, list.range(5, 5).count());
+        assertThrows(IllegalArgumentException.class, () -> list.range(5, 4));
+    }
+
+    @Test
+    @DisplayName("范围视图不复制: 创建视图后的插入在遍历时可见")
+    void testRangeViewIsLive() {
+        ConcurrentLongSkipList<Integer> list = new ConcurrentLongSkipList<>();
+        list.put(10, 10);
+        ConcurrentLongSkipList.Range<Integer> range = list.range(0, 100);
+        assertEquals(1, range.count());
+        list.put(50, 50);
+        list.put(200, 200);
+        assertEquals(2, range.count());
+
+        ConcurrentLongSkipList.Cursor<Integer> cursor = range.cursor();
+        assertTrue(cursor.advance());
+        assertEquals(10, cursor.key());
+        list.remove(50); // 游标之后的删除在遍历中可见
+        assertFalse(cursor.advance());
+    }
+
+    @Test
+    @DisplayName("批量构建: 结果与逐个插入相同，并拒绝无序输入")
+    void testBulkLoad() {
+        int n = 10_000;
+        long[] keys = LongStream.range(0, n).map(i -> i * 3).toArray();
+        List<Integer> values = IntStream.range(0, n).boxed().toList();
+        ConcurrentLongSkipList<Integer> list = ConcurrentLongSkipList.fromSorted(keys, values);
+        assertEquals(n, list.size());
+        for (int i = 0; i < n; i++) {
+            assertEquals(i, list.get(i * 3L));
+            assertEquals(i, list.floorValue(i * 3L + 2));
+        }
+        // 批量构建后继续并发安全地修改
+        list.put(1, -1);
+        assertEquals(-1, list.ceilingValue(1));
+        assertEquals(0, list.remove(0));
+        assertEquals(-1, list.floorValue(2));
+
+        assertThrows(IllegalArgumentException.class,
+                () -> ConcurrentLongSkipList.fromSorted(new long[]{1, 1}, List.of("a", "b")));
+    }
+
+    @Test
+    @DisplayName("并发插入和删除后，剩余元素应该恰好是未被删除的那些")
+    void testConcurrentPutRemove() throws Exception {
+        ConcurrentLongSkipList<Long> list = new ConcurrentLongSkipList<>();
+        int threads = 4;
+        int perThread = 5_000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    long key = (long) i * threads + id; // 线程间交错的 key
+                    list.put(key, key);
+                    if (i % 3 == 0) {
+                        assertEquals(key, list.remove(key));
+                    }
+                    list.floorValue(key); // 与修改交错的查询
+                }
+            }));
+        }
+        for (Future<?> f : futures) {
+            f.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        long expected = 0;
+        for (long key = 0; key < (long) threads * perThread; key++) {
+            boolean removed = (key / threads) % 3 == 0;
+            assertEquals(removed ? null : key, list.get(key), "key " + key);
+            if (!removed) {
+                expected++;
+            }
+        }
+        assertEquals(expected, list.size());
+        assertEquals(expected, list.range(Long.MIN_VALUE, Long.MAX_VALUE).count());
+    }
+}
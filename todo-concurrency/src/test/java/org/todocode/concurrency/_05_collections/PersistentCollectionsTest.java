@@ -0,0 +1,181 @@
+package org.todocode.concurrency._05_collections;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * [TodoCode] 持久化集合测试
+ */
+class PersistentCollectionsTest {
+
+    @Test
+    @DisplayName("持久化向量在多层树上的行为应该与 ArrayList 一致")
+    void testVectorMatchesArrayList() {
+        List<Integer> expected = new ArrayList<>();
+        PersistentVector<Integer> vector = PersistentVector.empty();
+        int n = 40_000; // 超过 32^3，树会长到 3 层以上
+        for (int i = 0; i < n; i++) {
+            vector = vector.plus(i);
+            expected.add(i);
+        }
+        assertEquals(n, vector.size());
+        Random random = new Random(42);
+        for (int i = 0; i < 5_000; i++) {
+            int index = random.nextInt(n);
+            vector = vector.with(index, -index);
+            expected.set(index, -index);
+        }
+        for (int i = 0; i < n; i++) {
+            assertEquals(expected.get(i), vector.get(i), "index " + i);
+        }
+        List<Integer> iterated = new ArrayList<>();
+        vector.forEach(iterated::add);
+        assertEquals(expected, iterated);
+
+        while (!vector.isEmpty()) { // pop 到空，经过每一次降层
+            vector = vector.pop();
+            expected.removeLast();
+            if (vector.size() % 997 == 0) {
+                assertEquals(expected.size(), vector.size());
+                if (!expected.isEmpty()) {
+                    assertEquals(expected.getLast(), vector.get(vector.size() - 1));
+                }
+            }
+        }
+        assertThrows(IndexOutOfBoundsException.class, () -> PersistentVector.of(1, 2).get(2));
+    }
+
+    @Test
+    @DisplayName("旧版本不应该被之后的修改影响 (结构共享)")
+    void testVectorVersionsAreIndependent() {
+        PersistentVector<String> v1 = PersistentVector.empty();
+        for (int i = 0; i < 100; i++) {
+            v1 = v1.plus("a" + i);
+        }
+        PersistentVector<String> v2 = v1.with(5, "changed").plus("tail");
+        PersistentVector<String> v3 = v1.pop();
+
+        assertEquals("a5", v1.get(5));
+        assertEquals(100, v1.size());
+        assertEquals("changed", v2.get(5));
+        assertEquals(101, v2.size());
+        assertEquals(99, v3.size());
+        assertEquals("a98", v3.get(98));
+    }
+
+    /**
+     * 哈希值很少的 key，迫使大量冲突节点出现。
+     */
+    private record BadKey(int id) {
+        @Override
+        public int hashCode() {
+            return id % 7;
+        }
+    }
+
+    @Test
+    @DisplayName("HAMT 在随机增删 (包括哈希冲突) 下应该与 HashMap 一致")
+    void testHashMapMatchesHashMap() {
+        Map<Object, Integer> expected = new HashMap<>();
+        PersistentHashMap<Object, Integer> map = PersistentHashMap.empty();
+        Random random = new Random(7);
+        for (int i = 0; i < 50_000; i++) {
+            Object key = random.nextInt(4) == 0 ? new BadKey(random.nextInt(50)) : random.nextInt(5_000);
+            if (random.nextInt(3) == 0) {
+                map = map.minus(key);
+                expected.remove(key);
+            } else {
+                map = map.plus(key, i);
+                expected.put(key, i);
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Object, Integer> e : expected.entrySet()) {
+            assertEquals(e.getValue(), map.get(e.getKey()));
+        }
+        Map<Object, Integer> iterated = new HashMap<>();
+        map.forEach((k, v) -> assertNull(iterated.put(k, v)));
+        assertEquals(expected, iterated);
+
+        for (Object key : expected.keySet()) {
+            map = map.minus(key);
+        }
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    @DisplayName("HAMT 的无变化修改应该返回同一个实例，旧版本保持不变")
+    void testHashMapSharing() {
+        PersistentHashMap<String, Integer> m1 = PersistentHashMap.<String, Integer>empty().plus("a", 1).plus("b", 2);
+        Integer one = m1.get("a");
+        assertSame(m1, m1.plus("a", one));
+        assertSame(m1, m1.minus("missing"));
+
+        PersistentHashMap<String, Integer> m2 = m1.plus("a", 10).minus("b");
+        assertEquals(1, m1.get("a"));
+        assertEquals(2, m1.get("b"));
+        assertEquals(10, m2.get("a"));
+        assertNull(m2.get("b"));
+        assertEquals(1, m2.size());
+    }
+
+    @Test
+    @DisplayName("并发写入不应该丢失更新，快照在写入期间保持不变")
+    void testConcurrentSnapshots() throws Exception {
+        SnapshotList<Integer> list = new SnapshotList<>();
+        SnapshotMap<Integer, Integer> map = new SnapshotMap<>();
+        int threads = 4;
+        int perThread = 2_000;
+
+        PersistentVector<Integer> before = list.snapshot();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int base = t * perThread;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    list.add(base + i);
+                    map.put(base + i, i);
+                    if (i % 2 == 0) {
+                        map.remove(base + i);
+                    }
+                    PersistentVector<Integer> snapshot = list.snapshot();
+                    int size = snapshot.size();
+                    int sum = 0;
+                    for (Integer ignored : snapshot) {
+                        sum++;
+                    }
+                    assertEquals(size, sum, "快照遍历期间大小不应该变化");
+                }
+            }));
+        }
+        for (Future<?> f : futures) {
+            f.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertTrue(before.isEmpty());
+        assertEquals(threads * perThread, list.size());
+        assertEquals(threads * perThread / 2, map.size());
+        assertEquals(threads * perThread, new HashSet<>(toList(list.snapshot())).size());
+    }
+
+    private static <E> List<E> toList(Iterable<E> iterable) {
+        List<E> result = new ArrayList<>();
+        iterable.forEach(result::add);
+        return result;
+    }
+}
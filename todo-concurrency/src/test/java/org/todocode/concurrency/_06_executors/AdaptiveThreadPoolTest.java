@@ -0,0 +1,167 @@
+package org.todocode.concurrency._06_executors;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.lang.ref.WeakReference;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * [TodoCode] 自适应线程池测试
+ *
+ * 用负载发生器制造"低 -> 高 -> 低"三段负载，观察线程数跟随收敛。
+ */
+class AdaptiveThreadPoolTest {
+
+    /**
+     * 以固定速率提交耗时 taskMillis 的阻塞任务，持续 durationMillis。
+     *
+     * @return 被拒绝的任务数
+     */
+    private static long generateLoad(AdaptiveThreadPool pool, int tasksPerSecond, long taskMillis,
+                                     long durationMillis) throws InterruptedException {
+        long rejected = 0;
+        long tickMillis = 10;
+        int perTick = Math.max(1, tasksPerSecond / 100);
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        while (System.nanoTime() < end) {
+            for (int i = 0; i < perTick; i++) {
+                try {
+                    pool.execute(() -> sleep(taskMillis));
+                } catch (RejectedExecutionException e) {
+                    rejected++;
+                }
+            }
+            TimeUnit.MILLISECONDS.sleep(tickMillis);
+        }
+        return rejected;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    @DisplayName("线程数应该随负载变化而扩容和缩容")
+    void testConvergesUnderShiftingLoad() throws Exception {
+        AdaptiveThreadPool pool = new AdaptiveThreadPool("adaptive", 1, 64, 10_000,
+                Duration.ofMillis(5), Duration.ofSeconds(2), Duration.ofMillis(50));
+        try {
+            // 低负载: 100 个/秒 × 10ms = 需要 1 个线程
+            long rejected = generateLoad(pool, 100, 10, 500);
+            int low = pool.getCurrentLimit();
+            assertTrue(low <= 4, "低负载下不应该扩容太多: " + low
+                    + "，排队延迟 " + pool.getAverageQueueDelay().toMillis() + "ms");
+
+            // 高负载: 1000 个/秒 × 10ms = 需要 10 个线程
+            rejected += generateLoad(pool, 1000, 10, 1000);
+            int high = pool.getCurrentLimit();
+            String state = "线程数 " + high + "，排队延迟 " + pool.getAverageQueueDelay().toMillis()
+                    + "ms，吞吐 " + (long) pool.getThroughput() + "/s";
+            assertTrue(high >= 8, "高负载下应该扩容到 Little 定律估计附近: " + state);
+            assertTrue(pool.getAverageQueueDelay().toMillis() < 100, "扩容后排队延迟应该回落: " + state);
+
+            // 负载回落: 每个周期最多缩 25%，约 6 个周期缩回
+            rejected += generateLoad(pool, 100, 10, 1000);
+            int after = pool.getCurrentLimit();
+            assertTrue(after < high, "负载回落后应该缩容: " + high + " -> " + after);
+            assertTrue(after <= 4, "应该缩回到接近低负载的水平: " + after);
+
+            assertEquals(0, rejected, "正常负载下不应该拒绝任务");
+            assertEquals(0, pool.getTunerFailures());
+        } finally {
+            pool.shutdownNow();
+            assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    @DisplayName("过载时应该快速失败，绝不在调用方线程上执行任务")
+    void testFastFailInsteadOfCallerRuns() throws Exception {
+        AdaptiveThreadPool pool = new AdaptiveThreadPool("shed", 1, 1, 1000,
+                Duration.ofMillis(5), Duration.ofMillis(100), Duration.ofMillis(50));
+        Set<String> runners = ConcurrentHashMap.newKeySet();
+        try {
+            // 先跑几个任务让线程池学到执行时间
+            for (int i = 0; i < 3; i++) {
+                pool.execute(() -> sleep(50));
+            }
+            TimeUnit.MILLISECONDS.sleep(300);
+            assertTrue(pool.getAverageExecutionTime().toMillis() >= 40);
+
+            AtomicLong accepted = new AtomicLong();
+            long rejected = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < 50; i++) {
+                try {
+                    pool.execute(() -> {
+                        runners.add(Thread.currentThread().getName());
+                        sleep(50);
+                    });
+                    accepted.incrementAndGet();
+                } catch (RejectedExecutionException e) {
+                    rejected++;
+                }
+            }
+            long submitMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            // 1 个线程、每个任务 50ms、排队上限 100ms: 队列里最多积压约 2~3 个任务
+            assertTrue(accepted.get() <= 5, "接受的任务数: " + accepted.get());
+            assertEquals(50 - accepted.get(), rejected);
+            assertEquals(rejected, pool.getRejectedCount());
+            assertTrue(submitMillis < 50, "拒绝应该是立即的，提交耗时 " + submitMillis + "ms");
+        } finally {
+            pool.shutdown();
+            assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+        }
+        String caller = Thread.currentThread().getName();
+        assertFalse(runners.contains(caller), "任务不应该在调用方线程上执行");
+        assertTrue(runners.stream().allMatch(n -> n.startsWith("shed-worker-")));
+    }
+
+    @Test
+    @DisplayName("忘了 shutdown 的线程池应该能被回收，回收后调优线程随之退出")
+    void testAbandonedPoolIsCollected() throws Exception {
+        WeakReference<AdaptiveThreadPool> ref = abandonedPool();
+        assertTrue(tunerThreads("abandoned").stream().allMatch(Thread::isDaemon), "调优线程应该是守护线程");
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while ((ref.get() != null || !tunerThreads("abandoned").isEmpty()) && System.nanoTime() < deadline) {
+            System.gc();
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+        assertNull(ref.get(), "调优线程不应该让线程池一直可达");
+        assertEquals(List.of(), tunerThreads("abandoned"), "线程池被回收后调优线程应该退出");
+    }
+
+    private static WeakReference<AdaptiveThreadPool> abandonedPool() {
+        AdaptiveThreadPool pool = new AdaptiveThreadPool("abandoned", 1, 4, 10,
+                Duration.ofMillis(5), Duration.ofMillis(100), Duration.ofMillis(10));
+        return new WeakReference<>(pool);
+    }
+
+    private static List<Thread> tunerThreads(String name) {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(t -> t.getName().startsWith(name + "-tuner-"))
+                .toList();
+    }
+
+    @Test
+    @DisplayName("非法参数应该被拒绝")
+    void testInvalidArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new AdaptiveThreadPool("bad", 4, 2, 10,
+                Duration.ofMillis(5), Duration.ofMillis(100), Duration.ofMillis(50)));
+    }
+}
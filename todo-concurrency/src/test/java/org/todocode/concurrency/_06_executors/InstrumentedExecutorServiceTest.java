@@ -0,0 +1,220 @@
+package org.todocode.concurrency._06_executors;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.slf4j.MDC;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * [TodoCode] 带指标的 ExecutorService 装饰器测试
+ */
+class InstrumentedExecutorServiceTest {
+
+    private static ThreadPoolExecutor singleThreadPool(int queueCapacity, ThreadPoolExecutor.AbortPolicy policy) {
+        return new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueCapacity), policy);
+    }
+
+    @Test
+    @DisplayName("应该分别记录排队时间和执行时间")
+    void testQueueWaitAndExecutionRecorded() throws Exception {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        ExecutorService executor = new InstrumentedExecutorService("orders",
+                singleThreadPool(10, new ThreadPoolExecutor.AbortPolicy()), registry, ContextPropagator.NONE);
+
+        Future<?> slow = executor.submit(() -> {
+            TimeUnit.MILLISECONDS.sleep(100);
+            return null;
+        });
+        Future<?> queued = executor.submit(() -> { }); // 必须等前一个任务跑完
+        slow.get();
+        queued.get();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+        Timer queueWait = registry.get("todocode.executor.queue.wait").tag("name", "orders").timer();
+        Timer execution = registry.get("todocode.executor.execution").tag("name", "orders").timer();
+        assertEquals(2, queueWait.count());
+        assertEquals(2, execution.count());
+        assertTrue(queueWait.max(TimeUnit.MILLISECONDS) >= 80, "第二个任务排队约 100ms");
+        assertTrue(execution.max(TimeUnit.MILLISECONDS) >= 90, "第一个任务执行约 100ms");
+    }
+
+    @Test
+    @DisplayName("traceId 应该传递到工作线程，执行后工作线程的 MDC 应该恢复")
+    void testMdcPropagated() throws Exception {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        ExecutorService executor = new InstrumentedExecutorService("mdc",
+                singleThreadPool(10, new ThreadPoolExecutor.AbortPolicy()), registry, ContextPropagator.mdcKey("traceId"));
+        try {
+            MDC.put("traceId", "trace-42");
+            Future<String> seen = executor.submit(() -> MDC.get("traceId"));
+            assertEquals("trace-42", seen.get());
+
+            MDC.remove("traceId");
+            Future<String> after = executor.submit(() -> MDC.get("traceId"));
+            assertNull(after.get(), "上一个任务的 traceId 不应该漏到下一个任务");
+
+            MDC.put("traceId", "trace-43");
+            CountDownLatch ran = new CountDownLatch(1);
+            String[] holder = new String[1];
+            executor.execute(() -> {
+                holder[0] = MDC.get("traceId");
+                ran.countDown();
+            });
+            assertTrue(ran.await(5, TimeUnit.SECONDS));
+            assertEquals("trace-43", holder[0]);
+        } finally {
+            MDC.clear();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("拒绝应该按拒绝策略计数，并暴露活跃线程和队列深度")
+    void testRejectionsAndGauges() throws Exception {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        ExecutorService executor = new InstrumentedExecutorService("tiny",
+                singleThreadPool(1, new ThreadPoolExecutor.AbortPolicy()), registry, ContextPropagator.NONE);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+
+        executor.execute(() -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        executor.execute(() -> { });
+        assertThrows(RejectedExecutionException.class, () -> executor.execute(() -> { }));
+
+        assertEquals(1, registry.get("todocode.executor.active").gauge().value());
+        assertEquals(1, registry.get("todocode.executor.queue.depth").gauge().value());
+        assertEquals(1, registry.get("todocode.executor.rejected").tag("policy", "AbortPolicy").counter().count());
+
+        assertEquals(1, executor.shutdownNow().size());
+        assertEquals(1, registry.get("todocode.executor.dropped").counter().count());
+        release.countDown();
+    }
+
+    @Test
+    @DisplayName("装饰器包装而不是替换线程池原来的拒绝策略: 先计数，再原样委托，原 handler 可以取回")
+    void testOriginalHandlerKept() {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        List<Runnable> handled = new ArrayList<>();
+        RejectedExecutionHandler custom = (r, executor) -> handled.add(r);
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new SynchronousQueue<>(), custom);
+        ExecutorService executor = new InstrumentedExecutorService("custom", pool, registry, ContextPropagator.NONE);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            executor.execute(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            executor.execute(() -> { }); // 没有空闲线程，SynchronousQueue 放不下: 由原 handler 处理，不抛异常
+
+            assertEquals(1, handled.size(), "拒绝应该交给原 handler");
+            assertEquals(1, registry.get("todocode.executor.rejected").tag("name", "custom").counter().count());
+            InstrumentedExecutorService.CountingRejectionHandler wrapper =
+                    assertInstanceOf(InstrumentedExecutorService.CountingRejectionHandler.class,
+                            pool.getRejectedExecutionHandler());
+            assertSame(custom, wrapper.delegate());
+
+            // 再装饰一次: policy 标签仍是原 handler 的名字，而不是包装类的名字
+            new InstrumentedExecutorService("twice", pool, registry, ContextPropagator.NONE);
+            assertEquals(custom.getClass().getSimpleName(),
+                    registry.get("todocode.executor.rejected").tag("name", "twice").counter().getId().getTag("policy"));
+        } finally {
+            release.countDown();
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("CallerRunsPolicy 这类不抛异常的拒绝也应该被计数")
+    void testCallerRunsCounted() {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        ExecutorService executor = new ThreadPoolDemo().createInstrumentedThreadPool(registry);
+        try {
+            for (int i = 0; i < 30; i++) {
+                executor.execute(() -> {
+                    try {
+                        TimeUnit.MILLISECONDS.sleep(20);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+            // 5 个线程 + 10 个队列位置，第 16 个任务起开始由调用方执行
+            assertTrue(registry.get("todocode.executor.rejected").tag("policy", "CallerRunsPolicy")
+                    .counter().count() >= 1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("execute 每个任务只应该多分配一个小包装对象")
+    void testAllocationPerTask() throws Exception {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Runnable noop = () -> { };
+        int n = 20_000;
+
+        // 队列多留一个位置给 awaitIdle 的标记任务: 单核上工作线程可能一个都还没取走
+        ThreadPoolExecutor raw = singleThreadPool(n + 1, new ThreadPoolExecutor.AbortPolicy());
+        ExecutorService instrumented = new InstrumentedExecutorService("alloc",
+                singleThreadPool(n + 1, new ThreadPoolExecutor.AbortPolicy()), new SimpleMeterRegistry(),
+                ContextPropagator.mdcKey("traceId"));
+        try {
+            long rawBytes = 0;
+            long instrumentedBytes = 0;
+            for (int round = 0; round < 5; round++) { // 前几轮用于预热
+                long before = threads.getCurrentThreadAllocatedBytes();
+                for (int i = 0; i < n; i++) {
+                    raw.execute(noop);
+                }
+                rawBytes = threads.getCurrentThreadAllocatedBytes() - before;
+
+                before = threads.getCurrentThreadAllocatedBytes();
+                for (int i = 0; i < n; i++) {
+                    instrumented.execute(noop);
+                }
+                instrumentedBytes = threads.getCurrentThreadAllocatedBytes() - before;
+                awaitIdle(raw);
+                awaitIdle(instrumented);
+            }
+            double extraPerTask = (double) (instrumentedBytes - rawBytes) / n;
+            assertTrue(extraPerTask <= 48, "每个任务额外分配 " + extraPerTask + " 字节");
+        } finally {
+            raw.shutdownNow();
+            instrumented.shutdownNow();
+        }
+    }
+
+    private static void awaitIdle(ExecutorService executor) throws Exception {
+        executor.submit(() -> { }).get(10, TimeUnit.SECONDS); // 单线程 FIFO: 它完成说明之前的都完成了
+    }
+}
@@ -0,0 +1,213 @@
+package org.todocode.concurrency._06_executors;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.todocode.concurrency._06_executors.PriorityDeadlineExecutor.PriorityClass;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * [TodoCode] 优先级 + 截止时间调度测试
+ */
+class PriorityDeadlineExecutorTest {
+
+    /**
+     * 占住唯一的工作线程，直到 latch 被放行。
+     */
+    private static CountDownLatch blockWorker(PriorityDeadlineExecutor executor) throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        executor.submit(PriorityClass.INTERACTIVE, Duration.ofMinutes(1), () -> {
+            started.countDown();
+            release.await();
+            return null;
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        return release;
+    }
+
+    @Test
+    @DisplayName("高优先级类别先执行，同一类别内按截止时间最早优先")
+    void testPriorityThenEarliestDeadline() throws Exception {
+        List<String> order = new CopyOnWriteArrayList<>();
+        try (PriorityDeadlineExecutor executor = new PriorityDeadlineExecutor("edf", 1, new SimpleMeterRegistry())) {
+            CountDownLatch release = blockWorker(executor);
+            executor.submit(PriorityClass.BULK, Duration.ofSeconds(1), () -> order.add("bulk"));
+            executor.submit(PriorityClass.NORMAL, Duration.ofSeconds(3), () -> order.add("normal-3s"));
+            executor.submit(PriorityClass.NORMAL, Duration.ofSeconds(1), () -> order.add("normal-1s"));
+            executor.submit(PriorityClass.NORMAL, Duration.ofSeconds(2), () -> order.add("normal-2s"));
+            executor.submit(PriorityClass.INTERACTIVE, Duration.ofSeconds(5), () -> order.add("interactive"));
+            release.countDown();
+        }
+        assertEquals(List.of("interactive", "normal-1s", "normal-2s", "normal-3s", "bulk"), order);
+    }
+
+    @Test
+    @DisplayName("开始前已过截止时间的任务应该被丢弃，不执行")
+    void testExpiredTasksDropped() throws Exception {
+        AtomicBoolean ran = new AtomicBoolean();
+        try (PriorityDeadlineExecutor executor = new PriorityDeadlineExecutor("expire", 1, new SimpleMeterRegistry())) {
+            CountDownLatch release = blockWorker(executor);
+            CompletableFuture<Boolean> late = executor.submit(PriorityClass.INTERACTIVE, Duration.ofMillis(20),
+                    () -> ran.getAndSet(true));
+            TimeUnit.MILLISECONDS.sleep(100);
+            release.countDown();
+
+            ExecutionException e = assertThrows(ExecutionException.class, () -> late.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(TimeoutException.class, e.getCause());
+            assertEquals(1, executor.expiredCount(PriorityClass.INTERACTIVE));
+        }
+        assertFalse(ran.get(), "过期任务不应该运行");
+    }
+
+    @Test
+    @DisplayName("等待足够久的批量任务应该通过老化连升多级，不被饿死")
+    void testAgingPreventsStarvation() throws Exception {
+        List<String> order = new CopyOnWriteArrayList<>();
+        Map<PriorityClass, Duration> aging = Map.of(
+                PriorityClass.NORMAL, Duration.ofMillis(50),
+                PriorityClass.BULK, Duration.ofMillis(50));
+        try (PriorityDeadlineExecutor executor = new PriorityDeadlineExecutor("aging", 1,
+                new SimpleMeterRegistry(), aging)) {
+            CountDownLatch release = blockWorker(executor);
+            executor.submit(PriorityClass.BULK, Duration.ofSeconds(5), () -> order.add("old-bulk"));
+            TimeUnit.MILLISECONDS.sleep(150); // 超过两级老化时间
+            for (int i = 0; i < 5; i++) {
+                executor.submit(PriorityClass.INTERACTIVE, Duration.ofSeconds(10), () -> order.add("interactive"));
+            }
+            release.countDown();
+        }
+        assertEquals("old-bulk", order.getFirst(), "老化后的批量任务截止时间更早，应该先执行: " + order);
+    }
+
+    @Test
+    @DisplayName("截止时间很远的批量任务在源源不断的近截止批量任务中也应该被老化提升")
+    void testAgingByWaitTimeNotDeadline() throws Exception {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        Map<PriorityClass, Duration> aging = Map.of(
+                PriorityClass.NORMAL, Duration.ofMinutes(1),
+                PriorityClass.BULK, Duration.ofMillis(50));
+        AtomicInteger shortDone = new AtomicInteger();
+        AtomicBoolean feeding = new AtomicBoolean(true);
+        try (PriorityDeadlineExecutor executor = new PriorityDeadlineExecutor("starve", 1, registry, aging)) {
+            CountDownLatch release = blockWorker(executor);
+            CompletableFuture<Integer> far = executor.submit(PriorityClass.BULK, Duration.ofMinutes(10),
+                    shortDone::get);
+            // 持续提交截止时间更近的批量任务，far 永远不会成为 EDF 堆顶
+            Thread feeder = Thread.ofPlatform().start(() -> {
+                while (feeding.get()) {
+                    executor.submit(PriorityClass.BULK, Duration.ofSeconds(30), () -> {
+                        TimeUnit.MILLISECONDS.sleep(1);
+                        return shortDone.incrementAndGet();
+                    });
+                    try {
+                        TimeUnit.MICROSECONDS.sleep(500); // 提交比执行快，批量队列一直积压
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            });
+            TimeUnit.MILLISECONDS.sleep(20); // 先积压一批
+            release.countDown();
+            try {
+                int doneBeforeFar = far.get(5, TimeUnit.SECONDS);
+                assertTrue(doneBeforeFar < 1000, "提升后应该插到积压的批量任务前面，之前已执行: " + doneBeforeFar);
+                assertTrue(executor.queued(PriorityClass.BULK) > 0, "far 执行时批量队列仍然积压");
+            } finally {
+                feeding.set(false);
+                feeder.join();
+            }
+            assertTrue(registry.get("todocode.scheduler.promoted").tag("class", "bulk").counter().count() >= 1);
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("批量任务洪峰下，交互请求的 p99 延迟应该保持很低")
+    void testInteractiveP99UnderBulkFlood() throws Exception {
+        List<CompletableFuture<?>> bulk = new ArrayList<>();
+        List<CompletableFuture<?>> interactive = new ArrayList<>();
+        try (PriorityDeadlineExecutor executor = new PriorityDeadlineExecutor("flood", 2, new SimpleMeterRegistry())) {
+            // 1000 个 2ms 的批量任务，2 个线程约需 1s
+            for (int i = 0; i < 1000; i++) {
+                bulk.add(executor.submit(PriorityClass.BULK, Duration.ofSeconds(60), () -> {
+                    TimeUnit.MILLISECONDS.sleep(2);
+                    return null;
+                }));
+            }
+            for (int i = 0; i < 40; i++) {
+                interactive.add(executor.submit(PriorityClass.INTERACTIVE, Duration.ofMillis(500), () -> {
+                    TimeUnit.MILLISECONDS.sleep(1);
+                    return null;
+                }));
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+            CompletableFuture.allOf(interactive.toArray(CompletableFuture[]::new)).get(10, TimeUnit.SECONDS);
+
+            Duration p99 = executor.latencyPercentile(PriorityClass.INTERACTIVE, 0.99);
+            Duration bulkP50 = executor.latencyPercentile(PriorityClass.BULK, 0.5);
+            assertTrue(p99.toMillis() < 100,
+                    "交互请求 p99: " + p99.toMillis() + "ms，批量 p50: " + bulkP50.toMillis() + "ms");
+            assertEquals(0, executor.expiredCount(PriorityClass.INTERACTIVE));
+        }
+        for (CompletableFuture<?> f : bulk) {
+            assertTrue(f.isDone() && !f.isCompletedExceptionally(), "批量任务最终都应该完成");
+        }
+    }
+
+    @Test
+    @DisplayName("几百年的截止时间不能溢出成已过期，应该正常执行并排在近的截止时间之后")
+    void testHugeDeadlineSaturates() throws Exception {
+        List<String> order = new CopyOnWriteArrayList<>();
+        try (PriorityDeadlineExecutor executor = new PriorityDeadlineExecutor("far", 1, new SimpleMeterRegistry())) {
+            CountDownLatch release = blockWorker(executor);
+            CompletableFuture<Boolean> centuries = executor.submit(PriorityClass.NORMAL,
+                    Duration.ofDays(365 * 300), () -> order.add("300y"));
+            CompletableFuture<Boolean> max = executor.submit(PriorityClass.NORMAL,
+                    Duration.ofSeconds(Long.MAX_VALUE), () -> order.add("max"));
+            executor.submit(PriorityClass.NORMAL, Duration.ofSeconds(10), () -> order.add("10s"));
+            release.countDown();
+
+            assertTrue(centuries.get(5, TimeUnit.SECONDS));
+            assertTrue(max.get(5, TimeUnit.SECONDS));
+            assertEquals(0, executor.expiredCount(PriorityClass.NORMAL));
+        }
+        assertEquals(List.of("10s", "300y", "max"), order);
+    }
+
+    @Test
+    @DisplayName("工作线程应该是守护线程，忘了关闭也不会阻止 JVM 退出")
+    void testWorkersAreDaemon() {
+        try (PriorityDeadlineExecutor executor = new PriorityDeadlineExecutor("daemon", 2, new SimpleMeterRegistry())) {
+            List<Thread> workers = Thread.getAllStackTraces().keySet().stream()
+                    .filter(t -> t.getName().startsWith("daemon-"))
+                    .toList();
+            assertEquals(2, workers.size());
+            assertTrue(workers.stream().allMatch(Thread::isDaemon), workers.toString());
+        }
+    }
+
+    @Test
+    @DisplayName("关闭后提交应该被拒绝")
+    void testRejectAfterShutdown() {
+        PriorityDeadlineExecutor executor = new PriorityDeadlineExecutor("closed", 1, new SimpleMeterRegistry());
+        executor.close();
+        assertThrows(java.util.concurrent.RejectedExecutionException.class,
+                () -> executor.execute(() -> { }));
+    }
+}
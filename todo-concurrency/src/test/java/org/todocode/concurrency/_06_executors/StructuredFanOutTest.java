@@ -0,0 +1,77 @@
+package org.todocode.concurrency._06_executors;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.StructuredTaskScope;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * [TodoCode] 结构化并发扇出测试
+ */
+class StructuredFanOutTest {
+
+    @Test
+    @DisplayName("invokeAll 应该按提交顺序返回所有结果")
+    void testInvokeAllKeepsOrder() throws Exception {
+        List<Callable<Integer>> tasks = List.of(
+                () -> { TimeUnit.MILLISECONDS.sleep(30); return 1; },
+                () -> 2,
+                () -> { TimeUnit.MILLISECONDS.sleep(10); return 3; });
+
+        assertEquals(List.of(1, 2, 3), StructuredFanOut.invokeAll(tasks, Duration.ofSeconds(5)));
+    }
+
+    @Test
+    @DisplayName("一个子任务失败时应该取消其余子任务")
+    void testFailureCancelsSiblings() {
+        CountDownLatch interrupted = new CountDownLatch(1);
+        List<Callable<String>> tasks = List.of(
+                () -> { throw new IllegalStateException("MySQL 挂了"); },
+                () -> {
+                    try {
+                        TimeUnit.SECONDS.sleep(30);
+                        return "不应该完成";
+                    } catch (InterruptedException e) {
+                        interrupted.countDown();
+                        throw e;
+                    }
+                });
+
+        StructuredTaskScope.FailedException e = assertThrows(StructuredTaskScope.FailedException.class,
+                () -> StructuredFanOut.invokeAll(tasks, Duration.ofSeconds(5)));
+        assertInstanceOf(IllegalStateException.class, e.getCause());
+        assertEquals(0, interrupted.getCount(), "作用域关闭前兄弟任务已被中断");
+    }
+
+    @Test
+    @DisplayName("超过截止时间应该抛出 TimeoutException")
+    void testDeadline() {
+        List<Callable<String>> tasks = List.of(() -> {
+            TimeUnit.SECONDS.sleep(30);
+            return "太慢";
+        });
+
+        long start = System.nanoTime();
+        assertThrows(StructuredTaskScope.TimeoutException.class,
+                () -> StructuredFanOut.invokeAll(tasks, Duration.ofMillis(100)));
+        assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 5);
+    }
+
+    @Test
+    @DisplayName("invokeAny 应该返回最快的成功结果")
+    void testInvokeAnyReturnsFastest() throws Exception {
+        List<Callable<String>> tasks = List.of(
+                () -> { TimeUnit.SECONDS.sleep(30); return "慢副本"; },
+                () -> { throw new IllegalStateException("坏副本"); },
+                () -> { TimeUnit.MILLISECONDS.sleep(20); return "快副本"; });
+
+        assertEquals("快副本", StructuredFanOut.invokeAny(tasks, Duration.ofSeconds(5)));
+    }
+}
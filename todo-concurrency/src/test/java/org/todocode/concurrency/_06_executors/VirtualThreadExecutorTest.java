@@ -0,0 +1,134 @@
+package org.todocode.concurrency._06_executors;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * [TodoCode] 虚拟线程执行器与钉住监控测试
+ */
+class VirtualThreadExecutorTest {
+
+    @Test
+    @DisplayName("每种任务类型的并发数都不应该超过各自的许可数")
+    void testPerTypeLimitsNeverExceeded() throws Exception {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        AtomicInteger mysqlActive = new AtomicInteger();
+        AtomicInteger mysqlPeak = new AtomicInteger();
+        AtomicInteger llmActive = new AtomicInteger();
+        AtomicInteger llmPeak = new AtomicInteger();
+
+        List<Future<Integer>> futures = new ArrayList<>();
+        try (VirtualThreadExecutor executor = new VirtualThreadExecutor("io", Map.of("mysql", 10, "llm", 3), registry)) {
+            for (int i = 0; i < 200; i++) {
+                final int id = i;
+                futures.add(executor.submit("mysql", () -> track(mysqlActive, mysqlPeak, id)));
+                futures.add(executor.submit("llm", () -> track(llmActive, llmPeak, id)));
+            }
+        } // close() 等待所有任务完成
+
+        for (Future<Integer> f : futures) {
+            assertTrue(f.isDone());
+        }
+        assertTrue(mysqlPeak.get() <= 10, "mysql 峰值并发: " + mysqlPeak.get());
+        assertTrue(llmPeak.get() <= 3, "llm 峰值并发: " + llmPeak.get());
+        assertTrue(mysqlPeak.get() > 3, "mysql 不应该被 llm 的配额拖慢");
+        assertEquals(200, registry.get("todocode.vthread.permit.wait").tag("type", "llm").timer().count());
+    }
+
+    private static int track(AtomicInteger active, AtomicInteger peak, int id) throws InterruptedException {
+        peak.accumulateAndGet(active.incrementAndGet(), Math::max);
+        try {
+            TimeUnit.MILLISECONDS.sleep(2); // 模拟阻塞 I/O
+            return id;
+        } finally {
+            active.decrementAndGet();
+        }
+    }
+
+    @Test
+    @DisplayName("10000 个阻塞任务应该全部完成，远超平台线程池 15 的并发上限")
+    void testTenThousandBlockingTasks() throws Exception {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        AtomicInteger peak = new AtomicInteger();
+        AtomicInteger active = new AtomicInteger();
+        List<Future<Integer>> futures = new ArrayList<>();
+
+        long start = System.nanoTime();
+        try (VirtualThreadExecutor executor = new VirtualThreadExecutor("fanout", Map.of("redis", 1000), registry)) {
+            for (int i = 0; i < 10_000; i++) {
+                final int id = i;
+                futures.add(executor.submit("redis", () -> track(active, peak, id)));
+            }
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        long sum = 0;
+        for (Future<Integer> f : futures) {
+            sum += f.get();
+        }
+        assertEquals(9_999L * 10_000 / 2, sum);
+        assertTrue(peak.get() <= 1000);
+        int carriers = Runtime.getRuntime().availableProcessors();
+        assertTrue(peak.get() > Math.max(15, carriers) * 4,
+                "阻塞时应该让出载体线程，峰值并发远超平台线程池和载体数: " + peak.get() + "，载体 " + carriers);
+        // 串行需要 10000 × 2ms = 20s，平台线程池 (并发 15) 也至少需要 10000 / 15 × 2ms ≈ 1.3s
+        assertTrue(elapsedMillis < 2_000, "10000 个任务耗时 " + elapsedMillis + "ms，峰值并发 " + peak.get());
+    }
+
+    @Test
+    @DisplayName("未注册的任务类型和非法上限应该立即失败")
+    void testUnknownTypeRejected() {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        assertThrows(IllegalArgumentException.class,
+                () -> new VirtualThreadExecutor("bad", Map.of("mysql", 0), registry));
+        try (VirtualThreadExecutor executor = new VirtualThreadExecutor("io", Map.of("mysql", 2), registry)) {
+            assertThrows(IllegalArgumentException.class, () -> executor.submit("redis", () -> 1));
+            assertEquals(0, executor.inFlight("mysql"));
+        }
+    }
+
+    /**
+     * 类初始化期间阻塞会经过本地方法帧，在所有 JDK 版本上都会钉住虚拟线程。
+     */
+    static class SlowInit {
+        static final long VALUE;
+
+        static {
+            try {
+                TimeUnit.MILLISECONDS.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            VALUE = 42;
+        }
+    }
+
+    @Test
+    @DisplayName("虚拟线程被钉住时应该产生指标")
+    void testPinningSurfacedAsMetric() throws Exception {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        try (PinningMonitor monitor = new PinningMonitor(registry, Duration.ofMillis(20))) {
+            Thread.ofVirtual().start(() -> assertEquals(42, SlowInit.VALUE)).join();
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (monitor.pinnedCount() == 0 && System.nanoTime() < deadline) {
+                TimeUnit.MILLISECONDS.sleep(50); // JFR 事件流异步投递
+            }
+            assertTrue(monitor.pinnedCount() >= 1, "应该捕获到钉住事件");
+            assertEquals(monitor.pinnedCount(), (long) registry.get("todocode.vthread.pinned").counter().count());
+            assertFalse(monitor.topPinnedSites(5).isEmpty());
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package org.todocode.concurrency._07_patterns;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * [TodoCode] 批量消费者测试
+ */
+class BatchingConsumerTest {
+
+    private static final Integer POISON = -1;
+
+    @Test
+    @DisplayName("积压时批大小应该增长到上限，且每批复用同一个 List")
+    void testBatchGrowsUnderBacklog() throws InterruptedException {
+        BlockingQueue<Integer> queue = new ArrayBlockingQueue<>(2000);
+        for (int i = 0; i < 1000; i++) {
+            queue.put(i);
+        }
+        queue.put(POISON);
+
+        List<Integer> sizes = new ArrayList<>();
+        Set<List<Integer>> lists = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<Integer> seen = new ArrayList<>();
+        BatchingConsumer<Integer> consumer = new BatchingConsumer<>(queue, POISON, 1, 64, Duration.ofMillis(10),
+                batch -> {
+                    sizes.add(batch.size());
+                    lists.add(batch);
+                    seen.addAll(batch);
+                });
+        consumer.run(); // 遇到毒丸后返回
+
+        assertEquals(1000, consumer.getItems());
+        assertEquals(1000, seen.size());
+        assertEquals(0, seen.get(0));
+        assertEquals(999, seen.get(999));
+        assertEquals(64, Collections.max(sizes), "积压时应该扩张到 maxBatch");
+        assertTrue(consumer.getBatches() < 50, "1000 条应该远少于 1000 批，实际 " + consumer.getBatches());
+        assertEquals(1, lists.size(), "每批应该复用同一个 List");
+    }
+
+    @Test
+    @DisplayName("低负载时第一条消息最多等待 maxLatency 就应该被提交")
+    void testFlushOnMaxLatency() throws InterruptedException {
+        BlockingQueue<Integer> queue = new ArrayBlockingQueue<>(16);
+        AtomicLong flushedAt = new AtomicLong();
+        BatchingConsumer<Integer> consumer = new BatchingConsumer<>(queue, POISON, 8, 8, Duration.ofMillis(50),
+                batch -> flushedAt.compareAndSet(0, System.nanoTime()));
+        Thread thread = new Thread(consumer);
+        thread.start();
+
+        long putAt = System.nanoTime();
+        queue.put(1); // 只有一条，凑不满 8 条的批
+        TimeUnit.MILLISECONDS.sleep(300);
+
+        assertNotEquals(0, flushedAt.get(), "应该在延迟上限后提交");
+        long waitedMillis = TimeUnit.NANOSECONDS.toMillis(flushedAt.get() - putAt);
+        assertTrue(waitedMillis >= 40 && waitedMillis < 250, "实际等待 " + waitedMillis + " ms");
+
+        queue.put(POISON);
+        thread.join(5000);
+        assertFalse(thread.isAlive());
+    }
+
+    @Test
+    @DisplayName("多个批量消费者应该都能收到自己的毒丸并处理完所有消息")
+    void testPoisonPillWithMultipleConsumers() throws InterruptedException {
+        BlockingQueue<Integer> queue = new ArrayBlockingQueue<>(1000);
+        List<Integer> processed = new CopyOnWriteArrayList<>();
+        int consumerCount = 3;
+
+        for (int i = 0; i < 500; i++) {
+            queue.put(i);
+        }
+        for (int i = 0; i < consumerCount; i++) {
+            queue.put(POISON); // 毒丸紧挨着，一次 drainTo 会取走不止一个
+        }
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < consumerCount; i++) {
+            Thread t = new Thread(new BatchingConsumer<>(queue, POISON, 1, 1000, Duration.ofMillis(5),
+                    processed::addAll));
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join(5000);
+            assertFalse(t.isAlive(), "每个消费者都应该退出");
+        }
+
+        assertEquals(500, processed.size());
+        assertFalse(processed.contains(POISON), "毒丸不应该交给 handler");
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    @DisplayName("handler 抛异常时应该计数、交给 onError 并继续消费")
+    void testHandlerFailureDoesNotStopConsumer() throws InterruptedException {
+        BlockingQueue<Integer> queue = new ArrayBlockingQueue<>(16);
+        queue.put(1);
+        queue.put(2);
+        queue.put(3);
+        queue.put(POISON);
+
+        List<Integer> processed = new ArrayList<>();
+        List<Integer> failed = new ArrayList<>();
+        List<Exception> errors = new ArrayList<>();
+        BatchingConsumer<Integer> consumer = new BatchingConsumer<>(queue, POISON, 1, 1, Duration.ZERO,
+                batch -> {
+                    if (batch.contains(2)) {
+                        throw new IllegalStateException("boom");
+                    }
+                    processed.addAll(batch);
+                },
+                (batch, error) -> {
+                    failed.addAll(batch); // 回调返回后 batch 会被复用，只能复制
+                    errors.add(error);
+                });
+        consumer.run();
+
+        assertEquals(1, consumer.getFailures());
+        assertEquals(3, consumer.getItems());
+        assertEquals(List.of(1, 3), processed);
+        assertEquals(List.of(2), failed);
+        assertEquals("boom", errors.getFirst().getMessage());
+    }
+
+    @Test
+    @DisplayName("毒丸之后被一起取出的元素应该由本消费者按顺序处理，不放回队尾")
+    void testElementsAfterPoisonKeptInOrder() throws InterruptedException {
+        BlockingQueue<Integer> queue = new ArrayBlockingQueue<>(5);
+        for (Integer e : List.of(1, 2, POISON, 3, 4)) {
+            queue.put(e); // 队列是满的: 放回队尾的实现会在这里之后卡住或打乱顺序
+        }
+        List<Integer> processed = new ArrayList<>();
+        BatchingConsumer<Integer> consumer = new BatchingConsumer<>(queue, POISON, 8, 8, Duration.ofMillis(5),
+                processed::addAll);
+        consumer.run();
+
+        assertEquals(List.of(1, 2, 3, 4), processed);
+        assertTrue(queue.isEmpty());
+    }
+}
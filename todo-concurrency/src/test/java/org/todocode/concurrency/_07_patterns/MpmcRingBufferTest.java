@@ -0,0 +1,277 @@
+package org.todocode.concurrency._07_patterns;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * [TodoCode] 无锁 MPMC 环形缓冲区测试
+ */
+class MpmcRingBufferTest {
+
+    @Test
+    @DisplayName("容量应该向上取整为 2 的幂")
+    void testCapacityRoundedToPowerOfTwo() {
+        assertEquals(2, new MpmcRingBuffer<String>(2).capacity());
+        assertEquals(8, new MpmcRingBuffer<String>(5).capacity());
+        assertEquals(1024, new MpmcRingBuffer<String>(1000).capacity());
+        assertThrows(IllegalArgumentException.class, () -> new MpmcRingBuffer<String>(1));
+    }
+
+    @Test
+    @DisplayName("单线程下应该保持 FIFO，满时 offer 失败，空时 poll 返回 null")
+    void testFifoFullAndEmpty() {
+        MpmcRingBuffer<Integer> ring = new MpmcRingBuffer<>(4);
+        assertNull(ring.poll());
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer(i));
+        }
+        assertFalse(ring.offer(99), "队列已满");
+        assertEquals(4, ring.size());
+        assertEquals(0, ring.peek());
+
+        for (int round = 0; round < 3; round++) { // 绕圈多次，验证序号推进
+            for (int i = 0; i < 4; i++) {
+                assertEquals(i, ring.poll());
+                assertTrue(ring.offer(i));
+            }
+        }
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, ring.poll());
+        }
+        assertNull(ring.poll());
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test
+    @DisplayName("多生产者多消费者下每个元素应该恰好被消费一次")
+    void testMultiProducerMultiConsumer() throws Exception {
+        MpmcRingBuffer<Long> ring = new MpmcRingBuffer<>(64);
+        int producers = 4;
+        int consumers = 4;
+        int perProducer = 100_000;
+        long total = (long) producers * perProducer;
+        AtomicLong consumed = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(producers + consumers);
+        List<Future<Long>> sums = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            final long offset = (long) p * perProducer;
+            executor.submit(() -> {
+                start.await();
+                for (long i = 1; i <= perProducer; i++) {
+                    while (!ring.offer(offset + i)) {
+                        Thread.yield(); // 核数少于线程数时纯自旋会饿死对方
+                    }
+                }
+                return null;
+            });
+        }
+        for (int c = 0; c < consumers; c++) {
+            sums.add(executor.submit(() -> {
+                start.await();
+                long sum = 0;
+                while (consumed.get() < total) {
+                    Long value = ring.poll();
+                    if (value != null) {
+                        sum += value;
+                        consumed.incrementAndGet();
+                    } else {
+                        Thread.yield();
+                    }
+                }
+                return sum;
+            }));
+        }
+        start.countDown();
+
+        long sum = 0;
+        for (Future<Long> f : sums) {
+            sum += f.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdownNow();
+
+        assertEquals(total * (total + 1) / 2, sum, "每个元素恰好被消费一次");
+        assertTrue(ring.isEmpty());
+    }
+
+    @ParameterizedTest
+    @EnumSource(WaitStrategy.class)
+    @DisplayName("BlockingQueue 适配器的 put/take 应该在各种等待策略下工作")
+    void testBlockingAdapter(WaitStrategy strategy) throws Exception {
+        BlockingQueue<Integer> queue = new RingBufferBlockingQueue<>(2, strategy);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        Future<Integer> consumer = executor.submit(() -> {
+            int sum = 0;
+            for (int i = 0; i < 1000; i++) {
+                sum += queue.take();
+            }
+            return sum;
+        });
+        for (int i = 0; i < 1000; i++) {
+            queue.put(i); // 容量只有 2，生产者会频繁等待
+        }
+
+        assertEquals(999 * 1000 / 2, consumer.get(30, TimeUnit.SECONDS));
+        executor.shutdown();
+    }
+
+    @Test
+    @DisplayName("带超时的 poll/offer 应该按时返回，take 应该响应中断")
+    void testTimeoutsAndInterrupt() throws Exception {
+        RingBufferBlockingQueue<String> queue = new RingBufferBlockingQueue<>(2);
+        assertNull(queue.poll(20, TimeUnit.MILLISECONDS));
+
+        queue.put("a");
+        queue.put("b");
+        assertFalse(queue.offer("c", 20, TimeUnit.MILLISECONDS));
+        assertEquals(0, queue.remainingCapacity());
+
+        List<String> drained = new ArrayList<>();
+        assertEquals(2, queue.drainTo(drained));
+        assertEquals(List.of("a", "b"), drained);
+
+        Thread taker = new Thread(() -> assertThrows(InterruptedException.class, queue::take));
+        taker.start();
+        TimeUnit.MILLISECONDS.sleep(50);
+        taker.interrupt();
+        taker.join(5000);
+        assertFalse(taker.isAlive());
+    }
+
+    @Test
+    @DisplayName("contains/remove(Object)/toArray 和迭代器删除: 删除的元素不再被 poll 取出")
+    void testIterationAndRemoval() {
+        RingBufferBlockingQueue<String> queue = new RingBufferBlockingQueue<>(8);
+        for (String s : List.of("a", "b", "c", "d", "e")) {
+            assertTrue(queue.offer(s));
+        }
+        assertTrue(queue.contains("c"));
+        assertFalse(queue.contains("x"));
+
+        assertTrue(queue.remove("c"));
+        assertFalse(queue.remove("c"));
+        assertFalse(queue.contains("c"));
+        assertArrayEquals(new Object[]{"a", "b", "d", "e"}, queue.toArray());
+        assertEquals(4, queue.size());
+        assertEquals(3, queue.remainingCapacity(), "墓碑在被跳过之前仍然占着槽位");
+
+        Iterator<String> it = queue.iterator();
+        assertEquals("a", it.next());
+        it.remove();
+        assertThrows(IllegalStateException.class, it::remove);
+        assertEquals("b", queue.peek());
+
+        assertEquals("b", queue.poll());
+        assertEquals("d", queue.poll());
+        assertEquals("e", queue.poll());
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+        assertEquals(8, queue.remainingCapacity());
+    }
+
+    @Test
+    @DisplayName("remove(Object) 与 poll 并发: 每个元素要么被删除要么被取出，不会两者都发生")
+    void testConcurrentRemoveAndPoll() throws Exception {
+        int count = 200_000;
+        RingBufferBlockingQueue<Integer> queue = new RingBufferBlockingQueue<>(64);
+        Set<Integer> polled = ConcurrentHashMap.newKeySet();
+        Set<Integer> removed = ConcurrentHashMap.newKeySet();
+        AtomicLong duplicates = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+
+        Future<?> producer = executor.submit(() -> {
+            for (int i = 0; i < count; i++) {
+                queue.put(i);
+            }
+            return null;
+        });
+        Future<?> remover = executor.submit(() -> {
+            for (int i = 0; i < count; i += 3) {
+                if (queue.remove(i) && !removed.add(i)) {
+                    duplicates.incrementAndGet();
+                }
+            }
+        });
+        Future<?> consumer = executor.submit(() -> {
+            while (polled.size() + removed.size() < count) {
+                Integer e = queue.poll(10, TimeUnit.MILLISECONDS);
+                if (e != null && !polled.add(e)) {
+                    duplicates.incrementAndGet();
+                }
+            }
+            return null;
+        });
+        producer.get(30, TimeUnit.SECONDS);
+        remover.get(30, TimeUnit.SECONDS);
+        consumer.get(30, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        assertEquals(0, duplicates.get());
+        assertEquals(count, polled.size() + removed.size());
+        polled.retainAll(removed);
+        assertTrue(polled.isEmpty(), "同时被删除和取出: " + polled);
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    @DisplayName("可以作为 ThreadPoolExecutor 的工作队列: remove 和 shutdownNow 返回排队中的任务")
+    void testThreadPoolExecutorQueue() throws Exception {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+                new RingBufferBlockingQueue<>(16));
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute(() -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        List<Runnable> queued = new ArrayList<>();
+        Set<Integer> ran = ConcurrentHashMap.newKeySet();
+        for (int i = 0; i < 5; i++) {
+            int id = i;
+            Runnable task = () -> ran.add(id); // 捕获 id，每个任务是不同的实例
+            queued.add(task);
+            executor.execute(task);
+        }
+        assertTrue(executor.getQueue().contains(queued.get(2)));
+        assertTrue(executor.remove(queued.get(2)));
+        assertFalse(executor.getQueue().contains(queued.get(2)));
+
+        List<Runnable> pending = executor.shutdownNow();
+        assertEquals(List.of(queued.get(0), queued.get(1), queued.get(3), queued.get(4)), pending);
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS), "阻塞的任务应该被中断");
+        assertTrue(ran.isEmpty(), "排队中的任务不应该被执行: " + ran);
+    }
+
+    @Test
+    @DisplayName("ProducerConsumerDemo 应该可以换用无锁队列")
+    void testProducerConsumerDemoWithRingBuffer() {
+        assertDoesNotThrow(() -> new ProducerConsumerDemo(new RingBufferBlockingQueue<>(8), 2).shutdown());
+    }
+}
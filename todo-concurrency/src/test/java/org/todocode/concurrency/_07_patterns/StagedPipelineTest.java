@@ -0,0 +1,180 @@
+package org.todocode.concurrency._07_patterns;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * [TodoCode] 分阶段流水线测试
+ */
+class StagedPipelineTest {
+
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+
+    @AfterEach
+    void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    @DisplayName("所有元素都应该经过全部阶段得到正确结果")
+    void testAllItemsProcessed() throws Exception {
+        StagedPipeline<String, String> pipeline = StagedPipeline.<String>builder(pool, 16)
+                .thenApplyAsync("fetch", s -> "raw-" + s, 4)
+                .thenApply(String::toUpperCase)
+                .thenApplyAsync("enrich", s -> s + "_ENRICHED", 2)
+                .build();
+
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            futures.add(pipeline.submit("d" + i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("RAW-D" + i + "_ENRICHED", futures.get(i).get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(List.of("fetch", "enrich"), pipeline.stageNames());
+        assertEquals(1000, pipeline.processed("fetch"));
+        assertEquals(1000, pipeline.processed("enrich"));
+    }
+
+    @Test
+    @DisplayName("融合的廉价步骤应该与所在阶段在同一个线程上执行")
+    void testFusedStepsRunInline() throws Exception {
+        StagedPipeline<Integer, String[]> pipeline = StagedPipeline.<Integer>builder(pool, 8)
+                .thenApplyAsync("parse", i -> new String[]{Thread.currentThread().getName(), null}, 2)
+                .thenApply(names -> {
+                    names[1] = Thread.currentThread().getName();
+                    return names;
+                })
+                .build();
+
+        for (int i = 0; i < 100; i++) {
+            String[] names = pipeline.submit(i).get(10, TimeUnit.SECONDS);
+            assertEquals(names[0], names[1], "融合步骤不应该切换线程");
+        }
+        assertEquals(List.of("parse"), pipeline.stageNames(), "融合后只有一个阶段");
+    }
+
+    @Test
+    @DisplayName("工作线程应该批量处理元素，调度次数远少于元素数 × 阶段数")
+    void testFewerHopsThanItems() throws Exception {
+        CountDownLatch gate = new CountDownLatch(1);
+        StagedPipeline<Integer, Integer> pipeline = StagedPipeline.<Integer>builder(pool, 1024)
+                .thenApplyAsync("a", i -> {
+                    await(gate);
+                    return i + 1;
+                }, 1)
+                .thenApplyAsync("b", i -> i * 2, 1)
+                .build();
+
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            futures.add(pipeline.submit(i));
+        }
+        gate.countDown(); // 元素积压后再放行，每个工作线程一次处理一批
+        long sum = 0;
+        for (CompletableFuture<Integer> f : futures) {
+            sum += f.get(10, TimeUnit.SECONDS);
+        }
+        assertEquals(2L * (1000L * 1001 / 2), sum);
+        assertTrue(pipeline.schedules() < 500, "2000 次阶段处理，调度 " + pipeline.schedules() + " 次");
+    }
+
+    @Test
+    @DisplayName("下游阻塞时缓冲区应该限制在途元素，并让提交方感受到背压")
+    void testBackpressure() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger entered = new AtomicInteger();
+        StagedPipeline<Integer, Integer> pipeline = StagedPipeline.<Integer>builder(pool, 4)
+                .thenApplyAsync("fast", i -> {
+                    entered.incrementAndGet();
+                    return i;
+                }, 2)
+                .thenApplyAsync("slow", i -> {
+                    await(release);
+                    return i;
+                }, 1)
+                .build();
+
+        List<CompletableFuture<Integer>> accepted = new ArrayList<>();
+        CompletableFuture<Integer> f;
+        while ((f = pipeline.trySubmit(accepted.size(), 200, TimeUnit.MILLISECONDS)) != null) {
+            accepted.add(f);
+            assertTrue(accepted.size() <= 8, "两个阶段各 4 个许可，最多接受 8 个");
+        }
+        assertEquals(8, accepted.size());
+        assertTrue(entered.get() <= 4, "fast 阶段最多把 4 个元素交给 slow: " + entered.get());
+
+        release.countDown();
+        for (CompletableFuture<Integer> future : accepted) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        assertNotNull(pipeline.trySubmit(99, 1, TimeUnit.SECONDS), "下游恢复后应该可以继续提交");
+    }
+
+    @Test
+    @DisplayName("单个元素失败不应该影响其他元素，每个阶段的并发数不超过并行度")
+    void testFailuresAndParallelism() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        StagedPipeline<Integer, Integer> pipeline = StagedPipeline.<Integer>builder(pool, 32)
+                .thenApplyAsync("check", i -> {
+                    peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    try {
+                        if (i % 10 == 0) {
+                            throw new IllegalArgumentException("坏数据: " + i);
+                        }
+                        return i;
+                    } finally {
+                        running.decrementAndGet();
+                    }
+                }, 2)
+                .thenApplyAsync("store", i -> i, 1)
+                .build();
+
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            futures.add(pipeline.submit(i));
+        }
+        int failed = 0;
+        for (CompletableFuture<Integer> future : futures) {
+            try {
+                future.get(10, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                assertInstanceOf(IllegalArgumentException.class, e.getCause());
+                failed++;
+            }
+        }
+        assertEquals(20, failed);
+        assertEquals(180, pipeline.processed("store"));
+        assertTrue(peak.get() <= 2, "check 阶段峰值并发: " + peak.get());
+    }
+
+    @Test
+    @DisplayName("第一个步骤必须开启阶段")
+    void testBuilderValidation() {
+        assertThrows(IllegalStateException.class,
+                () -> StagedPipeline.<String>builder(pool, 4).thenApply(String::length));
+        assertThrows(IllegalArgumentException.class,
+                () -> StagedPipeline.<String>builder(pool, 4).thenApplyAsync("a", String::length, 0));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
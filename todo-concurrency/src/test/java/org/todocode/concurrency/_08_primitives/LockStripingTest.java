@@ -0,0 +1,89 @@
+package org.todocode.concurrency._08_primitives;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * [TodoCode] 锁分段与 StampedLock 保护器测试
+ */
+class LockStripingTest {
+
+    @Test
+    @DisplayName("分段数应该向上取整为 2 的幂")
+    void testStripesRoundedToPowerOfTwo() {
+        assertEquals(1, new LockStriping<String>(1).stripes());
+        assertEquals(8, new LockStriping<String>(5).stripes());
+        assertEquals(16, new LockStriping<String>(16).stripes());
+        assertThrows(IllegalArgumentException.class, () -> new LockStriping<String>(0));
+    }
+
+    @Test
+    @DisplayName("相同的 key 应该总是得到同一把锁")
+    void testSameKeySameLock() {
+        LockStriping<String> striping = new LockStriping<>(16);
+        assertSame(striping.lockFor("user:1"), striping.lockFor("user:1"));
+        assertSame(striping.lockFor(null), striping.lockFor(null));
+    }
+
+    @Test
+    @DisplayName("按 key 加锁的计数在并发下应该精确")
+    void testPerKeyCounting() throws InterruptedException {
+        LockStriping<Integer> striping = new LockStriping<>(8);
+        Map<Integer, long[]> counters = new HashMap<>();
+        for (int k = 0; k < 32; k++) {
+            counters.put(k, new long[1]);
+        }
+        int threadCount = 8;
+        int incrementsPerThread = 10_000;
+        CountDownLatch done = new CountDownLatch(threadCount);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        for (int t = 0; t < threadCount; t++) {
+            executor.submit(() -> {
+                try {
+                    for (int j = 0; j < incrementsPerThread; j++) {
+                        int key = j % 32;
+                        striping.runWithLock(key, () -> counters.get(key)[0]++);
+                    }
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        long total = counters.values().stream().mapToLong(c -> c[0]).sum();
+        assertEquals((long) threadCount * incrementsPerThread, total);
+    }
+
+    @Test
+    @DisplayName("StampedLockGuard 的读应该看到写入后的一致状态")
+    void testStampedLockGuard() {
+        long[] range = {0, 0}; // 不变式: range[1] == range[0] * 2
+        StampedLockGuard<long[]> guard = new StampedLockGuard<>(range);
+
+        guard.write(r -> {
+            r[0] = 21;
+            r[1] = 42;
+        });
+
+        long value = guard.read(r -> r[1]);
+        boolean consistent = guard.read(r -> r[1] == r[0] * 2);
+        long updated = guard.writeAndGet(r -> ++r[0]);
+
+        assertEquals(42L, value);
+        assertTrue(consistent);
+        assertEquals(22L, updated);
+    }
+}
@@ -0,0 +1,69 @@
+package org.todocode.concurrency._08_primitives;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * [TodoCode] 竞争自适应计数器测试
+ */
+class StripedCounterTest {
+
+    @Test
+    @DisplayName("单线程时应该只使用 base，不创建 cell")
+    void testUncontendedUsesBase() {
+        StripedCounter counter = new StripedCounter();
+        for (int i = 0; i < 1000; i++) {
+            counter.increment();
+        }
+        assertEquals(1000, counter.sum());
+        assertEquals(0, counter.cellCount());
+    }
+
+    @Test
+    @DisplayName("多线程并发增加后总和应该精确")
+    void testConcurrentIncrement() throws InterruptedException {
+        StripedCounter counter = new StripedCounter();
+        int threadCount = 16;
+        int incrementsPerThread = 100_000;
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threadCount);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+            executor.submit(() -> {
+                try {
+                    start.await();
+                    for (int j = 0; j < incrementsPerThread; j++) {
+                        counter.increment();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        start.countDown();
+
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        assertEquals((long) threadCount * incrementsPerThread, counter.sum());
+    }
+
+    @Test
+    @DisplayName("reset 后应该归零")
+    void testReset() {
+        StripedCounter counter = new StripedCounter();
+        counter.add(42);
+        counter.reset();
+        assertEquals(0, counter.sum());
+    }
+}
@@ -0,0 +1,77 @@
+package org.todocode.systemdesign._04_messaging;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * [TodoCode] 下单: 订单和 order.created 事件在同一个事务里写入
+ *
+ * <h3>背景:</h3>
+ * {@link Outbox} 的使用示例。placeOrder 不直接发消息，只在事务里多写一行 outbox，
+ * 事务提交后由 {@link OutboxRelay} 发布。
+ *
+ * <h3>易错点:</h3>
+ * 事件内容在事务里生成，用的是即将提交的数据；不要在提交之后再去查一遍订单来拼事件。
+ */
+public class OrderService {
+
+    public static final String ORDER_CREATED = "order.created";
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+    private final Outbox outbox;
+
+    public OrderService(JdbcTemplate jdbc, PlatformTransactionManager transactionManager) {
+        this.jdbc = jdbc;
+        this.tx = new TransactionTemplate(transactionManager);
+        this.outbox = new Outbox(jdbc);
+    }
+
+    /**
+     * 创建订单并追加 order.created 事件，返回订单 id。
+     */
+    public long placeOrder(long userId, String orderNumber, BigDecimal totalAmount) {
+        return tx.execute(status -> {
+            KeyHolder keys = new GeneratedKeyHolder();
+            jdbc.update(con -> {
+                PreparedStatement ps = con.prepareStatement(
+                        "INSERT INTO orders (user_id, order_number, total_amount) VALUES (?, ?, ?)",
+                        Statement.RETURN_GENERATED_KEYS);
+                ps.setLong(1, userId);
+                ps.setString(2, orderNumber);
+                ps.setBigDecimal(3, totalAmount);
+                return ps;
+            }, keys);
+            long orderId = keys.getKey().longValue();
+
+            Map<String, Object> payload = new LinkedHashMap<>();
+            payload.put("orderId", orderId);
+            payload.put("userId", userId);
+            payload.put("orderNumber", orderNumber);
+            payload.put("totalAmount", totalAmount);
+            outbox.append(new Outbox.Event("order", Long.toString(orderId), ORDER_CREATED, toJson(payload)));
+            return orderId;
+        });
+    }
+
+    private static String toJson(Map<String, Object> payload) {
+        try {
+            return JSON.writeValueAsString(payload);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.todocode.systemdesign._04_messaging;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.List;
+
+/**
+ * [TodoCode] 事务性 outbox - 写入端
+ *
+ * <h3>背景:</h3>
+ * 下单后既要写数据库又要发消息。两步分开做 (双写) 总有一步会失败:
+ * 先提交事务再发消息，进程在中间崩溃就丢了事件；先发消息再提交，事务回滚后消费者看到了不存在的订单。
+ * outbox 模式把事件当成业务数据写进 outbox 表，和订单在同一个本地事务里提交，
+ * 要么都在，要么都不在；再由 {@link OutboxRelay} 异步把表里的事件发布到消息队列。
+ *
+ * <h3>易错点:</h3>
+ * 1. 必须在业务事务里调用，否则 outbox 和订单又变成了两次独立的提交，所以没有事务时直接报错。
+ * 2. 中继只保证至少一次: 发布成功但删除前崩溃，事件会再发一次。消费者要按 messageId (outbox 的 id) 去重。
+ *
+ * <h3>核心理解:</h3>
+ * 把"发消息"变成"写一行数据"，就能借用数据库事务的原子性。
+ */
+public class Outbox {
+
+    static final String INSERT = "INSERT INTO outbox (aggregate_type, aggregate_id, event_type, payload) VALUES (?, ?, ?, ?)";
+
+    /**
+     * 一条 outbox 事件。写入前 id 为 0，由数据库分配。
+     */
+    public record Event(long id, String aggregateType, String aggregateId, String eventType, String payload) {
+        public Event(String aggregateType, String aggregateId, String eventType, String payload) {
+            this(0, aggregateType, aggregateId, eventType, payload);
+        }
+    }
+
+    private final JdbcTemplate jdbc;
+
+    public Outbox(JdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    /**
+     * 在当前事务里追加一条事件。
+     */
+    public void append(Event event) {
+        requireTransaction();
+        jdbc.update(INSERT, event.aggregateType(), event.aggregateId(), event.eventType(), event.payload());
+    }
+
+    /**
+     * 在当前事务里批量追加 (JDBC batch)。
+     */
+    public void appendAll(List<Event> events) {
+        requireTransaction();
+        jdbc.batchUpdate(INSERT, events, 1000, (ps, event) -> {
+            ps.setString(1, event.aggregateType());
+            ps.setString(2, event.aggregateId());
+            ps.setString(3, event.eventType());
+            ps.setString(4, event.payload());
+        });
+    }
+
+    private static void requireTransaction() {
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            throw new IllegalStateException("outbox 必须和业务数据在同一个事务里写入");
+        }
+    }
+}
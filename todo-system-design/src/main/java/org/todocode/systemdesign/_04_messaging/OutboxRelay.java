@@ -0,0 +1,192 @@
+package org.todocode.systemdesign._04_messaging;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * [TodoCode] 事务性 outbox - 批量中继
+ *
+ * <h3>背景:</h3>
+ * 把 {@link Outbox} 表里的事件搬到消息队列。每一轮在一个数据库事务里:
+ * 1. SELECT ... ORDER BY id LIMIT n FOR UPDATE SKIP LOCKED 锁住一批事件
+ * 2. 整批交给 {@link Publisher} 发布，返回时 broker 已经确认了全部消息 (见 {@link RabbitOutboxPublisher})
+ * 3. 一条 DELETE ... WHERE id IN (...) 删掉这一批，提交
+ * 任何一步失败就回滚，事件留在表里，下一轮再发。批次写满就立即进入下一轮，不满才等 pollInterval。
+ *
+ * <h3>易错点:</h3>
+ * 1. 逐条发布并逐条等确认，每条消息都要一次 broker 往返；整批发出后只等一次确认，吞吐量高一两个数量级。
+ * 2. SKIP LOCKED 让多个中继实例各自锁住不同的行并行工作；
+ *    没有它，第二个实例会阻塞在第一个实例锁住的行上，加实例没有用。
+ * 3. 不要用"已发布的最大 id"做游标: 自增 id 的分配顺序和提交顺序不同，
+ *    晚提交的小 id 会被永远跳过。发布后删除 (或标记) 每一行才不会丢。
+ * 4. 多个实例并行时，同一个聚合的事件可能乱序到达。需要严格顺序时按 aggregate_id 分区，每个分区只有一个中继。
+ * 5. 只保证至少一次: 发布已确认但提交失败，这批事件会再发一次，消费者按 messageId 去重。
+ *
+ * <h3>核心理解:</h3>
+ * 中继的成本是每批一次数据库事务加一次 broker 确认，批量大小就是把这两个往返摊薄的倍数。
+ *
+ * TODO: 轮询在空闲时也在查数据库，怎样改成读 binlog (CDC) 而不轮询？
+ */
+public class OutboxRelay implements AutoCloseable {
+
+    static final String SELECT_BATCH = "SELECT id, aggregate_type, aggregate_id, event_type, payload FROM outbox"
+            + " ORDER BY id LIMIT ? FOR UPDATE SKIP LOCKED";
+
+    private static final RowMapper<Outbox.Event> ROW_MAPPER = (rs, i) -> new Outbox.Event(rs.getLong(1),
+            rs.getString(2), rs.getString(3), rs.getString(4), rs.getString(5));
+
+    /**
+     * 把一批事件发布出去。正常返回表示全部已被 broker 确认，抛出异常则整批回滚重发。
+     */
+    @FunctionalInterface
+    public interface Publisher {
+        void publish(List<Outbox.Event> batch) throws Exception;
+    }
+
+    /**
+     * @param batchSize    每轮最多锁定和发布多少条
+     * @param pollInterval 上一轮不满一批时，等多久再查
+     */
+    public record Config(int batchSize, Duration pollInterval) {
+        public Config {
+            if (batchSize <= 0 || pollInterval.isNegative()) {
+                throw new IllegalArgumentException("batchSize 必须大于 0，pollInterval 不能为负");
+            }
+        }
+
+        public static Config defaults() {
+            return new Config(500, Duration.ofMillis(100));
+        }
+    }
+
+    /**
+     * 中继统计快照。
+     */
+    public record Stats(long batches, long published, long failures) {
+    }
+
+    private final String name;
+    private final JdbcTemplate jdbc;
+    private final PlatformTransactionManager transactionManager;
+    private final Publisher publisher;
+    private final Config config;
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder published = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private volatile Exception lastError;
+    private volatile boolean running;
+    private Thread worker;
+
+    public OutboxRelay(String name, DataSource dataSource, Publisher publisher, Config config) {
+        this.name = name;
+        this.jdbc = new JdbcTemplate(dataSource);
+        this.transactionManager = new DataSourceTransactionManager(dataSource);
+        this.publisher = publisher;
+        this.config = config;
+    }
+
+    /**
+     * 启动后台轮询线程。
+     */
+    public synchronized OutboxRelay start() {
+        if (worker != null) {
+            throw new IllegalStateException("中继已经启动");
+        }
+        running = true;
+        worker = Thread.ofPlatform().name("outbox-relay-" + name).daemon().start(this::pollLoop);
+        return this;
+    }
+
+    /**
+     * 执行一轮: 锁定、发布、删除一批事件，返回发布的条数 (0 表示没有待发布的事件)。
+     */
+    public int relayOnce() throws Exception {
+        TransactionStatus status = transactionManager.getTransaction(TransactionDefinition.withDefaults());
+        try {
+            List<Outbox.Event> batch = jdbc.query(SELECT_BATCH, ROW_MAPPER, config.batchSize());
+            if (!batch.isEmpty()) {
+                publisher.publish(batch);
+                delete(batch);
+            }
+            transactionManager.commit(status);
+            if (!batch.isEmpty()) {
+                batches.increment();
+                published.add(batch.size());
+            }
+            return batch.size();
+        } catch (Throwable t) {
+            if (!status.isCompleted()) {
+                transactionManager.rollback(status);
+            }
+            throw t;
+        }
+    }
+
+    public Stats stats() {
+        return new Stats(batches.sum(), published.sum(), failures.sum());
+    }
+
+    /**
+     * 后台线程最近一次失败的原因，没有失败过时为 null。
+     */
+    public Exception lastError() {
+        return lastError;
+    }
+
+    /**
+     * 停止后台线程。正在进行的一轮会被中断并回滚，事件留给下一次启动。
+     */
+    @Override
+    public synchronized void close() throws InterruptedException {
+        running = false;
+        if (worker != null) {
+            worker.interrupt();
+            worker.join();
+        }
+    }
+
+    private void delete(List<Outbox.Event> batch) {
+        StringJoiner placeholders = new StringJoiner(", ", "DELETE FROM outbox WHERE id IN (", ")");
+        Object[] ids = new Object[batch.size()];
+        for (int i = 0; i < ids.length; i++) {
+            placeholders.add("?");
+            ids[i] = batch.get(i).id();
+        }
+        int deleted = jdbc.update(placeholders.toString(), ids);
+        if (deleted != ids.length) {
+            // 行锁还在我们手里，删不掉说明有人绕过了锁，回滚让这批重新发布
+            throw new IllegalStateException("删除了 " + deleted + " 条，期望 " + ids.length + " 条");
+        }
+    }
+
+    private void pollLoop() {
+        while (running) {
+            try {
+                if (relayOnce() < config.batchSize()) {
+                    Thread.sleep(config.pollInterval());
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                failures.increment();
+                lastError = e;
+                try {
+                    Thread.sleep(config.pollInterval());
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+}
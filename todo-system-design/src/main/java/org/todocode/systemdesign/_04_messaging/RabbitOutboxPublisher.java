@@ -0,0 +1,104 @@
+package org.todocode.systemdesign._04_messaging;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * [TodoCode] 用 publisher confirms 批量发布 outbox 事件到 RabbitMQ
+ *
+ * <h3>背景:</h3>
+ * channel 开启 confirm 模式后，broker 把消息持久化 (写入持久化队列) 之后才回 ack。
+ * 这里整批 basicPublish 出去 (管道化，不等回复)，最后 waitForConfirmsOrDie 等这一批全部确认:
+ * 一批只有一次往返。任何一条被 nack 或超时都抛出异常，{@link OutboxRelay} 回滚整批。
+ *
+ * <h3>易错点:</h3>
+ * 1. 消息必须是持久化的 (deliveryMode=2)，队列也必须是 durable，否则 broker 重启后确认过的消息照样丢。
+ * 2. waitForConfirmsOrDie 失败时会关闭 channel，下一批要重新打开并重新开启 confirm 模式。
+ * 3. Channel 不是线程安全的: 每个中继线程用自己的 publisher。
+ * 4. 路由不到任何队列的消息 broker 也会 ack，relay 照样删掉 outbox 里的行，消息就悄悄丢了。
+ *    所以发布时带 mandatory=true: broker 对这样的消息先发 basic.return 再发 ack，
+ *    等到这一批全部确认时 ReturnListener 已经收到了所有退回，有退回就让整批失败，relay 回滚，行留给绑定补上之后。
+ *
+ * <h3>核心理解:</h3>
+ * confirm 是 broker 对"我已经接手这条消息"的承诺，拿到它之后才能删除 outbox 里的行。
+ */
+public class RabbitOutboxPublisher implements OutboxRelay.Publisher, AutoCloseable {
+
+    private final Connection connection;
+    private final String exchange;
+    private final Duration confirmTimeout;
+    private final Queue<String> returned = new ConcurrentLinkedQueue<>(); // 连接线程写入被退回的 messageId
+    private Channel channel;
+
+    /**
+     * 路由键是事件类型 (例如 order.created)，messageId 是 outbox 的 id，消费者用它去重。
+     */
+    public RabbitOutboxPublisher(Connection connection, String exchange, Duration confirmTimeout) {
+        this.connection = connection;
+        this.exchange = exchange;
+        this.confirmTimeout = confirmTimeout;
+    }
+
+    @Override
+    public void publish(List<Outbox.Event> batch) throws Exception {
+        Channel ch = channel();
+        returned.clear();
+        try {
+            for (Outbox.Event event : batch) {
+                AMQP.BasicProperties properties = new AMQP.BasicProperties.Builder()
+                        .messageId(Long.toString(event.id()))
+                        .type(event.eventType())
+                        .contentType("application/json")
+                        .deliveryMode(2)
+                        .headers(Map.of("aggregate_type", event.aggregateType(),
+                                "aggregate_id", event.aggregateId()))
+                        .build();
+                ch.basicPublish(exchange, event.eventType(), true, properties,
+                        event.payload().getBytes(StandardCharsets.UTF_8));
+            }
+            ch.waitForConfirmsOrDie(confirmTimeout.toMillis());
+        } catch (Exception e) {
+            closeChannel();
+            throw e;
+        }
+        if (!returned.isEmpty()) {
+            throw new IOException(returned.size() + " 条消息在交换机 " + exchange
+                    + " 上路由不到任何队列 (messageId " + returned + ")，整批回滚");
+        }
+    }
+
+    @Override
+    public void close() {
+        closeChannel();
+    }
+
+    private Channel channel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            channel = connection.createChannel();
+            channel.confirmSelect();
+            channel.addReturnListener((replyCode, replyText, exchange, routingKey, properties, body) ->
+                    returned.add(properties.getMessageId()));
+        }
+        return channel;
+    }
+
+    private void closeChannel() {
+        if (channel != null && channel.isOpen()) {
+            try {
+                channel.abort();
+            } catch (IOException ignored) {
+                // channel 已经不可用，abort 失败也没有影响
+            }
+        }
+        channel = null;
+    }
+}
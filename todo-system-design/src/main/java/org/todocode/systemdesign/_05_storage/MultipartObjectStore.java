@@ -0,0 +1,387 @@
+package org.todocode.systemdesign._05_storage;
+
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * [TodoCode] 流式分片上传与并行分段下载 (S3 / MinIO)
+ *
+ * <h3>背景:</h3>
+ * 导出文件先拼成 byte[] 再上传，文件多大堆就要多大，几个 GB 的导出直接 OOM。
+ * 这里把数据流过固定数量、固定大小、可复用的直接内存 ByteBuffer:
+ * - 上传: 从 ReadableByteChannel 读满一个缓冲区就作为一个分片 (UploadPart) 交给虚拟线程上传，
+ *   同时读下一个分片；缓冲区用完时读取方阻塞，直到有分片上传完归还缓冲区
+ * - 下载: HEAD 拿到大小后按分片大小切成 Range 请求并行下载，每段读进缓冲区后按偏移写入 FileChannel
+ * 整个 store 最多只有 parallelism + 1 个缓冲区，内存占用与文件大小无关。
+ *
+ * <h3>易错点:</h3>
+ * 1. S3 要求除最后一个分片外每片至少 5 MiB，最多 10000 片: 分片大小决定了能上传的最大对象。
+ * 2. 不到一个分片的小对象直接 PUT，不走分片上传 (分片上传至少要一片，还多两次往返)。
+ * 3. 失败时必须 AbortMultipartUpload，否则已上传的分片一直占着存储空间 (并且照样计费)。
+ *    中止前要等在途的分片结束，它们持有的缓冲区才会归还。
+ *    分片失败后要尽早发现: 读取循环每拿到一个缓冲区就检查有没有分片失败，
+ *    而不是把剩下的几 GB 读完、传完，到最后等待结果时才知道。
+ * 4. 请求体用 ContentStreamProvider 每次从缓冲区的副本 (duplicate) 重新读，SDK 重试时不需要重新生成数据，也不复制到堆上。
+ * 5. 分段下载时用 If-Match 绑定 HEAD 拿到的 ETag: 下载过程中对象被覆盖，各段就可能来自不同版本。
+ * 6. FileChannel 的定位写 (write(buffer, position)) 不移动文件指针，多个线程写不同区间是安全的。
+ * 7. HTTP 客户端的连接池要不小于 parallelism，否则并行度被连接池卡住。
+ *
+ * <h3>核心理解:</h3>
+ * 流式处理的内存上限是"在途数据量"，而不是"数据总量": 这里是 (parallelism + 1) × partSize。
+ *
+ * TODO: 上传中途进程崩溃，怎样利用 ListParts 从已上传的分片续传？
+ */
+public class MultipartObjectStore implements AutoCloseable {
+
+    /**
+     * S3 分片的最小大小 (最后一片除外)。
+     */
+    public static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+
+    private static final int MAX_PARTS = 10_000;
+
+    /**
+     * @param partSize    分片大小，也是每个缓冲区的大小
+     * @param parallelism 同时上传或下载的分片数
+     */
+    public record Config(int partSize, int parallelism) {
+        public Config {
+            if (partSize < MIN_PART_SIZE || parallelism <= 0) {
+                throw new IllegalArgumentException("partSize 至少 " + MIN_PART_SIZE + " 字节，parallelism 必须大于 0");
+            }
+        }
+
+        public static Config defaults() {
+            return new Config(8 * 1024 * 1024, 4);
+        }
+
+        /**
+         * 缓冲区占用的直接内存上限。
+         */
+        public long maxBufferedBytes() {
+            return (long) partSize * (parallelism + 1);
+        }
+    }
+
+    /**
+     * @param parts 分片数，直接 PUT 的小对象为 0
+     */
+    public record UploadResult(String eTag, long size, int parts) {
+    }
+
+    private final S3Client s3;
+    private final Config config;
+    private final BlockingQueue<ByteBuffer> idle = new LinkedBlockingQueue<>();
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private int allocated; // 由 this 的锁保护
+
+    public MultipartObjectStore(S3Client s3, Config config) {
+        this.s3 = s3;
+        this.config = config;
+    }
+
+    public UploadResult upload(String bucket, String key, InputStream source) throws IOException, InterruptedException {
+        return upload(bucket, key, Channels.newChannel(source));
+    }
+
+    /**
+     * 把 source 读到结束，作为一个对象上传。失败时中止分片上传，不留下残余分片。
+     */
+    public UploadResult upload(String bucket, String key, ReadableByteChannel source)
+            throws IOException, InterruptedException {
+        ByteBuffer held = acquire();
+        boolean eof;
+        try {
+            eof = fill(source, held);
+        } catch (Throwable t) {
+            release(held);
+            throw t;
+        }
+        if (eof) {
+            try {
+                held.flip();
+                long size = held.remaining();
+                String eTag = s3.putObject(PutObjectRequest.builder().bucket(bucket).key(key).contentLength(size).build(),
+                        body(held)).eTag();
+                return new UploadResult(eTag, size, 0);
+            } finally {
+                release(held);
+            }
+        }
+
+        String uploadId = s3.createMultipartUpload(b -> b.bucket(bucket).key(key)).uploadId();
+        List<Future<CompletedPart>> parts = new ArrayList<>();
+        AtomicReference<Throwable> failed = new AtomicReference<>();
+        long size = 0;
+        try {
+            while (true) {
+                if (parts.size() == MAX_PARTS) {
+                    throw new IllegalArgumentException("超过 " + MAX_PARTS + " 个分片，请增大 partSize");
+                }
+                held.flip();
+                size += held.remaining();
+                parts.add(uploadPart(bucket, key, uploadId, parts.size() + 1, held, failed));
+                held = null;
+                if (eof) {
+                    break;
+                }
+                held = acquire();
+                // 失败的分片先记下错误再归还缓冲区，所以拿到它归还的缓冲区时一定能看到错误
+                if (failed.get() != null) {
+                    throw failure(failed.get());
+                }
+                eof = fill(source, held);
+                if (eof && held.position() == 0) {
+                    break; // 数据正好是分片大小的整数倍，没有空的最后一片
+                }
+            }
+            List<CompletedPart> completed = new ArrayList<>(parts.size());
+            for (Future<CompletedPart> part : parts) {
+                completed.add(await(part));
+            }
+            String eTag = s3.completeMultipartUpload(b -> b.bucket(bucket).key(key).uploadId(uploadId)
+                    .multipartUpload(m -> m.parts(completed))).eTag();
+            return new UploadResult(eTag, size, completed.size());
+        } catch (Throwable t) {
+            quietlyAwaitAll(parts);
+            try {
+                s3.abortMultipartUpload(b -> b.bucket(bucket).key(key).uploadId(uploadId));
+            } catch (RuntimeException abort) {
+                t.addSuppressed(abort);
+            }
+            throw t;
+        } finally {
+            if (held != null) {
+                release(held);
+            }
+        }
+    }
+
+    /**
+     * 并行分段下载到 target，返回对象大小。target 比对象长时会被截断。
+     */
+    public long download(String bucket, String key, FileChannel target) throws IOException, InterruptedException {
+        HeadObjectResponse head = s3.headObject(b -> b.bucket(bucket).key(key));
+        long size = head.contentLength();
+        if (target.size() > size) {
+            target.truncate(size);
+        }
+        List<Future<Void>> ranges = new ArrayList<>();
+        try {
+            for (long start = 0; start < size; start += config.partSize()) {
+                long from = start;
+                long to = Math.min(size, start + config.partSize()) - 1;
+                ByteBuffer buffer = acquire(); // 缓冲区用完时在这里等，在途的分段数因此有上限
+                ranges.add(executor.submit(() -> {
+                    try {
+                        downloadRange(bucket, key, head.eTag(), from, to, buffer, target);
+                        return null;
+                    } finally {
+                        release(buffer);
+                    }
+                }));
+            }
+            for (Future<Void> range : ranges) {
+                await(range);
+            }
+            return size;
+        } catch (Throwable t) {
+            quietlyAwaitAll(ranges);
+            throw t;
+        }
+    }
+
+    /**
+     * 到目前为止分配过的缓冲区个数，不会超过 parallelism + 1。
+     */
+    public synchronized int allocatedBuffers() {
+        return allocated;
+    }
+
+    public Config config() {
+        return config;
+    }
+
+    /**
+     * 等待在途的分片结束。S3Client 由调用方关闭。
+     */
+    @Override
+    public void close() {
+        executor.close();
+    }
+
+    private Future<CompletedPart> uploadPart(String bucket, String key, String uploadId, int partNumber,
+                                             ByteBuffer buffer, AtomicReference<Throwable> failed) {
+        return executor.submit(() -> {
+            try {
+                UploadPartRequest request = UploadPartRequest.builder().bucket(bucket).key(key).uploadId(uploadId)
+                        .partNumber(partNumber).contentLength((long) buffer.remaining()).build();
+                String eTag = s3.uploadPart(request, body(buffer)).eTag();
+                return CompletedPart.builder().partNumber(partNumber).eTag(eTag).build();
+            } catch (Throwable t) {
+                failed.compareAndSet(null, t);
+                throw t;
+            } finally {
+                release(buffer);
+            }
+        });
+    }
+
+    private void downloadRange(String bucket, String key, String eTag, long from, long to, ByteBuffer buffer,
+                               FileChannel target) throws IOException {
+        GetObjectRequest request = GetObjectRequest.builder().bucket(bucket).key(key)
+                .range("bytes=" + from + "-" + to).ifMatch(eTag).build();
+        buffer.clear().limit((int) (to - from + 1));
+        try (ResponseInputStream<GetObjectResponse> in = s3.getObject(request);
+             ReadableByteChannel channel = Channels.newChannel(in)) {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException("分段 " + from + "-" + to + " 提前结束，只读到 " + buffer.position() + " 字节");
+                }
+            }
+        }
+        buffer.flip();
+        long position = from;
+        while (buffer.hasRemaining()) {
+            position += target.write(buffer, position);
+        }
+    }
+
+    /**
+     * 请求体: 每次 (包括 SDK 重试) 都从缓冲区的一个新视图开始读，不复制数据。
+     */
+    private static RequestBody body(ByteBuffer buffer) {
+        ByteBuffer content = buffer.asReadOnlyBuffer();
+        return RequestBody.fromContentProvider(() -> new ByteBufferInputStream(content.duplicate()),
+                content.remaining(), "application/octet-stream");
+    }
+
+    /**
+     * 读满 buffer 或读到结束。返回 true 表示 source 已经结束。
+     */
+    private static boolean fill(ReadableByteChannel source, ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            if (source.read(buffer) < 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private ByteBuffer acquire() throws InterruptedException {
+        ByteBuffer buffer = idle.poll();
+        if (buffer != null) {
+            return buffer;
+        }
+        synchronized (this) {
+            if (allocated < config.parallelism() + 1) {
+                allocated++;
+                return ByteBuffer.allocateDirect(config.partSize());
+            }
+        }
+        return idle.take();
+    }
+
+    private void release(ByteBuffer buffer) {
+        buffer.clear();
+        idle.add(buffer);
+    }
+
+    private static <T> T await(Future<T> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw failure(e.getCause());
+        }
+    }
+
+    /**
+     * 把后台任务的失败转换成调用方线程抛出的异常: IOException 和 RuntimeException 原样抛出。
+     */
+    private static IOException failure(Throwable cause) {
+        if (cause instanceof IOException io) {
+            return io;
+        }
+        if (cause instanceof RuntimeException runtime) {
+            throw runtime;
+        }
+        return new IOException(cause);
+    }
+
+    private static void quietlyAwaitAll(List<? extends Future<?>> futures) {
+        boolean interrupted = false;
+        for (Future<?> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (ExecutionException e) {
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true; // 必须等到分片结束，缓冲区才会归还
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * ByteBuffer 上的 InputStream，直接内存的数据由 HTTP 客户端按需读出。
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
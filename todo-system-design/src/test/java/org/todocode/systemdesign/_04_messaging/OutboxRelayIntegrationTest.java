@@ -0,0 +1,189 @@
+package org.todocode.systemdesign._04_messaging;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.testcontainers.containers.MySQLContainer;
+import org.testcontainers.containers.RabbitMQContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.MountableFile;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * [TodoCode] outbox 中继集成测试: 真实的 MySQL 8 和 RabbitMQ，比较不同批大小和中继数下每秒中继的事件数
+ *
+ * MySQL 用 docker/mysql/init/01-init.sql 初始化，与 docker-compose 的表结构一致。没有 Docker 时跳过。
+ * 吞吐量不论断言成败都通过 TestReporter 发布，surefire 会把它写进 target/surefire-reports 下本测试的输出文件。
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class OutboxRelayIntegrationTest {
+
+    private static final String EXCHANGE = "orders";
+    private static final String QUEUE = "order-events";
+
+    @Container
+    static final MySQLContainer<?> MYSQL = new MySQLContainer<>("mysql:8.0")
+            .withDatabaseName("todocode")
+            .withUsername("todocode")
+            .withPassword("todocode123")
+            .withCopyFileToContainer(MountableFile.forHostPath("../docker/mysql/init/01-init.sql"),
+                    "/docker-entrypoint-initdb.d/01-init.sql");
+
+    @Container
+    static final RabbitMQContainer RABBIT = new RabbitMQContainer("rabbitmq:3-management-alpine");
+
+    private HikariDataSource dataSource;
+    private JdbcTemplate jdbc;
+    private Connection connection;
+    private final Set<String> received = ConcurrentHashMap.newKeySet();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl(MYSQL.getJdbcUrl());
+        config.setUsername(MYSQL.getUsername());
+        config.setPassword(MYSQL.getPassword());
+        config.setMaximumPoolSize(8);
+        dataSource = new HikariDataSource(config);
+        jdbc = new JdbcTemplate(dataSource);
+        jdbc.update("DELETE FROM outbox");
+
+        ConnectionFactory factory = new ConnectionFactory();
+        factory.setUri(RABBIT.getAmqpUrl());
+        connection = factory.newConnection();
+        Channel consumer = connection.createChannel();
+        consumer.exchangeDeclare(EXCHANGE, "topic", true);
+        consumer.queueDeclare(QUEUE, true, false, false, null);
+        consumer.queueBind(QUEUE, EXCHANGE, "order.#");
+        consumer.queuePurge(QUEUE);
+        consumer.basicQos(1000);
+        consumer.basicConsume(QUEUE, true, new DefaultConsumer(consumer) {
+            @Override
+            public void handleDelivery(String tag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) {
+                received.add(properties.getMessageId()); // 按 messageId 去重
+            }
+        });
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        connection.close();
+        dataSource.close();
+    }
+
+    /**
+     * 预先写入 count 条事件，启动 relays 个中继，返回全部被消费者收到时的每秒事件数。
+     */
+    private double relay(int count, int relays, int batchSize) throws Exception {
+        TransactionTemplate tx = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        Outbox outbox = new Outbox(jdbc);
+        for (int from = 0; from < count; from += 5000) {
+            List<Outbox.Event> events = new ArrayList<>();
+            for (int i = from; i < Math.min(count, from + 5000); i++) {
+                events.add(new Outbox.Event("order", Integer.toString(i), OrderService.ORDER_CREATED,
+                        "{\"orderId\": " + i + "}"));
+            }
+            tx.executeWithoutResult(status -> outbox.appendAll(events));
+        }
+        received.clear();
+
+        List<OutboxRelay> started = new ArrayList<>();
+        List<RabbitOutboxPublisher> publishers = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int r = 0; r < relays; r++) {
+            RabbitOutboxPublisher publisher = new RabbitOutboxPublisher(connection, EXCHANGE, Duration.ofSeconds(10));
+            publishers.add(publisher);
+            started.add(new OutboxRelay("it-" + r, dataSource, publisher,
+                    new OutboxRelay.Config(batchSize, Duration.ofMillis(20))).start());
+        }
+        long deadline = start + TimeUnit.MINUTES.toNanos(3);
+        while (received.size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        for (OutboxRelay relay : started) {
+            relay.close();
+            assertNull(relay.lastError(), () -> relay.lastError().toString());
+        }
+        publishers.forEach(RabbitOutboxPublisher::close);
+
+        assertEquals(count, received.size(), relays + " 个中继、每批 " + batchSize + " 条，超时前收到的事件数");
+        assertEquals(0, jdbc.queryForObject("SELECT COUNT(*) FROM outbox", Integer.class));
+        return count / seconds;
+    }
+
+    @Test
+    @DisplayName("下单写入的事件应该经中继发布到 RabbitMQ，之后从 outbox 删除")
+    void testOrderEventDelivered() throws Exception {
+        OrderService orders = new OrderService(jdbc, new DataSourceTransactionManager(dataSource));
+        long orderId = orders.placeOrder(1, "IT-" + System.nanoTime(), new BigDecimal("99.90"));
+        long outboxId = jdbc.queryForObject("SELECT id FROM outbox", Long.class);
+
+        try (RabbitOutboxPublisher publisher = new RabbitOutboxPublisher(connection, EXCHANGE, Duration.ofSeconds(10))) {
+            OutboxRelay relay = new OutboxRelay("single", dataSource, publisher, OutboxRelay.Config.defaults());
+            assertEquals(1, relay.relayOnce());
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (received.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(Set.of(Long.toString(outboxId)), received);
+        assertEquals(0, jdbc.queryForObject("SELECT COUNT(*) FROM outbox", Integer.class));
+        assertTrue(orderId > 0);
+    }
+
+    @Test
+    @DisplayName("路由不到任何队列的事件不能被当作已发布: 整批回滚，行留在 outbox 里")
+    void testUnroutableEventKept() throws Exception {
+        new TransactionTemplate(new DataSourceTransactionManager(dataSource)).executeWithoutResult(status ->
+                new Outbox(jdbc).appendAll(List.of(
+                        new Outbox.Event("order", "1", OrderService.ORDER_CREATED, "{}"),
+                        new Outbox.Event("invoice", "1", "invoice.created", "{}"))));
+
+        try (RabbitOutboxPublisher publisher = new RabbitOutboxPublisher(connection, EXCHANGE, Duration.ofSeconds(10))) {
+            OutboxRelay relay = new OutboxRelay("unroutable", dataSource, publisher, OutboxRelay.Config.defaults());
+            assertThrows(IOException.class, relay::relayOnce);
+        }
+        assertEquals(2, jdbc.queryForObject("SELECT COUNT(*) FROM outbox", Integer.class));
+    }
+
+    @Test
+    @DisplayName("吞吐量: 整批等一次确认比逐条确认快得多，SKIP LOCKED 让多个中继并行")
+    void testThroughput(TestReporter reporter) throws Exception {
+        double perMessage = relay(2_000, 1, 1);
+        double batched = relay(50_000, 1, 500);
+        double parallel = relay(50_000, 2, 500);
+        reporter.publishEntry(Map.of(
+                "events/s 逐条确认", String.format("%.0f", perMessage),
+                "events/s 批量确认 (每批 500)", String.format("%.0f", batched),
+                "events/s 两个中继 (每批 500)", String.format("%.0f", parallel)));
+        String rates = String.format("逐条确认 %.0f，批量确认 %.0f，两个中继 %.0f events/s", perMessage, batched, parallel);
+        assertTrue(batched > perMessage * 5, rates);
+        assertTrue(parallel > 0, rates);
+    }
+}
@@ -0,0 +1,165 @@
+package org.todocode.systemdesign._04_messaging;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * [TodoCode] outbox 中继测试 (H2 的 MySQL 兼容模式，同样支持 FOR UPDATE SKIP LOCKED)
+ *
+ * 发布端用假的 Publisher 记录收到的批次；真实的 MySQL + RabbitMQ 见 OutboxRelayIntegrationTest。
+ */
+class OutboxRelayTest {
+
+    private HikariDataSource dataSource;
+    private JdbcTemplate jdbc;
+    private TransactionTemplate tx;
+
+    @BeforeEach
+    void setUp() {
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl("jdbc:h2:mem:outbox" + System.nanoTime() + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+        config.setMaximumPoolSize(4);
+        dataSource = new HikariDataSource(config);
+        jdbc = new JdbcTemplate(dataSource);
+        tx = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        jdbc.execute("""
+                CREATE TABLE orders (
+                    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+                    user_id BIGINT NOT NULL,
+                    order_number VARCHAR(50) NOT NULL UNIQUE,
+                    total_amount DECIMAL(10,2) NOT NULL,
+                    status VARCHAR(20) DEFAULT 'PENDING')""");
+        // H2 的 JSON 类型会把字符串参数存成 JSON 字符串字面量，这里用 VARCHAR
+        jdbc.execute("""
+                CREATE TABLE outbox (
+                    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+                    aggregate_type VARCHAR(50) NOT NULL,
+                    aggregate_id VARCHAR(50) NOT NULL,
+                    event_type VARCHAR(100) NOT NULL,
+                    payload VARCHAR(4000) NOT NULL,
+                    created_at TIMESTAMP(3) DEFAULT CURRENT_TIMESTAMP(3))""");
+    }
+
+    @AfterEach
+    void tearDown() {
+        dataSource.close();
+    }
+
+    private int outboxSize() {
+        return jdbc.queryForObject("SELECT COUNT(*) FROM outbox", Integer.class);
+    }
+
+    private void fill(int count) {
+        List<Outbox.Event> events = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            events.add(new Outbox.Event("order", Integer.toString(i), OrderService.ORDER_CREATED, "{\"n\": " + i + "}"));
+        }
+        tx.executeWithoutResult(status -> new Outbox(jdbc).appendAll(events));
+    }
+
+    @Test
+    @DisplayName("订单和事件在同一个事务里: 要么都写入，要么都回滚；事务外写 outbox 直接报错")
+    void testSameTransaction() {
+        OrderService orders = new OrderService(jdbc, new DataSourceTransactionManager(dataSource));
+        long id = orders.placeOrder(1, "NO-1", new BigDecimal("12.50"));
+        assertEquals(1, outboxSize());
+        assertEquals(Long.toString(id), jdbc.queryForObject("SELECT aggregate_id FROM outbox", String.class));
+        assertTrue(jdbc.queryForObject("SELECT payload FROM outbox", String.class).contains("\"orderNumber\":\"NO-1\""));
+
+        assertThrows(DuplicateKeyException.class, () -> orders.placeOrder(1, "NO-1", BigDecimal.ONE));
+        assertEquals(1, jdbc.queryForObject("SELECT COUNT(*) FROM orders", Integer.class));
+        assertEquals(1, outboxSize(), "订单写入失败时事件也不能留下");
+
+        assertThrows(IllegalStateException.class,
+                () -> new Outbox(jdbc).append(new Outbox.Event("order", "1", "order.created", "{}")));
+    }
+
+    @Test
+    @DisplayName("按 id 顺序整批发布后删除，发布失败时整批回滚、下一轮重发")
+    void testBatchesAndRollback() throws Exception {
+        fill(25);
+        List<List<Long>> batches = new ArrayList<>();
+        AtomicInteger failuresLeft = new AtomicInteger(1);
+        OutboxRelay relay = new OutboxRelay("test", dataSource, batch -> {
+            if (failuresLeft.getAndDecrement() > 0) {
+                throw new IOException("broker nack");
+            }
+            batches.add(batch.stream().map(Outbox.Event::id).toList());
+        }, new OutboxRelay.Config(10, Duration.ofMillis(10)));
+
+        assertThrows(IOException.class, relay::relayOnce);
+        assertEquals(25, outboxSize(), "失败的批次要留在表里");
+
+        assertEquals(10, relay.relayOnce());
+        assertEquals(10, relay.relayOnce());
+        assertEquals(5, relay.relayOnce());
+        assertEquals(0, relay.relayOnce());
+        assertEquals(0, outboxSize());
+
+        List<Long> ids = batches.stream().flatMap(List::stream).toList();
+        assertEquals(25, ids.size());
+        List<Long> sorted = new ArrayList<>(ids);
+        Collections.sort(sorted);
+        assertEquals(sorted, ids, "应该按 id 顺序发布");
+        assertEquals(new OutboxRelay.Stats(3, 25, 0), relay.stats());
+    }
+
+    @Test
+    @DisplayName("多个中继并行时 SKIP LOCKED 让它们分到不同的批次，不重复也不遗漏")
+    void testConcurrentRelays() throws Exception {
+        int count = 2000;
+        fill(count);
+        Set<Long> seen = Collections.synchronizedSet(new HashSet<>());
+        AtomicInteger duplicates = new AtomicInteger();
+        List<OutboxRelay> relays = new ArrayList<>();
+        List<AtomicInteger> perRelay = new ArrayList<>();
+        for (int r = 0; r < 3; r++) {
+            AtomicInteger mine = new AtomicInteger();
+            perRelay.add(mine);
+            relays.add(new OutboxRelay("r" + r, dataSource, batch -> {
+                Thread.sleep(5); // 模拟等待 broker 确认，让各个中继的事务互相重叠
+                for (Outbox.Event event : batch) {
+                    if (!seen.add(event.id())) {
+                        duplicates.incrementAndGet();
+                    }
+                }
+                mine.addAndGet(batch.size());
+            }, new OutboxRelay.Config(50, Duration.ofMillis(5))).start());
+        }
+
+        long deadline = System.nanoTime() + Duration.ofSeconds(30).toNanos();
+        while (seen.size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        for (OutboxRelay relay : relays) {
+            relay.close();
+            assertNull(relay.lastError(), () -> relay.lastError().toString());
+        }
+        assertEquals(count, seen.size());
+        assertEquals(0, duplicates.get());
+        assertEquals(0, outboxSize());
+        for (AtomicInteger mine : perRelay) {
+            assertTrue(mine.get() > 0, "每个中继都应该分到批次: " + perRelay);
+        }
+    }
+}
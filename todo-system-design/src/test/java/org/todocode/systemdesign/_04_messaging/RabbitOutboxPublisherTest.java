@@ -0,0 +1,107 @@
+package org.todocode.systemdesign._04_messaging;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ReturnListener;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * [TodoCode] RabbitMQ 发布端测试
+ *
+ * 用动态代理模拟 broker: 只有 order.* 的路由键有绑定，其余的 mandatory 消息先 basic.return 再 ack，
+ * 和真实 broker 的顺序一致。真实的 RabbitMQ 见 OutboxRelayIntegrationTest。
+ */
+class RabbitOutboxPublisherTest {
+
+    static final class FakeBroker implements InvocationHandler {
+        final List<Boolean> mandatory = new ArrayList<>();
+        ReturnListener listener;
+        int channels;
+        boolean open;
+
+        Connection connection() {
+            return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class},
+                    (proxy, method, args) -> {
+                        if (!method.getName().equals("createChannel")) {
+                            throw new UnsupportedOperationException(method.getName());
+                        }
+                        channels++;
+                        open = true;
+                        return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Channel.class}, this);
+                    });
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "confirmSelect", "waitForConfirmsOrDie" -> {
+                    return null;
+                }
+                case "addReturnListener" -> {
+                    listener = (ReturnListener) args[0];
+                    return null;
+                }
+                case "basicPublish" -> {
+                    String routingKey = (String) args[1];
+                    boolean flag = (Boolean) args[2];
+                    mandatory.add(flag);
+                    if (flag && !routingKey.startsWith("order.")) {
+                        listener.handleReturn(312, "NO_ROUTE", (String) args[0], routingKey,
+                                (AMQP.BasicProperties) args[3], (byte[]) args[4]);
+                    }
+                    return null;
+                }
+                case "isOpen" -> {
+                    return open;
+                }
+                case "abort" -> {
+                    open = false;
+                    return null;
+                }
+                default -> throw new UnsupportedOperationException(method.getName());
+            }
+        }
+    }
+
+    private static Outbox.Event event(long id, String type) {
+        return new Outbox.Event(id, "order", Long.toString(id), type, "{}");
+    }
+
+    @Test
+    @DisplayName("每条消息都带 mandatory 发布，全部路由成功时整批通过")
+    void testPublishMandatory() throws Exception {
+        FakeBroker broker = new FakeBroker();
+        try (RabbitOutboxPublisher publisher = new RabbitOutboxPublisher(broker.connection(), "orders",
+                Duration.ofSeconds(1))) {
+            publisher.publish(List.of(event(1, "order.created"), event(2, "order.paid")));
+        }
+        assertEquals(List.of(true, true), broker.mandatory);
+    }
+
+    @Test
+    @DisplayName("有消息被退回时整批失败 (relay 据此回滚)，下一批不受上一批的退回影响")
+    void testReturnedMessageFailsBatch() throws Exception {
+        FakeBroker broker = new FakeBroker();
+        try (RabbitOutboxPublisher publisher = new RabbitOutboxPublisher(broker.connection(), "orders",
+                Duration.ofSeconds(1))) {
+            IOException e = assertThrows(IOException.class,
+                    () -> publisher.publish(List.of(event(1, "order.created"), event(2, "invoice.created"))));
+            assertTrue(e.getMessage().contains("[2]"), e.getMessage());
+
+            publisher.publish(List.of(event(3, "order.created")));
+        }
+        assertEquals(1, broker.channels, "退回不是 channel 故障，不需要重建 channel");
+    }
+}
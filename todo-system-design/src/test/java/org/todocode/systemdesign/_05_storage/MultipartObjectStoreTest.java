@@ -0,0 +1,286 @@
+package org.todocode.systemdesign._05_storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+import org.junit.jupiter.api.io.TempDir;
+import org.testcontainers.containers.MinIOContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * [TodoCode] 分片上传与分段下载测试 (Testcontainers MinIO，没有 Docker 时跳过)
+ *
+ * 测试数据由确定性的生成器按需产生，不在内存里保存整个文件。
+ * 大文件测试的大小可以用 -Dtodocode.storage.largeSize=4294967296 调到几个 GB；
+ * 它在一个堆只有 {@link #CHILD_HEAP} 的子 JVM 里运行，SDK 要是把分片复制到堆上就会 OutOfMemoryError。
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class MultipartObjectStoreTest {
+
+    private static final String BUCKET = "exports";
+    private static final int MiB = 1024 * 1024;
+
+    /**
+     * 大文件测试子 JVM 的堆上限: 远小于文件，也小于在途分片的总大小 (parallelism × partSize = 64 MiB)。
+     */
+    static final String CHILD_HEAP = "-Xmx48m";
+
+    @Container
+    static final MinIOContainer MINIO = new MinIOContainer("minio/minio:RELEASE.2024-01-16T16-07-38Z");
+
+    private S3Client s3;
+
+    static S3Client client(String url, String user, String password) {
+        return S3Client.builder()
+                .endpointOverride(URI.create(url))
+                .region(Region.US_EAST_1)
+                .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create(user, password)))
+                .forcePathStyle(true)
+                .httpClientBuilder(ApacheHttpClient.builder().maxConnections(16))
+                .build();
+    }
+
+    @BeforeEach
+    void setUp() {
+        s3 = client(MINIO.getS3URL(), MINIO.getUserName(), MINIO.getPassword());
+        if (!s3.listBuckets().buckets().stream().anyMatch(b -> b.name().equals(BUCKET))) {
+            s3.createBucket(b -> b.bucket(BUCKET));
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        s3.close();
+    }
+
+    /**
+     * 按需生成 size 个伪随机字节，同时计算 SHA-256；failAt 之后抛出 IOException (负数表示不失败)。
+     */
+    static final class GeneratedChannel implements ReadableByteChannel {
+        private final long size;
+        private final long failAt;
+        private final MessageDigest digest = sha256();
+        private long position;
+        private long state = 0x9E3779B97F4A7C15L;
+
+        GeneratedChannel(long size, long failAt) {
+            this.size = size;
+            this.failAt = failAt;
+        }
+
+        @Override
+        public int read(ByteBuffer target) throws IOException {
+            if (position >= size) {
+                return -1;
+            }
+            if (failAt >= 0 && position >= failAt) {
+                throw new IOException("数据源在 " + position + " 字节处出错");
+            }
+            int n = (int) Math.min(target.remaining(), Math.min(size - position, 64 * 1024));
+            ByteBuffer chunk = target.slice(target.position(), n);
+            while (chunk.remaining() >= 8) {
+                state ^= state << 13;
+                state ^= state >>> 7;
+                state ^= state << 17;
+                chunk.putLong(state);
+            }
+            while (chunk.hasRemaining()) {
+                chunk.put((byte) (state >>>= 8));
+            }
+            digest.update(target.slice(target.position(), n));
+            target.position(target.position() + n);
+            position += n;
+            return n;
+        }
+
+        long position() {
+            return position;
+        }
+
+        String sha256Hex() {
+            return HexFormat.of().formatHex(digest.digest());
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String sha256(FileChannel file) throws IOException {
+        MessageDigest digest = sha256();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(MiB);
+        long position = 0;
+        int n;
+        while ((n = file.read(buffer.clear(), position)) > 0) {
+            digest.update(buffer.flip());
+            position += n;
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static long directMemoryUsed() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) {
+                return pool.getMemoryUsed();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 上传 size 字节，再分段下载到 dir 下的文件，比较 SHA-256。
+     */
+    private void roundTrip(MultipartObjectStore store, String key, long size, Path dir, int expectedParts)
+            throws Exception {
+        GeneratedChannel source = new GeneratedChannel(size, -1);
+        MultipartObjectStore.UploadResult result = store.upload(BUCKET, key, source);
+        assertEquals(size, result.size());
+        assertEquals(expectedParts, result.parts());
+        assertEquals(size, s3.headObject(b -> b.bucket(BUCKET).key(key)).contentLength());
+
+        try (FileChannel file = FileChannel.open(dir.resolve(key), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            assertEquals(size, store.download(BUCKET, key, file));
+            assertEquals(size, file.size());
+            assertEquals(source.sha256Hex(), sha256(file));
+        }
+    }
+
+    @Test
+    @DisplayName("小于一个分片的对象直接 PUT，大对象按分片上传，分段下载后内容一致")
+    void testRoundTrip(@TempDir Path dir) throws Exception {
+        try (MultipartObjectStore store = new MultipartObjectStore(s3, new MultipartObjectStore.Config(5 * MiB, 3))) {
+            roundTrip(store, "empty.bin", 0, dir, 0);
+            roundTrip(store, "small.bin", 12345, dir, 0);
+            roundTrip(store, "exact.bin", 10L * MiB, dir, 2); // 正好两片，没有空的第三片
+            roundTrip(store, "large.bin", 42L * MiB + 7, dir, 9);
+            assertTrue(store.allocatedBuffers() <= 4, "缓冲区个数: " + store.allocatedBuffers());
+        }
+    }
+
+    @Test
+    @DisplayName("数据源中途出错时中止分片上传，不留下对象和残余分片")
+    void testAbortOnFailure() {
+        try (MultipartObjectStore store = new MultipartObjectStore(s3, new MultipartObjectStore.Config(5 * MiB, 2))) {
+            IOException e = assertThrows(IOException.class,
+                    () -> store.upload(BUCKET, "broken.bin", new GeneratedChannel(40L * MiB, 17L * MiB)));
+            assertTrue(e.getMessage().contains("数据源"), e.getMessage());
+        }
+        assertThrows(NoSuchKeyException.class, () -> s3.headObject(b -> b.bucket(BUCKET).key("broken.bin")));
+        assertTrue(s3.listMultipartUploads(b -> b.bucket(BUCKET).prefix("broken.bin")).uploads().isEmpty(),
+                "分片上传应该已经中止");
+    }
+
+    @Test
+    @DisplayName("大文件的内存占用不随文件大小增长: 小堆的子 JVM 里也能上传下载，直接内存不超过 (parallelism + 1) × partSize")
+    void testFlatMemory(@TempDir Path dir, TestReporter reporter) throws Exception {
+        long size = Long.getLong("todocode.storage.largeSize", 512L * MiB);
+        Path log = dir.resolve("child.log");
+        Process child = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "--enable-preview", CHILD_HEAP, "-XX:MaxDirectMemorySize=256m",
+                "-cp", System.getProperty("java.class.path"),
+                FlatMemoryRoundTrip.class.getName(),
+                MINIO.getS3URL(), MINIO.getUserName(), MINIO.getPassword(), Long.toString(size), dir.toString())
+                .redirectErrorStream(true)
+                .redirectOutput(log.toFile())
+                .start();
+        if (!child.waitFor(10, TimeUnit.MINUTES)) {
+            child.destroyForcibly();
+            fail("子 JVM 十分钟内没有结束");
+        }
+        String output = Files.readString(log);
+        assertEquals(0, child.exitValue(), output);
+        reporter.publishEntry("flatMemory", output.strip());
+    }
+
+    /**
+     * testFlatMemory 的子 JVM: 参数为 MinIO 地址、用户名、密码、文件大小和临时目录。
+     * 内容不一致或直接内存超出上限时以非 0 退出，OutOfMemoryError 同样导致非 0 退出。
+     */
+    static final class FlatMemoryRoundTrip {
+        public static void main(String[] args) throws Exception {
+            long size = Long.parseLong(args[3]);
+            Path file = Path.of(args[4]).resolve("huge.bin");
+            MultipartObjectStore.Config config = new MultipartObjectStore.Config(16 * MiB, 4);
+            long baseline = directMemoryUsed();
+            long[] peak = {baseline};
+            Thread sampler = Thread.ofPlatform().daemon().start(() -> {
+                while (!Thread.currentThread().isInterrupted()) {
+                    peak[0] = Math.max(peak[0], directMemoryUsed());
+                    try {
+                        Thread.sleep(10);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            });
+            long start = System.nanoTime();
+            GeneratedChannel source = new GeneratedChannel(size, -1);
+            String downloaded;
+            try (S3Client s3 = client(args[0], args[1], args[2]);
+                 MultipartObjectStore store = new MultipartObjectStore(s3, config);
+                 FileChannel target = FileChannel.open(file, StandardOpenOption.CREATE,
+                         StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                store.upload(BUCKET, "huge.bin", source);
+                store.download(BUCKET, "huge.bin", target);
+                downloaded = sha256(target);
+            } finally {
+                sampler.interrupt();
+                sampler.join();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            long growth = peak[0] - baseline;
+            System.out.printf("%d MiB 上传并下载 %.1f s (%.0f MiB/s)，堆上限 %d MiB，直接内存峰值增长 %d MiB，上限 %d MiB%n",
+                    size / MiB, seconds, 2.0 * size / MiB / seconds, Runtime.getRuntime().maxMemory() / MiB,
+                    growth / MiB, config.maxBufferedBytes() / MiB);
+            if (!downloaded.equals(source.sha256Hex())) {
+                System.out.println("下载内容与上传内容不一致");
+                System.exit(1);
+            }
+            // 留一点余量给 JDK 套接字 I/O 的临时直接缓冲区
+            if (growth > config.maxBufferedBytes() + 16L * MiB) {
+                System.out.println("直接内存超出上限");
+                System.exit(1);
+            }
+        }
+    }
+}
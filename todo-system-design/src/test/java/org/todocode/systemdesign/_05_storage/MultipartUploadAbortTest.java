@@ -0,0 +1,78 @@
+package org.todocode.systemdesign._05_storage;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * [TodoCode] 分片上传失败时提前中止的测试
+ *
+ * 不需要 Docker: 用一个只实现分片上传几个接口的 S3Client，第 2 片上传失败，其余分片正常。
+ */
+class MultipartUploadAbortTest {
+
+    private static final int MiB = 1024 * 1024;
+
+    static final class FailingS3 implements S3Client {
+        final AtomicInteger uploaded = new AtomicInteger();
+        final AtomicInteger aborted = new AtomicInteger();
+
+        @Override
+        public CreateMultipartUploadResponse createMultipartUpload(CreateMultipartUploadRequest request) {
+            return CreateMultipartUploadResponse.builder().uploadId("upload-1").build();
+        }
+
+        @Override
+        public UploadPartResponse uploadPart(UploadPartRequest request, RequestBody body) {
+            if (request.partNumber() == 2) {
+                throw SdkClientException.create("连接被重置");
+            }
+            uploaded.incrementAndGet();
+            return UploadPartResponse.builder().eTag("etag-" + request.partNumber()).build();
+        }
+
+        @Override
+        public AbortMultipartUploadResponse abortMultipartUpload(AbortMultipartUploadRequest request) {
+            assertEquals("upload-1", request.uploadId());
+            aborted.incrementAndGet();
+            return AbortMultipartUploadResponse.builder().build();
+        }
+
+        @Override
+        public String serviceName() {
+            return SERVICE_NAME;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    @DisplayName("一个分片失败后，读取循环在下一次拿缓冲区时就停下并中止上传，不把剩下的数据读完")
+    void testAbortEarlyOnPartFailure() {
+        FailingS3 s3 = new FailingS3();
+        MultipartObjectStore.Config config = new MultipartObjectStore.Config(5 * MiB, 2);
+        MultipartObjectStoreTest.GeneratedChannel source = new MultipartObjectStoreTest.GeneratedChannel(1000L * 5 * MiB, -1);
+        try (MultipartObjectStore store = new MultipartObjectStore(s3, config)) {
+            SdkClientException e = assertThrows(SdkClientException.class, () -> store.upload("exports", "big.bin", source));
+            assertTrue(e.getMessage().contains("连接被重置"), e.getMessage());
+        }
+        assertEquals(1, s3.aborted.get());
+        // 第 2 片失败时最多还有 parallelism + 1 个缓冲区在途，之后至多再读一片
+        long parts = source.position() / config.partSize();
+        assertTrue(parts <= config.parallelism() + 3, "失败后还读了 " + parts + " 个分片");
+    }
+}